@@ -0,0 +1,192 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import static com.mixblendr.util.Debug.*;
+
+/**
+ * Controller for the adaptive latency mode of AudioOutput. For every slice
+ * written to the audio device, it is fed with the fill level of the audio
+ * device at the time the slice was ready, and the time it took to render the
+ * slice. On underruns, the buffer size is grown immediately. If playback ran
+ * stable with enough margin for a while, the buffer size is shrunk. The slice
+ * size follows the buffer size.
+ *
+ * @author Florian Bomers
+ */
+class AdaptiveLatency {
+
+	private static final boolean DEBUG = false;
+
+	/** the minimum buffer size in milliseconds */
+	static final double MIN_BUFFER_MILLIS = 20;
+
+	/** the maximum buffer size in milliseconds */
+	static final double MAX_BUFFER_MILLIS = 200;
+
+	/** the minimum slice size in milliseconds */
+	static final double MIN_SLICE_MILLIS = 5;
+
+	/** the maximum slice size in milliseconds */
+	static final double MAX_SLICE_MILLIS = 20;
+
+	/**
+	 * @param sampleRate the sample rate
+	 * @return the maximum slice size in samples
+	 */
+	static int getMaxSliceSamples(double sampleRate) {
+		return (int) Math.ceil(MAX_SLICE_MILLIS * sampleRate / 1000.0);
+	}
+
+	/** the number of slices per buffer */
+	private static final double SLICES_PER_BUFFER = 4;
+
+	/** the factor to grow the buffer after an underrun */
+	private static final double GROW_FACTOR = 1.5;
+
+	/** the factor to shrink the buffer after stable playback */
+	private static final double SHRINK_FACTOR = 0.8;
+
+	/**
+	 * if the fill level of the device is below this number of slices when a
+	 * new slice is ready, it's regarded as an underrun
+	 */
+	private static final double UNDERRUN_SLICES = 0.5;
+
+	/**
+	 * only shrink if the minimum fill level during the stable period was above
+	 * this number of slices
+	 */
+	private static final double SHRINK_MARGIN_SLICES = 2;
+
+	/**
+	 * if rendering a slice takes longer than this portion of the slice
+	 * duration, the buffer is not shrunk
+	 */
+	private static final double MAX_RENDER_LOAD = 0.7;
+
+	/** the time of stable playback before shrinking the buffer */
+	private static final double STABLE_MILLIS = 10000;
+
+	/** returned by update() if the buffer size changed */
+	static final int BUFFER_CHANGED = 1;
+
+	/** returned by update() if the slice size changed */
+	static final int SLICE_CHANGED = 2;
+
+	private double bufferMillis;
+
+	private double sliceMillis;
+
+	/** the duration of stable playback since the last change */
+	private double stableMillis;
+
+	/** the minimum fill level during the stable period */
+	private double minFillMillis;
+
+	/**
+	 * the duration of audio written since start or since growing the buffer:
+	 * underruns are only detected once a full buffer was written
+	 */
+	private double primedMillis;
+
+	/** total number of underruns since reset() */
+	private int underrunCount;
+
+	/**
+	 * Reset the controller to the given buffer and slice size, e.g. when
+	 * playback starts.
+	 */
+	void reset(double bufferMillis, double sliceMillis) {
+		this.bufferMillis = bufferMillis;
+		this.sliceMillis = sliceMillis;
+		resetStable();
+		underrunCount = 0;
+		primedMillis = 0;
+	}
+
+	private void resetStable() {
+		stableMillis = 0;
+		minFillMillis = bufferMillis;
+	}
+
+	/** @return the current buffer size in milliseconds */
+	double getBufferMillis() {
+		return bufferMillis;
+	}
+
+	/** @return the current slice size in milliseconds */
+	double getSliceMillis() {
+		return sliceMillis;
+	}
+
+	/** @return the number of underruns since the last reset() */
+	int getUnderrunCount() {
+		return underrunCount;
+	}
+
+	/**
+	 * Feed the measurements of a slice to the controller.
+	 *
+	 * @param fillMillis the fill level of the audio device when the slice was
+	 *            ready for writing
+	 * @param renderMillis the time used for rendering the slice
+	 * @return a combination of BUFFER_CHANGED and SLICE_CHANGED, or 0 if
+	 *         nothing changed
+	 */
+	int update(double fillMillis, double renderMillis) {
+		if (primedMillis < bufferMillis) {
+			// the device buffer is still being filled
+			primedMillis += sliceMillis;
+			return 0;
+		}
+		double newBufferMillis = bufferMillis;
+		if (fillMillis < sliceMillis * UNDERRUN_SLICES) {
+			underrunCount++;
+			newBufferMillis = bufferMillis * GROW_FACTOR;
+			primedMillis = 0;
+			resetStable();
+		} else if (renderMillis > sliceMillis * MAX_RENDER_LOAD) {
+			// not enough margin to shrink
+			resetStable();
+		} else {
+			stableMillis += sliceMillis;
+			if (fillMillis < minFillMillis) {
+				minFillMillis = fillMillis;
+			}
+			if (stableMillis >= STABLE_MILLIS) {
+				if (minFillMillis > sliceMillis * SHRINK_MARGIN_SLICES) {
+					newBufferMillis = bufferMillis * SHRINK_FACTOR;
+				}
+				resetStable();
+			}
+		}
+		if (newBufferMillis < MIN_BUFFER_MILLIS) {
+			newBufferMillis = MIN_BUFFER_MILLIS;
+		} else if (newBufferMillis > MAX_BUFFER_MILLIS) {
+			newBufferMillis = MAX_BUFFER_MILLIS;
+		}
+		int ret = 0;
+		if (newBufferMillis != bufferMillis) {
+			bufferMillis = newBufferMillis;
+			ret |= BUFFER_CHANGED;
+			// slice size in full milliseconds
+			double newSliceMillis = Math.round(bufferMillis / SLICES_PER_BUFFER);
+			if (newSliceMillis < MIN_SLICE_MILLIS) {
+				newSliceMillis = MIN_SLICE_MILLIS;
+			} else if (newSliceMillis > MAX_SLICE_MILLIS) {
+				newSliceMillis = MAX_SLICE_MILLIS;
+			}
+			if (newSliceMillis != sliceMillis) {
+				sliceMillis = newSliceMillis;
+				ret |= SLICE_CHANGED;
+			}
+			if (DEBUG) {
+				debug("AdaptiveLatency: buffer=" + bufferMillis + "ms slice="
+						+ sliceMillis + "ms underruns=" + underrunCount);
+			}
+		}
+		return ret;
+	}
+}
@@ -25,6 +25,18 @@ public interface AudioEffect {
 	 */
 	public void exit();
 
+	/**
+	 * @return the ID of this effect in its track, or 0 if not assigned. The
+	 *         ID identifies the target of automation objects.
+	 */
+	public int getID();
+
+	/**
+	 * Set the ID of this effect. Called by the track when adding this effect,
+	 * or when importing it from XML.
+	 */
+	public void setID(int id);
+
 	/** the short name that appears in the main GUI */
 	public String getShortName();
 
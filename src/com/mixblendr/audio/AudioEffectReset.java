@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * Optional interface for audio effects with a processing state, e.g. delay
+ * lines, filter histories, or envelopes, which carries the audio processed
+ * so far into the following slices. After rendering a track offline, e.g.
+ * when freezing it, the track calls reset() on its effects, so that playback
+ * does not continue with the state left from the end of the offline
+ * rendering. Effects not implementing this interface keep their state.
+ * <p>
+ * reset() is called while playback is stopped and cannot be started, so it
+ * can change the effect's processing state without synchronization.
+ *
+ * @author Florian Bomers
+ */
+public interface AudioEffectReset {
+
+	/**
+	 * Discard the processing state, so that the next call to process()
+	 * starts like after initialization, but with the current parameters.
+	 */
+	public void reset();
+}
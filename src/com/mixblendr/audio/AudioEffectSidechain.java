@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * Optional interface for audio effects which use the output of another track
+ * as control signal, e.g. a compressor ducking a track whenever another track
+ * plays. AudioMixer renders the source track before the track of this effect,
+ * and keeps the source's post-fader output for the effect, see
+ * AudioTrack.getSidechainOutput().
+ * <p>
+ * Effects must call AudioTrack.sidechainChanged() on their track when the
+ * source changes, so that the mixer updates the order in which the tracks
+ * are rendered. If the sources form a cycle, the mixer cannot render all
+ * sources first: then some effects do not get their sidechain input, and
+ * treat it as silence.
+ *
+ * @author Florian Bomers
+ */
+public interface AudioEffectSidechain {
+
+	/**
+	 * @return the track whose output this effect uses as control signal, or
+	 *         null if the effect uses its own input
+	 */
+	public AudioTrack getSidechainSource();
+}
@@ -0,0 +1,34 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * Optional interface for audio effects with a tail, e.g. delays with
+ * feedback, which continue to produce output after the input became silent.
+ * If the input of a track is silent and all of its effects implement this
+ * interface and report a silent tail, the track does not call the effects
+ * anymore and reports silent output, so that the mixer can skip it, too.
+ * Effects not implementing this interface are always processed.
+ * <p>
+ * isTailSilent() is called in the audio thread before the effect's process()
+ * method, so it can use the effect's processing state without
+ * synchronization.
+ *
+ * @author Florian Bomers
+ */
+public interface AudioEffectTail {
+
+	/**
+	 * the level below which an effect's tail is considered silent: -100dB,
+	 * which is well below the resolution of 16-bit audio
+	 */
+	public final static float SILENCE_LEVEL = 1.0E-5f;
+
+	/**
+	 * @return true if processing silent input would only produce output below
+	 *         SILENCE_LEVEL, so that process() does not need to be called
+	 *         until the input is not silent anymore
+	 */
+	public boolean isTailSilent();
+}
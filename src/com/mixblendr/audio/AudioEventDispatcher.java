@@ -4,16 +4,20 @@
 package com.mixblendr.audio;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Dispatcher to asynchronously deliver audio events to audio listeners.
+ * Dispatcher to asynchronously deliver audio events to audio listeners. The
+ * events are queued in a ring of pre-allocated event objects, so that
+ * dispatching an event from the audio thread does not allocate memory.
  * 
  * @author Florian Bomers
  */
 public class AudioEventDispatcher extends Thread {
 
+	/** initial number of pre-allocated events in the queue */
+	private final static int INITIAL_QUEUE_SIZE = 64;
+
 	/** state for event type */
 	private final static int TYPE_AUDIO_REGION_STATE = 1;
 	/** event type for download error */
@@ -27,14 +31,27 @@ public class AudioEventDispatcher extends Thread {
 	/** flag that's set when the list of listeners has changed */
 	private volatile boolean listenersChanged = false;
 
-	private LinkedList<AudioEvent> queue;
+	/**
+	 * ring of pre-allocated events. It is only enlarged if the listeners
+	 * cannot keep up with the events.
+	 */
+	private AudioEvent[] queue;
+
+	/** the index in queue of the next event to dispatch */
+	private int queueHead = 0;
+
+	/** the number of events in queue waiting to be dispatched */
+	private int queueCount = 0;
 
 	private List<AudioListener> listeners;
 
 	/** create a new instance of the thread */
 	AudioEventDispatcher() {
 		super("Audio Event Dispatcher");
-		queue = new LinkedList<AudioEvent>();
+		queue = new AudioEvent[INITIAL_QUEUE_SIZE];
+		for (int i = 0; i < queue.length; i++) {
+			queue[i] = new AudioEvent();
+		}
 		listeners = new ArrayList<AudioListener>();
 		// GUI stuff, not very important
 		setPriority(Thread.MIN_PRIORITY);
@@ -51,26 +68,58 @@ public class AudioEventDispatcher extends Thread {
 	}
 
 	synchronized void dispatchEvent(int type) {
-		queue.offer(new AudioEvent(type));
-		this.notifyAll();
+		queueEvent(type, null, null, null);
 	}
 
 	synchronized void dispatchAudioRegionStateChange(AudioTrack track,
 			AudioRegion region, AudioRegion.State state) {
-		queue.offer(new AudioEvent(track, region, state));
-		this.notifyAll();
+		queueEvent(TYPE_AUDIO_REGION_STATE, track, region, state);
 	}
 
 	synchronized void dispatchDownloadError(AudioFile file, Throwable t) {
-		queue.offer(new AudioEvent(file, t));
-		this.notifyAll();
+		queueEvent(TYPE_DOWNLOAD_ERROR, file, t, null);
 	}
 
 	synchronized void dispatchTrackNameChange(AudioTrack track) {
-		queue.offer(new AudioEvent(TYPE_TRACK_NAME_CHANGE, track));
+		queueEvent(TYPE_TRACK_NAME_CHANGE, track, null, null);
+	}
+
+	/**
+	 * Fill the next free event in the queue and wake up the dispatcher thread.
+	 * Must be called with the lock on this held.
+	 */
+	private void queueEvent(int type, Object p1, Object p2, Object p3) {
+		if (queueCount == queue.length) {
+			growQueue();
+		}
+		AudioEvent ae = queue[(queueHead + queueCount) % queue.length];
+		ae.set(type, p1, p2, p3);
+		queueCount++;
 		this.notifyAll();
 	}
 
+	/**
+	 * double the size of the queue, keeping the pending events in order. Must
+	 * be called with the lock on this held.
+	 */
+	private void growQueue() {
+		AudioEvent[] newQueue = new AudioEvent[queue.length * 2];
+		for (int i = 0; i < newQueue.length; i++) {
+			if (i < queueCount) {
+				newQueue[i] = queue[(queueHead + i) % queue.length];
+			} else {
+				newQueue[i] = new AudioEvent();
+			}
+		}
+		queue = newQueue;
+		queueHead = 0;
+	}
+
+	/** @return the number of events waiting to be dispatched */
+	public synchronized int getBacklog() {
+		return queueCount;
+	}
+
 	/** add a listener for the audio events */
 	public void addListener(AudioListener al) {
 		listeners.add(al);
@@ -87,10 +136,13 @@ public class AudioEventDispatcher extends Thread {
 	public void run() {
 		// avoid additional synchronization on listeners list
 		AudioListener[] localListeners = null;
+		// the event is copied from the queue, so that the queue's event can
+		// be reused while the listeners are called
+		AudioEvent ae = new AudioEvent();
 		while (!stopRequested) {
-			AudioEvent ae = null;
+			boolean haveEvent = false;
 			synchronized (this) {
-				if (queue.isEmpty()) {
+				if (queueCount == 0) {
 					try {
 						this.wait();
 					} catch (InterruptedException ie) {
@@ -100,10 +152,18 @@ public class AudioEventDispatcher extends Thread {
 						break;
 					}
 				}
-				ae = queue.poll();
+				if (queueCount > 0) {
+					AudioEvent head = queue[queueHead];
+					ae.set(head.type, head.p1, head.p2, head.p3);
+					head.set(0, null, null, null);
+					queueHead = (queueHead + 1) % queue.length;
+					queueCount--;
+					haveEvent = true;
+				}
 			}
-			if (ae != null) {
+			if (haveEvent) {
 				if (localListeners == null || listenersChanged) {
+					listenersChanged = false;
 					localListeners = listeners.toArray(new AudioListener[listeners.size()]);
 				}
 				for (AudioListener al : localListeners) {
@@ -121,7 +181,7 @@ public class AudioEventDispatcher extends Thread {
 						break;
 					}
 				}
-				// IDEA: reuse ae in a pool of AudioEvents to reduce GC
+				ae.set(0, null, null, null);
 			}
 		}
 	}
@@ -130,27 +190,11 @@ public class AudioEventDispatcher extends Thread {
 		int type;
 		Object p1, p2, p3;
 
-		AudioEvent(int type) {
-			super();
-			this.type = type;
-		}
-
-		AudioEvent(AudioTrack track, AudioRegion region, AudioRegion.State state) {
-			this(TYPE_AUDIO_REGION_STATE);
-			this.p1 = track;
-			this.p2 = region;
-			this.p3 = state;
-		}
-
-		AudioEvent(AudioFile file, Throwable t) {
-			this(TYPE_DOWNLOAD_ERROR);
-			this.p1 = file;
-			this.p2 = t;
-		}
-
-		AudioEvent(int type, AudioTrack track) {
-			this(type);
-			this.p1 = track;
+		void set(int aType, Object aP1, Object aP2, Object aP3) {
+			this.type = aType;
+			this.p1 = aP1;
+			this.p2 = aP2;
+			this.p3 = aP3;
 		}
 	}
 
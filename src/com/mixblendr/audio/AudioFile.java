@@ -291,6 +291,23 @@ public abstract class AudioFile {
 	 */
 	protected abstract int read(long pos, byte[] buffer, int offset, int length);
 
+	/**
+	 * Make sure that byteBuffer can hold byteCount bytes. The buffer is
+	 * allocated with at least the maximum size of a slice, so that it does not
+	 * need to grow in the audio thread when reads of different sizes are
+	 * requested, e.g. for fades or when the slice size changes.
+	 */
+	private void ensureByteBuffer(int byteCount) {
+		if (byteBuffer == null || byteBuffer.length < byteCount) {
+			int sliceBytes = state.getMaxSliceSizeSamples()
+					* format.getFrameSize();
+			if (byteCount < sliceBytes) {
+				byteCount = sliceBytes;
+			}
+			byteBuffer = new byte[byteCount];
+		}
+	}
+
 	/**
 	 * Read a chunk of audio data at the specified sample position. This method
 	 * will not convert the audio format to the format of buffer, except for the
@@ -326,9 +343,7 @@ public abstract class AudioFile {
 			readCount = (int) (avail - readPos);
 		}
 		int byteCount = readCount * format.getFrameSize();
-		if (byteBuffer == null || byteBuffer.length < byteCount) {
-			byteBuffer = new byte[byteCount];
-		}
+		ensureByteBuffer(byteCount);
 		byteCount = read(readPos * format.getFrameSize(), byteBuffer, 0,
 				byteCount);
 		if (byteCount <= 0) {
@@ -385,9 +400,7 @@ public abstract class AudioFile {
 			readCount = (int) (avail - readPos);
 		}
 		int byteCount = readCount * format.getFrameSize();
-		if (byteBuffer == null || byteBuffer.length < byteCount) {
-			byteBuffer = new byte[byteCount];
-		}
+		ensureByteBuffer(byteCount);
 		byteCount = read(readPos * format.getFrameSize(), byteBuffer, 0,
 				byteCount);
 		if (byteCount <= 0) {
@@ -404,6 +417,14 @@ public abstract class AudioFile {
 		return count;
 	}
 
+	/**
+	 * @return the number of bytes of audio data held in memory by this audio
+	 *         file, or 0 if the audio data is stored in a file
+	 */
+	long getMemoryBytes() {
+		return 0;
+	}
+
 	@Override
 	public String toString() {
 		return "AudioFile " + getName();
@@ -51,6 +51,18 @@ class AudioFileDownloader {
 
 	protected AudioFileDownloadListener listener;
 
+	/** total number of bytes downloaded by all threads */
+	private volatile long totalBytes = 0;
+
+	/** total time in nanoseconds spent in finished downloads */
+	private volatile long totalNanos = 0;
+
+	/** number of finished downloads */
+	private volatile int finishedCount = 0;
+
+	/** number of failed downloads */
+	private volatile int errorCount = 0;
+
 	/** private constructor, only one static instance exists */
 	private AudioFileDownloader() {
 		super();
@@ -138,6 +150,73 @@ class AudioFileDownloader {
 		return false;
 	}
 
+	/** @return the number of jobs waiting for a download thread */
+	public int getPendingJobCount() {
+		synchronized (jobs) {
+			return jobs.size();
+		}
+	}
+
+	/** @return the number of files currently being downloaded */
+	public int getActiveJobCount() {
+		int ret = 0;
+		synchronized (threads) {
+			for (DownloadThread dt : threads) {
+				if (dt.active) {
+					ret++;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/** @return the total number of bytes downloaded (after conversion) */
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/** @return the number of finished downloads */
+	public int getFinishedCount() {
+		return finishedCount;
+	}
+
+	/** @return the number of downloads which failed with an error */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * @return the average download throughput of the finished downloads in
+	 *         bytes per second, or 0 if not known
+	 */
+	public double getAverageThroughput() {
+		long nanos = totalNanos;
+		if (nanos <= 0) {
+			return 0;
+		}
+		return totalBytes * 1000000000.0 / nanos;
+	}
+
+	/**
+	 * @return the current download throughput in bytes per second: the sum of
+	 *         the throughput of all currently downloading threads
+	 */
+	public double getCurrentThroughput() {
+		double ret = 0;
+		long now = System.nanoTime();
+		synchronized (threads) {
+			for (DownloadThread dt : threads) {
+				if (dt.active) {
+					long nanos = now - dt.jobStartNanos;
+					if (nanos > 0) {
+						ret += dt.jobBytes * 1000000000.0 / nanos;
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
 	/**
 	 * @return the listener
 	 */
@@ -333,6 +412,12 @@ class AudioFileDownloader {
 		private DownloadJob currentJob = null;
 		private AudioInputStream currentAIS = null;
 
+		/** the time when the current job was started */
+		volatile long jobStartNanos;
+
+		/** the number of bytes downloaded of the current job */
+		volatile long jobBytes;
+
 		public synchronized void kill() {
 			if (DEBUG) {
 				debug(getName() + ": getting killed");
@@ -383,6 +468,9 @@ class AudioFileDownloader {
 				listener.downloadStarted(job.af);
 			}
 			currentJob = job;
+			jobStartNanos = System.nanoTime();
+			jobBytes = 0;
+			boolean failed = false;
 			AudioInputStream ais = null;
 			if (tempBuffer == null) {
 				if (job.af instanceof AudioFileURLMem) {
@@ -450,6 +538,7 @@ class AudioFileDownloader {
 						Thread.yield();
 					} else {
 						pos += read;
+						jobBytes += read;
 						if (pos + TEMP_BUFFER_SIZE_SLICE > tempBuffer.length) {
 							if (!job.af.downloadData(tempBuffer, 0, pos)) {
 								// AudioFile requests end of stream
@@ -467,10 +556,21 @@ class AudioFileDownloader {
 			} catch (Throwable t) {
 				if (!killed) {
 					error(t);
+					failed = true;
 					job.af.downloadError(t);
 				}
 			} finally {
 				job.af.downloadEnd();
+				// statistics
+				synchronized (AudioFileDownloader.this) {
+					totalBytes += jobBytes;
+					totalNanos += System.nanoTime() - jobStartNanos;
+					if (failed) {
+						errorCount++;
+					} else {
+						finishedCount++;
+					}
+				}
 				// clean up
 				if (ais != null) {
 					try {
@@ -29,6 +29,12 @@ public final class AudioFileFactory {
 	private AudioState state;
 	private List<AudioFile> audioFiles;
 
+	/** number of requests for an audio file that was already loaded */
+	private long cacheHits = 0;
+
+	/** number of requests for an audio file that needed to be loaded */
+	private long cacheMisses = 0;
+
     /**
 	 * prevent instantiation without state object
 	 */
@@ -124,16 +130,117 @@ public final class AudioFileFactory {
 		return ret;
 	}
 
+	/**
+	 * Create a new, empty, local audio file which can be written to by the
+	 * engine. The file is stored in a temporary file if possible, otherwise in
+	 * memory.
+	 * 
+	 * @param name the name of the new audio file
+	 * @return the new local audio file, not yet initialized
+	 */
+	AudioFileLocal createLocalAudioFile(String name) {
+		AudioFileLocal ret = new AudioFileLocal(state, name, !USE_ONLY_MEM_FILES);
+		synchronized (audioFiles) {
+			audioFiles.add(ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Close the given audio file and remove it from the list of audio files.
+	 * Only use this for audio files which are not used by regions, e.g. for
+	 * files which are only read once.
+	 * 
+	 * @param af the audio file to close
+	 */
+	public void closeAudioFile(AudioFile af) {
+		synchronized (audioFiles) {
+			audioFiles.remove(af);
+		}
+		af.close();
+	}
+
 	/** search the list of already created audio files for the given one */
 	private AudioFile findAudioFile(String source) {
-		for (AudioFile af : audioFiles) {
-			if (af.getSource().equals(source)) {
-				return af;
+		synchronized (audioFiles) {
+			for (AudioFile af : audioFiles) {
+				if (af.getSource().equals(source)) {
+					cacheHits++;
+					return af;
+				}
 			}
+			cacheMisses++;
 		}
 		return null;
 	}
 
+	/** @return the number of audio files managed by this factory */
+	public int getAudioFileCount() {
+		synchronized (audioFiles) {
+			return audioFiles.size();
+		}
+	}
+
+	/**
+	 * @return the number of requests for an audio file which was already
+	 *         loaded
+	 */
+	public long getCacheHits() {
+		return cacheHits;
+	}
+
+	/** @return the number of requests for an audio file not yet loaded */
+	public long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	/**
+	 * @return the number of bytes of audio data that is held in memory by
+	 *         all audio files
+	 */
+	public long getMemoryBytes() {
+		long ret = 0;
+		synchronized (audioFiles) {
+			for (AudioFile af : audioFiles) {
+				ret += af.getMemoryBytes();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of bytes of audio data that is stored in temporary
+	 *         files by all audio files
+	 */
+	public long getFileBytes() {
+		long ret = 0;
+		synchronized (audioFiles) {
+			for (AudioFile af : audioFiles) {
+				if (af.getMemoryBytes() == 0) {
+					ret += af.getAvailableBytes();
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of bytes allocated by the peak caches of all audio
+	 *         files
+	 */
+	public long getPeakCacheBytes() {
+		long ret = 0;
+		synchronized (audioFiles) {
+			for (AudioFile af : audioFiles) {
+				AudioPeakCache cache = af.getPeakCache();
+				if (cache != null) {
+					ret += cache.getMemoryBytes();
+				}
+			}
+		}
+		return ret;
+	}
+
 	/** close all open files */
 	void close() {
 		for (AudioFile af : audioFiles) {
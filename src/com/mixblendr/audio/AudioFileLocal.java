@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import static com.mixblendr.util.Debug.debug;
+import static com.mixblendr.util.Debug.error;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+import com.mixblendr.util.Debug;
+
+/**
+ * An audio file that is created locally by the engine, e.g. by rendering a
+ * track. The audio data is appended with write() and is readable immediately.
+ * Once finish() is called, the file size is known and the file is fully
+ * loaded. The data is stored in a (scrambled) temporary file, or in memory if
+ * the file system is not accessible.
+ * <p>
+ * Note: you should use the AudioFileFactory factory to create local audio
+ * file objects.
+ *
+ * @author Florian Bomers
+ */
+public class AudioFileLocal extends AudioFile {
+
+	public static boolean DEBUG = false;
+
+	/** the amount by which the memory size is grown. Currently 256KB */
+	private final static int GROW_SIZE = 256 * 1024;
+
+	/** where the temp file resides, or null if in memory */
+	private File cacheFile;
+
+	private RandomAccessFile file;
+
+	/** a magic used for scrambling */
+	private int scrambleMagic;
+
+	/** the array for storing the audio data if not using a file */
+	private byte[] mem;
+
+	/** temporary byte buffer for converting float data in write() */
+	private byte[] writeBuffer;
+
+	private boolean finished;
+
+	/**
+	 * Create a new, empty, local audio file. Use the AudioFileFactory to create
+	 * instances.
+	 *
+	 * @param state the audio state object
+	 * @param name the name of this audio file
+	 * @param useFile if true, store the audio data in a temporary file,
+	 *            otherwise in memory
+	 */
+	AudioFileLocal(AudioState state, String name, boolean useFile) {
+		super(state, name, "local:" + name);
+		scrambleMagic = (int) (Math.random() * Integer.MAX_VALUE) + 1552;
+		if (!useFile) {
+			mem = new byte[0];
+		}
+	}
+
+	/**
+	 * Initialize this file with the given format. Must be called before any
+	 * data is written.
+	 *
+	 * @param format the audio format of the data written to this file
+	 * @throws IOException if the temporary file cannot be created
+	 */
+	synchronized void init(AudioFormat format) throws IOException {
+		if (mem == null) {
+			cacheFile = File.createTempFile(AudioFileURLFile.TEMP_FILE_PREFIX,
+					AudioFileURLFile.TEMP_FILE_SUFFIX);
+			cacheFile.deleteOnExit();
+			file = new RandomAccessFile(cacheFile, "rw");
+			if (DEBUG) {
+				debug(getName() + ": created temp file: " + cacheFile.getName());
+			}
+		}
+		setFormat(format);
+		setFileSize(-1);
+		setAvailableBytes(0);
+		finished = false;
+	}
+
+	/**
+	 * Append the given audio data to this file. The data must be in the format
+	 * passed to init(). The peak cache is updated with the new data.
+	 *
+	 * @param data the audio data
+	 * @param offset the offset in data
+	 * @param length the number of bytes to append
+	 * @throws IOException if writing to the temporary file failed
+	 */
+	synchronized void write(byte[] data, int offset, int length)
+			throws IOException {
+		if (finished) {
+			throw new IllegalStateException("file is already finished");
+		}
+		long pos = getAvailableBytes();
+		if (mem != null) {
+			if (pos + length > mem.length) {
+				int size = mem.length + GROW_SIZE;
+				if (size < pos + length) {
+					size = (int) (pos + length);
+				}
+				byte[] newMem = new byte[size];
+				System.arraycopy(mem, 0, newMem, 0, (int) pos);
+				mem = newMem;
+			}
+			System.arraycopy(data, offset, mem, (int) pos, length);
+		} else if (file != null) {
+			if (AudioFileURLFile.SCRAMBLE_DATA) {
+				AudioFileURLFile.scramble(scrambleMagic, pos, data, offset,
+						length);
+			}
+			file.seek(pos);
+			file.write(data, offset, length);
+			if (AudioFileURLFile.SCRAMBLE_DATA) {
+				AudioFileURLFile.scramble(scrambleMagic, pos, data, offset,
+						length);
+			}
+		} else {
+			throw new IOException("file is closed");
+		}
+		updatePeakCache(pos, data, offset, length);
+		setAvailableBytes(pos + length);
+	}
+
+	/**
+	 * Append the given float audio data to this file, converting it to the
+	 * format of this file. Samples exceeding the range [-1..1] are clipped.
+	 *
+	 * @param buffer the audio data
+	 * @param offset the offset in samples in buffer
+	 * @param count the number of samples to append
+	 * @throws IOException if writing to the temporary file failed
+	 */
+	synchronized void write(FloatSampleBuffer buffer, int offset, int count)
+			throws IOException {
+		AudioFormat format = getFormat();
+		int byteCount = count * format.getFrameSize();
+		if (writeBuffer == null || writeBuffer.length < byteCount) {
+			writeBuffer = new byte[byteCount];
+		}
+		buffer.convertToByteArray(offset, count, writeBuffer, 0, format);
+		write(writeBuffer, 0, byteCount);
+	}
+
+	/**
+	 * Finish writing to this file. The file size is set to the number of
+	 * written bytes, and the file is regarded as fully loaded.
+	 */
+	synchronized void finish() {
+		finished = true;
+		setFileSize(getAvailableBytes());
+		writeBuffer = null;
+		if (mem != null && mem.length > getAvailableBytes()) {
+			// trim memory
+			byte[] newMem = new byte[(int) getAvailableBytes()];
+			System.arraycopy(mem, 0, newMem, 0, newMem.length);
+			mem = newMem;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.audio.AudioFile#getMemoryBytes()
+	 */
+	@Override
+	long getMemoryBytes() {
+		byte[] localMem = mem;
+		return (localMem == null) ? 0 : localMem.length;
+	}
+
+	/** @return true if finish() was called */
+	@Override
+	public boolean isFullyLoaded() {
+		return finished;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.audio.AudioFile#read(long, byte[], int, int)
+	 */
+	@Override
+	protected synchronized int read(long pos, byte[] buffer, int offset,
+			int length) {
+		long avail = getAvailableBytes();
+		if (pos + length > avail) {
+			length = (int) (avail - pos);
+		}
+		if (length <= 0) {
+			return 0;
+		}
+		if (mem != null) {
+			System.arraycopy(mem, (int) pos, buffer, offset, length);
+			return length;
+		}
+		if (file == null) {
+			return 0;
+		}
+		try {
+			file.seek(pos);
+			int ret = file.read(buffer, offset, length);
+			if (ret > 0) {
+				if (AudioFileURLFile.SCRAMBLE_DATA) {
+					AudioFileURLFile.scramble(scrambleMagic, pos, buffer,
+							offset, ret);
+				}
+				return ret;
+			}
+		} catch (IOException ioe) {
+			error(ioe);
+		}
+		return 0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.audio.AudioFile#closeImpl()
+	 */
+	@Override
+	protected synchronized void closeImpl() {
+		mem = null;
+		if (file != null) {
+			try {
+				file.close();
+			} catch (Exception e) {
+				debug(e);
+			}
+			file = null;
+		}
+		if (cacheFile != null) {
+			if (cacheFile.exists()) {
+				boolean deleted = cacheFile.delete();
+				if (!deleted && DEBUG) {
+					Debug.error("could not delete temp file: "
+							+ cacheFile.getName());
+				}
+			}
+			cacheFile = null;
+		}
+		setAvailableBytes(0);
+	}
+
+	@Override
+	public String toString() {
+		return "FileLocal " + getName() + ": available="
+				+ getState().sample2seconds(getAvailableSamples()) + "s"
+				+ (finished ? "" : " (writing)");
+	}
+}
@@ -24,11 +24,19 @@ public abstract class AudioFileURL extends AudioFile {
 
 	private List<Listener> listeners;
 
+	/**
+	 * cached copy of listeners for sending the events, null if it needs to be
+	 * re-created
+	 */
+	private Listener[] listenerArray;
+
 	private boolean downloadEnd = false;
 
 	/**
 	 * Create a new AudioFile instance from the given URL. Note: you should use
 	 * the AudioFileFactory factory to create audio file objects.
+	 * <p>
+	 * Subclasses must call startDownload() at the end of their constructor.
 	 * 
 	 * @param state the audio state object
 	 * @param url the URL from which to load this audio file
@@ -36,6 +44,14 @@ public abstract class AudioFileURL extends AudioFile {
 	public AudioFileURL(AudioState state, URL url) {
 		super(state, getBaseName(url.getPath()), url.toString());
 		this.url = url;
+	}
+
+	/**
+	 * Queue this file for downloading. Must be called by the constructor of
+	 * the concrete subclass as the last statement: the download thread may
+	 * access this object immediately, so it must be fully constructed.
+	 */
+	protected final void startDownload() {
 		AudioFileDownloader.getInstance().addJob(this);
 	}
 
@@ -50,6 +66,7 @@ public abstract class AudioFileURL extends AudioFile {
 		}
 		synchronized (listeners) {
 			listeners.add(l);
+			listenerArray = null;
 		}
 		if (hasDownloadStarted() && !downloadEnd) {
 			l.audioFileDownloadStart(this);
@@ -63,6 +80,7 @@ public abstract class AudioFileURL extends AudioFile {
 		if (listeners != null) {
 			synchronized (listeners) {
 				listeners.remove(al);
+				listenerArray = null;
 			}
 		}
 	}
@@ -77,6 +95,19 @@ public abstract class AudioFileURL extends AudioFile {
 		AudioFileDownloader.getInstance().killJob(this);
 	}
 
+	/**
+	 * @return a copy of the list of listeners, only re-created when the
+	 *         listeners have changed
+	 */
+	private Listener[] getListenerArray() {
+		synchronized (listeners) {
+			if (listenerArray == null) {
+				listenerArray = listeners.toArray(new Listener[listeners.size()]);
+			}
+			return listenerArray;
+		}
+	}
+
 	/**
 	 * @return the url
 	 */
@@ -131,10 +162,7 @@ public abstract class AudioFileURL extends AudioFile {
 		downloadEnd = false;
 		if (listeners != null) {
 			// prevent deadlock by using a local copy of the listeners
-			Listener[] lListeners;
-			synchronized (listeners) {
-				lListeners = listeners.toArray(new Listener[listeners.size()]);
-			}
+			Listener[] lListeners = getListenerArray();
 			// allow listeners to remove themselves during the event handler
 			for (Listener l : lListeners) {
 				l.audioFileDownloadStart(this);
@@ -162,10 +190,7 @@ public abstract class AudioFileURL extends AudioFile {
 		setAvailableBytes(getAvailableBytes() + newDownloadedBytes);
 		if (listeners != null) {
 			// prevent deadlock by using a local copy of the listeners
-			Listener[] lListeners;
-			synchronized (listeners) {
-				lListeners = listeners.toArray(new Listener[listeners.size()]);
-			}
+			Listener[] lListeners = getListenerArray();
 			// allow listeners to remove themselves during the event handler
 			for (Listener l : lListeners) {
 				l.audioFileDownloadUpdate(this);
@@ -200,10 +225,7 @@ public abstract class AudioFileURL extends AudioFile {
 		getState().getAudioEventDispatcher().dispatchDownloadError(this, t);
 		if (listeners != null) {
 			// prevent deadlock by using a local copy of the listeners
-			Listener[] lListeners;
-			synchronized (listeners) {
-				lListeners = listeners.toArray(new Listener[listeners.size()]);
-			}
+			Listener[] lListeners = getListenerArray();
 			// allow listeners to remove themselves during the event handler
 			for (Listener l : lListeners) {
 				l.audioFileDownloadError(this);
@@ -225,10 +247,7 @@ public abstract class AudioFileURL extends AudioFile {
 		// notify the listeners of download end
 		if (listeners != null) {
 			// prevent deadlock by using a local copy of the listeners
-			Listener[] lListeners;
-			synchronized (listeners) {
-				lListeners = listeners.toArray(new Listener[listeners.size()]);
-			}
+			Listener[] lListeners = getListenerArray();
 			// allow listeners to remove themselves during the event handler
 			for (Listener l : lListeners) {
 				l.audioFileDownloadEnd(this);
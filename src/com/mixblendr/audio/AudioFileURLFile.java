@@ -80,6 +80,7 @@ public class AudioFileURLFile extends AudioFileURL {
 			// during playback
 			memCache = new byte[(int) (MEM_CACHE_SIZE * (Math.random() + 0.5))];
 		}
+		startDownload();
 	}
 
 	/*
@@ -283,9 +284,25 @@ public class AudioFileURLFile extends AudioFileURL {
 	 * @param length the number of bytes to scramble
 	 */
 	private final void scramble(long pos, byte[] buffer, int offset, int length) {
+		scramble(scrambleMagic, pos, buffer, offset, length);
+	}
+
+	/**
+	 * Scramble the given buffer in place with the given magic. Scrambling
+	 * again with the same magic and position will unscramble the data. Package
+	 * private so that other temporary files can use the same algorithm.
+	 * 
+	 * @param magic the (random) magic of the file
+	 * @param pos the file position
+	 * @param buffer the buffer to scramble in place
+	 * @param offset the byte offset in buffer
+	 * @param length the number of bytes to scramble
+	 */
+	static final void scramble(int magic, long pos, byte[] buffer,
+			int offset, int length) {
 		int max = offset + length;
 		int iPos = (int) pos + 976235;
-		int thisScrambleMagic = scrambleMagic - 12348;
+		int thisScrambleMagic = magic - 12348;
 		for (; offset < max; offset++) {
 			buffer[offset] ^= (byte) (iPos * thisScrambleMagic);
 			iPos++;
@@ -34,6 +34,7 @@ public class AudioFileURLMem extends AudioFileURL {
 	 */
 	public AudioFileURLMem(AudioState state, URL url) {
 		super(state, url);
+		startDownload();
 	}
 
 	/*
@@ -131,6 +132,17 @@ public class AudioFileURLMem extends AudioFileURL {
 		return false;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.mixblendr.audio.AudioFile#getMemoryBytes()
+	 */
+	@Override
+	long getMemoryBytes() {
+		byte[] localMem = mem;
+		return (localMem == null) ? 0 : localMem.length;
+	}
+
 	/**
 	 * Read from the raw mem data
 	 * 
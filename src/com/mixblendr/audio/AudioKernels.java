@@ -0,0 +1,346 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+/**
+ * The inner loops of the audio engine: gain, gain ramps, mixing, fades, and
+ * peak detection on float sample arrays. All loops are simple counted loops
+ * without dependencies between iterations, so that the JIT compiler can
+ * vectorize them with the SIMD instructions of the processor. In particular,
+ * ramps calculate the gain of each sample from its index instead of
+ * accumulating an increment, which would serialize the loop. Peak detection
+ * is not vectorized, but avoids the expensive NaN handling of Math.max().
+ * <p>
+ * The FloatSampleBuffer variants process the same range of all channels.
+ *
+ * @author Florian Bomers
+ */
+public final class AudioKernels {
+
+	/** the number of samples of a ramp that are calculated from RAMP_INDEX */
+	private static final int RAMP_BLOCK_SIZE = 1024;
+
+	/**
+	 * the sample indexes 0, 1, 2, ... as float. Converting the loop index to
+	 * float is not vectorized by the JIT compiler, reading it from an array is.
+	 */
+	private static final float[] RAMP_INDEX = new float[RAMP_BLOCK_SIZE];
+
+	static {
+		for (int i = 0; i < RAMP_BLOCK_SIZE; i++) {
+			RAMP_INDEX[i] = i;
+		}
+	}
+
+	/** prevent instantiation */
+	private AudioKernels() {
+		// nothing
+	}
+
+	/**
+	 * Multiply the samples with a constant gain.
+	 *
+	 * @param data the samples
+	 * @param offset the index of the first sample
+	 * @param count the number of samples
+	 * @param gain the gain factor
+	 */
+	public static void gain(float[] data, int offset, int count, float gain) {
+		final int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			data[i] *= gain;
+		}
+	}
+
+	/**
+	 * Multiply the samples with a linear gain ramp. The first sample is
+	 * multiplied with startGain, the gain for the sample after the last one
+	 * would be endGain.
+	 *
+	 * @param data the samples
+	 * @param offset the index of the first sample
+	 * @param count the number of samples
+	 * @param startGain the gain of the first sample
+	 * @param endGain the gain reached at the end of the ramp
+	 */
+	public static void gainRamp(float[] data, int offset, int count,
+			float startGain, float endGain) {
+		if (count <= 0) {
+			return;
+		}
+		final float inc = (endGain - startGain) / count;
+		for (int block = 0; block < count; block += RAMP_BLOCK_SIZE) {
+			final int n = Math.min(RAMP_BLOCK_SIZE, count - block);
+			final float blockGain = startGain + inc * block;
+			final int blockOffset = offset + block;
+			for (int i = 0; i < n; i++) {
+				data[blockOffset + i] *= blockGain + inc * RAMP_INDEX[i];
+			}
+		}
+	}
+
+	/**
+	 * Multiply the samples with the gain factors in gains, e.g. a gain
+	 * envelope calculated by ParameterSmoother.
+	 *
+	 * @param data the samples
+	 * @param offset the index of the first sample
+	 * @param count the number of samples
+	 * @param gains the gain factor for each sample, starting at index 0
+	 */
+	public static void gain(float[] data, int offset, int count, float[] gains) {
+		for (int i = 0; i < count; i++) {
+			data[offset + i] *= gains[i];
+		}
+	}
+
+	/**
+	 * Fill the array with a linear ramp. The first value is start, the value
+	 * after the last one would be end.
+	 *
+	 * @param data the array to fill
+	 * @param offset the index of the first value
+	 * @param count the number of values
+	 * @param start the first value
+	 * @param end the value reached at the end of the ramp
+	 */
+	public static void ramp(float[] data, int offset, int count, float start,
+			float end) {
+		if (count <= 0) {
+			return;
+		}
+		final float inc = (end - start) / count;
+		for (int block = 0; block < count; block += RAMP_BLOCK_SIZE) {
+			final int n = Math.min(RAMP_BLOCK_SIZE, count - block);
+			final float blockStart = start + inc * block;
+			final int blockOffset = offset + block;
+			for (int i = 0; i < n; i++) {
+				data[blockOffset + i] = blockStart + inc * RAMP_INDEX[i];
+			}
+		}
+	}
+
+	/**
+	 * Add the source samples to the destination samples.
+	 *
+	 * @param src the samples to add
+	 * @param srcOffset the index of the first sample in src
+	 * @param dest the samples to add to
+	 * @param destOffset the index of the first sample in dest
+	 * @param count the number of samples
+	 */
+	public static void mix(float[] src, int srcOffset, float[] dest,
+			int destOffset, int count) {
+		for (int i = 0; i < count; i++) {
+			dest[destOffset + i] += src[srcOffset + i];
+		}
+	}
+
+	/**
+	 * Write the source samples multiplied with a linear gain ramp to the
+	 * destination samples.
+	 *
+	 * @param src the samples to copy
+	 * @param srcOffset the index of the first sample in src
+	 * @param dest the samples to overwrite
+	 * @param destOffset the index of the first sample in dest
+	 * @param count the number of samples
+	 * @param startGain the gain of the first sample
+	 * @param endGain the gain reached at the end of the ramp
+	 * @see #gainRamp(float[], int, int, float, float)
+	 */
+	public static void copy(float[] src, int srcOffset, float[] dest,
+			int destOffset, int count, float startGain, float endGain) {
+		if (startGain == endGain) {
+			for (int i = 0; i < count; i++) {
+				dest[destOffset + i] = src[srcOffset + i] * startGain;
+			}
+			return;
+		}
+		final float inc = (endGain - startGain) / count;
+		for (int block = 0; block < count; block += RAMP_BLOCK_SIZE) {
+			final int n = Math.min(RAMP_BLOCK_SIZE, count - block);
+			final float blockGain = startGain + inc * block;
+			final int s = srcOffset + block;
+			final int d = destOffset + block;
+			for (int i = 0; i < n; i++) {
+				dest[d + i] = src[s + i] * (blockGain + inc * RAMP_INDEX[i]);
+			}
+		}
+	}
+
+	/**
+	 * Add the source samples multiplied with a linear gain ramp to the
+	 * destination samples.
+	 *
+	 * @param src the samples to add
+	 * @param srcOffset the index of the first sample in src
+	 * @param dest the samples to add to
+	 * @param destOffset the index of the first sample in dest
+	 * @param count the number of samples
+	 * @param startGain the gain of the first sample
+	 * @param endGain the gain reached at the end of the ramp
+	 * @see #gainRamp(float[], int, int, float, float)
+	 */
+	public static void mix(float[] src, int srcOffset, float[] dest,
+			int destOffset, int count, float startGain, float endGain) {
+		if (startGain == endGain) {
+			for (int i = 0; i < count; i++) {
+				dest[destOffset + i] += src[srcOffset + i] * startGain;
+			}
+			return;
+		}
+		final float inc = (endGain - startGain) / count;
+		for (int block = 0; block < count; block += RAMP_BLOCK_SIZE) {
+			final int n = Math.min(RAMP_BLOCK_SIZE, count - block);
+			final float blockGain = startGain + inc * block;
+			final int s = srcOffset + block;
+			final int d = destOffset + block;
+			for (int i = 0; i < n; i++) {
+				dest[d + i] += src[s + i] * (blockGain + inc * RAMP_INDEX[i]);
+			}
+		}
+	}
+
+	/**
+	 * Write the source samples multiplied with the gain factors in gains to
+	 * the destination samples.
+	 *
+	 * @param src the samples to copy
+	 * @param srcOffset the index of the first sample in src
+	 * @param dest the samples to overwrite
+	 * @param destOffset the index of the first sample in dest
+	 * @param count the number of samples
+	 * @param gains the gain factor for each sample, starting at index 0
+	 */
+	public static void copy(float[] src, int srcOffset, float[] dest,
+			int destOffset, int count, float[] gains) {
+		for (int i = 0; i < count; i++) {
+			dest[destOffset + i] = src[srcOffset + i] * gains[i];
+		}
+	}
+
+	/**
+	 * Add the source samples multiplied with the gain factors in gains to the
+	 * destination samples.
+	 *
+	 * @param src the samples to add
+	 * @param srcOffset the index of the first sample in src
+	 * @param dest the samples to add to
+	 * @param destOffset the index of the first sample in dest
+	 * @param count the number of samples
+	 * @param gains the gain factor for each sample, starting at index 0
+	 */
+	public static void mix(float[] src, int srcOffset, float[] dest,
+			int destOffset, int count, float[] gains) {
+		for (int i = 0; i < count; i++) {
+			dest[destOffset + i] += src[srcOffset + i] * gains[i];
+		}
+	}
+
+	/**
+	 * @param data the samples
+	 * @param offset the index of the first sample
+	 * @param count the number of samples
+	 * @return the maximum absolute value of the samples, or 0 if count is 0
+	 */
+	public static float peak(float[] data, int offset, int count) {
+		float max = 0.0f;
+		final int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			float abs = Math.abs(data[i]);
+			if (abs > max) {
+				max = abs;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * The sum of the squared samples, e.g. for RMS detection. Like peak(), the
+	 * loop is not vectorized, the sum is accumulated in sample order.
+	 *
+	 * @param data the samples
+	 * @param offset the index of the first sample
+	 * @param count the number of samples
+	 * @return the sum of the squares of the samples
+	 */
+	public static float sumOfSquares(float[] data, int offset, int count) {
+		float sum = 0.0f;
+		final int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			sum += data[i] * data[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Multiply all channels with a constant gain.
+	 *
+	 * @see #gain(float[], int, int, float)
+	 */
+	public static void gain(FloatSampleBuffer buffer, int offset, int count,
+			float gain) {
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			gain(buffer.getChannel(c), offset, count, gain);
+		}
+	}
+
+	/**
+	 * Apply a linear fade to all channels. Same as
+	 * FloatSampleBuffer.linearFade(), but vectorizable.
+	 *
+	 * @see #gainRamp(float[], int, int, float, float)
+	 */
+	public static void fade(FloatSampleBuffer buffer, int offset, int count,
+			float startGain, float endGain) {
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			gainRamp(buffer.getChannel(c), offset, count, startGain, endGain);
+		}
+	}
+
+	/**
+	 * Add the samples of all channels of src to dest. Same as
+	 * FloatSampleBuffer.mix().
+	 *
+	 * @see #mix(float[], int, float[], int, int)
+	 */
+	public static void mix(FloatSampleBuffer src, int srcOffset,
+			FloatSampleBuffer dest, int destOffset, int count) {
+		for (int c = 0; c < dest.getChannelCount(); c++) {
+			mix(src.getChannel(c), srcOffset, dest.getChannel(c), destOffset,
+					count);
+		}
+	}
+
+	/**
+	 * @return the maximum absolute value of all channels
+	 * @see #peak(float[], int, int)
+	 */
+	public static float peak(FloatSampleBuffer buffer, int offset, int count) {
+		float max = 0.0f;
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			float channelMax = peak(buffer.getChannel(c), offset, count);
+			if (channelMax > max) {
+				max = channelMax;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @return the sum of the squared samples of all channels
+	 * @see #sumOfSquares(float[], int, int)
+	 */
+	public static float sumOfSquares(FloatSampleBuffer buffer, int offset,
+			int count) {
+		float sum = 0.0f;
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			sum += sumOfSquares(buffer.getChannel(c), offset, count);
+		}
+		return sum;
+	}
+}
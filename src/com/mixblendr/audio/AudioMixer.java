@@ -56,13 +56,32 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 
 	private AudioState state;
 
+	/** the effects and the limiter applied to the sum of all tracks */
+	private MasterBus masterBus;
+
+	/** list of aux buses, which are mixed to the master */
+	private List<AuxBus> auxBuses;
+
 	/**
 	 * Create an instance of the AudioMixer
 	 */
 	public AudioMixer(AudioState state) {
 		tracks = new ArrayList<AudioTrack>();
+		auxBuses = new ArrayList<AuxBus>();
 		this.state = state;
-		trackChange = true;
+		masterBus = new MasterBus(state);
+		// allocate the fade buffer here, not in the audio thread
+		fadeOutBuffer = new FloatSampleBuffer(state.getChannels(),
+				getFadeSampleCount(), state.getSampleRate());
+		scratchBuffer = new FloatSampleBuffer(state.getChannels(),
+				state.getMaxSliceSizeSamples(), state.getSampleRate());
+	}
+
+	/**
+	 * @return the master bus, processing the sum of all tracks
+	 */
+	public final MasterBus getMasterBus() {
+		return masterBus;
 	}
 
 	// TRACK MANAGEMENT
@@ -109,8 +128,9 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 			// no need to call updateTrackIndices(), since only adding to the
 			// end
 			t.index = tracks.size() - 1;
+			t.mixer = this;
 			updateSoloState();
-			trackChange = true;
+			updateRenderOrder();
 		}
 	}
 
@@ -137,7 +157,10 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 	public synchronized long getDurationSamples() {
 		long res = 0;
 		for (AudioTrack t : tracks) {
-			res += t.getPlaylist().getDurationSamples();
+			long trackDuration = t.getPlaylist().getDurationSamples();
+			if (trackDuration > res) {
+				res = trackDuration;
+			}
 		}
 		return res;
 	}
@@ -166,12 +189,13 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 		boolean ret = false;
 		if (t != null) {
 			ret = tracks.remove(t);
+			t.index = -1;
 			if (ret) {
+				t.mixer = null;
 				updateSoloState();
 				updateTrackIndices();
-				trackChange = true;
+				updateRenderOrder();
 			}
-			t.index = -1;
 		}
 		return ret;
 	}
@@ -192,9 +216,10 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 	public synchronized void clear() {
 		for (AudioTrack t : tracks) {
 			t.index = -1;
+			t.mixer = null;
 		}
 		tracks.clear();
-		trackChange = true;
+		updateRenderOrder();
 		updateSoloState();
 	}
 
@@ -224,7 +249,7 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 		tracks.set(newIndex, thisTrack);
 		tracks.set(trackIndex, otherTrack);
 		updateTrackIndices();
-		trackChange = true;
+		updateRenderOrder();
 		return true;
 	}
 
@@ -238,6 +263,166 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 		}
 	}
 
+	/**
+	 * Calculate the order in which read() renders the tracks: the order of the
+	 * list of tracks, except that the sidechain sources of a track's effects
+	 * are rendered before the track, see AudioEffectSidechain. If the sources
+	 * form a cycle, the first track of the cycle is rendered first, and its
+	 * effects do not get their sidechain input. Should be called after each
+	 * change to the list of tracks, or to the sidechain sources.
+	 */
+	synchronized void updateRenderOrder() {
+		final int count = tracks.size();
+		AudioTrack[] order = new AudioTrack[count];
+		List<List<AudioTrack>> inputs = new ArrayList<List<AudioTrack>>(count);
+		for (AudioTrack t : tracks) {
+			t.setSidechainSource(false);
+		}
+		for (AudioTrack t : tracks) {
+			List<AudioTrack> in = t.getSidechainInputs();
+			for (AudioTrack source : in) {
+				if (source.mixer == this) {
+					source.setSidechainSource(true);
+				}
+			}
+			inputs.add(in);
+		}
+		boolean[] placed = new boolean[count];
+		int placedCount = 0;
+		while (placedCount < count) {
+			int firstPending = -1;
+			boolean progress = false;
+			for (int i = 0; i < count; i++) {
+				if (placed[i]) {
+					continue;
+				}
+				boolean ready = true;
+				for (AudioTrack source : inputs.get(i)) {
+					if (source.mixer == this && !placed[source.index]) {
+						ready = false;
+						break;
+					}
+				}
+				if (ready) {
+					placed[i] = true;
+					order[placedCount++] = tracks.get(i);
+					progress = true;
+				} else if (firstPending < 0) {
+					firstPending = i;
+				}
+			}
+			if (!progress) {
+				// cycle: break it at the first pending track
+				if (DEBUG) debug("AudioMixer: sidechain cycle at track "
+						+ tracks.get(firstPending));
+				placed[firstPending] = true;
+				order[placedCount++] = tracks.get(firstPending);
+			}
+		}
+		renderOrder = order;
+	}
+
+	// AUX BUS MANAGEMENT
+
+	/**
+	 * @return the number of aux buses
+	 */
+	public final int getAuxBusCount() {
+		return auxBuses.size();
+	}
+
+	/**
+	 * Return the indexed aux bus.
+	 * 
+	 * @param index the index of the list of aux buses, as used for the send
+	 *            levels of the tracks
+	 * @return the aux bus at the specified index, or null if index is out of
+	 *         range
+	 */
+	public final synchronized AuxBus getAuxBus(int index) {
+		if (index < 0 || index >= auxBuses.size()) {
+			return null;
+		}
+		return auxBuses.get(index);
+	}
+
+	/**
+	 * @return a non-modifiable view of the list of aux buses
+	 */
+	public synchronized List<AuxBus> getAuxBuses() {
+		return Collections.unmodifiableList(auxBuses);
+	}
+
+	/**
+	 * Create a new aux bus without effects, and add it to the end of the list
+	 * of aux buses. Its index is used by the tracks to set the send level.
+	 * 
+	 * @param name the name of the new bus
+	 * @return the new aux bus
+	 * @see AudioTrack#setSendLevel(int, double)
+	 */
+	public synchronized AuxBus addAuxBus(String name) {
+		AuxBus bus = new AuxBus(state, name);
+		auxBuses.add(bus);
+		bus.index = auxBuses.size() - 1;
+		busChange = true;
+		return bus;
+	}
+
+	/**
+	 * Remove the aux bus, and call the exit() method of its effects. The sends
+	 * of all tracks to this bus are removed, and the sends to the following
+	 * buses are moved down to their new index. Automation objects of sends
+	 * are not changed.
+	 * 
+	 * @param bus the bus to remove
+	 * @return if the bus was actually removed
+	 */
+	public boolean removeAuxBus(AuxBus bus) {
+		synchronized (this) {
+			int index = auxBuses.indexOf(bus);
+			if (index < 0) {
+				return false;
+			}
+			auxBuses.remove(index);
+			for (AudioTrack t : tracks) {
+				t.removeSend(index);
+			}
+			updateAuxBusIndices();
+			bus.index = -1;
+			busChange = true;
+		}
+		bus.clearEffects();
+		return true;
+	}
+
+	/**
+	 * Remove all aux buses, and call the exit() method of their effects. The
+	 * send levels of the tracks are not changed.
+	 */
+	public void clearAuxBuses() {
+		List<AuxBus> removed;
+		synchronized (this) {
+			removed = new ArrayList<AuxBus>(auxBuses);
+			auxBuses.clear();
+			busChange = true;
+		}
+		for (AuxBus bus : removed) {
+			bus.index = -1;
+			bus.clearEffects();
+		}
+	}
+
+	/**
+	 * update the index field of all the aux buses. Should be called after each
+	 * change to the list of aux buses
+	 */
+	private synchronized void updateAuxBusIndices() {
+		for (int i = 0; i < auxBuses.size(); i++) {
+			auxBuses.get(i).index = i;
+		}
+	}
+
 	// SOLO MANAGEMENT
 
 	/**
@@ -357,15 +542,21 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 	}
 
 	/**
-	 * use a local copy of the track list to not lock the tracks list during
+	 * the tracks in the order in which they are rendered, a copy of the list
+	 * of tracks so that it is not locked during processing
+	 */
+	private volatile AudioTrack[] renderOrder = new AudioTrack[0];
+
+	/**
+	 * use a local copy of the aux bus list to not lock the list during
 	 * processing
 	 */
-	private AudioTrack[] trackCache = null;
+	private AuxBus[] busCache = new AuxBus[0];
 
-	/** set when the order or contents of the tracks changed */
-	private volatile boolean trackChange = false;
+	/** set when the order or contents of the aux buses changed */
+	private volatile boolean busChange = false;
 
-	private FloatSampleBuffer fadeOutBuffer = null;
+	private FloatSampleBuffer fadeOutBuffer;
 
 	/** return number of samples to perform the fade */
 	private int getFadeSampleCount() {
@@ -380,23 +571,24 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 	 */
 	public void read(FloatSampleBuffer buffer, int offset, int sampleCount) {
 		// use a local copy of the tracks to not lock this class unneccessarily
-		if (trackChange) {
-			trackChange = false;
+		final AudioTrack[] order = renderOrder;
+		if (busChange) {
+			busChange = false;
 			synchronized (this) {
-				int trackCount = tracks.size();
-				if (trackCache == null || trackCache.length != trackCount) {
-					trackCache = new AudioTrack[trackCount];
-				}
-				trackCache = tracks.toArray(trackCache);
+				busCache = auxBuses.toArray(new AuxBus[auxBuses.size()]);
 			}
 		}
+		final AuxBus[] buses = busCache;
+		for (int i = 0; i < buses.length; i++) {
+			buses[i].startSlice(sampleCount);
+		}
 
-		if (scratchBuffer == null) {
-			scratchBuffer = new FloatSampleBuffer(buffer.getChannelCount(),
-					sampleCount, buffer.getSampleRate());
-		} else {
+		if (scratchBuffer.getChannelCount() != buffer.getChannelCount()) {
 			scratchBuffer.init(buffer.getChannelCount(), sampleCount,
 					buffer.getSampleRate());
+		} else {
+			// does not allocate up to the maximum slice size
+			scratchBuffer.changeSampleCount(sampleCount, false);
 		}
 
 		long samplePos = state.getSampleSlicePosition();
@@ -417,28 +609,58 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 		// read each track
 		boolean first = true;
 		if (TRACE) onnl("<");
-		for (AudioTrack t : trackCache) {
+		long trackStartNanos = System.nanoTime();
+		for (AudioTrack t : order) {
 			if (TRACE) onnl("" + t.index + "y,");
+			// tracks without effects apply the volume while mixing
+			boolean fused = t.canFuse();
 			// read this track, including looping and microfades for
 			// click-prevention
 			nextSlicePos = readImpl1(samplePos, requestedNewPosition, t,
-					scratchBuffer, 0, sampleCount);
-			// then apply this track's effects
-			t.readEffects(samplePos, scratchBuffer);
-			if (first) {
-				// copy first track directly into the outgoing buffer
-				scratchBuffer.copyTo(buffer, offset, sampleCount);
+					scratchBuffer, 0, sampleCount, fused);
+			if (fused) {
+				// apply volume and copy/mix to the outgoing buffer in one pass
+				t.processFused(scratchBuffer, buffer, offset, sampleCount,
+						!first);
 				first = false;
 			} else {
-				// mix to the outgoing buffer
-				buffer.mix(scratchBuffer, 0, offset, sampleCount);
+				// apply this track's effects
+				t.readEffects(samplePos, scratchBuffer);
+				// keep the output for sidechain inputs of other tracks
+				if (t.isSidechainSource()) {
+					t.storeSidechainOutput(samplePos, scratchBuffer,
+							sampleCount);
+				}
+				// post-fader sends to the aux buses
+				t.processSends(scratchBuffer, buses, sampleCount);
+				if (t.isOutputSilent()) {
+					// nothing to mix
+				} else if (first) {
+					// copy first track directly into the outgoing buffer
+					scratchBuffer.copyTo(buffer, offset, sampleCount);
+					first = false;
+				} else {
+					// mix to the outgoing buffer
+					AudioKernels.mix(scratchBuffer, 0, buffer, offset,
+							sampleCount);
+				}
 			}
+			// measure the render cost of this track
+			long trackEndNanos = System.nanoTime();
+			t.addRenderNanos(trackEndNanos - trackStartNanos);
+			trackStartNanos = trackEndNanos;
 		}
 		if (first) {
 			if (TRACE) onnl("s");
 			// if nothing was written to buffer, silence it
 			buffer.makeSilence(offset, sampleCount);
 		}
+		// process the aux buses and mix their return
+		for (int i = 0; i < buses.length; i++) {
+			buses[i].process(samplePos, buffer, offset, sampleCount);
+		}
+		// master effects and limiter
+		masterBus.process(samplePos, buffer, offset, sampleCount);
 		if (TRACE) onnl(">");
 
 		// init new position
@@ -448,11 +670,12 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 	/**
 	 * read at the current position, handling looping.
 	 * 
+	 * @param deferVolume if true, the track's volume is not applied
 	 * @return the next sample position
 	 */
 	private long readImpl1(long samplePos, long requestedNewPosition,
 			AudioTrack track, FloatSampleBuffer buffer, int offset,
-			int sampleCount) {
+			int sampleCount, boolean deferVolume) {
 		// handle looping
 		if (state.isLoopEnabled()) {
 			long loopEnd = state.getLoopEndSamples();
@@ -467,7 +690,7 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 				int count = (int) (loopEnd - samplePos);
 				if (count > 0) {
 					readImpl2(samplePos, requestedNewPosition, track, buffer,
-							offset, count);
+							offset, count, deferVolume);
 				}
 				if (DEBUG_LOOPING && track.index == 0) {
 					debug("Looping: play " + count + " samples from end, and "
@@ -482,7 +705,7 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 		long ret;
 		if (sampleCount > 0) {
 			ret = readImpl2(samplePos, requestedNewPosition, track, buffer,
-					offset, sampleCount);
+					offset, sampleCount, deferVolume);
 		} else {
 			if (requestedNewPosition < 0) {
 				ret = samplePos;
@@ -496,45 +719,37 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 	/**
 	 * read at the current position, and cross-fade if jumping
 	 * 
+	 * @param deferVolume if true, the track's volume is not applied
 	 * @return the next playback position
 	 */
 	private long readImpl2(long samplePos, long requestedNewPosition,
 			AudioTrack track, FloatSampleBuffer buffer, int offset,
-			int sampleCount) {
+			int sampleCount, boolean deferVolume) {
 		boolean doFade = false;
 		// if true, only mix to buffer, do not overwrite
 		if (requestedNewPosition >= 0) {
 			// read at the old position and then perform a fade-out
-			if (fadeOutBuffer == null) {
-				fadeOutBuffer = new FloatSampleBuffer(buffer.getChannelCount(),
-						getFadeSampleCount(), buffer.getSampleRate());
-			}
 			track.readSource(samplePos, fadeOutBuffer, 0,
-					fadeOutBuffer.getSampleCount());
+					fadeOutBuffer.getSampleCount(), deferVolume);
 			doFade = true;
 			samplePos = requestedNewPosition;
 		}
 
 		// read full buffer
-		track.readSource(samplePos, buffer, offset, sampleCount);
+		track.readSource(samplePos, buffer, offset, sampleCount, deferVolume);
 
 		if (doFade) {
-			int fadeLen;
-			if (fadeOutBuffer != null) {
-				fadeLen = fadeOutBuffer.getSampleCount();
-			} else {
-				fadeLen = getFadeSampleCount();
-			}
+			int fadeLen = fadeOutBuffer.getSampleCount();
 			if (fadeLen > sampleCount) {
 				fadeLen = sampleCount;
 			}
 			// perform fade-in on current buffer (not many samples to keep
 			// "snappy" loops)
-			buffer.linearFade(0, 1, offset, fadeLen / 2);
+			AudioKernels.fade(buffer, offset, fadeLen / 2, 0, 1);
 			// perform fade on fade out buffer
-			fadeOutBuffer.linearFade(1, 0, 0, fadeLen);
+			AudioKernels.fade(fadeOutBuffer, 0, fadeLen, 1, 0);
 			// mix fade-buffer to this buffer
-			buffer.mix(fadeOutBuffer, 0, offset, fadeLen);
+			AudioKernels.mix(fadeOutBuffer, 0, buffer, offset, fadeLen);
 			if (TRACE_FADE) onnl("MixerFade ");
 		}
 		return samplePos + sampleCount;
@@ -616,6 +831,10 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 		}
 		element.getOwnerDocument().createComment("Exported " + (new Date()).toString());
 		state.xmlExport(element);
+		masterBus.xmlExport(element);
+		for (AuxBus bus : auxBuses) {
+			bus.xmlExport(element);
+		}
 		for (AudioTrack t : tracks) {
 			t.xmlExport(element);
 		}
@@ -665,6 +884,8 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 	public void xmlImport(Element element) throws Exception {
 		assert (element.getTagName().equals(EXPORT_XML_ROOT_ELEMENT));
 		clear();
+		clearAuxBuses();
+		masterBus.reset();
 
 		// go through all child elements
 		NodeList nodes = element.getChildNodes();
@@ -676,6 +897,14 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 						AudioState.EXPORT_XML_ELEMENT)) {
 					// read state
 					state.xmlImport(child);
+				} else if (child.getTagName().equalsIgnoreCase(
+						MasterBus.EXPORT_XML_ELEMENT)) {
+					// read master bus
+					masterBus.xmlImport(child);
+				} else if (child.getTagName().equalsIgnoreCase(
+						AuxBus.EXPORT_XML_ELEMENT)) {
+					// read aux bus
+					addAuxBus("").xmlImport(child);
 				} else if (child.getTagName().equalsIgnoreCase(
 						AudioTrack.EXPORT_XML_ELEMENT)) {
 					// read track
@@ -683,6 +912,8 @@ public class AudioMixer implements FloatSampleInput, XmlPersistent {
 				}
 			}
 		}
+		// the sample rate or the channel count may have changed
+		masterBus.prepare();
 		updateSoloState();
 	}
 }
@@ -4,6 +4,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.*;
 import org.tritonus.share.sampled.*;
@@ -11,7 +13,7 @@ import com.mixblendr.util.*;
 import static com.mixblendr.util.Debug.*;
 
 /**
- * Class for writing audio data to a soundcard.
+ * Class for writing audio data to a soundcard, or to another AudioSink.
  * 
  * @author Florian Bomers
  */
@@ -41,39 +43,104 @@ class AudioOutput {
 	/** the priority of the audio thread */
 	private static final int THREAD_PRIORITY = Thread.MAX_PRIORITY;
 
+	/** the maximum number of slices rendered ahead in pipelined mode */
+	public static final int MAX_RENDER_AHEAD_SLICES = 4;
+
+	/**
+	 * the time in nanoseconds that the audio threads sleep when polling the
+	 * slice ring
+	 */
+	private static final long RING_POLL_NANOS = 1000000L;
+
+	/**
+	 * the maximum time in nanoseconds to wait for the render thread to
+	 * acknowledge a discard of the rendered slices
+	 */
+	private static final long RENDER_SYNC_TIMEOUT_NANOS = 1000000000L;
+
 	/** the thread instance feeding/reading the audio device */
 	private AOThread thread = null;
 
+	/**
+	 * the number of slices rendered ahead by the render thread, or 0 if the
+	 * audio thread renders the slices itself
+	 */
+	private volatile int renderAheadSlices = 0;
+
 	/**
 	 * the mixer info to retrieve the data line from
 	 */
 	private Mixer.Info mixerInfo;
+
+	/** the sink to use instead of an audio device, or null */
+	private AudioSink customSink;
 	
 	/**
 	 * the buffer size in milliseconds
 	 */
-	private double bufferSizeMillis;
+	private volatile double bufferSizeMillis;
 
 	/**
 	 * the slice size in milliseconds
 	 */
-	private double sliceSizeMillis;
+	private volatile double sliceSizeMillis;
+
+	/** the buffer size set initially, or for the Java Sound Audio Engine */
+	private double initialBufferSizeMillis;
+
+	/** the slice size set initially, or for the Java Sound Audio Engine */
+	private double initialSliceSizeMillis;
+
+	/**
+	 * if true, buffer size and slice size are adapted to the performance of
+	 * the system during playback
+	 */
+	private volatile boolean adaptiveLatency = false;
+
+	/** if the audio device was opened in adaptive latency mode */
+	private boolean lineOpenedAdaptive = false;
+
+	/** the controller for adaptive latency mode */
+	private AdaptiveLatency latency = new AdaptiveLatency();
+
+	/** the render and device telemetry */
+	private AudioStatistics statistics = new AudioStatistics();
+
+	/** if TPDF dither is added when converting to the device format */
+	private volatile boolean dither = false;
+
+	/** the time that the audio thread sleeps when waiting for the device */
+	private static final long DEVICE_POLL_NANOS = 1000000L;
 
 	/** listener for exceptions in io thread */
 	protected FatalExceptionListener fatalExceptionListener = null;
 
 	protected AudioState state;
 
-	/** create an instance of AudioOutput */
+	/** create an instance of AudioOutput writing to the default audio device */
 	public AudioOutput(AudioState state) {
+		this(state, null);
+	}
+
+	/**
+	 * Create an instance of AudioOutput writing to the given sink. No audio
+	 * device is accessed.
+	 * 
+	 * @param sink the sink to write to, or null to use the default audio
+	 *            device
+	 */
+	public AudioOutput(AudioState state, AudioSink sink) {
+		customSink = sink;
 		format = DEFAULT_FORMAT;
 		this.state = state;
 		setBufferSizeMillis(DEFAULT_BUFFER_SIZE_MILLIS);
 		setSliceSizeMillis(DEFAULT_SLICE_SIZE_MILLIS);
+		initialBufferSizeMillis = DEFAULT_BUFFER_SIZE_MILLIS;
+		initialSliceSizeMillis = DEFAULT_SLICE_SIZE_MILLIS;
 		// populate some state fields
 		state.setChannels(format.getChannels());
 		state.setSampleRate(format.getSampleRate());
-		if (FORCE_JAVA_SOUND_AUDIO_ENGINE) {
+		if (FORCE_JAVA_SOUND_AUDIO_ENGINE && sink == null) {
 			Mixer.Info[] mi = AudioSystem.getMixerInfo();
 			for (Mixer.Info m : mi) {
 				if (AudioUtils.isJavaSoundAudioEngine(m)) {
@@ -82,7 +149,7 @@ class AudioOutput {
 				}
 			}
 		}
-		// create thread and sourcedataline
+		// create thread and sink
 		try {
 			init();
 		} catch (Throwable t) {
@@ -90,30 +157,38 @@ class AudioOutput {
 		}
 	}
 
-	/** create the thread and the source data line */
+	/** create the thread and the sink */
 	protected void init() throws LineUnavailableException {
-		SourceDataLine line = null;
+		AudioSink sink = null;
+		boolean needSink = (thread == null || thread.closed || thread.getSink() == null);
 
-		if (thread == null || thread.closed || thread.getLine() == null) {
+		if (needSink && customSink != null) {
+			// no audio device needed
+			sink = customSink;
+		} else if (needSink) {
 			String mixerName = (mixerInfo != null) ? mixerInfo.getName() : "(default)";
 			// retrieve data line
 			if (DEBUG) {
 				debug("creating audio device from mixer '" + mixerName + "'...");
 			}
-			line = AudioSystem.getSourceDataLine(format, mixerInfo);
+			SourceDataLine line = AudioSystem.getSourceDataLine(format,
+					mixerInfo);
+			sink = new LineSink(line);
 
 			// use larger buffer for Java Sound Audio Engine
 			if (AudioUtils.isJavaSoundAudioEngine(line)) {
 				setBufferSizeMillis(JAVASOUNDENGINE_BUFFER_SIZE_MILLIS);
 				setSliceSizeMillis(JAVASOUNDENGINE_SLICE_SIZE_MILLIS);
+				initialBufferSizeMillis = JAVASOUNDENGINE_BUFFER_SIZE_MILLIS;
+				initialSliceSizeMillis = JAVASOUNDENGINE_SLICE_SIZE_MILLIS;
 				debug("Java Sound Audio Engine detected: increase buffer size to "
 						+ JAVASOUNDENGINE_BUFFER_SIZE_MILLIS + "ms");
 			}
 		}
 		if (thread == null || thread.closed) {
-			thread = new AOThread(line);
-		} else if (line != null) {
-			thread.setLine(line);
+			thread = new AOThread(sink);
+		} else if (sink != null) {
+			thread.setSink(sink);
 		}
 	}
 
@@ -121,12 +196,18 @@ class AudioOutput {
 	public boolean isJavaSoundAudioEngine() {
 		if (mixerInfo != null) {
 			return AudioUtils.isJavaSoundAudioEngine(mixerInfo);
-		} else if (thread != null) {
-			return AudioUtils.isJavaSoundAudioEngine(thread.getLine());
+		} else if (thread != null && thread.getSink() instanceof LineSink) {
+			return AudioUtils.isJavaSoundAudioEngine(((LineSink) thread.getSink()).getLine());
 		}
 		return false;
 	}
 
+	/** @return the current sink, or null if none is open */
+	public AudioSink getSink() {
+		AOThread localThread = thread;
+		return (localThread != null) ? localThread.getSink() : null;
+	}
+
 	/**
 	 * get approximate lag from writing to the soundcard to when it's heard, in
 	 * samples
@@ -139,6 +220,86 @@ class AudioOutput {
 		return ret;
 	}
 
+	/**
+	 * update the lag in the state object, e.g. after the buffer size changed
+	 * during playback
+	 */
+	private void updateSampleLag() {
+		if (state.isStarted()) {
+			state.audioSampleLag = getSampleLag();
+		}
+	}
+
+	/** @return the current buffer size in milliseconds */
+	public double getBufferSizeMillis() {
+		return bufferSizeMillis;
+	}
+
+	/** @return the current slice size in milliseconds */
+	public double getSliceSizeMillis() {
+		return sliceSizeMillis;
+	}
+
+	/** @return the render and device statistics */
+	public AudioStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * @return the threads feeding the audio device and rendering ahead, or an
+	 *         empty array if the audio device is not open
+	 */
+	Thread[] getAudioThreads() {
+		AOThread localThread = thread;
+		if (localThread == null) {
+			return new Thread[0];
+		}
+		Thread localRenderThread = localThread.renderThread;
+		if (localRenderThread == null) {
+			return new Thread[] { localThread };
+		}
+		return new Thread[] { localThread, localRenderThread };
+	}
+
+	/** @return true if adaptive latency mode is enabled */
+	public boolean isAdaptiveLatency() {
+		return adaptiveLatency;
+	}
+
+	/**
+	 * Enable or disable adaptive latency mode. In adaptive mode, the audio
+	 * device is opened with a large buffer, and the audio thread only fills
+	 * it up to the current buffer size. Underruns and the time for rendering
+	 * the slices are measured, and the buffer size and slice size are grown
+	 * or shrunk accordingly. When disabled, the initial buffer and slice size
+	 * are used again. The change is effective at the next start of playback.
+	 * 
+	 * @param adaptive true to enable adaptive latency mode
+	 */
+	public synchronized void setAdaptiveLatency(boolean adaptive) {
+		this.adaptiveLatency = adaptive;
+	}
+
+	/** @return true if TPDF dither is added when converting to PCM */
+	public boolean isDither() {
+		return dither;
+	}
+
+	/**
+	 * Enable or disable TPDF dither when converting the rendered slices to
+	 * the format of the audio device. Takes effect with the next slice.
+	 * 
+	 * @see PcmConverter#setDither(boolean)
+	 */
+	public void setDither(boolean dither) {
+		this.dither = dither;
+	}
+
+	/** @return the number of underruns in adaptive latency mode */
+	public int getAdaptiveUnderrunCount() {
+		return latency.getUnderrunCount();
+	}
+
 	/**
 	 * Set buffer size
 	 * 
@@ -159,6 +320,11 @@ class AudioOutput {
 				format));
 	}
 
+	/** @return the duration of the audio data in the buffer in nanoseconds */
+	private final long getDurationNanos(FloatSampleBuffer buffer) {
+		return (long) (buffer.getSampleCount() * 1000000000.0 / buffer.getSampleRate());
+	}
+
 	/**
 	 * @return the number of slices that are rendered per audio hardware buffer
 	 */
@@ -197,15 +363,32 @@ class AudioOutput {
 		// open it
 		try {
 			init();
-			if (!thread.getLine().isOpen()) {
-				thread.getLine().open(format, getBufferSizeBytes());
+			if (thread.getSink().isOpen()
+					&& lineOpenedAdaptive != adaptiveLatency) {
+				// need to re-open with a different buffer size
+				thread.getSink().close();
+			}
+			if (!adaptiveLatency && lineOpenedAdaptive) {
+				setBufferSizeMillis(initialBufferSizeMillis);
+				setSliceSizeMillis(initialSliceSizeMillis);
+			}
+			latency.reset(bufferSizeMillis, sliceSizeMillis);
+			if (!thread.getSink().isOpen()) {
+				int bufferSizeBytes = getBufferSizeBytes();
+				if (adaptiveLatency) {
+					// open with the maximum size and fill it only partially
+					bufferSizeBytes = (int) AudioUtils.millis2BytesFrameAligned(
+							AdaptiveLatency.MAX_BUFFER_MILLIS, format);
+				}
+				thread.getSink().open(format, bufferSizeBytes);
+				lineOpenedAdaptive = adaptiveLatency;
 				if (DEBUG) {
 					debug("opened audio device, buffer size: "
-							+ thread.getLine().getBufferSize()
+							+ thread.getSink().getBufferSize()
 							+ " bytes = "
 							+ AudioUtils.bytes2MillisD(
-									thread.getLine().getBufferSize(),
-									thread.getLine().getFormat()) + "ms");
+									thread.getSink().getBufferSize(),
+									thread.getSink().getFormat()) + "ms");
 				}
 			}
 			thread.doResume();
@@ -218,7 +401,7 @@ class AudioOutput {
 			throw rte;
 		} catch (LineUnavailableException lue) {
 			thread.doStop(true);
-			thread.setLine(null);
+			thread.setSink(null);
 			debug("error, closed audio device.");
 			throw lue;
 		}
@@ -226,12 +409,15 @@ class AudioOutput {
 
 	/**
 	 * Start the audio output thread. If an audio device is set, data is read
-	 * from the input streams and written to the output device.
+	 * from the input streams and written to the output device. If a track is
+	 * rendered offline, this method blocks until it is finished.
 	 */
 	public synchronized void start() throws LineUnavailableException {
-		if (!state.isStarted()) {
-			startAudioDevice();
-			state.setStarted(true);
+		synchronized (state.getOfflineLock()) {
+			if (!state.isStarted()) {
+				startAudioDevice();
+				state.setStarted(true);
+			}
 		}
 	}
 
@@ -245,15 +431,16 @@ class AudioOutput {
 				thread.doStop(immediate);
 			}
 			state.setStarted(false);
+			state.getTransportClock().stop();
 		}
 	}
 
 	public synchronized void close() {
 		stop(true);
-		SourceDataLine sdl = null;
+		AudioSink sdl = null;
 		// quit thread
 		if (thread != null) {
-			sdl = thread.getLine();
+			sdl = thread.getSink();
 			thread.doClose();
 			thread = null;
 		}
@@ -276,15 +463,118 @@ class AudioOutput {
 		}
 	}
 
+	/**
+	 * @return the number of slices that are rendered ahead in pipelined mode,
+	 *         or 0 if pipelined mode is disabled
+	 */
+	public int getRenderAheadSlices() {
+		return renderAheadSlices;
+	}
+
+	/**
+	 * Enable pipelined mode: a separate render thread renders the given number
+	 * of slices ahead, and the audio thread only converts and writes them to
+	 * the audio device. This makes the output more robust against hiccups
+	 * during mixing, at the expense of a higher latency for control changes.
+	 * 
+	 * @param slices the number of slices to render ahead, 0 to disable
+	 *            pipelined mode, max. MAX_RENDER_AHEAD_SLICES
+	 */
+	public void setRenderAheadSlices(int slices) {
+		if (slices < 0 || slices > MAX_RENDER_AHEAD_SLICES) {
+			throw new IllegalArgumentException("illegal number of slices: "
+					+ slices);
+		}
+		if (slices != renderAheadSlices) {
+			renderAheadSlices = slices;
+			if (thread != null) {
+				thread.configChange = true;
+				synchronized (thread) {
+					thread.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * In pipelined mode, discard all slices that were rendered ahead, and
+	 * continue rendering at the position after the last slice that was
+	 * written to the audio device. Must be called when a change should be
+	 * effective at the current position, e.g. when the loop region is
+	 * changed. For changing the playback position, use
+	 * requestPlaybackPosition().
+	 */
+	void discardRenderedSlices() {
+		if (thread != null) {
+			thread.discardRenderedSlices();
+		}
+	}
+
+	/**
+	 * Request a new playback position from the mixer during playback. The
+	 * mixer fades out at the current position and continues at the new
+	 * position. In pipelined mode, the slices rendered ahead are discarded,
+	 * and the render thread passes the request to the mixer once it continues
+	 * rendering after the last slice written to the audio device. The request
+	 * is kept until a slice rendered from it is written, so that it is not
+	 * lost if the slices are discarded again.
+	 * 
+	 * @param pos the new playback position, or -1 to cancel a pending
+	 *            request
+	 */
+	void requestPlaybackPosition(long pos) {
+		AOThread localThread = thread;
+		if (localThread != null) {
+			if (pos >= 0 && localThread.requestPlaybackPosition(pos)) {
+				return;
+			}
+			localThread.positionRequest.set(null);
+		}
+		if (input instanceof AudioMixer) {
+			((AudioMixer) input).setRequestedPlaybackPosition(pos);
+		}
+	}
+
+	/** a playback position requested in pipelined mode */
+	private static class PositionRequest {
+		final long position;
+
+		PositionRequest(long position) {
+			this.position = position;
+		}
+	}
+
 	/**
 	 * Set the output device.
 	 */
 	public synchronized void setAudioDevice(Mixer.Info mixerInfo)
 			throws LineUnavailableException {
 		this.mixerInfo = mixerInfo;
+		customSink = null;
 		if (state.isStarted()) {
 			stop(true);
-			thread.setLine(null);
+			thread.setSink(null);
+			start();
+		}
+	}
+
+	/**
+	 * Set the sink to write to instead of an audio device. If playback is
+	 * started, it is restarted with the new sink.
+	 * 
+	 * @param sink the sink, or null to use the audio device again
+	 */
+	public synchronized void setSink(AudioSink sink)
+			throws LineUnavailableException {
+		customSink = sink;
+		boolean started = state.isStarted();
+		if (started) {
+			stop(true);
+		}
+		if (thread != null) {
+			thread.setSink(null);
+		}
+		if (started) {
 			start();
 		}
 	}
@@ -319,34 +609,106 @@ class AudioOutput {
 
 		protected volatile boolean configChange = false;
 
-		private SourceDataLine line;
+		private AudioSink sink;
 
 		private FloatSampleBuffer floatBuffer;
 		private byte[] byteBuffer;
+		private PcmConverter converter;
+
+		/** the frame position of the device when playback started */
+		private long framePositionBase;
+
+		/** the number of frames written since playback started */
+		private long writtenFrames;
+
+		/**
+		 * the time used for rendering the last slice, in nanoseconds. In
+		 * pipelined mode, it is set by the render thread
+		 */
+		volatile long renderNanos;
+
+		/**
+		 * In adaptive latency mode, the audio device is opened with a large
+		 * buffer. This method feeds the latency controller with the fill level
+		 * of the device, and waits until the device has room for the next
+		 * slice within the current buffer size.
+		 * 
+		 * @param localSink the audio device
+		 * @param fillMillis the current fill level of the device
+		 * @param byteCount the number of bytes to be written
+		 */
+		private void waitForAdaptiveBuffer(AudioSink localSink,
+				double fillMillis, int byteCount) {
+			int lineSize = localSink.getBufferSize();
+			int change = latency.update(fillMillis, renderNanos / 1000000.0);
+			if (change != 0) {
+				setBufferSizeMillis(latency.getBufferMillis());
+				if ((change & AdaptiveLatency.SLICE_CHANGED) != 0) {
+					// re-create the buffers in the next loop, before
+					// rendering the next slice
+					setSliceSizeMillis(latency.getSliceMillis());
+					configChange = true;
+				}
+				updateSampleLag();
+			}
+			int target = getBufferSizeBytes();
+			if (target > lineSize) {
+				target = lineSize;
+			}
+			while (!stopped && !closed
+					&& (lineSize - localSink.available()) + byteCount > target) {
+				LockSupport.parkNanos(DEVICE_POLL_NANOS);
+			}
+		}
+
+		/** in pipelined mode, the ring of rendered slices */
+		private volatile SliceRing ring;
+
+		/** in pipelined mode, the thread rendering the slices */
+		private volatile RenderThread renderThread;
+
+		/**
+		 * in pipelined mode, the current generation of slices. Incremented to
+		 * discard all rendered slices.
+		 */
+		private volatile int generation = 0;
+
+		/**
+		 * in pipelined mode, the sample slice position after the last slice
+		 * written to the audio device
+		 */
+		private volatile long writtenSlicePosition = 0;
+
+		/**
+		 * in pipelined mode, the playback position requested with the current
+		 * or an earlier generation, until a slice rendered from it is written
+		 * to the audio device
+		 */
+		final AtomicReference<PositionRequest> positionRequest = new AtomicReference<PositionRequest>();
 
 		/** create a new instance of the IO thread */
-		public AOThread(SourceDataLine line) {
+		public AOThread(AudioSink sink) {
 			super("Audio Output Thread");
-			this.line = line;
+			this.sink = sink;
 			setPriority(THREAD_PRIORITY);
 			start();
 		}
 
 		/**
-		 * @return the line
+		 * @return the sink
 		 */
-		SourceDataLine getLine() {
-			return line;
+		AudioSink getSink() {
+			return sink;
 		}
 
 		/**
-		 * @param line the line to set
+		 * @param sink the sink to set, the current sink is closed
 		 */
-		void setLine(SourceDataLine line) {
-			if (this.line != null) {
-				this.line.close();
+		void setSink(AudioSink sink) {
+			if (this.sink != null) {
+				this.sink.close();
 			}
-			this.line = line;
+			this.sink = sink;
 			configChange = true;
 		}
 
@@ -364,10 +726,137 @@ class AudioOutput {
 						+ AudioUtils.bytes2MillisD(sliceSizeBytes, format)
 						+ "ms");
 			}
-			// calculate number of samples
+			// allocate for the maximum slice size, so that a change of the
+			// slice size in adaptive latency mode does not allocate
+			int maxSliceSamples = state.getMaxSliceSizeSamples();
 			floatBuffer = new FloatSampleBuffer(format.getChannels(),
-					sliceSizeSamples, format.getSampleRate());
-			byteBuffer = new byte[sliceSizeBytes];
+					maxSliceSamples, format.getSampleRate());
+			floatBuffer.changeSampleCount(sliceSizeSamples, false);
+			byteBuffer = new byte[maxSliceSamples * format.getFrameSize()];
+			converter = new PcmConverter(format);
+			// the ring needs to be recreated with the new format
+			closeRenderThread();
+		}
+
+		/**
+		 * Create or remove the render thread and the slice ring, if the number
+		 * of render ahead slices changed. Must be called from this thread.
+		 */
+		private void updateRenderThread() {
+			int slices = renderAheadSlices;
+			if (ring != null && ring.getCapacity() == slices) {
+				return;
+			}
+			closeRenderThread();
+			if (slices > 0 && floatBuffer != null) {
+				ring = new SliceRing(slices, floatBuffer.getChannelCount(),
+						state.getMaxSliceSizeSamples(),
+						floatBuffer.getSampleRate());
+				writtenSlicePosition = state.getSampleSlicePosition();
+				renderThread = new RenderThread(this, ring);
+				if (DEBUG) {
+					debug(getName() + ": pipelined mode, rendering " + slices
+							+ " slices ahead");
+				}
+			}
+		}
+
+		/**
+		 * Stop and remove the render thread. The sample slice position is reset
+		 * to after the last slice written to the audio device. Must be called
+		 * from this thread.
+		 */
+		private void closeRenderThread() {
+			if (renderThread != null) {
+				syncRenderThread();
+				renderThread.doClose();
+				renderThread = null;
+				ring = null;
+				// pass a pending position request on to the mixer
+				PositionRequest request = positionRequest.getAndSet(null);
+				if (request != null && input instanceof AudioMixer) {
+					((AudioMixer) input).setRequestedPlaybackPosition(request.position);
+				}
+			}
+		}
+
+		/**
+		 * Discard all rendered slices and wait until the render thread has
+		 * reset the sample slice position to after the last slice written to
+		 * the audio device. Must be called from this thread.
+		 */
+		private void syncRenderThread() {
+			if (renderThread == null) {
+				return;
+			}
+			int gen = ++generation;
+			long timeout = System.nanoTime() + RENDER_SYNC_TIMEOUT_NANOS;
+			while (renderThread.renderedGeneration != gen
+					&& renderThread.isAlive()) {
+				// discard stale slices
+				while (!ring.isEmpty()) {
+					ring.commitRead();
+				}
+				LockSupport.unpark(renderThread);
+				if (System.nanoTime() > timeout) {
+					error(getName() + ": render thread does not respond");
+					break;
+				}
+				LockSupport.parkNanos(RING_POLL_NANOS);
+			}
+		}
+
+		/**
+		 * Discard all rendered slices. The render thread will continue at the
+		 * position after the last slice written to the audio device.
+		 */
+		void discardRenderedSlices() {
+			RenderThread localRenderThread = renderThread;
+			if (localRenderThread != null) {
+				generation++;
+				LockSupport.unpark(localRenderThread);
+			}
+		}
+
+		/**
+		 * In pipelined mode, discard all rendered slices and request the new
+		 * playback position. The render thread passes the request to the
+		 * mixer after it has reset the sample slice position to after the
+		 * last slice written to the audio device.
+		 * 
+		 * @return false if not in pipelined mode
+		 */
+		boolean requestPlaybackPosition(long pos) {
+			PositionRequest request = new PositionRequest(pos);
+			positionRequest.set(request);
+			RenderThread localRenderThread = renderThread;
+			if (localRenderThread == null) {
+				// take back the request, unless closeRenderThread() has
+				// already passed it on to the mixer
+				return !positionRequest.compareAndSet(request, null);
+			}
+			generation++;
+			LockSupport.unpark(localRenderThread);
+			return true;
+		}
+
+		/**
+		 * In pipelined mode, wait for the next slice of the current
+		 * generation, discarding stale slices. Returns null if waiting was
+		 * interrupted by a state change of this thread.
+		 */
+		private FloatSampleBuffer waitForRenderedSlice() {
+			while (!stopped && !configChange && !closed) {
+				if (ring.isEmpty()) {
+					LockSupport.parkNanos(RING_POLL_NANOS);
+				} else if (ring.getReadGeneration() != generation) {
+					ring.commitRead();
+					LockSupport.unpark(renderThread);
+				} else {
+					return ring.getReadBuffer();
+				}
+			}
+			return null;
 		}
 
 		/** return the flag if this thread should cease operation immediately. */
@@ -378,12 +867,19 @@ class AudioOutput {
 
 		/** call this method to pause this thread */
 		public void doResume() {
+			RenderThread localRenderThread = renderThread;
+			if (localRenderThread != null) {
+				writtenSlicePosition = state.getSampleSlicePosition();
+			}
 			stopped = false;
 			doDrain = false;
 			configChange = true;
 			synchronized (this) {
 				this.notifyAll();
 			}
+			if (localRenderThread != null) {
+				LockSupport.unpark(localRenderThread);
+			}
 		}
 
 		/** call this method to pause this thread */
@@ -394,15 +890,15 @@ class AudioOutput {
 			}
 			doDrain = false;
 			synchronized (this) {
-				if (line != null) {
+				if (sink != null) {
 					if (immediate) {
-						line.stop();
+						sink.stop();
 						if (DEBUG) {
 							debug("stopped audio device.");
 						}
-						line.flush();
+						sink.flush();
 					} else {
-						if (line.isRunning()) {
+						if (sink.isRunning()) {
 							doFadeOut = true;
 						}
 					}
@@ -466,7 +962,7 @@ class AudioOutput {
 		public void run() {
 			if (TRACE) debug(getName() + ": started.");
 			AudioFormat localFormat = format;
-			SourceDataLine localLine = null;
+			AudioSink localSink = null;
 			FloatSampleInput localInput = input;
 			configChange = true;
 			boolean doFadeIn = false;
@@ -485,34 +981,45 @@ class AudioOutput {
 						if (doDrain) {
 							doDrain = false;
 							stopped = true;
-							if (!closed && localLine != null
-									&& localLine.isRunning()) {
+							if (!closed && localSink != null
+									&& localSink.isRunning()) {
 								if (TRACE) debug(getName() + ": playing out...");
-								localLine.drain();
-								localLine.stop();
-								localLine.flush();
+								localSink.drain();
+								localSink.stop();
+								localSink.flush();
 								if (DEBUG) {
 									debug(getName() + ": audio device stopped");
 								}
 							}
 						}
-						if (localLine != line) {
+						if (localSink != sink) {
 							if (TRACE) debug(getName()
 									+ ": configuring audio device");
-							localLine = line;
-							if (localLine != null && !closed) {
+							localSink = sink;
+							if (localSink != null && !closed) {
 								localFormat = format;
 								createBuffers();
 							}
+						} else if (floatBuffer != null
+								&& floatBuffer.getSampleCount() != getSliceSampleCount()) {
+							// slice size changed: safe point for resizing the
+							// buffers, allocated for the maximum slice size
+							floatBuffer.changeSampleCount(
+									getSliceSampleCount(), false);
 						}
-						if ((stopped || localLine == null || localInput == null)
+						updateRenderThread();
+						if ((stopped || localSink == null || localInput == null)
 								&& !closed) {
+							// make sure that the render thread does not render
+							// ahead, and the slice position is where playback
+							// stopped
+							syncRenderThread();
 							if (DEBUG) {
 								String reason = "";
 								if (stopped) {
 									reason = "stopped, ";
 								}
-								if (localLine == null) {
+								if (localSink == null) {
 									reason += "device not open,";
 								}
 								if (localInput == null) {
@@ -526,12 +1033,12 @@ class AudioOutput {
 							}
 							if (TRACE) debug(getName() + ": woke up");
 						}
-						if (!stopped && localLine != null
-								&& !localLine.isRunning() && !doFadeIn) {
+						if (!stopped && localSink != null
+								&& !localSink.isRunning() && !doFadeIn) {
 							// init playback with a couple zero samples to
 							// prevent click
 							int len = (int) (state.getSampleRate() / 400)
-									* localLine.getFormat().getFrameSize();
+									* localSink.getFormat().getFrameSize();
 							if (len > byteBuffer.length) {
 								len = byteBuffer.length;
 							}
@@ -543,21 +1050,42 @@ class AudioOutput {
 							for (int i = 0; i < len; i++) {
 								byteBuffer[i] = 0;
 							}
-							localLine.flush();
-							localLine.write(byteBuffer, 0, len);
-							localLine.start();
+							localSink.flush();
+							framePositionBase = localSink.getLongFramePosition();
+							writtenFrames = len / localFormat.getFrameSize();
+							state.getTransportClock().reset(
+									localFormat.getSampleRate(),
+									floatBuffer.getSampleCount());
+							localSink.write(byteBuffer, 0, len);
+							localSink.start();
 							doFadeIn = true;
+							statistics.playbackStarted(getSlicesPerBuffer() + 1);
 						}
-					} else if (localLine != null) {
-						// read from the input line
-						if (localInput != null) {
+					} else if (localSink != null) {
+						FloatSampleBuffer localBuffer = floatBuffer;
+						long slicePosition = -1;
+						if (ring != null) {
+							// pipelined mode: get the next rendered slice
+							localBuffer = waitForRenderedSlice();
+							if (localBuffer == null) {
+								continue;
+							}
+							slicePosition = ring.getReadPosition();
+						} else if (localInput != null) {
+							// read from the input line
+							long renderStart = System.nanoTime();
 							localInput.read(floatBuffer);
+							renderNanos = System.nanoTime() - renderStart;
+							statistics.sliceRendered(renderNanos,
+									getDurationNanos(floatBuffer));
+						}
+						if (localInput != null) {
 							if (doFadeIn) {
-								floatBuffer.linearFade(0, 1);
+								localBuffer.linearFade(0, 1);
 								if (TRACE) debug(getName() + ": doing fade-in");
 								doFadeIn = false;
 							} else if (doFadeOut) {
-								floatBuffer.linearFade(1, 0);
+								localBuffer.linearFade(1, 0);
 								if (TRACE) debug(getName() + ": doing fade-out");
 								doFadeOut = false;
 								doDrain = true;
@@ -565,19 +1093,51 @@ class AudioOutput {
 							}
 						}
 						// convert to byte
-						int n = floatBuffer.convertToByteArray(byteBuffer, 0,
-								localFormat);
+						converter.setDither(dither);
+						int n = converter.convert(localBuffer, byteBuffer, 0);
+						statistics.sliceConverted(converter.getLastClipCount());
+						if (ring != null) {
+							// release the slice to the render thread
+							writtenSlicePosition = slicePosition;
+							// a position request is fulfilled once a slice
+							// rendered from it is written
+							PositionRequest applied = renderThread.appliedRequest;
+							if (applied != null) {
+								positionRequest.compareAndSet(applied, null);
+							}
+							ring.commitRead();
+							LockSupport.unpark(renderThread);
+						}
 						if (!stopped) {
 							// write the audio data to soundcard
-							if (!localLine.isRunning()) {
-								localLine.start();
+							if (!localSink.isRunning()) {
+								localSink.start();
 							}
-							localLine.write(byteBuffer, 0, n);
+							double fillMillis = AudioUtils.bytes2MillisD(
+									localSink.getBufferSize()
+											- localSink.available(), localFormat);
+							statistics.sliceWritten(fillMillis);
+							if (lineOpenedAdaptive) {
+								waitForAdaptiveBuffer(localSink, fillMillis, n);
+							}
+							localSink.write(byteBuffer, 0, n);
 							if (debugOut != null) {
 								debugOut.write(byteBuffer, 0, n);
 							}
 							// update the state with this new buffer
-							state.bufferWrittenToOutput();
+							if (slicePosition >= 0) {
+								state.bufferWrittenToOutput(slicePosition);
+							} else {
+								slicePosition = state.getSampleSlicePosition();
+								state.bufferWrittenToOutput();
+							}
+							// feed the transport clock
+							writtenFrames += n / localFormat.getFrameSize();
+							TransportClock clock = state.getTransportClock();
+							clock.sliceWritten(writtenFrames, slicePosition);
+							clock.framePositionUpdate(System.nanoTime(),
+									localSink.getLongFramePosition()
+											- framePositionBase);
 						}
 					}
 				}
@@ -593,6 +1153,7 @@ class AudioOutput {
 			}
 			if (TRACE) debug(getName() + ": exit.");
 			closed = true;
+			closeRenderThread();
 			if (debugOut != null) {
 				try {
 					debugOut.close();
@@ -602,4 +1163,112 @@ class AudioOutput {
 		}
 	}
 
+	/**
+	 * In pipelined mode, this thread renders slices ahead into the slice ring,
+	 * from which the AOThread reads. When the AOThread increments its
+	 * generation, this thread waits until all stale slices are discarded, and
+	 * then resets the sample slice position to after the last slice written to
+	 * the audio device.
+	 */
+	private class RenderThread extends Thread {
+
+		/** flag to signal a requested closing of this thread */
+		private volatile boolean closed = false;
+
+		/** the thread consuming the rendered slices */
+		private AOThread output;
+
+		private SliceRing ring;
+
+		/** the generation of the slices currently rendered */
+		volatile int renderedGeneration;
+
+		/**
+		 * the position request passed to the mixer before rendering the
+		 * slices of the current generation, or null
+		 */
+		volatile PositionRequest appliedRequest;
+
+		/** create and start a new render thread */
+		public RenderThread(AOThread output, SliceRing ring) {
+			super("Audio Render Thread");
+			this.output = output;
+			this.ring = ring;
+			renderedGeneration = output.generation;
+			setPriority(THREAD_PRIORITY);
+			start();
+		}
+
+		/** terminate this thread and wait until it has exited */
+		public void doClose() {
+			closed = true;
+			LockSupport.unpark(this);
+			try {
+				join(2000);
+			} catch (InterruptedException ie) {
+				// nothing
+			}
+		}
+
+		/** main thread method: render slices to the ring */
+		@Override
+		public void run() {
+			if (TRACE) debug(getName() + ": started.");
+			try {
+				while (!closed) {
+					int gen = output.generation;
+					if (gen != renderedGeneration) {
+						if (!ring.isEmpty()) {
+							// wait until the AOThread discarded all slices
+							LockSupport.parkNanos(RING_POLL_NANOS);
+							continue;
+						}
+						// continue rendering after the last written slice
+						state.setSampleSlicePosition(output.writtenSlicePosition);
+						// and jump from there to a requested position
+						PositionRequest request = output.positionRequest.get();
+						if (request != null && input instanceof AudioMixer) {
+							((AudioMixer) input).setRequestedPlaybackPosition(request.position);
+						}
+						appliedRequest = request;
+						renderedGeneration = gen;
+						LockSupport.unpark(output);
+						continue;
+					}
+					FloatSampleInput localInput = input;
+					if (output.stopped || localInput == null) {
+						// woken up by doResume() or syncRenderThread()
+						LockSupport.park();
+						continue;
+					}
+					if (ring.isFull()) {
+						// woken up by AOThread when it has read a slice
+						LockSupport.parkNanos(RING_POLL_NANOS);
+						continue;
+					}
+					long renderStart = System.nanoTime();
+					FloatSampleBuffer buffer = ring.getWriteBuffer();
+					// follow slice size changes in adaptive latency mode
+					buffer.changeSampleCount(getSliceSampleCount(), false);
+					localInput.read(buffer);
+					long nanos = System.nanoTime() - renderStart;
+					output.renderNanos = nanos;
+					statistics.sliceRendered(nanos, getDurationNanos(buffer));
+					ring.commitWrite(state.getSampleSlicePosition(), gen);
+					LockSupport.unpark(output);
+				}
+			} catch (Throwable t) {
+				if (!closed) {
+					if (fatalExceptionListener != null) {
+						fatalExceptionListener.fatalExceptionOccured(t,
+								getName());
+					} else {
+						error(t);
+					}
+				}
+			}
+			if (TRACE) debug(getName() + ": exit.");
+		}
+	}
+
 }
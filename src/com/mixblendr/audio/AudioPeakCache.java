@@ -199,6 +199,34 @@ public class AudioPeakCache {
 		enlarge(cacheCount);
 	}
 
+	/**
+	 * @return the number of bytes allocated for the min and max cache arrays
+	 */
+	public long getMemoryBytes() {
+		long ret = 0;
+		if (minCache != null) {
+			for (int c = 0; c < minCache.getChannelCount(); c++) {
+				ret += minCache.getChannel(c).length;
+				ret += maxCache.getChannel(c).length;
+			}
+		}
+		return ret * 4;
+	}
+
+	/**
+	 * @return the number of bytes held in the static pool of recycled cache
+	 *         arrays
+	 */
+	public static long getPoolMemoryBytes() {
+		long ret = 0;
+		synchronized (cachePool) {
+			for (float[] d : cachePool) {
+				ret += d.length;
+			}
+		}
+		return ret * 4;
+	}
+
 	/**
 	 * The number of samples currently represented by the cache data.
 	 * @return the handledSampleCount
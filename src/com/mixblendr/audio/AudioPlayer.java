@@ -3,6 +3,9 @@
  */
 package com.mixblendr.audio;
 
+import static com.mixblendr.util.Debug.error;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,6 +27,8 @@ public class AudioPlayer {
 	private AudioFileFactory factory;
 	private List<Listener> listeners;
 	private FatalExceptionListener fel;
+	private EngineMetrics metrics;
+	private AudioRecorder recorder;
 
 	private static List<AudioPlayer> instances = new ArrayList<AudioPlayer>();
 
@@ -56,10 +61,23 @@ public class AudioPlayer {
 	 * classes.
 	 */
 	public void init() {
-		output = new AudioOutput(state);
+		init(null);
+	}
+
+	/**
+	 * Initialize the AudioOutput, AudioMixer, AudioFileFactory classes, and
+	 * play to the given sink instead of the audio device, e.g. a NullSink for
+	 * running the playback loop without sound hardware.
+	 * 
+	 * @param sink the sink to play to, or null for the default audio device
+	 */
+	public void init(AudioSink sink) {
+		output = new AudioOutput(state, sink);
 		mixer = new AudioMixer(state);
 		output.setInput(mixer);
 		output.setFatalExceptionListener(fel);
+		metrics = new EngineMetrics(this);
+		metrics.register();
 	}
 
 	/**
@@ -90,6 +108,23 @@ public class AudioPlayer {
 		return state;
 	}
 
+	/**
+	 * @return the management bean exposing the engine metrics
+	 */
+	public EngineMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the recorder for recording to the track armed for recording
+	 */
+	public synchronized AudioRecorder getRecorder() {
+		if (recorder == null) {
+			recorder = new AudioRecorder(state, mixer);
+		}
+		return recorder;
+	}
+
 	/**
 	 * @return the fatal exception listener
 	 */
@@ -153,14 +188,24 @@ public class AudioPlayer {
 	}
 
 	/**
-	 * stop playback, close output device, clear and remove mixer references,
-	 * and close the audio file factory
+	 * stop recording and playback, close output device, clear and remove
+	 * mixer references, and close the audio file factory
 	 */
 	public void close() {
+		if (recorder != null) {
+			try {
+				recorder.stop();
+			} catch (IOException ioe) {
+				error(ioe);
+			}
+		}
 		stop(true);
 		output.close();
 		mixer.clear();
 		factory.close();
+		if (metrics != null) {
+			metrics.unregister();
+		}
 		instances.remove(this);
 	}
 
@@ -210,8 +255,10 @@ public class AudioPlayer {
 		}
 		if (state.getSampleSlicePosition() != pos) {
 			if (isStarted()) {
-				mixer.setRequestedPlaybackPosition(pos);
+				output.requestPlaybackPosition(pos);
 			} else {
+				// cancel a request which was not played anymore
+				output.requestPlaybackPosition(-1);
 				state.setSampleSlicePosition(pos);
 				for (Listener l : listeners) {
 					l.onPlaybackPositionChanged(this, pos);
@@ -233,6 +280,7 @@ public class AudioPlayer {
 	 */
 	public void setLoopEnabled(boolean enable) {
 		state.setLoopEnabled(enable);
+		output.discardRenderedSlices();
 	}
 
 	/**
@@ -250,6 +298,81 @@ public class AudioPlayer {
 			throw new IllegalArgumentException("start position is negative");
 		}
 		state.setLoopSamples(start, start + duration);
+		output.discardRenderedSlices();
+	}
+
+	/**
+	 * Get the telemetry of the audio output: render time histogram, deadline
+	 * misses, underruns and fill level of the audio device. The render cost
+	 * per track is available from the tracks.
+	 * 
+	 * @return the live statistics object
+	 * @see AudioTrack#getAverageRenderMillis()
+	 */
+	public AudioStatistics getStatistics() {
+		return output.getStatistics();
+	}
+
+	/** reset the statistics of the audio output and of all tracks */
+	public void resetStatistics() {
+		output.getStatistics().reset();
+		for (int i = 0; i < mixer.getTrackCount(); i++) {
+			mixer.getTrack(i).resetRenderStatistics();
+		}
+	}
+
+	/** @return true if adaptive latency mode is enabled */
+	public boolean isAdaptiveLatency() {
+		return output.isAdaptiveLatency();
+	}
+
+	/**
+	 * Enable or disable adaptive latency mode: buffer size and slice size of
+	 * the audio device are adapted to the performance of the system. The
+	 * change is effective at the next start of playback.
+	 * 
+	 * @param adaptive true to enable adaptive latency
+	 */
+	public void setAdaptiveLatency(boolean adaptive) {
+		output.setAdaptiveLatency(adaptive);
+	}
+
+	/**
+	 * @return the number of slices rendered ahead in pipelined mode, or 0 if
+	 *         not in pipelined mode
+	 * @see #setRenderAheadSlices(int)
+	 */
+	public int getRenderAheadSlices() {
+		return output.getRenderAheadSlices();
+	}
+
+	/**
+	 * Enable or disable pipelined mode: a separate thread renders the given
+	 * number of slices ahead, and the audio output thread only writes them to
+	 * the audio device. Position and loop changes will still be effective
+	 * immediately.
+	 * 
+	 * @param slices the number of slices to render ahead (usually 1 or 2), or
+	 *            0 to disable pipelined mode
+	 */
+	public void setRenderAheadSlices(int slices) {
+		output.setRenderAheadSlices(slices);
+	}
+
+	/** @return the sink the output is played to, or null if none is open */
+	public AudioSink getAudioSink() {
+		return output.getSink();
+	}
+
+	/**
+	 * Play to the given sink instead of the audio device. If playback is
+	 * started, it is restarted with the new sink.
+	 * 
+	 * @param sink the sink, or null to use the audio device
+	 * @see #init(AudioSink)
+	 */
+	public void setAudioSink(AudioSink sink) throws Exception {
+		output.setSink(sink);
 	}
 
 	/**
@@ -0,0 +1,369 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import static com.mixblendr.util.Debug.debug;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Records audio from a CaptureSource, e.g. vocals over the playing mix. The
+ * recording is done by two threads: the capture thread reads the source in
+ * small chunks and puts them into a lock-free ring, so that it is never
+ * blocked by the disk. The writer thread streams the audio from the ring to
+ * a local audio file, which updates its peak cache incrementally, so the
+ * waveform can be displayed while recording.
+ * <p>
+ * When recording stops, the audio file is added as a new region to the
+ * track armed for recording. The region is placed at the position which was
+ * heard when the first chunk was captured, as returned by
+ * AudioState.getSamplePosition(): it includes the lag of the audio output,
+ * either measured by the transport clock or estimated from AudioOutput's
+ * sample lag. The latency of the input can be set in addition with
+ * setInputLatencySamples().
+ * <p>
+ * If the writer thread does not keep up, the data which does not fit into
+ * the ring is dropped and counted.
+ *
+ * @author Florian Bomers
+ * @see AudioTrack#setRecordArmed(boolean)
+ */
+public class AudioRecorder {
+
+	private final static boolean DEBUG = false;
+
+	/** the size of the capture chunks in milliseconds */
+	private static final double CHUNK_MILLIS = 10.0;
+
+	/** the size of the buffer of the capture source in milliseconds */
+	private static final double SOURCE_BUFFER_MILLIS = 100.0;
+
+	/** the size of the ring between capture and writer thread */
+	private static final double RING_MILLIS = 2000.0;
+
+	/** the time the writer thread sleeps when the ring is empty */
+	private static final long WRITER_POLL_NANOS = 5000000L;
+
+	private final AudioState state;
+
+	private final AudioMixer mixer;
+
+	/** the source set by the user, or null for the default input device */
+	private CaptureSource customSource;
+
+	/** the additional latency of the input in samples */
+	private volatile long inputLatencySamples = 0;
+
+	// the current recording
+
+	private CaptureSource source;
+
+	private AudioTrack track;
+
+	private AudioFileLocal file;
+
+	private ByteRing ring;
+
+	private CaptureThread captureThread;
+
+	private WriterThread writerThread;
+
+	private volatile boolean recording;
+
+	/** the timeline position of the first recorded sample, or -1 */
+	private volatile long startPosition;
+
+	/** the number of bytes captured before timeline position 0 */
+	private volatile long skipBytes;
+
+	/** the number of bytes dropped because the ring was full */
+	private volatile long droppedBytes;
+
+	/** the exception of the writer thread, or null */
+	private volatile IOException writeError;
+
+	/**
+	 * Create a recorder. Use AudioPlayer.getRecorder() to get the recorder of
+	 * a player.
+	 */
+	AudioRecorder(AudioState state, AudioMixer mixer) {
+		this.state = state;
+		this.mixer = mixer;
+	}
+
+	/**
+	 * Set the source to record from. Takes effect with the next recording.
+	 *
+	 * @param source the source, or null for the default audio input device
+	 */
+	public void setSource(CaptureSource source) {
+		customSource = source;
+	}
+
+	/** @return the additional latency of the input in samples */
+	public long getInputLatencySamples() {
+		return inputLatencySamples;
+	}
+
+	/**
+	 * Set the latency of the input, i.e. the time from the sound reaching the
+	 * input to the capture source delivering it, minus the time measured by
+	 * the recorder. The recorded region is placed earlier by this time.
+	 *
+	 * @param samples the input latency in samples
+	 */
+	public void setInputLatencySamples(long samples) {
+		inputLatencySamples = samples;
+	}
+
+	/** @return true if recording */
+	public boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * @return the audio file being recorded, e.g. for displaying the
+	 *         waveform while recording, or null if not recording
+	 */
+	public AudioFile getAudioFile() {
+		return recording ? file : null;
+	}
+
+	/**
+	 * @return the number of bytes dropped during the current or last
+	 *         recording, because the writer did not keep up
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/** @return the first track armed for recording, or null */
+	private AudioTrack getArmedTrack() {
+		for (int i = 0; i < mixer.getTrackCount(); i++) {
+			AudioTrack t = mixer.getTrack(i);
+			if (t.isRecordArmed()) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Start recording. The recording is placed on the track armed for
+	 * recording when it is stopped.
+	 *
+	 * @throws IllegalStateException if already recording, or if no track is
+	 *             armed for recording
+	 * @throws LineUnavailableException if the source cannot be opened
+	 * @throws IOException if the audio file cannot be created
+	 */
+	public synchronized void start() throws LineUnavailableException,
+			IOException {
+		if (recording) {
+			throw new IllegalStateException("already recording");
+		}
+		AudioTrack armed = getArmedTrack();
+		if (armed == null) {
+			throw new IllegalStateException("no track armed for recording");
+		}
+		AudioFormat format = new AudioFormat(state.getSampleRate(), 16,
+				state.getChannels(), true, false);
+		CaptureSource localSource = customSource;
+		if (localSource == null) {
+			localSource = new LineCaptureSource();
+		}
+		AudioFileFactory factory = state.getAudioFileFactory();
+		AudioFileLocal af = factory.createLocalAudioFile(armed.getName()
+				+ " (recorded)");
+		try {
+			af.init(format);
+			localSource.open(format, millis2bytes(SOURCE_BUFFER_MILLIS, format));
+		} catch (IOException ioe) {
+			factory.closeAudioFile(af);
+			throw ioe;
+		} catch (LineUnavailableException lue) {
+			factory.closeAudioFile(af);
+			throw lue;
+		}
+		source = localSource;
+		track = armed;
+		file = af;
+		ring = new ByteRing(millis2bytes(RING_MILLIS, format));
+		startPosition = -1;
+		skipBytes = 0;
+		droppedBytes = 0;
+		writeError = null;
+		recording = true;
+		writerThread = new WriterThread();
+		captureThread = new CaptureThread(format);
+		source.start();
+		writerThread.start();
+		captureThread.start();
+		if (DEBUG) {
+			debug("AudioRecorder: started recording from " + source
+					+ " to " + track);
+		}
+	}
+
+	/**
+	 * Stop recording, and add the recorded audio as a new region to the
+	 * track armed for recording. This method blocks until all captured audio
+	 * is written to the audio file.
+	 *
+	 * @return the new region, or null if not recording or if nothing was
+	 *         recorded
+	 * @throws IOException if writing the audio file failed
+	 */
+	public synchronized AudioRegion stop() throws IOException {
+		if (!recording) {
+			return null;
+		}
+		recording = false;
+		source.stop();
+		join(captureThread);
+		writerThread.captureDone = true;
+		LockSupport.unpark(writerThread);
+		join(writerThread);
+		source.close();
+		AudioFileFactory factory = state.getAudioFileFactory();
+		AudioFileLocal af = file;
+		AudioTrack armed = track;
+		source = null;
+		track = null;
+		captureThread = null;
+		writerThread = null;
+		ring = null;
+		file = null;
+		if (writeError != null) {
+			factory.closeAudioFile(af);
+			throw writeError;
+		}
+		af.finish();
+		if (af.getAvailableSamples() == 0 || startPosition < 0) {
+			factory.closeAudioFile(af);
+			return null;
+		}
+		AudioRegion region = armed.addRegion(af, startPosition);
+		if (DEBUG) {
+			debug("AudioRecorder: recorded " + af + " at "
+					+ state.sample2seconds(startPosition) + "s, dropped "
+					+ droppedBytes + " bytes");
+		}
+		return region;
+	}
+
+	/** @return the number of bytes of whole frames for the given time */
+	private int millis2bytes(double millis, AudioFormat format) {
+		return (int) state.millis2sample(millis) * format.getFrameSize();
+	}
+
+	/** wait for the thread to finish */
+	private static void join(Thread t) {
+		boolean interrupted = false;
+		while (t.isAlive()) {
+			try {
+				t.join();
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads the capture source into the ring. The timeline position of the
+	 * recording is taken when the first chunk arrives.
+	 */
+	private class CaptureThread extends Thread {
+
+		private final byte[] chunk;
+
+		private final int frameSize;
+
+		CaptureThread(AudioFormat format) {
+			super("Audio Capture Thread");
+			frameSize = format.getFrameSize();
+			chunk = new byte[millis2bytes(CHUNK_MILLIS, format)];
+			setPriority(Thread.MAX_PRIORITY);
+		}
+
+		@Override
+		public void run() {
+			while (recording) {
+				int n = source.read(chunk, 0, chunk.length);
+				if (n <= 0) {
+					continue;
+				}
+				if (startPosition < 0) {
+					// the chunk was captured before read() returned
+					long pos = state.getSamplePosition() - (n / frameSize)
+							- inputLatencySamples;
+					if (pos < 0) {
+						skipBytes = -pos * frameSize;
+						pos = 0;
+					}
+					startPosition = pos;
+				}
+				int written = ring.write(chunk, 0, n);
+				if (written < n) {
+					droppedBytes += n - written;
+				}
+				LockSupport.unpark(writerThread);
+			}
+		}
+	}
+
+	/** Streams the audio from the ring to the audio file. */
+	private class WriterThread extends Thread {
+
+		private final byte[] chunk = new byte[64 * 1024];
+
+		/** set when the capture thread has finished */
+		volatile boolean captureDone = false;
+
+		WriterThread() {
+			super("Audio Recording Writer Thread");
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					// read captureDone before the ring, so that nothing is
+					// missed
+					boolean done = captureDone;
+					int n = ring.read(chunk, 0, chunk.length);
+					if (n > 0) {
+						write(n);
+					} else if (done) {
+						break;
+					} else {
+						LockSupport.parkNanos(WRITER_POLL_NANOS);
+					}
+				}
+			} catch (IOException ioe) {
+				writeError = ioe;
+			}
+		}
+
+		/** write the chunk to the file, skipping data before position 0 */
+		private void write(int n) throws IOException {
+			int offset = 0;
+			long skip = skipBytes;
+			if (skip > 0) {
+				offset = (int) Math.min(skip, n);
+				skipBytes = skip - offset;
+			}
+			if (offset < n) {
+				file.write(chunk, offset, n - offset);
+			}
+		}
+	}
+}
@@ -304,15 +304,7 @@ public class AudioRegion extends AutomationObject implements
 		if (level == 0.0 || muted) {
 			buffer.makeSilence(offset, count);
 		} else {
-			final int cc = buffer.getChannelCount();
-			final int endPos = offset + count;
-			final float lev = (float) level;
-			for (int c = 0; c < cc; c++) {
-				float[] channel = buffer.getChannel(c);
-				for (int p = offset; p < endPos; p++) {
-					channel[p] *= lev;
-				}
-			}
+			AudioKernels.gain(buffer, offset, count, (float) level);
 		}
 	}
 
@@ -335,7 +327,7 @@ public class AudioRegion extends AutomationObject implements
 			// apply level&mute
 			applyLevel(buffer, offset, count);
 			// now fade in
-			buffer.linearFade(0f, 1f, offset, count);
+			AudioKernels.fade(buffer, offset, count, 0f, 1f);
 		}
 	}
 
@@ -366,7 +358,7 @@ public class AudioRegion extends AutomationObject implements
 			// apply level and mute
 			applyLevel(buffer, offset, count);
 			// now fade out
-			buffer.linearFade(1f, 0f, offset, count);
+			AudioKernels.fade(buffer, offset, count, 1f, 0f);
 		}
 	}
 
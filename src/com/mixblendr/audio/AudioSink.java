@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * The destination of the audio output thread: the subset of
+ * javax.sound.sampled.SourceDataLine used by AudioOutput. The default sink is
+ * the audio device, see LineSink. Other sinks allow running the real-time
+ * playback loop without sound hardware, e.g. in tests, on servers or in a
+ * profiler: NullSink discards the audio, FileSink writes it to a file, and
+ * RingSink keeps it in memory. These sinks consume the audio at the pace of
+ * the system clock, like an audio device.
+ * <p>
+ * The methods are called by the audio output thread, except for open() and
+ * close(), which are called by AudioOutput.
+ *
+ * @author Florian Bomers
+ * @see AudioPlayer#init(AudioSink)
+ */
+public interface AudioSink {
+
+	/**
+	 * Open the sink with the given format and buffer size.
+	 *
+	 * @param format the format of the audio data
+	 * @param bufferSize the buffer size in bytes
+	 * @throws LineUnavailableException if the sink cannot be opened
+	 */
+	public void open(AudioFormat format, int bufferSize)
+			throws LineUnavailableException;
+
+	/** @return true if the sink is open */
+	public boolean isOpen();
+
+	/** close the sink and release its resources */
+	public void close();
+
+	/** start consuming the written audio data */
+	public void start();
+
+	/** stop consuming the written audio data, keep the buffered data */
+	public void stop();
+
+	/** @return true if the sink is started */
+	public boolean isRunning();
+
+	/** discard the buffered audio data */
+	public void flush();
+
+	/** wait until all buffered audio data is consumed */
+	public void drain();
+
+	/**
+	 * Write audio data to the buffer of the sink. Blocks until all data is
+	 * written, if the sink is started.
+	 *
+	 * @return the number of bytes written
+	 */
+	public int write(byte[] b, int off, int len);
+
+	/** @return the number of bytes that can be written without blocking */
+	public int available();
+
+	/** @return the buffer size in bytes */
+	public int getBufferSize();
+
+	/** @return the format of the audio data */
+	public AudioFormat getFormat();
+
+	/** @return the number of frames consumed since the sink was opened */
+	public long getLongFramePosition();
+}
@@ -45,6 +45,9 @@ public class AudioState implements XmlPersistent {
 	private boolean timeDisplayInBeats = true;
 	private boolean started = false;
 
+	/** held while a track is rendered offline, see getOfflineLock() */
+	private final Object offlineLock = new Object();
+
 	private AudioFileFactory audioFileFactory;
 	private AutomationEventDispatcher automationDispatcher;
 	private AudioEventDispatcher audioDispatcher;
@@ -351,11 +354,22 @@ public class AudioState implements XmlPersistent {
 	 * played, for getSamplePosition().
 	 */
 	final void bufferWrittenToOutput() {
+		bufferWrittenToOutput(sampleSlicePosition);
+	}
+
+	/**
+	 * called by AudioOutput whenever a buffer was just written to the
+	 * soundcard, if the buffer was rendered ahead of the current sample slice
+	 * position.
+	 * 
+	 * @param slicePosition the sample slice position after the written buffer
+	 */
+	final void bufferWrittenToOutput(long slicePosition) {
 		long newTime = getSampleSystemTime();
 		if (knownSampleSystemTime < 0
 				|| (newTime - lastWriteTime >= sampleSliceSize)) {
 			knownSampleSystemTime = newTime;
-			knownSampleSlicePos = sampleSlicePosition;
+			knownSampleSlicePos = slicePosition;
 		}
 		lastWriteTime = newTime;
 	}
@@ -387,6 +401,19 @@ public class AudioState implements XmlPersistent {
 		return AudioUtils.frames2MillisD(sampleSliceSize, sampleRate);
 	}
 
+	/**
+	 * The largest slice size used during playback: in adaptive latency mode,
+	 * the slice size changes during playback. Buffers for processing a slice
+	 * should be allocated with this size, so that a change of the slice size
+	 * does not allocate memory in the audio thread.
+	 * 
+	 * @return the maximum slice size in samples
+	 */
+	public final int getMaxSliceSizeSamples() {
+		return Math.max(sampleSliceSize,
+				AdaptiveLatency.getMaxSliceSamples(sampleRate));
+	}
+
 	/**
 	 * Set the slice size, called by AudioOutput
 	 * @param sampleSliceSize the slice size in samples to set
@@ -402,15 +429,55 @@ public class AudioState implements XmlPersistent {
 	long audioSampleLag = 0;
 
 	/**
-	 * return an interpolated exact position in samples. It uses the last sample
-	 * slice time and calculates the time difference using System.nanoTime().
+	 * the lag of the processing after the mixer, i.e. the latency of the
+	 * master bus. This is set by MasterBus.
+	 */
+	private volatile long processingSampleLag = 0;
+
+	/**
+	 * @return the lag of the processing after the mixer in samples, e.g. the
+	 *         lookahead of the master limiter
+	 */
+	public final long getProcessingSampleLag() {
+		return processingSampleLag;
+	}
+
+	/**
+	 * Set the lag of the processing after the mixer, called by MasterBus.
+	 * 
+	 * @param processingSampleLag the lag in samples
+	 */
+	final void setProcessingSampleLag(long processingSampleLag) {
+		this.processingSampleLag = processingSampleLag;
+	}
+
+	/** the clock derived from the frame position of the audio device */
+	private final TransportClock transportClock = new TransportClock();
+
+	/**
+	 * @return the clock derived from the frame position of the audio device
+	 */
+	public final TransportClock getTransportClock() {
+		return transportClock;
+	}
+
+	/**
+	 * Return the exact position in samples of the audio that is currently
+	 * heard. If the audio device reports its frame position, the position is
+	 * taken from the transport clock. Otherwise, it is interpolated from the
+	 * last sample slice time and the time difference using System.nanoTime().
 	 */
 	public final long getSamplePosition() {
 		if (knownSampleSlicePos < 0 || !isStarted()) {
 			return getSampleSlicePosition();
 		}
-		long ret = getSampleSystemTime() - knownSampleSystemTime
-				+ knownSampleSlicePos - audioSampleLag;
+		long ret = transportClock.getSamplePosition();
+		if (ret >= 0) {
+			ret -= processingSampleLag;
+			return (ret < 0) ? 0 : ret;
+		}
+		ret = getSampleSystemTime() - knownSampleSystemTime
+				+ knownSampleSlicePos - audioSampleLag - processingSampleLag;
 		if (ret < 0) {
 			return 0;
 		}
@@ -431,6 +498,16 @@ public class AudioState implements XmlPersistent {
 		this.started = started;
 	}
 
+	/**
+	 * @return the lock which is held while a track is rendered offline, e.g.
+	 *         frozen. AudioOutput holds it for starting playback, so that
+	 *         playback does not start before the offline rendering is
+	 *         finished.
+	 */
+	final Object getOfflineLock() {
+		return offlineLock;
+	}
+
 	/**
 	 * @return the start time of the loop region, in samples. Use AudioPlayer to
 	 *         set the loop region.
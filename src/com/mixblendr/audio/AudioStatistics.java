@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * Real-time telemetry of the audio output: render time of every slice
+ * against the slice duration, deadline misses, and the fill level of the
+ * audio device when a slice is written. The values are collected by the audio
+ * threads with a few arithmetic operations per slice, so that statistics can
+ * always be enabled. The getters may be called from any thread; the returned
+ * values are not synchronized with each other.
+ * <p>
+ * The render cost per track is collected by AudioMixer and available from
+ * AudioTrack.
+ *
+ * @author Florian Bomers
+ * @see AudioTrack#getAverageRenderMillis()
+ */
+public class AudioStatistics {
+
+	/**
+	 * the number of buckets of the render time histogram: the first 10 buckets
+	 * hold the slices rendered within 0-10%, 10-20%, ..., 90-100% of the slice
+	 * duration, the last bucket holds the deadline misses.
+	 */
+	public static final int HISTOGRAM_BUCKETS = 11;
+
+	private long[] histogram = new long[HISTOGRAM_BUCKETS];
+
+	private long sliceCount;
+
+	private long deadlineMissCount;
+
+	private long totalRenderNanos;
+
+	private long totalBudgetNanos;
+
+	private long maxRenderNanos;
+
+	private long underrunCount;
+
+	private long writeCount;
+
+	private long clipCount;
+
+	private double lineFillMillis;
+
+	private double minLineFillMillis;
+
+	/** the number of slices to write before detecting underruns */
+	private int primingSlices;
+
+	/**
+	 * Create a new statistics object. Package private, since only AudioOutput
+	 * creates statistics.
+	 */
+	AudioStatistics() {
+		reset();
+	}
+
+	/** reset all values */
+	public synchronized void reset() {
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+			histogram[i] = 0;
+		}
+		sliceCount = 0;
+		deadlineMissCount = 0;
+		totalRenderNanos = 0;
+		totalBudgetNanos = 0;
+		maxRenderNanos = 0;
+		underrunCount = 0;
+		writeCount = 0;
+		clipCount = 0;
+		lineFillMillis = 0;
+		minLineFillMillis = -1;
+	}
+
+	/**
+	 * Called when playback starts. The given number of slices is not
+	 * considered for underrun detection, since the device is only being
+	 * filled.
+	 */
+	final void playbackStarted(int primingSlices) {
+		this.primingSlices = primingSlices;
+	}
+
+	/**
+	 * Called by the rendering thread after a slice was rendered.
+	 *
+	 * @param renderNanos the time it took to render the slice
+	 * @param budgetNanos the duration of the slice
+	 */
+	final void sliceRendered(long renderNanos, long budgetNanos) {
+		int bucket = (int) (renderNanos * (HISTOGRAM_BUCKETS - 1) / budgetNanos);
+		if (bucket >= HISTOGRAM_BUCKETS - 1) {
+			if (renderNanos > budgetNanos) {
+				deadlineMissCount++;
+				bucket = HISTOGRAM_BUCKETS - 1;
+			} else {
+				bucket = HISTOGRAM_BUCKETS - 2;
+			}
+		}
+		histogram[bucket]++;
+		sliceCount++;
+		totalRenderNanos += renderNanos;
+		totalBudgetNanos += budgetNanos;
+		if (renderNanos > maxRenderNanos) {
+			maxRenderNanos = renderNanos;
+		}
+	}
+
+	/**
+	 * Called by the audio output thread when a slice is about to be written
+	 * to the audio device.
+	 *
+	 * @param fillMillis the fill level of the audio device before writing
+	 */
+	final void sliceWritten(double fillMillis) {
+		writeCount++;
+		lineFillMillis = fillMillis;
+		if (primingSlices > 0) {
+			primingSlices--;
+			return;
+		}
+		if (fillMillis <= 0) {
+			// the device ran dry
+			underrunCount++;
+		}
+		if (minLineFillMillis < 0 || fillMillis < minLineFillMillis) {
+			minLineFillMillis = fillMillis;
+		}
+	}
+
+	/**
+	 * Called by the audio output thread after a slice was converted to PCM.
+	 *
+	 * @param clippedSamples the number of samples clipped in the conversion
+	 */
+	final void sliceConverted(int clippedSamples) {
+		clipCount += clippedSamples;
+	}
+
+	/** @return the number of rendered slices */
+	public long getSliceCount() {
+		return sliceCount;
+	}
+
+	/**
+	 * @return the number of slices that took longer to render than their
+	 *         duration
+	 */
+	public long getDeadlineMissCount() {
+		return deadlineMissCount;
+	}
+
+	/**
+	 * @return the number of times the audio device ran out of data when a
+	 *         new slice was written
+	 */
+	public long getUnderrunCount() {
+		return underrunCount;
+	}
+
+	/** @return the number of slices written to the audio device */
+	public long getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 * @return the number of samples which exceeded the range of the audio
+	 *         device's format and were clipped
+	 */
+	public long getClipCount() {
+		return clipCount;
+	}
+
+	/** @return the average render time per slice in milliseconds */
+	public double getAverageRenderMillis() {
+		long count = sliceCount;
+		if (count == 0) {
+			return 0;
+		}
+		return totalRenderNanos / 1000000.0 / count;
+	}
+
+	/** @return the maximum render time per slice in milliseconds */
+	public double getMaxRenderMillis() {
+		return maxRenderNanos / 1000000.0;
+	}
+
+	/**
+	 * @return the average load of the rendering thread: the render time in
+	 *         relation to the duration of the rendered audio [0..1], or larger
+	 *         than 1 if rendering is slower than real time
+	 */
+	public double getRenderLoad() {
+		long budget = totalBudgetNanos;
+		if (budget == 0) {
+			return 0;
+		}
+		return ((double) totalRenderNanos) / budget;
+	}
+
+	/**
+	 * @return the fill level of the audio device in milliseconds, when the
+	 *         last slice was written
+	 */
+	public double getLineFillMillis() {
+		return lineFillMillis;
+	}
+
+	/**
+	 * @return the minimum fill level of the audio device in milliseconds when
+	 *         writing a slice, or -1 if not known
+	 */
+	public double getMinLineFillMillis() {
+		return minLineFillMillis;
+	}
+
+	/**
+	 * Get the render time histogram. Element i holds the number of slices
+	 * which rendered within i*10% to (i+1)*10% of the slice duration, the last
+	 * element holds the number of deadline misses.
+	 *
+	 * @return a copy of the render time histogram with HISTOGRAM_BUCKETS
+	 *         elements
+	 */
+	public long[] getRenderTimeHistogram() {
+		long[] ret = new long[HISTOGRAM_BUCKETS];
+		System.arraycopy(histogram, 0, ret, 0, HISTOGRAM_BUCKETS);
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		return "AudioStatistics: slices=" + sliceCount + " avg render="
+				+ getAverageRenderMillis() + "ms max render="
+				+ getMaxRenderMillis() + "ms load=" + getRenderLoad()
+				+ " deadline misses=" + deadlineMissCount + " underruns="
+				+ underrunCount + " clipped=" + clipCount + " line fill=" + lineFillMillis + "ms";
+	}
+}
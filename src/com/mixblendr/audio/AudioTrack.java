@@ -5,9 +5,14 @@ package com.mixblendr.audio;
 
 import static com.mixblendr.util.Debug.*;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
 
 import org.tritonus.share.sampled.AudioUtils;
 import org.tritonus.share.sampled.FloatSampleBuffer;
@@ -27,6 +32,8 @@ import com.mixblendr.util.XmlPersistent;
  */
 public class AudioTrack implements XmlPersistent {
 
+	private final static boolean DEBUG = false;
+
 	/** the XML element when exporting/importing this track */
 	public final static String EXPORT_XML_ELEMENT = "Track";
 
@@ -50,6 +57,12 @@ public class AudioTrack implements XmlPersistent {
 	 */
 	int index;
 
+	/**
+	 * the mixer this track is added to, or null. Package private so that
+	 * AudioMixer can easily set it.
+	 */
+	AudioMixer mixer;
+
 	/** arbitrary name of this track */
 	private String name;
 
@@ -68,6 +81,28 @@ public class AudioTrack implements XmlPersistent {
 	/** list of tracks that are read from */
 	private List<AudioEffect> effects;
 
+	/**
+	 * the effects indexed by their ID. The array is replaced on change, so
+	 * that automation objects can resolve their target without locking.
+	 */
+	private volatile AudioEffect[] effectRegistry = new AudioEffect[1];
+
+	/** the ID assigned to the next added effect without a free ID */
+	private int nextEffectID = 1;
+
+	/** the XML element of a send to an aux bus */
+	private final static String SEND_XML_ELEMENT = "Send";
+
+	/** the time for fading to a changed send level */
+	private static final double SEND_SMOOTHING_MILLIS = 20.0;
+
+	/**
+	 * the sends to the aux buses, indexed by the index of the bus. An entry is
+	 * null if this track never sent to the bus. The array is replaced on
+	 * change, so that the audio thread can use it without locking.
+	 */
+	private volatile Send[] sends = new Send[0];
+
 	/** the playlist providing the samples */
 	private Playlist playlist;
 
@@ -76,14 +111,38 @@ public class AudioTrack implements XmlPersistent {
 	/** The current effective volume per channel */
 	private double[] effectiveVolume;
 
+	/** the time for fading to a changed volume */
+	private static final double VOLUME_SMOOTHING_MILLIS = 20.0;
+
 	/**
-	 * remember the last volume per channel, and, if necessary, fade to the new
-	 * volume
+	 * smooth the changes of the effective volume per channel, used in the
+	 * audio thread only
 	 */
-	private double[] lastEffectiveVolume;
+	private ParameterSmoother[] volumeSmoother;
 
 	private boolean automationEnabled;
 
+	/**
+	 * the additional time rendered after the end of the playlist when freezing
+	 * a track, to include the effects' tails
+	 */
+	private static final double FREEZE_TAIL_MILLIS = 2000.0;
+
+	/**
+	 * if non-null, this track is frozen and plays this pre-rendered file
+	 * instead of the playlist and the effects.
+	 */
+	private volatile AudioFileLocal frozenFile;
+
+	/**
+	 * set during freeze(): the effective volume does not include master
+	 * volume, mute and solo
+	 */
+	private boolean freezing;
+
+	/** if true, AudioRecorder places the recorded audio on this track */
+	private volatile boolean recordArmed = false;
+
 	/**
 	 * Create a new empty audio track.
 	 */
@@ -94,7 +153,12 @@ public class AudioTrack implements XmlPersistent {
 		name = "Track " + ID;
 		volume = 1.0;
 		effectiveVolume = new double[state.getChannels()];
-		lastEffectiveVolume = new double[state.getChannels()];
+		volumeSmoother = new ParameterSmoother[state.getChannels()];
+		for (int c = 0; c < volumeSmoother.length; c++) {
+			volumeSmoother[c] = new ParameterSmoother(
+					ParameterSmoother.Mode.LINEAR, state.getSampleRate(),
+					VOLUME_SMOOTHING_MILLIS, 0.0f);
+		}
 		balance = 0.0;
 		mute = false;
 		solo = SoloState.NONE;
@@ -102,7 +166,7 @@ public class AudioTrack implements XmlPersistent {
 		playlist = new Playlist(state, this);
 		automationEnabled = false;
 		calcEffectiveVolume();
-		applyEffVolToLastEffVol();
+		resetVolumeSmoothing();
 	}
 
 	/**
@@ -120,10 +184,10 @@ public class AudioTrack implements XmlPersistent {
 		return state;
 	}
 
-	/** copy the effective volume to the last effective volume array */
-	private void applyEffVolToLastEffVol() {
+	/** set the effective volume without smoothing */
+	private void resetVolumeSmoothing() {
 		for (int c = 0; c < state.getChannels(); c++) {
-			lastEffectiveVolume[c] = effectiveVolume[c];
+			volumeSmoother[c].setValue((float) effectiveVolume[c]);
 		}
 	}
 
@@ -136,21 +200,28 @@ public class AudioTrack implements XmlPersistent {
 			throw new IllegalStateException(
 					"currently, only mono or stereo mode supported");
 		}
+		double masterVolume = freezing ? 1.0 : state.getMasterVolume();
 		// if muted, we're silent anyway
-		if ((mute && solo != SoloState.SOLO) || (solo == SoloState.OTHER_SOLO)) {
+		if (!freezing
+				&& ((mute && solo != SoloState.SOLO) || (solo == SoloState.OTHER_SOLO))) {
 			for (int c = 0; c < state.getChannels(); c++) {
 				effectiveVolume[c] = 0.0;
 			}
+		} else if (frozenFile != null) {
+			// volume and balance are part of the frozen audio data
+			for (int c = 0; c < state.getChannels(); c++) {
+				effectiveVolume[c] = masterVolume;
+			}
 		} else if (state.getChannels() == 1) {
 			// balance is ignored
-			effectiveVolume[0] = volume * state.getMasterVolume();
+			effectiveVolume[0] = volume * masterVolume;
 		} else {
 			// FIXME: use non-linear balance?
 			// stereo: left volume
-			effectiveVolume[0] = volume * state.getMasterVolume()
+			effectiveVolume[0] = volume * masterVolume
 					* ((balance <= 0.0) ? 1.0 : 1 - balance);
 			// stereo: right volume
-			effectiveVolume[1] = volume * state.getMasterVolume()
+			effectiveVolume[1] = volume * masterVolume
 					* ((balance >= 0.0) ? 1.0 : 1 + balance);
 		}
 	}
@@ -190,6 +261,14 @@ public class AudioTrack implements XmlPersistent {
 		return index;
 	}
 
+	/**
+	 * @return the mixer this track is added to, or null if this track does not
+	 *         belong to a mixer.
+	 */
+	public AudioMixer getMixer() {
+		return mixer;
+	}
+
 	/**
 	 * @return the playlist instance
 	 */
@@ -293,8 +372,50 @@ public class AudioTrack implements XmlPersistent {
 	 */
 	public void addEffect(AudioEffect e) {
 		synchronized (effects) {
+			registerEffect(e);
 			effects.add(e);
 		}
+		if (e instanceof AudioEffectSidechain) {
+			sidechainChanged();
+		}
+	}
+
+	/**
+	 * Add the effect to the registry. If it does not have an ID yet, or if its
+	 * ID is used by another effect of this track, assign a new ID. Must be
+	 * called with the effects lock held.
+	 * <p>
+	 * The registry is sized by the highest ID, so xmlImport() does not keep
+	 * the IDs from the file, but assigns new ones.
+	 */
+	private void registerEffect(AudioEffect e) {
+		AudioEffect[] reg = effectRegistry;
+		int id = e.getID();
+		if (id <= 0 || (id < reg.length && reg[id] != null && reg[id] != e)) {
+			id = nextEffectID;
+			e.setID(id);
+		}
+		if (id >= nextEffectID) {
+			nextEffectID = id + 1;
+		}
+		AudioEffect[] newReg = new AudioEffect[Math.max(reg.length, id + 1)];
+		System.arraycopy(reg, 0, newReg, 0, reg.length);
+		newReg[id] = e;
+		effectRegistry = newReg;
+	}
+
+	/**
+	 * Remove the effect from the registry. Must be called with the effects
+	 * lock held.
+	 */
+	private void unregisterEffect(AudioEffect e) {
+		int id = e.getID();
+		AudioEffect[] reg = effectRegistry;
+		if (id > 0 && id < reg.length && reg[id] == e) {
+			reg = reg.clone();
+			reg[id] = null;
+			effectRegistry = reg;
+		}
 	}
 
 	/**
@@ -304,9 +425,17 @@ public class AudioTrack implements XmlPersistent {
 	 * @return if the effect was actually removed
 	 */
 	public boolean removeEffect(AudioEffect e) {
+		boolean ret;
 		synchronized (effects) {
-			return effects.remove(e);
+			ret = effects.remove(e);
+			if (ret) {
+				unregisterEffect(e);
+			}
+		}
+		if (ret && (e instanceof AudioEffectSidechain)) {
+			sidechainChanged();
 		}
+		return ret;
 	}
 
 	/**
@@ -315,7 +444,9 @@ public class AudioTrack implements XmlPersistent {
 	public void clearEffects() {
 		synchronized (effects) {
 			effects.clear();
+			effectRegistry = new AudioEffect[1];
 		}
+		sidechainChanged();
 	}
 
 	/**
@@ -341,6 +472,23 @@ public class AudioTrack implements XmlPersistent {
 		}
 	}
 
+	/**
+	 * Return the effect with the given ID. This method does not lock the list
+	 * of effects, so it can be used in the audio thread, e.g. by automation
+	 * objects.
+	 * 
+	 * @param id the ID of the effect, as returned by AudioEffect.getID()
+	 * @return the effect with this ID, or null if this track does not have
+	 *         an effect with this ID
+	 */
+	public AudioEffect getEffectByID(int id) {
+		AudioEffect[] reg = effectRegistry;
+		if (id > 0 && id < reg.length) {
+			return reg[id];
+		}
+		return null;
+	}
+
 	/**
 	 * Return the specified effect by class. If there are multiple effects of
 	 * the given class, return the first one.
@@ -362,6 +510,249 @@ public class AudioTrack implements XmlPersistent {
 		return null;
 	}
 
+	// SENDS
+
+	/**
+	 * A send of this track to an aux bus.
+	 */
+	private static class Send {
+		/** linear send level [0..1] */
+		volatile float level;
+
+		/** smooth changes of the send level, used in the audio thread only */
+		final ParameterSmoother smoother;
+
+		Send(float sampleRate) {
+			smoother = new ParameterSmoother(ParameterSmoother.Mode.LINEAR,
+					sampleRate, SEND_SMOOTHING_MILLIS, 0.0f);
+		}
+	}
+
+	/**
+	 * @param bus the index of the aux bus
+	 * @return the linear level of the send to the aux bus [0..1], 0 if this
+	 *         track does not send to the bus
+	 */
+	public double getSendLevel(int bus) {
+		Send[] s = sends;
+		if (bus < 0 || bus >= s.length || s[bus] == null) {
+			return 0.0;
+		}
+		return s[bus].level;
+	}
+
+	/**
+	 * Set the level of the send to an aux bus. The send is post-fader: the
+	 * output of this track, after the effects and volume, balance, mute and
+	 * solo, is multiplied with the send level and added to the bus. If no bus
+	 * with this index exists in the mixer, the send level is stored, but not
+	 * used.
+	 * 
+	 * @param bus the index of the aux bus
+	 * @param level the linear send level [0..1]
+	 * @see AudioMixer#addAuxBus(String)
+	 */
+	public void setSendLevel(int bus, double level) {
+		if (bus < 0) {
+			throw new IllegalArgumentException("invalid aux bus index: " + bus);
+		}
+		Send[] s = sends;
+		if (bus >= s.length || s[bus] == null) {
+			if (level == 0.0) {
+				return;
+			}
+			synchronized (this) {
+				s = sends;
+				if (bus >= s.length) {
+					Send[] newSends = new Send[bus + 1];
+					System.arraycopy(s, 0, newSends, 0, s.length);
+					s = newSends;
+				} else {
+					s = s.clone();
+				}
+				if (s[bus] == null) {
+					s[bus] = new Send(state.getSampleRate());
+				}
+				sends = s;
+			}
+		}
+		s[bus].level = (float) level;
+	}
+
+	/**
+	 * Remove the send to the indexed aux bus, and move the sends to the
+	 * following buses down by one. Called by AudioMixer when removing an aux
+	 * bus.
+	 */
+	synchronized void removeSend(int bus) {
+		Send[] s = sends;
+		if (bus >= 0 && bus < s.length) {
+			Send[] newSends = new Send[s.length - 1];
+			System.arraycopy(s, 0, newSends, 0, bus);
+			System.arraycopy(s, bus + 1, newSends, bus, s.length - bus - 1);
+			sends = newSends;
+		}
+	}
+
+	/**
+	 * @return true if a send level is not 0, or still fading, so that the
+	 *         output of this track must be sent to the aux buses
+	 */
+	private boolean hasActiveSends() {
+		Send[] s = sends;
+		for (int i = 0; i < s.length; i++) {
+			if (s[i] != null
+					&& (s[i].level != 0.0f || s[i].smoother.getValue() != 0.0f)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Add the output of this track to the aux buses, multiplied with the send
+	 * levels. Called by AudioMixer in the audio thread after readEffects().
+	 * 
+	 * @param buffer the output of readEffects()
+	 * @param buses the aux buses of the mixer, indexed like the sends
+	 * @param sampleCount the number of samples in buffer
+	 */
+	void processSends(FloatSampleBuffer buffer, AuxBus[] buses,
+			int sampleCount) {
+		Send[] s = sends;
+		final int count = Math.min(s.length, buses.length);
+		for (int i = 0; i < count; i++) {
+			Send send = s[i];
+			if (send == null) {
+				continue;
+			}
+			ParameterSmoother sm = send.smoother;
+			sm.setTarget(send.level);
+			if (outputSilent) {
+				// nothing to send
+				sm.setValue(sm.getTarget());
+			} else if (sm.isSmoothing()) {
+				buses[i].mixInput(buffer, sampleCount, sm.process(sampleCount));
+			} else if (sm.getValue() != 0.0f) {
+				buses[i].mixInput(buffer, sampleCount, sm.getValue());
+			}
+		}
+	}
+
+	// SIDECHAIN
+
+	/**
+	 * if set, the output of every slice is kept for the sidechain input of
+	 * effects on other tracks. Set by AudioMixer.
+	 */
+	private volatile boolean sidechainSource = false;
+
+	/** a copy of the output of the last slice, if sidechainSource is set */
+	private FloatSampleBuffer sidechainBuffer;
+
+	/** the slice position of the output in sidechainBuffer */
+	private long sidechainSlicePos = -1;
+
+	/** true if the output of the last slice was silent */
+	private boolean sidechainSilent = true;
+
+	/**
+	 * @return the tracks which effects of this track use as sidechain source,
+	 *         without this track
+	 * @see AudioEffectSidechain
+	 */
+	List<AudioTrack> getSidechainInputs() {
+		List<AudioTrack> ret = new ArrayList<AudioTrack>();
+		synchronized (effects) {
+			for (AudioEffect ae : effects) {
+				if (ae instanceof AudioEffectSidechain) {
+					AudioTrack source = ((AudioEffectSidechain) ae).getSidechainSource();
+					if (source != null && source != this
+							&& !ret.contains(source)) {
+						ret.add(source);
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Notify the mixer that the sidechain source of an effect of this track
+	 * has changed, so that the mixer renders the new source before this
+	 * track. Effects implementing AudioEffectSidechain call this method.
+	 */
+	public void sidechainChanged() {
+		AudioMixer m = mixer;
+		if (m != null) {
+			m.updateRenderOrder();
+		}
+	}
+
+	/**
+	 * Enable or disable keeping the output for sidechain inputs. Called by
+	 * AudioMixer, not in the audio thread.
+	 */
+	synchronized void setSidechainSource(boolean on) {
+		if (on && sidechainBuffer == null) {
+			sidechainBuffer = new FloatSampleBuffer(state.getChannels(),
+					state.getMaxSliceSizeSamples(), state.getSampleRate());
+		}
+		sidechainSource = on;
+	}
+
+	/**
+	 * @return true if the output of this track is used by effects on other
+	 *         tracks
+	 */
+	final boolean isSidechainSource() {
+		return sidechainSource;
+	}
+
+	/**
+	 * Keep a copy of the output of this slice for sidechain inputs. Called by
+	 * AudioMixer in the audio thread after readEffects().
+	 * 
+	 * @param samplePos the position of the slice
+	 * @param buffer the output of readEffects()
+	 * @param sampleCount the number of samples in buffer
+	 */
+	void storeSidechainOutput(long samplePos, FloatSampleBuffer buffer,
+			int sampleCount) {
+		sidechainSlicePos = samplePos;
+		sidechainSilent = outputSilent;
+		if (!outputSilent) {
+			FloatSampleBuffer sc = sidechainBuffer;
+			if (sc.getChannelCount() != buffer.getChannelCount()) {
+				sc.init(buffer.getChannelCount(), sampleCount,
+						buffer.getSampleRate());
+			} else {
+				sc.changeSampleCount(sampleCount, false);
+			}
+			buffer.copyTo(sc, 0, sampleCount);
+		}
+	}
+
+	/**
+	 * Get the post-fader output of this track in the current slice, for the
+	 * sidechain input of an effect on another track. The output is only
+	 * available in the audio thread, if AudioMixer rendered this track
+	 * before the track of the effect, see AudioEffectSidechain.
+	 * 
+	 * @param samplePos the position of the slice, as passed to the effect's
+	 *            process() method
+	 * @return the output of this track, with the samples of the slice
+	 *         starting at index 0, or null if the output is silent or not
+	 *         available
+	 */
+	public FloatSampleBuffer getSidechainOutput(long samplePos) {
+		if (!sidechainSource || sidechainSilent
+				|| sidechainSlicePos != samplePos) {
+			return null;
+		}
+		return sidechainBuffer;
+	}
+
 	/**
 	 * convenience method for creating a region, and adding it to the track's
 	 * playlist
@@ -413,6 +804,214 @@ public class AudioTrack implements XmlPersistent {
 		automationEnabled = on;
 	}
 
+	/** @return true if this track is frozen */
+	public boolean isFrozen() {
+		return frozenFile != null;
+	}
+
+	/** @return true if this track is armed for recording */
+	public boolean isRecordArmed() {
+		return recordArmed;
+	}
+
+	/**
+	 * Arm this track for recording: when AudioRecorder stops recording, the
+	 * recorded audio is added as a new region to the first armed track. The
+	 * armed state is not persisted.
+	 * 
+	 * @param armed true to arm this track
+	 * @see AudioRecorder
+	 */
+	public void setRecordArmed(boolean armed) {
+		recordArmed = armed;
+	}
+
+	/**
+	 * Freeze this track: render the playlist, including automation, and the
+	 * effects to a cached audio file. Until unfreeze() is called, playback of
+	 * this track will only read from the cached file, bypassing playlist and
+	 * effects. Volume and balance are rendered into the cached file, while
+	 * master volume, mute and solo remain effective. Changes to the playlist or
+	 * effects of a frozen track are not audible before it is unfrozen.
+	 * <p>
+	 * The track can only be frozen while playback is stopped. This method
+	 * blocks until the track is rendered, and playback cannot be started
+	 * meanwhile. The frozen state is not persisted.
+	 * <p>
+	 * The automation objects are executed without sending events to the GUI.
+	 * Afterwards, the processing state of the effects is reset, see
+	 * AudioEffectReset, and the automation is chased for the current
+	 * position, so that the track continues like after a jump to the current
+	 * position.
+	 * <p>
+	 * A track with effects using the output of another track as sidechain
+	 * input cannot be frozen, because only this track is rendered, so the
+	 * effects would treat their sidechain input as silence.
+	 * 
+	 * @throws IllegalStateException if playback is running, or if an effect
+	 *             of this track uses another track as sidechain source
+	 * @throws IOException if the cache file cannot be written
+	 */
+	public void freeze() throws IOException {
+		// playback cannot be started while the track is rendered
+		synchronized (state.getOfflineLock()) {
+			if (state.isStarted()) {
+				throw new IllegalStateException("cannot freeze while playing");
+			}
+			if (!getSidechainInputs().isEmpty()) {
+				throw new IllegalStateException(
+						"cannot freeze a track with sidechain inputs");
+			}
+			unfreeze();
+			AudioFileFactory factory = state.getAudioFileFactory();
+			AudioFileLocal af = factory.createLocalAudioFile(name
+					+ " (frozen)");
+			long endPos = getDurationSamples()
+					+ state.millis2sample(FREEZE_TAIL_MILLIS);
+			int sliceSize = state.getSliceSizeSamples();
+			FloatSampleBuffer buffer = new FloatSampleBuffer(
+					state.getChannels(), sliceSize, state.getSampleRate());
+			synchronized (this) {
+				freezing = true;
+				calcEffectiveVolume();
+				resetVolumeSmoothing();
+			}
+			try {
+				af.init(new AudioFormat(state.getSampleRate(), 16,
+						state.getChannels(), true, false));
+				for (long pos = 0; pos < endPos; pos += sliceSize) {
+					int count = sliceSize;
+					if (pos + count > endPos) {
+						count = (int) (endPos - pos);
+						buffer.changeSampleCount(count, false);
+					}
+					readSource(pos, buffer, 0, count);
+					processEffects(pos, buffer);
+					af.write(buffer, 0, count);
+				}
+				af.finish();
+			} catch (IOException ioe) {
+				factory.closeAudioFile(af);
+				throw ioe;
+			} finally {
+				synchronized (this) {
+					freezing = false;
+				}
+				resetEffects();
+				// with events for the GUI
+				playlist.locate(state.getSamplePosition());
+			}
+			synchronized (this) {
+				frozenFile = af;
+				calcEffectiveVolume();
+				resetVolumeSmoothing();
+			}
+			if (DEBUG) {
+				debug(this + ": frozen " + af);
+			}
+		}
+	}
+
+	/**
+	 * @return true while freeze() renders this track, see
+	 *         AutomationObject.execute()
+	 */
+	final boolean isFreezing() {
+		return freezing;
+	}
+
+	/** reset the processing state of the effects after rendering offline */
+	private void resetEffects() {
+		synchronized (effects) {
+			for (AudioEffect ae : effects) {
+				if (ae instanceof AudioEffectReset) {
+					((AudioEffectReset) ae).reset();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unfreeze this track: discard the cached audio file and resume playback
+	 * from the playlist and the effects. Does nothing if this track is not
+	 * frozen.
+	 */
+	public void unfreeze() {
+		AudioFileLocal af;
+		synchronized (this) {
+			af = frozenFile;
+			if (af == null) {
+				return;
+			}
+			frozenFile = null;
+			calcEffectiveVolume();
+		}
+		state.getAudioFileFactory().closeAudioFile(af);
+	}
+
+	/**
+	 * set by readSource() if the volume is deferred to processFused() for the
+	 * read audio data
+	 */
+	private boolean volumePending = false;
+
+	/**
+	 * true if all calls to readSource() since the last readEffects() or
+	 * processFused() only produced silence
+	 */
+	private boolean sourceSilent = true;
+
+	/**
+	 * true if readEffects() or processFused() produced silence for the last
+	 * slice, so that the mixer does not need to mix this track
+	 */
+	private boolean outputSilent = false;
+
+	/** the accumulated time for rendering this track, in nanoseconds */
+	private long renderNanos = 0;
+
+	/** the number of slices rendered for renderNanos */
+	private long renderCount = 0;
+
+	/** the time for rendering the last slice, in nanoseconds */
+	private long lastRenderNanos = 0;
+
+	/**
+	 * Called by AudioMixer after rendering a slice of this track.
+	 * 
+	 * @param nanos the time used for rendering the slice, including effects
+	 *            and mixing
+	 */
+	final void addRenderNanos(long nanos) {
+		lastRenderNanos = nanos;
+		renderNanos += nanos;
+		renderCount++;
+	}
+
+	/**
+	 * @return the average time for rendering one slice of this track,
+	 *         including effects and mixing, in milliseconds
+	 */
+	public double getAverageRenderMillis() {
+		long count = renderCount;
+		if (count == 0) {
+			return 0;
+		}
+		return renderNanos / 1000000.0 / count;
+	}
+
+	/** @return the time for rendering the last slice, in milliseconds */
+	public double getLastRenderMillis() {
+		return lastRenderNanos / 1000000.0;
+	}
+
+	/** reset the render time statistics of this track */
+	public void resetRenderStatistics() {
+		renderNanos = 0;
+		renderCount = 0;
+		lastRenderNanos = 0;
+	}
+
 	/**
 	 * This class maintains the peak levels of the last PEAK_ARRAY_SIZE buffers
 	 * rendered in this track.
@@ -493,20 +1092,10 @@ public class AudioTrack implements XmlPersistent {
 	 * @return the peak level, capped to 1.0, i.e. [0..1]
 	 */
 	private final static float getMaxLevel(FloatSampleBuffer buffer) {
-		float max = 0.0f;
-		int sampleCount = buffer.getSampleCount();
-		for (int c = 0; c < buffer.getChannelCount(); c++) {
-			float[] samples = buffer.getChannel(c);
-			for (int i = 0; i < sampleCount; i++) {
-				float sample = samples[i];
-				if (sample > max) {
-					if (sample >= 1.0f) {
-						// clipping: shortcut
-						return 1.0f;
-					}
-					max = sample;
-				}
-			}
+		float max = AudioKernels.peak(buffer, 0, buffer.getSampleCount());
+		if (max > 1.0f) {
+			// clipping
+			max = 1.0f;
 		}
 		return max;
 	}
@@ -520,12 +1109,27 @@ public class AudioTrack implements XmlPersistent {
 	 */
 	public void readSource(long samplePos, FloatSampleBuffer buffer,
 			int offset, int sampleCount) {
+		readSource(samplePos, buffer, offset, sampleCount, false);
+	}
+
+	/**
+	 * Read a new chunk of audio data from this track's source. If deferVolume
+	 * is true, the volume is not applied to the audio data, and the call(s)
+	 * must be followed by processFused() instead of readEffects().
+	 * 
+	 * @see #readSource(long, FloatSampleBuffer, int, int)
+	 * @see #processFused(FloatSampleBuffer, FloatSampleBuffer, int, int,
+	 *      boolean)
+	 */
+	void readSource(long samplePos, FloatSampleBuffer buffer, int offset,
+			int sampleCount, boolean deferVolume) {
 		// will we generate samples at all?
 		boolean silent = true;
 		for (int c = 0; c < effectiveVolume.length; c++) {
-			if (effectiveVolume[c] != 0.0 || lastEffectiveVolume[c] != 0.0) {
+			ParameterSmoother vs = volumeSmoother[c];
+			vs.setTarget((float) effectiveVolume[c]);
+			if (vs.getTarget() != 0.0f || vs.getValue() != 0.0f) {
 				silent = false;
-				break;
 			}
 		}
 		// TODO: should really calculate the volume factor AFTER reading from
@@ -535,36 +1139,41 @@ public class AudioTrack implements XmlPersistent {
 		// $$fb always need to call playlist.read() in order to execute
 		// automation. Otherwise could optimize by not reading if silent.
 
-		// read the actual audio data from the playlist
-		if (playlist.read(samplePos, buffer, offset, sampleCount) && !silent) {
+		// read the actual audio data from the playlist, or, if frozen, from the
+		// rendered file
+		AudioFileLocal frozen = frozenFile;
+		boolean hasData;
+		if (frozen != null) {
+			hasData = frozen.read(samplePos, buffer, offset, sampleCount);
+		} else {
+			hasData = playlist.read(samplePos, buffer, offset, sampleCount);
+		}
+		if (hasData && !silent) {
+			sourceSilent = false;
+		}
+		if (hasData && !silent && deferVolume) {
+			// processFused() will apply the volume
+			volumePending = true;
+		} else if (hasData && !silent) {
 			// has successfully read the audio data, now apply the volume
 			// (fading when volume changed)
 			for (int c = 0; c < buffer.getChannelCount(); c++) {
-				double startVolume = lastEffectiveVolume[c];
-				double endVolume = effectiveVolume[c];
-				// fade from lastVolume to currVolume
-				double volIncrease = (endVolume - startVolume) / sampleCount;
-
+				ParameterSmoother vs = volumeSmoother[c];
 				float[] data = buffer.getChannel(c);
-				if (volIncrease != 0.0) {
+				if (vs.isSmoothing()) {
 					// for fading, multiply every sample with the
 					// increasing/decreasing volume factor
-					for (int i = 0; i < sampleCount; i++) {
-						data[i + offset] *= startVolume;
-						startVolume += volIncrease;
-					}
-					// remember this changed volume for next time
-					lastEffectiveVolume[c] = endVolume;
-				} else if (startVolume != 1.0) {
-					for (int i = 0; i < sampleCount; i++) {
-						data[i + offset] *= startVolume;
-					}
+					AudioKernels.gain(data, offset, sampleCount,
+							vs.process(sampleCount));
+				} else if (vs.getValue() != 1.0f) {
+					AudioKernels.gain(data, offset, sampleCount,
+							vs.getValue());
 				}
 			}
 		} else {
 			// no audio data: silence the buffer
 			buffer.makeSilence(offset, sampleCount);
-			applyEffVolToLastEffVol();
+			resetVolumeSmoothing();
 		}
 	}
 
@@ -577,11 +1186,141 @@ public class AudioTrack implements XmlPersistent {
 	 *            peak.
 	 */
 	public void readEffects(long samplePos, FloatSampleBuffer buffer) {
+		boolean silentInput = sourceSilent;
+		sourceSilent = true;
+		if (frozenFile != null) {
+			outputSilent = silentInput;
+		} else if (silentInput && isEffectTailSilent()) {
+			// the buffer is already silenced by readSource(): skip the effects
+			// until the input is not silent anymore
+			outputSilent = true;
+		} else {
+			processEffects(samplePos, buffer);
+			outputSilent = false;
+		}
+		// calculate volume level and store in rotating array
+		if (outputSilent) {
+			handlePeak(0.0f);
+		} else {
+			float level = getMaxLevel(buffer);
+			if (level < Denormals.FLUSH_LEVEL) {
+				// only the decayed tail of the effects: do not pass it on,
+				// it may contain denormals
+				buffer.makeSilence();
+				outputSilent = true;
+				level = 0.0f;
+			}
+			handlePeak(level);
+		}
+	}
+
+	/**
+	 * @return true if the last call to readEffects() or processFused()
+	 *         produced silence, and the mixer can skip this track
+	 */
+	final boolean isOutputSilent() {
+		return outputSilent;
+	}
+
+	/**
+	 * @return true if all effects implement AudioEffectTail and report that
+	 *         their tail is silent
+	 */
+	private boolean isEffectTailSilent() {
+		synchronized (effects) {
+			final int c = effects.size();
+			for (int i = 0; i < c; i++) {
+				AudioEffect ae = effects.get(i);
+				if (!(ae instanceof AudioEffectTail)
+						|| !((AudioEffectTail) ae).isTailSilent()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if this track does not need to process effects, does not
+	 *         send to an aux bus, and is not a sidechain source, so that
+	 *         readSource() with deferred volume and processFused() can be used
+	 */
+	final boolean canFuse() {
+		return (frozenFile != null || effects.isEmpty()) && !hasActiveSends()
+				&& !sidechainSource;
+	}
+
+	/**
+	 * Fused processing for tracks without effects, replacing readEffects():
+	 * apply the volume deferred by readSource(), and write or mix the result
+	 * to the output buffer in one pass, without a separate pass for the
+	 * volume and for copying. The peak level is calculated from the source
+	 * data and the larger of start and end volume, which is exact for a
+	 * constant volume. Calculating the peak in the same loop would prevent the
+	 * loop from being vectorized.
+	 * 
+	 * @param source the buffer filled by readSource() with deferred volume
+	 * @param dest the output buffer
+	 * @param destOffset the offset in dest where to write the samples
+	 * @param sampleCount the number of samples to process
+	 * @param mix if false, overwrite dest, otherwise add to dest
+	 */
+	void processFused(FloatSampleBuffer source, FloatSampleBuffer dest,
+			int destOffset, int sampleCount, boolean mix) {
+		float max = 0.0f;
+		sourceSilent = true;
+		outputSilent = !volumePending;
+		if (volumePending) {
+			volumePending = false;
+			for (int c = 0; c < dest.getChannelCount(); c++) {
+				ParameterSmoother vs = volumeSmoother[c];
+				float[] src = source.getChannel(c);
+				float[] out = dest.getChannel(c);
+				// smoothing is monotonic, so the maximum volume is at the
+				// start or at the end of the block
+				float maxVolume = vs.getValue();
+				if (vs.isSmoothing()) {
+					float[] gains = vs.process(sampleCount);
+					maxVolume = Math.max(maxVolume, vs.getValue());
+					if (mix) {
+						AudioKernels.mix(src, 0, out, destOffset, sampleCount,
+								gains);
+					} else {
+						AudioKernels.copy(src, 0, out, destOffset,
+								sampleCount, gains);
+					}
+				} else if (mix) {
+					AudioKernels.mix(src, 0, out, destOffset, sampleCount,
+							maxVolume, maxVolume);
+				} else {
+					AudioKernels.copy(src, 0, out, destOffset, sampleCount,
+							maxVolume, maxVolume);
+				}
+				float peak = AudioKernels.peak(src, 0, sampleCount) * maxVolume;
+				if (peak > max) {
+					max = peak;
+				}
+			}
+		} else if (!mix) {
+			// source is silent
+			dest.makeSilence(destOffset, sampleCount);
+		}
+		if (max > 1.0f) {
+			// clipping
+			max = 1.0f;
+		}
+		handlePeak(max);
+	}
+
+	/** apply the effects of this track to the provided buffer */
+	private void processEffects(long samplePos, FloatSampleBuffer buffer) {
 		synchronized (effects) {
-			// apply the effects
-			for (AudioEffect effect : effects) {
+			// apply the effects. Do not use an iterator, it would be
+			// allocated in the audio thread
+			final int c = effects.size();
+			for (int i = 0; i < c; i++) {
 				try {
-					effect.process(samplePos, buffer, 0,
+					effects.get(i).process(samplePos, buffer, 0,
 							buffer.getSampleCount());
 				} catch (Throwable t) {
 					error("Exception occured during effects processing:");
@@ -589,8 +1328,6 @@ public class AudioTrack implements XmlPersistent {
 				}
 			}
 		}
-		// calculate volume level and store in rotating array
-		handlePeak(getMaxLevel(buffer));
 	}
 
 	// PERSISTENCE
@@ -627,6 +1364,15 @@ public class AudioTrack implements XmlPersistent {
 				((XmlPersistent) ae).xmlExport(element);
 			}
 		}
+		Send[] s = sends;
+		for (int i = 0; i < s.length; i++) {
+			if (s[i] != null && s[i].level != 0.0f) {
+				Element send = (Element) element.appendChild(element.getOwnerDocument().createElement(
+						SEND_XML_ELEMENT));
+				send.setAttribute("Bus", String.valueOf(i));
+				send.setAttribute("Level", String.valueOf(s[i].level));
+			}
+		}
 		playlist.xmlExport(element);
 		return element;
 	}
@@ -635,10 +1381,17 @@ public class AudioTrack implements XmlPersistent {
 	 * (non-Javadoc)
 	 * @see com.mixblendr.util.XmlPersistent#xmlImport(org.w3c.dom.Element)
 	 */
-	@SuppressWarnings("rawtypes")
 	public void xmlImport(Element element) throws Exception {
 		assert (element.getTagName().equals(EXPORT_XML_ELEMENT));
 		clearEffects();
+		synchronized (effects) {
+			nextEffectID = 1;
+		}
+		// the new IDs of the imported effects by their IDs in the file
+		Map<Integer, Integer> effectIDs = new HashMap<Integer, Integer>();
+		synchronized (this) {
+			sends = new Send[0];
+		}
 		String val = element.getAttribute("Name");
 		if (val.length() > 0) {
 			name = val;
@@ -683,36 +1436,22 @@ public class AudioTrack implements XmlPersistent {
 					//
 					// read Audio Effect
 					//
-					AudioEffect ae = null;
-					String effectName = "";
-					try {
-						effectName = child.getAttribute("Name");
-						String className = child.getAttribute("Class");
-						if (effectName.length() == 0) {
-							effectName = className;
-							if (effectName.length() == 0) {
-								effectName = "(unnamed)";
-							}
-						}
-						if (className.length() > 0) {
-							Class clazz = Class.forName(className);
-							Object o = clazz.newInstance();
-							if (o instanceof AudioEffect) {
-								ae = (AudioEffect) o;
-							}
-						}
-					} catch (Exception e) {
-						// ignore
-					}
+					AudioEffect ae = importEffect(child, state, this);
 					if (ae != null) {
-						ae.init(state, this);
-						if (ae instanceof XmlPersistent) {
-							((XmlPersistent) ae).xmlImport(child);
-						}
+						int fileID = ae.getID();
+						ae.setID(0);
 						addEffect(ae);
-					} else {
-						Debug.error("Cannot find effect '" + effectName + "'.");
+						if (fileID > 0) {
+							effectIDs.put(fileID, ae.getID());
+						}
 					}
+				} else if (child.getTagName().equalsIgnoreCase(
+						SEND_XML_ELEMENT)) {
+					//
+					// read send to an aux bus
+					//
+					setSendLevel(Integer.parseInt(child.getAttribute("Bus")),
+							Double.parseDouble(child.getAttribute("Level")));
 				} else if (child.getTagName().equalsIgnoreCase(
 						Playlist.EXPORT_XML_ELEMENT)) {
 					//
@@ -722,6 +1461,59 @@ public class AudioTrack implements XmlPersistent {
 				}
 			}
 		}
+		// let the automation objects target the new IDs
+		for (int i = 0; i < playlist.getObjectCount(); i++) {
+			AutomationObject ao = playlist.getObject(i);
+			if (ao instanceof AutomationObjectEffect) {
+				((AutomationObjectEffect<?>) ao).remapEffectID(effectIDs);
+			}
+		}
+	}
+
+	/**
+	 * Create an effect from its XML element, initialize it, and import its
+	 * settings.
+	 * 
+	 * @param element the AudioEffect element
+	 * @param state the state to initialize the effect with
+	 * @param track the track to initialize the effect with, or null for the
+	 *            master bus
+	 * @return the initialized effect, or null if the effect class cannot be
+	 *         instantiated
+	 */
+	@SuppressWarnings("rawtypes")
+	static AudioEffect importEffect(Element element, AudioState state,
+			AudioTrack track) throws Exception {
+		AudioEffect ae = null;
+		String effectName = "";
+		try {
+			effectName = element.getAttribute("Name");
+			String className = element.getAttribute("Class");
+			if (effectName.length() == 0) {
+				effectName = className;
+				if (effectName.length() == 0) {
+					effectName = "(unnamed)";
+				}
+			}
+			if (className.length() > 0) {
+				Class clazz = Class.forName(className);
+				Object o = clazz.newInstance();
+				if (o instanceof AudioEffect) {
+					ae = (AudioEffect) o;
+				}
+			}
+		} catch (Exception e) {
+			// ignore
+		}
+		if (ae != null) {
+			ae.init(state, track);
+			if (ae instanceof XmlPersistent) {
+				((XmlPersistent) ae).xmlImport(element);
+			}
+		} else {
+			Debug.error("Cannot find effect '" + effectName + "'.");
+		}
+		return ae;
 	}
 
 	/** @return a String representation of this track, e.g. &quot;Track 1&quot; */
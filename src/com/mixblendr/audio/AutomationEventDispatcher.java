@@ -4,28 +4,45 @@
 package com.mixblendr.audio;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
- * Dispatcher for automation events.
+ * Dispatcher for automation events. The events are queued in a ring of
+ * pre-allocated event objects, so that dispatching an event from the audio
+ * thread does not allocate memory.
  * 
  * @author Florian Bomers
  */
 public class AutomationEventDispatcher extends Thread {
+	/** initial number of pre-allocated events in the queue */
+	private final static int INITIAL_QUEUE_SIZE = 256;
+
 	/** flag to signal a requested stop of this thread */
 	private volatile boolean stopRequested = false;
 	/** flag that's set when the list of listeners has changed */
 	private volatile boolean listenersChanged = false;
 
-	private LinkedList<AutomationEvent> queue;
+	/**
+	 * ring of pre-allocated events. It is only enlarged if the listeners
+	 * cannot keep up with the events.
+	 */
+	private AutomationEvent[] queue;
+
+	/** the index in queue of the next event to dispatch */
+	private int queueHead = 0;
+
+	/** the number of events in queue waiting to be dispatched */
+	private int queueCount = 0;
 
 	private List<AutomationListener> listeners;
 
 	/** create a new instance of the thread */
 	AutomationEventDispatcher() {
 		super("Automation Event Dispatcher");
-		queue = new LinkedList<AutomationEvent>();
+		queue = new AutomationEvent[INITIAL_QUEUE_SIZE];
+		for (int i = 0; i < queue.length; i++) {
+			queue[i] = new AutomationEvent();
+		}
 		listeners = new ArrayList<AutomationListener>();
 		// GUI stuff, not very important
 		setPriority(Thread.MIN_PRIORITY);
@@ -42,10 +59,38 @@ public class AutomationEventDispatcher extends Thread {
 	}
 
 	synchronized void dispatchEvent(AutomationObject ao, AudioTrack track) {
-		queue.offer(new AutomationEvent(ao, track));
+		if (queueCount == queue.length) {
+			growQueue();
+		}
+		AutomationEvent ae = queue[(queueHead + queueCount) % queue.length];
+		ae.ao = ao;
+		ae.track = track;
+		queueCount++;
 		this.notifyAll();
 	}
 
+	/**
+	 * double the size of the queue, keeping the pending events in order. Must
+	 * be called with the lock on this held.
+	 */
+	private void growQueue() {
+		AutomationEvent[] newQueue = new AutomationEvent[queue.length * 2];
+		for (int i = 0; i < newQueue.length; i++) {
+			if (i < queueCount) {
+				newQueue[i] = queue[(queueHead + i) % queue.length];
+			} else {
+				newQueue[i] = new AutomationEvent();
+			}
+		}
+		queue = newQueue;
+		queueHead = 0;
+	}
+
+	/** @return the number of events waiting to be dispatched */
+	public synchronized int getBacklog() {
+		return queueCount;
+	}
+
 	/** add a listener for the automation events */
 	public void addListener(AutomationListener al) {
 		listeners.add(al);
@@ -62,10 +107,13 @@ public class AutomationEventDispatcher extends Thread {
 	public void run() {
 		// avoid additional synchronization on listeners list
 		AutomationListener[] localListeners = null;
+		// the event is copied from the queue, so that the queue's event can
+		// be reused while the listeners are called
+		AutomationEvent ae = new AutomationEvent();
 		while (!stopRequested) {
-			AutomationEvent ae = null;
+			boolean haveEvent = false;
 			synchronized (this) {
-				if (queue.isEmpty()) {
+				if (queueCount == 0) {
 					try {
 						this.wait();
 					} catch (InterruptedException ie) {
@@ -75,16 +123,27 @@ public class AutomationEventDispatcher extends Thread {
 						break;
 					}
 				}
-				ae = queue.poll();
+				if (queueCount > 0) {
+					AutomationEvent head = queue[queueHead];
+					ae.ao = head.ao;
+					ae.track = head.track;
+					head.ao = null;
+					head.track = null;
+					queueHead = (queueHead + 1) % queue.length;
+					queueCount--;
+					haveEvent = true;
+				}
 			}
-			if (ae != null) {
+			if (haveEvent) {
 				if (localListeners == null || listenersChanged) {
+					listenersChanged = false;
 					localListeners = listeners.toArray(new AutomationListener[listeners.size()]);
 				}
 				for (AutomationListener al : localListeners) {
 					al.automationEvent(ae.track, ae.ao);
 				}
-				// IDEA: reuse ae in a pool of AutomationEvents to reduce GC
+				ae.ao = null;
+				ae.track = null;
 			}
 		}
 	}
@@ -92,17 +151,6 @@ public class AutomationEventDispatcher extends Thread {
 	private static class AutomationEvent {
 		AutomationObject ao;
 		AudioTrack track;
-
-		/**
-		 * @param ao
-		 * @param track
-		 */
-		public AutomationEvent(AutomationObject ao, AudioTrack track) {
-			super();
-			this.ao = ao;
-			this.track = track;
-		}
-
 	}
 
 }
@@ -16,6 +16,13 @@ public class AutomationManager {
 	static HashMap<Class, AutomationHandler> types = new HashMap<Class, AutomationHandler>();
 	static HashMap<String, Class> xmlNames = new HashMap<String, Class>();
 
+	/**
+	 * copy of the values of types, re-created when a handler is added, so that
+	 * the audio thread can iterate over the handlers without allocating an
+	 * iterator
+	 */
+	private static volatile AutomationHandler[] handlers = new AutomationHandler[0];
+
 	/** prevent instantiation */
 	private AutomationManager() {
 		// nothing
@@ -54,10 +61,19 @@ public class AutomationManager {
 		if (ah == null) {
 			ah = new AutomationHandler();
 			types.put(automationClass, ah);
+			handlers = types.values().toArray(new AutomationHandler[types.size()]);
 		}
 		return ah;
 	}
 
+	/**
+	 * @return all automation handlers created so far. The returned array must
+	 *         not be modified.
+	 */
+	static AutomationHandler[] getHandlers() {
+		return handlers;
+	}
+
 	/**
 	 * For a given AutomationObject class, register its XML name.
 	 * 
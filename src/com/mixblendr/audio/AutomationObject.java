@@ -194,7 +194,7 @@ public abstract class AutomationObject implements XmlPersistent {
 	 * <p>
 	 * The implementation will first call executeImpl(), then notify the
 	 * AudioState of the occurrence of this automation event for asynchronous
-	 * event dispatching.
+	 * event dispatching, unless the track is rendered offline.
 	 * 
 	 * @param track the audio track on which this automation event occurred
 	 */
@@ -207,7 +207,7 @@ public abstract class AutomationObject implements XmlPersistent {
 			return;
 		}
 		executeImpl(track);
-		if (state != null) {
+		if (state != null && !track.isFreezing()) {
 			state.getAutomationEventDispatcher().dispatchEvent(this, track);
 		}
 	}
@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import java.util.Map;
+
+import org.w3c.dom.Element;
+
+/**
+ * An automation object with a single value for a parameter of an audio
+ * effect. The target effect is identified by its ID in the track, so that a
+ * track can host several instances of the same effect class, and the target
+ * is resolved in constant time without locking the track's list of effects.
+ * <p>
+ * Automation objects imported from projects without effect IDs target the
+ * first effect of the given class in the track. When a track is imported,
+ * its effects get new IDs, and the track remaps the IDs of its automation
+ * objects.
+ *
+ * @author Florian Bomers
+ */
+public abstract class AutomationObjectEffect<T extends AudioEffect> extends
+		AutomationObjectDouble {
+
+	/** the class of the target effect */
+	private final Class<T> effectClass;
+
+	/**
+	 * the ID of the target effect in the track, 0 if not known, or -1 if the
+	 * target effect was not imported
+	 */
+	private volatile int effectID;
+
+	protected AutomationObjectEffect(Class<T> effectClass, AudioState state,
+			String xmlName, long startTime, double value) {
+		super(state, xmlName, startTime, value);
+		this.effectClass = effectClass;
+	}
+
+	/**
+	 * Set the target effect. Should be called by the constructors of
+	 * subclasses that record a change of the effect.
+	 *
+	 * @param target the effect whose parameter is automated
+	 */
+	protected void setTarget(T target) {
+		effectID = target.getID();
+	}
+
+	/**
+	 * @return the ID of the target effect in the track, 0 if not known, or -1
+	 *         if the target effect was not imported
+	 * @see AudioTrack#getEffectByID(int)
+	 */
+	public int getEffectID() {
+		return effectID;
+	}
+
+	/**
+	 * Replace the ID of the target effect after importing the track, which
+	 * assigns new IDs to the imported effects.
+	 *
+	 * @param effectIDs the new IDs of the effects by their IDs in the file
+	 */
+	void remapEffectID(Map<Integer, Integer> effectIDs) {
+		int id = effectID;
+		if (id > 0) {
+			Integer newID = effectIDs.get(id);
+			effectID = (newID != null) ? newID : -1;
+		}
+	}
+
+	/**
+	 * Resolve the target effect in the given track.
+	 *
+	 * @param track the track on which this automation object is executed
+	 * @return the target effect, or null if the track does not have it
+	 */
+	protected T getTarget(AudioTrack track) {
+		if (track == null) {
+			return null;
+		}
+		AudioEffect ae = null;
+		int id = effectID;
+		if (id > 0) {
+			ae = track.getEffectByID(id);
+		} else if (id == 0) {
+			// no ID: use the first effect of this class, and remember it
+			ae = track.getEffect(effectClass);
+			if (ae != null) {
+				effectID = ae.getID();
+			}
+		}
+		if (effectClass.isInstance(ae)) {
+			return effectClass.cast(ae);
+		}
+		return null;
+	}
+
+	/**
+	 * Automation objects for different effect instances are different type
+	 * instances, so that they do not overwrite each other.
+	 *
+	 * @see com.mixblendr.audio.AutomationObject#isSameTypeInstance(com.mixblendr.audio.AutomationObject)
+	 */
+	@Override
+	public boolean isSameTypeInstance(AutomationObject other) {
+		return super.isSameTypeInstance(other)
+				&& ((AutomationObjectEffect<?>) other).effectID == effectID;
+	}
+
+	// PERSISTENCE
+
+	@Override
+	public Element xmlExport(Element element) {
+		element = super.xmlExport(element);
+		if (effectID != 0) {
+			element.setAttribute("Effect", String.valueOf(effectID));
+		}
+		return element;
+	}
+
+	@Override
+	public void xmlImport(Element element) throws Exception {
+		super.xmlImport(element);
+		String val = element.getAttribute("Effect");
+		if (val.length() > 0) {
+			effectID = Integer.parseInt(val);
+		} else {
+			effectID = 0;
+		}
+	}
+}
@@ -0,0 +1,387 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.tritonus.share.sampled.AudioUtils;
+import org.tritonus.share.sampled.FloatSampleBuffer;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.mixblendr.util.XmlPersistent;
+
+import static com.mixblendr.util.Debug.*;
+
+/**
+ * An aux bus: the tracks send a part of their output to the bus, the bus sums
+ * the sends and runs one shared chain of effects on the sum, e.g. a reverb,
+ * and its return is mixed into the master. This way, an effect used by
+ * several tracks is only processed once. The sends are post-fader, so they
+ * follow volume, mute and solo of the sending track, see
+ * AudioTrack.setSendLevel().
+ * <p>
+ * Like on the master bus, the effects are initialized with a null track, so
+ * they cannot be automated. If no track sends to the bus and the tails of
+ * all effects are silent, the bus is not processed.
+ *
+ * @author Florian Bomers
+ */
+public class AuxBus implements XmlPersistent {
+
+	/** the XML tag name used for exporting an aux bus */
+	public static final String EXPORT_XML_ELEMENT = "AuxBus";
+
+	/** the time for fading to a changed return level */
+	private static final double RETURN_SMOOTHING_MILLIS = 20.0;
+
+	private AudioState state;
+
+	/**
+	 * the index of this bus in AudioMixer's list of aux buses, also the index
+	 * of the send level in the tracks. Package private so that AudioMixer can
+	 * easily set it.
+	 */
+	int index = -1;
+
+	private String name;
+
+	private List<AudioEffect> effects = new ArrayList<AudioEffect>();
+
+	/** linear level of the return [0..1] */
+	private volatile float returnLevel = 1.0f;
+
+	/** smooth changes of the return level, used in the audio thread only */
+	private ParameterSmoother returnSmoother;
+
+	/** the sum of the sends */
+	private FloatSampleBuffer sumBuffer;
+
+	/** true if a track sent to this bus in the current slice */
+	private boolean hasInput;
+
+	/**
+	 * Create an aux bus.
+	 *
+	 * @param state the state providing sample rate and channel count
+	 * @param name the name of the bus
+	 */
+	AuxBus(AudioState state, String name) {
+		this.state = state;
+		this.name = name;
+		returnSmoother = new ParameterSmoother(ParameterSmoother.Mode.LINEAR,
+				state.getSampleRate(), RETURN_SMOOTHING_MILLIS, returnLevel);
+		sumBuffer = new FloatSampleBuffer(state.getChannels(),
+				state.getMaxSliceSizeSamples(), state.getSampleRate());
+	}
+
+	/**
+	 * @return the index of this bus in the mixer's list of aux buses, or -1 if
+	 *         this bus was removed from the mixer
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/** @return the name */
+	public String getName() {
+		return name;
+	}
+
+	/** @param name the name to set */
+	public void setName(String name) {
+		if (name != null) {
+			this.name = name;
+		}
+	}
+
+	/** @return the linear level of the return [0..1] */
+	public double getReturnLevel() {
+		return returnLevel;
+	}
+
+	/** @param level the new linear level of the return [0..1] */
+	public void setReturnLevel(double level) {
+		returnLevel = (float) level;
+	}
+
+	/** @return the level of the return in decibel [-inf..0] */
+	public double getReturnLevelDB() {
+		return AudioUtils.linear2decibel(returnLevel);
+	}
+
+	/** @param decibel the new level of the return in decibel [-inf..0] */
+	public void setReturnLevelDB(double decibel) {
+		setReturnLevel(AudioUtils.decibel2linear(decibel));
+	}
+
+	// EFFECTS
+
+	/**
+	 * @return the number of effects
+	 */
+	public int getEffectCount() {
+		return effects.size();
+	}
+
+	/**
+	 * Add a new, initialized, effect. This effect will be used immediately.
+	 *
+	 * @param e the effect to add
+	 */
+	public void addEffect(AudioEffect e) {
+		synchronized (effects) {
+			effects.add(e);
+		}
+	}
+
+	/**
+	 * Remove the specified effect.
+	 *
+	 * @param e the effect to remove
+	 * @return if the effect was actually removed
+	 */
+	public boolean removeEffect(AudioEffect e) {
+		synchronized (effects) {
+			return effects.remove(e);
+		}
+	}
+
+	/**
+	 * Remove all effects, and call their exit() method.
+	 */
+	public void clearEffects() {
+		List<AudioEffect> removed;
+		synchronized (effects) {
+			removed = new ArrayList<AudioEffect>(effects);
+			effects.clear();
+		}
+		for (AudioEffect ae : removed) {
+			ae.exit();
+		}
+	}
+
+	/**
+	 * Get a list of all effects.
+	 *
+	 * @return a non-modifiable view of the list of effects
+	 */
+	public List<AudioEffect> getEffects() {
+		synchronized (effects) {
+			return Collections.unmodifiableList(effects);
+		}
+	}
+
+	/**
+	 * Return the specified effect by class.
+	 *
+	 * @return the first effect of the given class, or null if no effect of
+	 *         this class is on this bus
+	 */
+	public AudioEffect getEffect(Class<? extends AudioEffect> clazz) {
+		synchronized (effects) {
+			final int c = effects.size();
+			for (int i = 0; i < c; i++) {
+				AudioEffect ae = effects.get(i);
+				if (ae.getClass().equals(clazz)) {
+					return ae;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if all effects implement AudioEffectTail and report that
+	 *         their tail is silent
+	 */
+	private boolean isEffectTailSilent() {
+		synchronized (effects) {
+			final int c = effects.size();
+			for (int i = 0; i < c; i++) {
+				AudioEffect ae = effects.get(i);
+				if (!(ae instanceof AudioEffectTail)
+						|| !((AudioEffectTail) ae).isTailSilent()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// PROCESSING
+
+	/**
+	 * Prepare the sum buffer for a new slice. Called by AudioMixer in the
+	 * audio thread before the tracks are read.
+	 */
+	void startSlice(int sampleCount) {
+		sumBuffer.changeSampleCount(sampleCount, false);
+		hasInput = false;
+	}
+
+	/**
+	 * Add a track's output to the sum, multiplied with a constant send level.
+	 * Called by AudioTrack in the audio thread.
+	 */
+	void mixInput(FloatSampleBuffer source, int sampleCount, float level) {
+		final int channels = sumBuffer.getChannelCount();
+		for (int c = 0; c < channels; c++) {
+			if (hasInput) {
+				AudioKernels.mix(source.getChannel(c), 0,
+						sumBuffer.getChannel(c), 0, sampleCount, level, level);
+			} else {
+				AudioKernels.copy(source.getChannel(c), 0,
+						sumBuffer.getChannel(c), 0, sampleCount, level, level);
+			}
+		}
+		hasInput = true;
+	}
+
+	/**
+	 * Add a track's output to the sum, multiplied with a smoothed send level.
+	 * Called by AudioTrack in the audio thread.
+	 *
+	 * @param levels the send level for each sample
+	 */
+	void mixInput(FloatSampleBuffer source, int sampleCount, float[] levels) {
+		final int channels = sumBuffer.getChannelCount();
+		for (int c = 0; c < channels; c++) {
+			if (hasInput) {
+				AudioKernels.mix(source.getChannel(c), 0,
+						sumBuffer.getChannel(c), 0, sampleCount, levels);
+			} else {
+				AudioKernels.copy(source.getChannel(c), 0,
+						sumBuffer.getChannel(c), 0, sampleCount, levels);
+			}
+		}
+		hasInput = true;
+	}
+
+	/**
+	 * Apply the effects to the sum of the sends, and mix the return to the
+	 * output. Called by AudioMixer in the audio thread after all tracks are
+	 * read.
+	 *
+	 * @param samplePos the position in samples when this buffer will be heard
+	 * @param buffer the mix to add the return to
+	 */
+	void process(long samplePos, FloatSampleBuffer buffer, int offset,
+			int sampleCount) {
+		ParameterSmoother rs = returnSmoother;
+		rs.setTarget(returnLevel);
+		if (!hasInput) {
+			if (isEffectTailSilent()) {
+				// nothing to return
+				rs.setValue(rs.getTarget());
+				return;
+			}
+			// let the effects' tails ring out
+			sumBuffer.makeSilence(0, sampleCount);
+		}
+		synchronized (effects) {
+			// do not use an iterator, it would be allocated in the audio
+			// thread
+			final int c = effects.size();
+			for (int i = 0; i < c; i++) {
+				try {
+					effects.get(i).process(samplePos, sumBuffer, 0,
+							sampleCount);
+				} catch (Throwable t) {
+					error("Exception occured during aux bus effects processing:");
+					error(t);
+				}
+			}
+		}
+		if (AudioKernels.peak(sumBuffer, 0, sampleCount) < Denormals.FLUSH_LEVEL) {
+			// only the decayed tail of the effects, which may contain
+			// denormals: nothing to return
+			rs.setValue(rs.getTarget());
+			return;
+		}
+		final int channels = Math.min(buffer.getChannelCount(),
+				sumBuffer.getChannelCount());
+		if (rs.isSmoothing()) {
+			float[] levels = rs.process(sampleCount);
+			for (int ch = 0; ch < channels; ch++) {
+				AudioKernels.mix(sumBuffer.getChannel(ch), 0,
+						buffer.getChannel(ch), offset, sampleCount, levels);
+			}
+		} else if (rs.getValue() != 0.0f) {
+			float level = rs.getValue();
+			for (int ch = 0; ch < channels; ch++) {
+				AudioKernels.mix(sumBuffer.getChannel(ch), 0,
+						buffer.getChannel(ch), offset, sampleCount, level,
+						level);
+			}
+		}
+	}
+
+	// PERSISTENCE
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.mixblendr.util.XmlPersistent#xmlExport(org.w3c.dom.Element)
+	 */
+	public Element xmlExport(Element element) {
+		if (!element.getTagName().equals(EXPORT_XML_ELEMENT)) {
+			element = (Element) element.appendChild(element.getOwnerDocument().createElement(
+					EXPORT_XML_ELEMENT));
+		}
+		element.setAttribute("Name", name);
+		if (returnLevel != 1.0f) {
+			element.setAttribute("ReturnLevel", String.valueOf(returnLevel));
+		}
+		synchronized (effects) {
+			for (AudioEffect ae : effects) {
+				if (ae instanceof XmlPersistent) {
+					((XmlPersistent) ae).xmlExport(element);
+				}
+			}
+		}
+		return element;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.mixblendr.util.XmlPersistent#xmlImport(org.w3c.dom.Element)
+	 */
+	public void xmlImport(Element element) throws Exception {
+		assert (element.getTagName().equals(EXPORT_XML_ELEMENT));
+		clearEffects();
+		String val = element.getAttribute("Name");
+		if (val.length() > 0) {
+			name = val;
+		}
+		val = element.getAttribute("ReturnLevel");
+		if (val.length() > 0) {
+			setReturnLevel(Double.parseDouble(val));
+		} else {
+			setReturnLevel(1.0);
+		}
+		NodeList nodes = element.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				Element child = (Element) node;
+				if (child.getTagName().equalsIgnoreCase(
+						AudioEffect.EXPORT_XML_NAME)) {
+					AudioEffect ae = AudioTrack.importEffect(child, state, null);
+					if (ae != null) {
+						addEffect(ae);
+					}
+				}
+			}
+		}
+	}
+
+	/** @return a String representation of this bus, e.g. &quot;Aux 1&quot; */
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import java.util.Arrays;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+/**
+ * A second order IIR filter in transposed direct form II, with the
+ * coefficients of the RBJ audio EQ cookbook. The coefficients are shared by
+ * all channels, the filter state is kept per channel.
+ * <p>
+ * The recursion of an IIR filter cannot be vectorized along the time axis, so
+ * two channels are processed in the same loop: their computations are
+ * independent of each other and can be executed in parallel by the CPU. The
+ * filter state is flushed to 0 after each block when it decays below
+ * Denormals.FLUSH_LEVEL, before it reaches the denormal range, which would
+ * slow down the processing of the decaying tail considerably.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author Florian Bomers
+ */
+public final class Biquad {
+
+	/** the filter types */
+	public enum Type {
+		/** boost or cut below the frequency */
+		LOW_SHELF,
+		/** boost or cut around the frequency */
+		PEAK,
+		/** boost or cut above the frequency */
+		HIGH_SHELF
+	}
+
+	// the normalized coefficients, a0 == 1
+	private float b0 = 1.0f;
+	private float b1;
+	private float b2;
+	private float a1;
+	private float a2;
+
+	/** the filter state per channel */
+	private final float[] z1;
+	private final float[] z2;
+
+	/**
+	 * Create a filter which passes the signal unchanged until the
+	 * coefficients are set.
+	 *
+	 * @param channels the number of channels
+	 */
+	public Biquad(int channels) {
+		z1 = new float[channels];
+		z2 = new float[channels];
+	}
+
+	/** @return the number of channels */
+	public int getChannels() {
+		return z1.length;
+	}
+
+	/**
+	 * Calculate the coefficients. The filter state is kept, so the
+	 * coefficients can be changed while processing.
+	 *
+	 * @param type the filter type
+	 * @param sampleRate the sample rate
+	 * @param frequency the center or corner frequency in Hz
+	 * @param q the quality factor: the bandwidth of PEAK, the steepness of the
+	 *            shelves
+	 * @param gainDB the boost (positive) or cut (negative) in decibel
+	 */
+	public void setCoefficients(Type type, double sampleRate,
+			double frequency, double q, double gainDB) {
+		double nyquist = sampleRate / 2.0;
+		if (frequency > nyquist * 0.98) {
+			frequency = nyquist * 0.98;
+		} else if (frequency < 1.0) {
+			frequency = 1.0;
+		}
+		double A = Math.pow(10.0, gainDB / 40.0);
+		double w0 = 2.0 * Math.PI * frequency / sampleRate;
+		double cos = Math.cos(w0);
+		double alpha = Math.sin(w0) / (2.0 * q);
+		double nb0, nb1, nb2, na0, na1, na2;
+		switch (type) {
+		case LOW_SHELF: {
+			double sq = 2.0 * Math.sqrt(A) * alpha;
+			nb0 = A * ((A + 1) - (A - 1) * cos + sq);
+			nb1 = 2.0 * A * ((A - 1) - (A + 1) * cos);
+			nb2 = A * ((A + 1) - (A - 1) * cos - sq);
+			na0 = (A + 1) + (A - 1) * cos + sq;
+			na1 = -2.0 * ((A - 1) + (A + 1) * cos);
+			na2 = (A + 1) + (A - 1) * cos - sq;
+			break;
+		}
+		case HIGH_SHELF: {
+			double sq = 2.0 * Math.sqrt(A) * alpha;
+			nb0 = A * ((A + 1) + (A - 1) * cos + sq);
+			nb1 = -2.0 * A * ((A - 1) + (A + 1) * cos);
+			nb2 = A * ((A + 1) + (A - 1) * cos - sq);
+			na0 = (A + 1) - (A - 1) * cos + sq;
+			na1 = 2.0 * ((A - 1) - (A + 1) * cos);
+			na2 = (A + 1) - (A - 1) * cos - sq;
+			break;
+		}
+		default:
+			nb0 = 1.0 + alpha * A;
+			nb1 = -2.0 * cos;
+			nb2 = 1.0 - alpha * A;
+			na0 = 1.0 + alpha / A;
+			na1 = -2.0 * cos;
+			na2 = 1.0 - alpha / A;
+			break;
+		}
+		b0 = (float) (nb0 / na0);
+		b1 = (float) (nb1 / na0);
+		b2 = (float) (nb2 / na0);
+		a1 = (float) (na1 / na0);
+		a2 = (float) (na2 / na0);
+	}
+
+	/** clear the filter state */
+	public void reset() {
+		Arrays.fill(z1, 0.0f);
+		Arrays.fill(z2, 0.0f);
+	}
+
+	/**
+	 * @param level the level to compare to
+	 * @return true if the filter state of all channels is below level, i.e.
+	 *         the response to past input has decayed
+	 */
+	public boolean isSettled(float level) {
+		for (int c = 0; c < z1.length; c++) {
+			if (Math.abs(z1[c]) >= level || Math.abs(z2[c]) >= level) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Filter the samples of the buffer in place.
+	 *
+	 * @param buffer the samples
+	 * @param offset the index of the first sample
+	 * @param count the number of samples
+	 */
+	public void process(FloatSampleBuffer buffer, int offset, int count) {
+		final int channels = Math.min(z1.length, buffer.getChannelCount());
+		int c = 0;
+		for (; c + 1 < channels; c += 2) {
+			processPair(buffer.getChannel(c), buffer.getChannel(c + 1), c,
+					offset, count);
+		}
+		if (c < channels) {
+			processSingle(buffer.getChannel(c), c, offset, count);
+		}
+	}
+
+	/** filter one channel */
+	private void processSingle(float[] data, int c, int offset, int count) {
+		final float fb0 = b0, fb1 = b1, fb2 = b2, fa1 = a1, fa2 = a2;
+		float s1 = z1[c];
+		float s2 = z2[c];
+		final int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			float x = data[i];
+			float y = fb0 * x + s1;
+			s1 = (fb1 * x + s2) - fa1 * y;
+			s2 = fb2 * x - fa2 * y;
+			data[i] = y;
+		}
+		z1[c] = Denormals.flush(s1);
+		z2[c] = Denormals.flush(s2);
+	}
+
+	/** filter two channels with interleaved, independent recursions */
+	private void processPair(float[] left, float[] right, int c, int offset,
+			int count) {
+		final float fb0 = b0, fb1 = b1, fb2 = b2, fa1 = a1, fa2 = a2;
+		float l1 = z1[c];
+		float l2 = z2[c];
+		float r1 = z1[c + 1];
+		float r2 = z2[c + 1];
+		final int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			float xl = left[i];
+			float xr = right[i];
+			float yl = fb0 * xl + l1;
+			float yr = fb0 * xr + r1;
+			l1 = (fb1 * xl + l2) - fa1 * yl;
+			r1 = (fb1 * xr + r2) - fa1 * yr;
+			l2 = fb2 * xl - fa2 * yl;
+			r2 = fb2 * xr - fa2 * yr;
+			left[i] = yl;
+			right[i] = yr;
+		}
+		z1[c] = Denormals.flush(l1);
+		z2[c] = Denormals.flush(l2);
+		z1[c + 1] = Denormals.flush(r1);
+		z2[c + 1] = Denormals.flush(r2);
+	}
+}
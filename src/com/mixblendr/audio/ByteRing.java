@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * A lock-free ring of bytes for exactly one producer thread and one consumer
+ * thread. Neither write() nor read() block: the producer writes as much as
+ * fits, the consumer reads as much as is available.
+ *
+ * @author Florian Bomers
+ */
+class ByteRing {
+
+	private final byte[] ring;
+
+	/** total number of bytes written, only modified by the producer */
+	private volatile long writePos = 0;
+
+	/** total number of bytes read, only modified by the consumer */
+	private volatile long readPos = 0;
+
+	/**
+	 * Create a new ring.
+	 *
+	 * @param capacity the size of the ring in bytes
+	 */
+	ByteRing(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("illegal capacity: " + capacity);
+		}
+		ring = new byte[capacity];
+	}
+
+	/** @return the size of the ring in bytes */
+	final int getCapacity() {
+		return ring.length;
+	}
+
+	/** @return the number of bytes ready to be read */
+	final int size() {
+		return (int) (writePos - readPos);
+	}
+
+	/** @return the total number of bytes written to the ring */
+	final long getWrittenBytes() {
+		return writePos;
+	}
+
+	/**
+	 * Append bytes to the ring, as many as fit. Called by the producer.
+	 *
+	 * @return the number of bytes written
+	 */
+	final int write(byte[] b, int off, int len) {
+		long w = writePos;
+		int count = (int) Math.min(len, ring.length - (w - readPos));
+		int index = (int) (w % ring.length);
+		int first = Math.min(count, ring.length - index);
+		System.arraycopy(b, off, ring, index, first);
+		System.arraycopy(b, off + first, ring, 0, count - first);
+		writePos = w + count;
+		return count;
+	}
+
+	/**
+	 * Read bytes from the ring, as many as are available. Called by the
+	 * consumer.
+	 *
+	 * @return the number of bytes read
+	 */
+	final int read(byte[] b, int off, int len) {
+		long r = readPos;
+		int count = (int) Math.min(len, writePos - r);
+		int index = (int) (r % ring.length);
+		int first = Math.min(count, ring.length - index);
+		System.arraycopy(ring, index, b, off, first);
+		System.arraycopy(ring, 0, b, off + first, count - first);
+		readPos = r + count;
+		return count;
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * The source of AudioRecorder: the subset of javax.sound.sampled.TargetDataLine
+ * used for recording. The default source is the audio input device, see
+ * LineCaptureSource. Tests can provide a stand-in source which delivers
+ * known audio data.
+ *
+ * @author Florian Bomers
+ * @see AudioRecorder#setSource(CaptureSource)
+ */
+public interface CaptureSource {
+
+	/**
+	 * Open the source with the given format and buffer size.
+	 *
+	 * @param format the format of the audio data
+	 * @param bufferSize the buffer size in bytes
+	 * @throws LineUnavailableException if the source cannot be opened
+	 */
+	public void open(AudioFormat format, int bufferSize)
+			throws LineUnavailableException;
+
+	/** close the source and release its resources */
+	public void close();
+
+	/** start capturing */
+	public void start();
+
+	/**
+	 * stop capturing. A blocking call to read() returns with the data read so
+	 * far.
+	 */
+	public void stop();
+
+	/**
+	 * Read captured audio data. Blocks until len bytes are read, or the
+	 * source is stopped.
+	 *
+	 * @return the number of bytes read
+	 */
+	public int read(byte[] b, int off, int len);
+
+	/** @return the format of the audio data */
+	public AudioFormat getFormat();
+}
@@ -0,0 +1,77 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+/**
+ * Protection against denormal floats. When a recursive state, e.g. the
+ * feedback path of a delay or the state of an IIR filter, decays after the
+ * input became silent, its values eventually reach the denormal range below
+ * 1.2E-38. On x86 processors, arithmetic with denormal operands is up to 100
+ * times slower, and Java cannot switch the processor to flush-to-zero mode,
+ * so an effect decaying into denormals causes CPU spikes long after its
+ * input stopped.
+ * <p>
+ * The remedy used in this engine is flushing: values below FLUSH_LEVEL,
+ * -300dB, are set to 0 before they are fed back. This level is far below
+ * audibility and far above the denormal range, so recursive state never
+ * becomes denormal, and a decayed state becomes exactly 0, which also makes
+ * silence detection exact. Unlike injecting a tiny DC offset or noise, it
+ * does not change the output of silent input.
+ * <p>
+ * Effects with feedback flush each value that is fed back, or flush their
+ * state after each block. AudioTrack and AuxBus flush output that is
+ * entirely below FLUSH_LEVEL, so that no denormals reach the next stage.
+ *
+ * @author Florian Bomers
+ */
+public final class Denormals {
+
+	/**
+	 * values with an absolute value below this level are flushed to 0:
+	 * -300dB, well above the denormal range
+	 */
+	public static final float FLUSH_LEVEL = 1.0E-15f;
+
+	/** prevent instantiation */
+	private Denormals() {
+		// nothing
+	}
+
+	/**
+	 * @return 0 if the absolute value is below FLUSH_LEVEL, otherwise value
+	 */
+	public static float flush(float value) {
+		return (Math.abs(value) < FLUSH_LEVEL) ? 0.0f : value;
+	}
+
+	/**
+	 * Set the samples below FLUSH_LEVEL to 0, e.g. the state of a filter after
+	 * a block. The loop has no dependencies between iterations, so it can be
+	 * vectorized.
+	 *
+	 * @param data the samples
+	 * @param offset the index of the first sample
+	 * @param count the number of samples
+	 */
+	public static void flush(float[] data, int offset, int count) {
+		final int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			float v = data[i];
+			data[i] = (Math.abs(v) < FLUSH_LEVEL) ? 0.0f : v;
+		}
+	}
+
+	/**
+	 * Set the samples of all channels below FLUSH_LEVEL to 0.
+	 *
+	 * @see #flush(float[], int, int)
+	 */
+	public static void flush(FloatSampleBuffer buffer, int offset, int count) {
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			flush(buffer.getChannel(c), offset, count);
+		}
+	}
+}
@@ -0,0 +1,241 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import static com.mixblendr.util.Debug.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the health of an AudioPlayer instance as a standard MBean, so that
+ * the engine can be monitored with jconsole or any other JMX client: render
+ * statistics of the audio output, backlog of the event dispatchers, memory
+ * used by audio files and peak caches, and the state of the downloader.
+ * <p>
+ * The metrics are only collected when queried, so registering the MBean does
+ * not cost anything on the audio threads. Registration fails silently if the
+ * VM does not allow access to the platform MBean server, e.g. in an applet.
+ *
+ * @author Florian Bomers
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+
+	private static final boolean DEBUG = false;
+
+	/** the domain and type of the object name of the engine MBeans */
+	public static final String OBJECT_NAME_PREFIX = "com.mixblendr:type=AudioEngine,id=";
+
+	private static int IDCounter = 0;
+
+	private AudioPlayer player;
+
+	private ObjectName objectName;
+
+	/**
+	 * Create the metrics object for the given player. Package private, since
+	 * only AudioPlayer creates metrics.
+	 */
+	EngineMetrics(AudioPlayer player) {
+		this.player = player;
+	}
+
+	/**
+	 * Register this MBean with the platform MBean server.
+	 *
+	 * @return true if successful
+	 */
+	boolean register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name;
+			synchronized (EngineMetrics.class) {
+				name = new ObjectName(OBJECT_NAME_PREFIX + IDCounter);
+				IDCounter++;
+			}
+			server.registerMBean(this, name);
+			objectName = name;
+			if (DEBUG) {
+				debug("EngineMetrics: registered " + name);
+			}
+			return true;
+		} catch (Throwable t) {
+			// no access to the MBean server, or JMX not available
+			debug("EngineMetrics: cannot register MBean: " + t);
+		}
+		return false;
+	}
+
+	/** Unregister this MBean from the platform MBean server, if registered. */
+	void unregister() {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+						objectName);
+			} catch (Throwable t) {
+				debug(t);
+			}
+			objectName = null;
+		}
+	}
+
+	/** @return the name this MBean is registered with, or null */
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+
+	// AUDIO OUTPUT
+
+	public boolean isStarted() {
+		return player.isStarted();
+	}
+
+	public long getSliceCount() {
+		return player.getStatistics().getSliceCount();
+	}
+
+	public long getDeadlineMissCount() {
+		return player.getStatistics().getDeadlineMissCount();
+	}
+
+	public long getUnderrunCount() {
+		return player.getStatistics().getUnderrunCount();
+	}
+
+	public long getClipCount() {
+		return player.getStatistics().getClipCount();
+	}
+
+	public double getAverageRenderMillis() {
+		return player.getStatistics().getAverageRenderMillis();
+	}
+
+	public double getMaxRenderMillis() {
+		return player.getStatistics().getMaxRenderMillis();
+	}
+
+	public double getRenderLoad() {
+		return player.getStatistics().getRenderLoad();
+	}
+
+	public double getLineFillMillis() {
+		return player.getStatistics().getLineFillMillis();
+	}
+
+	public double getBufferSizeMillis() {
+		return player.getOutput().getBufferSizeMillis();
+	}
+
+	public double getSliceSizeMillis() {
+		return player.getOutput().getSliceSizeMillis();
+	}
+
+	public double getAudioThreadCpuMillis() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!bean.isThreadCpuTimeSupported() || !bean.isThreadCpuTimeEnabled()) {
+			return -1;
+		}
+		long nanos = 0;
+		for (Thread t : player.getOutput().getAudioThreads()) {
+			long cpu = bean.getThreadCpuTime(t.getId());
+			if (cpu > 0) {
+				nanos += cpu;
+			}
+		}
+		return nanos / 1000000.0;
+	}
+
+	public int getTrackCount() {
+		return player.getMixer().getTrackCount();
+	}
+
+	public double[] getTrackAverageRenderMillis() {
+		AudioMixer mixer = player.getMixer();
+		double[] ret = new double[mixer.getTrackCount()];
+		for (int i = 0; i < ret.length; i++) {
+			try {
+				ret[i] = mixer.getTrack(i).getAverageRenderMillis();
+			} catch (IndexOutOfBoundsException ioobe) {
+				// track was removed concurrently
+			}
+		}
+		return ret;
+	}
+
+	// EVENT DISPATCHERS
+
+	public int getAudioEventBacklog() {
+		return player.getState().getAudioEventDispatcher().getBacklog();
+	}
+
+	public int getAutomationEventBacklog() {
+		return player.getState().getAutomationEventDispatcher().getBacklog();
+	}
+
+	// AUDIO FILE CACHE
+
+	public int getAudioFileCount() {
+		return player.getFactory().getAudioFileCount();
+	}
+
+	public long getAudioFileCacheHits() {
+		return player.getFactory().getCacheHits();
+	}
+
+	public long getAudioFileCacheMisses() {
+		return player.getFactory().getCacheMisses();
+	}
+
+	public long getAudioFileMemoryBytes() {
+		return player.getFactory().getMemoryBytes();
+	}
+
+	public long getAudioFileDiskBytes() {
+		return player.getFactory().getFileBytes();
+	}
+
+	public long getPeakCacheBytes() {
+		return player.getFactory().getPeakCacheBytes()
+				+ AudioPeakCache.getPoolMemoryBytes();
+	}
+
+	// DOWNLOADS
+
+	public int getPendingDownloads() {
+		return AudioFileDownloader.getInstance().getPendingJobCount();
+	}
+
+	public int getActiveDownloads() {
+		return AudioFileDownloader.getInstance().getActiveJobCount();
+	}
+
+	public int getFinishedDownloads() {
+		return AudioFileDownloader.getInstance().getFinishedCount();
+	}
+
+	public int getFailedDownloads() {
+		return AudioFileDownloader.getInstance().getErrorCount();
+	}
+
+	public long getDownloadedBytes() {
+		return AudioFileDownloader.getInstance().getTotalBytes();
+	}
+
+	public double getDownloadThroughput() {
+		return AudioFileDownloader.getInstance().getCurrentThroughput();
+	}
+
+	public double getAverageDownloadThroughput() {
+		return AudioFileDownloader.getInstance().getAverageThroughput();
+	}
+
+	// OPERATIONS
+
+	public void resetStatistics() {
+		player.resetStatistics();
+	}
+}
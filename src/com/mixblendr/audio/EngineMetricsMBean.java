@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * The management interface of the audio engine, as registered by AudioPlayer
+ * with the platform MBean server. All values are read-only snapshots, sizes
+ * are in bytes and durations in milliseconds.
+ *
+ * @author Florian Bomers
+ * @see EngineMetrics
+ */
+public interface EngineMetricsMBean {
+
+	// AUDIO OUTPUT
+
+	/** @return true if playback is started */
+	public boolean isStarted();
+
+	/** @return the number of rendered slices */
+	public long getSliceCount();
+
+	/** @return the number of slices which were not rendered in time */
+	public long getDeadlineMissCount();
+
+	/** @return the number of underruns of the audio device */
+	public long getUnderrunCount();
+
+	/** @return the number of samples clipped in the output conversion */
+	public long getClipCount();
+
+	/** @return the average render time per slice */
+	public double getAverageRenderMillis();
+
+	/** @return the maximum render time per slice */
+	public double getMaxRenderMillis();
+
+	/** @return the render time in relation to the duration of the audio */
+	public double getRenderLoad();
+
+	/** @return the fill level of the audio device */
+	public double getLineFillMillis();
+
+	/** @return the current buffer size of the audio device */
+	public double getBufferSizeMillis();
+
+	/** @return the current slice size */
+	public double getSliceSizeMillis();
+
+	/**
+	 * @return the CPU time consumed by the audio threads, or -1 if not
+	 *         supported by the VM
+	 */
+	public double getAudioThreadCpuMillis();
+
+	/** @return the number of tracks in the mixer */
+	public int getTrackCount();
+
+	/** @return the average render time per slice of every track */
+	public double[] getTrackAverageRenderMillis();
+
+	// EVENT DISPATCHERS
+
+	/** @return the number of audio events waiting to be dispatched */
+	public int getAudioEventBacklog();
+
+	/** @return the number of automation events waiting to be dispatched */
+	public int getAutomationEventBacklog();
+
+	// AUDIO FILE CACHE
+
+	/** @return the number of audio files */
+	public int getAudioFileCount();
+
+	/** @return the number of requests for already loaded audio files */
+	public long getAudioFileCacheHits();
+
+	/** @return the number of requests for audio files not yet loaded */
+	public long getAudioFileCacheMisses();
+
+	/** @return the audio data held in memory */
+	public long getAudioFileMemoryBytes();
+
+	/** @return the audio data held in temporary files */
+	public long getAudioFileDiskBytes();
+
+	/** @return the memory used by peak caches, including the pool */
+	public long getPeakCacheBytes();
+
+	// DOWNLOADS
+
+	/** @return the number of downloads waiting for a download thread */
+	public int getPendingDownloads();
+
+	/** @return the number of files currently being downloaded */
+	public int getActiveDownloads();
+
+	/** @return the number of finished downloads */
+	public int getFinishedDownloads();
+
+	/** @return the number of failed downloads */
+	public int getFailedDownloads();
+
+	/** @return the total number of downloaded bytes */
+	public long getDownloadedBytes();
+
+	/** @return the current download throughput in bytes per second */
+	public double getDownloadThroughput();
+
+	/** @return the average throughput of finished downloads in bytes/second */
+	public double getAverageDownloadThroughput();
+
+	// OPERATIONS
+
+	/** reset the render statistics */
+	public void resetStatistics();
+}
@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * A preallocated plan for an in-place radix-2 complex FFT of a fixed size.
+ * The twiddle factors and the bit reversal permutation are calculated in the
+ * constructor, so that forward() and inverse() do not allocate and do not
+ * call any trigonometric functions. The real and imaginary parts are held in
+ * separate arrays, so that the butterfly loops of the later stages access
+ * consecutive elements.
+ * <p>
+ * An instance does not keep any state between transforms, so it can be used
+ * by several threads at the same time.
+ *
+ * @author Florian Bomers
+ */
+public final class FFT {
+
+	/** the number of complex points */
+	private final int size;
+
+	/** the index of the element to swap with, or -1 if no swap is needed */
+	private final int[] bitReverse;
+
+	/** cos(2*pi*k/size) for k = 0...size/2-1 */
+	private final float[] cos;
+
+	/** sin(2*pi*k/size) for k = 0...size/2-1 */
+	private final float[] sin;
+
+	/**
+	 * Create a plan for the given size.
+	 *
+	 * @param size the number of complex points, a power of 2
+	 * @throws IllegalArgumentException if size is not a power of 2
+	 */
+	public FFT(int size) {
+		if (size < 2 || (size & (size - 1)) != 0) {
+			throw new IllegalArgumentException("FFT size must be a power of 2: "
+					+ size);
+		}
+		this.size = size;
+		int bits = Integer.numberOfTrailingZeros(size);
+		bitReverse = new int[size];
+		for (int i = 0; i < size; i++) {
+			int r = Integer.reverse(i) >>> (32 - bits);
+			bitReverse[i] = (r > i) ? r : -1;
+		}
+		cos = new float[size / 2];
+		sin = new float[size / 2];
+		for (int k = 0; k < size / 2; k++) {
+			double angle = 2.0 * Math.PI * k / size;
+			cos[k] = (float) Math.cos(angle);
+			sin[k] = (float) Math.sin(angle);
+		}
+	}
+
+	/** @return the number of complex points */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Forward transform, unscaled: X[k] = sum x[n]*exp(-2*pi*i*k*n/size).
+	 *
+	 * @param re the real parts, replaced with the real parts of the spectrum
+	 * @param im the imaginary parts, replaced with the imaginary parts of the
+	 *            spectrum
+	 */
+	public void forward(float[] re, float[] im) {
+		transform(re, im, -1.0f);
+	}
+
+	/**
+	 * Inverse transform, scaled by 1/size, so that inverse(forward(x)) == x.
+	 *
+	 * @param re the real parts of the spectrum, replaced with the real parts
+	 *            of the signal
+	 * @param im the imaginary parts of the spectrum, replaced with the
+	 *            imaginary parts of the signal
+	 */
+	public void inverse(float[] re, float[] im) {
+		transform(re, im, 1.0f);
+		AudioKernels.gain(re, 0, size, 1.0f / size);
+		AudioKernels.gain(im, 0, size, 1.0f / size);
+	}
+
+	/**
+	 * Decimation in time: the bit reversal permutation, followed by the
+	 * butterfly stages.
+	 *
+	 * @param sign -1 for the forward transform, 1 for the inverse transform
+	 */
+	private void transform(float[] re, float[] im, float sign) {
+		final int n = size;
+		final int[] rev = bitReverse;
+		for (int i = 0; i < n; i++) {
+			int j = rev[i];
+			if (j >= 0) {
+				float t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		// first stage: the twiddle factor is always 1
+		for (int i = 0; i < n; i += 2) {
+			float r = re[i + 1];
+			float m = im[i + 1];
+			re[i + 1] = re[i] - r;
+			im[i + 1] = im[i] - m;
+			re[i] += r;
+			im[i] += m;
+		}
+		for (int half = 2; half < n; half <<= 1) {
+			final int step = n / (half << 1);
+			for (int block = 0; block < n; block += half << 1) {
+				final int top = block;
+				final int bottom = block + half;
+				for (int j = 0; j < half; j++) {
+					float wr = cos[j * step];
+					float wi = sign * sin[j * step];
+					float br = re[bottom + j];
+					float bi = im[bottom + j];
+					float tr = br * wr - bi * wi;
+					float ti = br * wi + bi * wr;
+					re[bottom + j] = re[top + j] - tr;
+					im[bottom + j] = im[top + j] - ti;
+					re[top + j] += tr;
+					im[top + j] += ti;
+				}
+			}
+		}
+	}
+}
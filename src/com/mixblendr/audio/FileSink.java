@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.sound.sampled.LineUnavailableException;
+
+import static com.mixblendr.util.Debug.*;
+
+/**
+ * A sink which writes the audio data as raw PCM in the format of the sink to
+ * a file, at the pace of the system clock. Unlike Renderer, the file
+ * contains what the audio device would have played, including the effect of
+ * deadline misses and of control changes during playback.
+ *
+ * @author Florian Bomers
+ */
+public class FileSink extends PacedSink {
+
+	private final File file;
+
+	private OutputStream out;
+
+	/** the first exception when writing, reported when closing */
+	private IOException writeException;
+
+	/**
+	 * Create a sink writing to the given file. The file is created when the
+	 * sink is opened.
+	 *
+	 * @param file the file to write the PCM data to
+	 */
+	public FileSink(File file) {
+		this.file = file;
+	}
+
+	/** @return the file written by this sink */
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	protected void openImpl() throws LineUnavailableException {
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(file));
+			writeException = null;
+		} catch (IOException ioe) {
+			throw new LineUnavailableException("cannot create " + file + ": "
+					+ ioe.getMessage());
+		}
+	}
+
+	@Override
+	protected void consume(byte[] b, int off, int len) {
+		if (writeException != null) {
+			return;
+		}
+		try {
+			out.write(b, off, len);
+		} catch (IOException ioe) {
+			writeException = ioe;
+		}
+	}
+
+	@Override
+	protected void closeImpl() {
+		try {
+			out.close();
+		} catch (IOException ioe) {
+			if (writeException == null) {
+				writeException = ioe;
+			}
+		}
+		out = null;
+		if (writeException != null) {
+			error("FileSink: error writing " + file + ": "
+					+ writeException.getMessage());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FileSink: " + file;
+	}
+}
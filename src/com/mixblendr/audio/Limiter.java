@@ -0,0 +1,329 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import java.util.Arrays;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+/**
+ * A brickwall limiter with lookahead, used by the MasterBus to prevent
+ * clipping of the mix. The signal is delayed by the lookahead time, so that
+ * the gain can be lowered smoothly before a peak arrives, and no sample of the
+ * output exceeds the ceiling.
+ * <p>
+ * For every input sample, the gain required to keep the loudest sample of the
+ * lookahead window below the ceiling is calculated from the window maximum.
+ * The window maximum is maintained with a monotonic deque, so its cost is O(1)
+ * per sample regardless of the lookahead time. The required gain is released
+ * with a one-pole curve, and averaged over the window with a running sum,
+ * which produces a smooth attack ramp that reaches the required gain exactly
+ * when the peak leaves the delay line. The peak detection and the delay line
+ * are separate passes over the block, so that they can be vectorized.
+ * <p>
+ * All channels share the same gain, so that the stereo image is not shifted.
+ * While no limiting is needed, the gain is exactly 1 and the output is the
+ * delayed input, bit by bit. The buffers for the largest block are allocated
+ * once, so process() does not allocate after that. This class is not thread
+ * safe, except for the ceiling and getMinGain().
+ *
+ * @author Florian Bomers
+ */
+public class Limiter {
+
+	/** the default lookahead time in milliseconds, also the latency */
+	public static final double DEFAULT_LOOKAHEAD_MILLIS = 2.0;
+
+	/** the default release time in milliseconds */
+	public static final double DEFAULT_RELEASE_MILLIS = 80.0;
+
+	/** the default ceiling: -0.3dB */
+	public static final float DEFAULT_CEILING = (float) Math.pow(10.0,
+			-0.3 / 20.0);
+
+	/** if the released gain is closer to the target than this, snap to it */
+	private static final float RELEASE_SNAP = 1.0E-6f;
+
+	private final int channels;
+
+	private final float sampleRate;
+
+	/** the delay of the output in samples */
+	private final int latency;
+
+	/**
+	 * the length of the lookahead window and of the attack ramp, latency + 1,
+	 * so that the ramp reaches the required gain of a sample when it leaves
+	 * the delay line
+	 */
+	private final int windowSize;
+
+	/** the one-pole coefficient of the release */
+	private final float releaseCoeff;
+
+	/** the maximum output level as linear factor */
+	private volatile float ceiling = DEFAULT_CEILING;
+
+	// monotonic deque of the window maximum: a ring with decreasing values
+	private final float[] dequeValues;
+	private final long[] dequeIndexes;
+	private final int dequeMask;
+	private int dequeHead;
+	private int dequeSize;
+
+	/** the index of the next input sample */
+	private long sampleIndex;
+
+	/** the released gain */
+	private float envelope = 1.0f;
+
+	/** the released gains of the last windowSize samples */
+	private final float[] rampRing;
+	private int rampPos;
+	/** the sum of rampRing. Exact as long as the gains are not tiny. */
+	private double rampSum;
+
+	/** the delay lines [channel][latency + block size] */
+	private float[][] lines;
+
+	/** per block: the peak of all channels */
+	private float[] peaks = new float[0];
+
+	/** per block: the gain of each output sample */
+	private float[] gains = new float[0];
+
+	/** the minimum gain of the last block, for metering */
+	private volatile float minGain = 1.0f;
+
+	/**
+	 * Create a limiter with the default lookahead and release times.
+	 *
+	 * @param channels the number of channels
+	 * @param sampleRate the sample rate
+	 */
+	public Limiter(int channels, float sampleRate) {
+		this(channels, sampleRate, DEFAULT_LOOKAHEAD_MILLIS,
+				DEFAULT_RELEASE_MILLIS);
+	}
+
+	/**
+	 * Create a limiter.
+	 *
+	 * @param channels the number of channels
+	 * @param sampleRate the sample rate
+	 * @param lookaheadMillis the lookahead time in milliseconds
+	 * @param releaseMillis the release time in milliseconds
+	 */
+	public Limiter(int channels, float sampleRate, double lookaheadMillis,
+			double releaseMillis) {
+		this.channels = channels;
+		this.sampleRate = sampleRate;
+		int la = (int) (lookaheadMillis * sampleRate / 1000.0);
+		if (la < 1) {
+			la = 1;
+		}
+		latency = la;
+		windowSize = la + 1;
+		int releaseSamples = (int) (releaseMillis * sampleRate / 1000.0);
+		if (releaseSamples < 1) {
+			releaseSamples = 1;
+		}
+		// approach the target to 1% after the release time
+		releaseCoeff = (float) (1.0 - Math.pow(0.01, 1.0 / releaseSamples));
+		int dequeCapacity = Integer.highestOneBit(windowSize) << 1;
+		dequeValues = new float[dequeCapacity];
+		dequeIndexes = new long[dequeCapacity];
+		dequeMask = dequeCapacity - 1;
+		rampRing = new float[windowSize];
+		lines = new float[channels][latency];
+		// allocate for the largest slice, not in the audio thread
+		ensureCapacity(AdaptiveLatency.getMaxSliceSamples(sampleRate));
+		reset();
+	}
+
+	/** @return the number of channels */
+	public int getChannels() {
+		return channels;
+	}
+
+	/** @return the sample rate */
+	public float getSampleRate() {
+		return sampleRate;
+	}
+
+	/** @return the delay of the output in samples */
+	public int getLatencySamples() {
+		return latency;
+	}
+
+	/** @return the maximum output level as linear factor */
+	public float getCeiling() {
+		return ceiling;
+	}
+
+	/**
+	 * Set the maximum output level. Can be called from any thread, the new
+	 * ceiling is used for the following input samples.
+	 *
+	 * @param ceiling the maximum output level as linear factor, (0..1]
+	 */
+	public void setCeiling(float ceiling) {
+		if (ceiling > 1.0f) {
+			ceiling = 1.0f;
+		} else if (ceiling < 0.001f) {
+			ceiling = 0.001f;
+		}
+		this.ceiling = ceiling;
+	}
+
+	/**
+	 * @return the minimum gain applied in the last block, 1.0 if the limiter
+	 *         did not limit
+	 */
+	public float getMinGain() {
+		return minGain;
+	}
+
+	/** clear the delay lines and the gain state */
+	public void reset() {
+		for (int c = 0; c < lines.length; c++) {
+			Arrays.fill(lines[c], 0.0f);
+		}
+		dequeHead = 0;
+		dequeSize = 0;
+		sampleIndex = 0;
+		envelope = 1.0f;
+		Arrays.fill(rampRing, 1.0f);
+		rampPos = 0;
+		rampSum = windowSize;
+		minGain = 1.0f;
+	}
+
+	/** make sure that the block buffers can hold count samples */
+	private void ensureCapacity(int count) {
+		if (peaks.length < count) {
+			peaks = new float[count];
+			gains = new float[count];
+			float[][] newLines = new float[channels][latency + count];
+			for (int c = 0; c < channels; c++) {
+				System.arraycopy(lines[c], 0, newLines[c], 0, latency);
+			}
+			lines = newLines;
+		}
+	}
+
+	/**
+	 * Limit the samples of the buffer in place. The output is delayed by
+	 * getLatencySamples().
+	 *
+	 * @param buffer the samples
+	 * @param offset the index of the first sample
+	 * @param count the number of samples
+	 */
+	public void process(FloatSampleBuffer buffer, int offset, int count) {
+		if (count <= 0) {
+			return;
+		}
+		ensureCapacity(count);
+		int channelCount = Math.min(channels, buffer.getChannelCount());
+		// the peak of all channels for each sample
+		final float[] p = peaks;
+		Arrays.fill(p, 0, count, 0.0f);
+		for (int c = 0; c < channelCount; c++) {
+			final float[] data = buffer.getChannel(c);
+			for (int i = 0; i < count; i++) {
+				float abs = Math.abs(data[offset + i]);
+				p[i] = (abs > p[i]) ? abs : p[i];
+			}
+		}
+		float min = calcGains(count);
+		minGain = min;
+		// the delay lines: history in front of the new block
+		final float[] g = gains;
+		for (int c = 0; c < channelCount; c++) {
+			final float[] data = buffer.getChannel(c);
+			final float[] line = lines[c];
+			System.arraycopy(data, offset, line, latency, count);
+			if (min == 1.0f) {
+				System.arraycopy(line, 0, data, offset, count);
+			} else {
+				for (int i = 0; i < count; i++) {
+					data[offset + i] = line[i] * g[i];
+				}
+			}
+			System.arraycopy(line, count, line, 0, latency);
+		}
+	}
+
+	/**
+	 * Calculate the gains of the block from the peaks: the required gain of
+	 * the window maximum, released, and averaged over the window.
+	 *
+	 * @return the minimum gain of the block
+	 */
+	private float calcGains(int count) {
+		final float[] p = peaks;
+		final float[] g = gains;
+		final float[] values = dequeValues;
+		final long[] indexes = dequeIndexes;
+		final int mask = dequeMask;
+		final float ceil = ceiling;
+		final float[] ring = rampRing;
+		final int size = windowSize;
+		int head = dequeHead;
+		int dSize = dequeSize;
+		long index = sampleIndex;
+		float env = envelope;
+		int pos = rampPos;
+		double sum = rampSum;
+		float min = 1.0f;
+		for (int i = 0; i < count; i++) {
+			float peak = p[i];
+			// remove smaller values from the back, they cannot be the maximum
+			// anymore while this sample is in the window
+			while (dSize > 0 && values[(head + dSize - 1) & mask] <= peak) {
+				dSize--;
+			}
+			int back = (head + dSize) & mask;
+			values[back] = peak;
+			indexes[back] = index;
+			dSize++;
+			// remove the front if it left the window
+			if (indexes[head] <= index - size) {
+				head = (head + 1) & mask;
+				dSize--;
+			}
+			float max = values[head];
+			float target = (max > ceil) ? ceil / max : 1.0f;
+			if (target < env) {
+				// attack: immediately
+				env = target;
+			} else if (env < target) {
+				env += (target - env) * releaseCoeff;
+				if (target - env < RELEASE_SNAP) {
+					env = target;
+				}
+			}
+			sum += env - ring[pos];
+			ring[pos] = env;
+			pos = (pos + 1 == size) ? 0 : pos + 1;
+			float gain = (float) (sum / size);
+			if (gain > 1.0f) {
+				gain = 1.0f;
+			}
+			g[i] = gain;
+			if (gain < min) {
+				min = gain;
+			}
+			index++;
+		}
+		dequeHead = head;
+		dequeSize = dSize;
+		sampleIndex = index;
+		envelope = env;
+		rampPos = pos;
+		rampSum = sum;
+		return min;
+	}
+}
@@ -0,0 +1,61 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * A CaptureSource reading from an audio input device. The device is
+ * retrieved from AudioSystem when the source is opened.
+ *
+ * @author Florian Bomers
+ */
+public class LineCaptureSource implements CaptureSource {
+
+	private TargetDataLine line;
+
+	/** @return the audio input device, or null if not open */
+	public TargetDataLine getLine() {
+		return line;
+	}
+
+	public void open(AudioFormat format, int bufferSize)
+			throws LineUnavailableException {
+		if (line == null) {
+			line = AudioSystem.getTargetDataLine(format);
+		}
+		line.open(format, bufferSize);
+	}
+
+	public void close() {
+		if (line != null) {
+			line.close();
+			line = null;
+		}
+	}
+
+	public void start() {
+		line.start();
+	}
+
+	public void stop() {
+		line.stop();
+	}
+
+	public int read(byte[] b, int off, int len) {
+		return line.read(b, off, len);
+	}
+
+	public AudioFormat getFormat() {
+		return line.getFormat();
+	}
+
+	@Override
+	public String toString() {
+		return "LineCaptureSource: " + line;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * An AudioSink writing to an audio device.
+ *
+ * @author Florian Bomers
+ */
+public class LineSink implements AudioSink {
+
+	private final SourceDataLine line;
+
+	/**
+	 * Create a sink for the given line.
+	 *
+	 * @param line the audio device
+	 */
+	public LineSink(SourceDataLine line) {
+		this.line = line;
+	}
+
+	/** @return the audio device */
+	public SourceDataLine getLine() {
+		return line;
+	}
+
+	public void open(AudioFormat format, int bufferSize)
+			throws LineUnavailableException {
+		line.open(format, bufferSize);
+	}
+
+	public boolean isOpen() {
+		return line.isOpen();
+	}
+
+	public void close() {
+		line.close();
+	}
+
+	public void start() {
+		line.start();
+	}
+
+	public void stop() {
+		line.stop();
+	}
+
+	public boolean isRunning() {
+		return line.isRunning();
+	}
+
+	public void flush() {
+		line.flush();
+	}
+
+	public void drain() {
+		line.drain();
+	}
+
+	public int write(byte[] b, int off, int len) {
+		return line.write(b, off, len);
+	}
+
+	public int available() {
+		return line.available();
+	}
+
+	public int getBufferSize() {
+		return line.getBufferSize();
+	}
+
+	public AudioFormat getFormat() {
+		return line.getFormat();
+	}
+
+	public long getLongFramePosition() {
+		return line.getLongFramePosition();
+	}
+
+	@Override
+	public String toString() {
+		return "LineSink: " + line;
+	}
+}
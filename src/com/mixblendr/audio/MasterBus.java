@@ -0,0 +1,319 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.mixblendr.util.XmlPersistent;
+
+import static com.mixblendr.util.Debug.*;
+
+/**
+ * The processing stage after the sum of all tracks: a chain of effects, and a
+ * built-in lookahead limiter as the last stage, which prevents clipping when
+ * the mix is converted to the audio format of the device or the file. The
+ * effects are initialized with a null track, so they cannot be automated.
+ * <p>
+ * The delay of the limiter is reported to AudioState as processing lag, so
+ * that the interpolated playback position matches what is heard, and the
+ * Renderer removes it from the rendered audio.
+ *
+ * @author Florian Bomers
+ */
+public class MasterBus implements XmlPersistent {
+
+	/** the XML tag name used for exporting the master bus */
+	public static final String EXPORT_XML_ELEMENT = "MasterBus";
+
+	private AudioState state;
+
+	private List<AudioEffect> effects = new ArrayList<AudioEffect>();
+
+	/** the limiter for the current sample rate and channel count */
+	private volatile Limiter limiter;
+
+	private volatile boolean limiterEnabled = true;
+
+	/** if set, the audio thread resets the limiter before using it */
+	private volatile boolean limiterResetRequested = false;
+
+	/** the ceiling of the limiter as linear factor */
+	private volatile float limiterCeiling = Limiter.DEFAULT_CEILING;
+
+	/**
+	 * Create the master bus.
+	 *
+	 * @param state the state providing sample rate and channel count
+	 */
+	MasterBus(AudioState state) {
+		this.state = state;
+		prepare();
+	}
+
+	/**
+	 * Create the limiter if the sample rate or the number of channels
+	 * changed, and update the processing lag. Called from the constructor,
+	 * after importing a project, and in the audio thread if the format
+	 * changed anyway.
+	 */
+	void prepare() {
+		Limiter l = limiter;
+		if (l == null || l.getSampleRate() != state.getSampleRate()
+				|| l.getChannels() != state.getChannels()) {
+			l = new Limiter(state.getChannels(), state.getSampleRate());
+			l.setCeiling(limiterCeiling);
+			limiter = l;
+		}
+		updateLatency();
+	}
+
+	/** report the current latency to the state */
+	private void updateLatency() {
+		state.setProcessingSampleLag(getLatencySamples());
+	}
+
+	/**
+	 * @return the delay of the master bus in samples, i.e. of the limiter if
+	 *         it is enabled
+	 */
+	public int getLatencySamples() {
+		if (limiterEnabled) {
+			return limiter.getLatencySamples();
+		}
+		return 0;
+	}
+
+	// LIMITER
+
+	/** @return true if the limiter is enabled */
+	public boolean isLimiterEnabled() {
+		return limiterEnabled;
+	}
+
+	/**
+	 * Enable or disable the limiter. Disabling removes its delay, so there
+	 * may be a short discontinuity in the output.
+	 *
+	 * @param enabled true to enable the limiter
+	 */
+	public void setLimiterEnabled(boolean enabled) {
+		if (enabled != limiterEnabled) {
+			if (enabled) {
+				limiterResetRequested = true;
+			}
+			limiterEnabled = enabled;
+			updateLatency();
+		}
+	}
+
+	/** @return the ceiling of the limiter as linear factor */
+	public float getLimiterCeiling() {
+		return limiterCeiling;
+	}
+
+	/**
+	 * @param ceiling the ceiling of the limiter as linear factor (0..1]
+	 */
+	public void setLimiterCeiling(float ceiling) {
+		limiter.setCeiling(ceiling);
+		limiterCeiling = limiter.getCeiling();
+	}
+
+	/**
+	 * @return the minimum gain of the limiter in the last slice, e.g. for a
+	 *         gain reduction meter: 1.0 if it did not limit
+	 */
+	public float getLimiterGain() {
+		if (limiterEnabled) {
+			return limiter.getMinGain();
+		}
+		return 1.0f;
+	}
+
+	// EFFECTS
+
+	/**
+	 * @return the number of effects
+	 */
+	public int getEffectCount() {
+		return effects.size();
+	}
+
+	/**
+	 * Add a new, initialized, effect. This effect will be used immediately.
+	 *
+	 * @param e the effect to add
+	 */
+	public void addEffect(AudioEffect e) {
+		synchronized (effects) {
+			effects.add(e);
+		}
+	}
+
+	/**
+	 * Remove the specified effect.
+	 *
+	 * @param e the effect to remove
+	 * @return if the effect was actually removed
+	 */
+	public boolean removeEffect(AudioEffect e) {
+		synchronized (effects) {
+			return effects.remove(e);
+		}
+	}
+
+	/**
+	 * Remove all effects, and call their exit() method.
+	 */
+	public void clearEffects() {
+		List<AudioEffect> removed;
+		synchronized (effects) {
+			removed = new ArrayList<AudioEffect>(effects);
+			effects.clear();
+		}
+		for (AudioEffect ae : removed) {
+			ae.exit();
+		}
+	}
+
+	/**
+	 * Get a list of all effects.
+	 *
+	 * @return a non-modifiable view of the list of effects
+	 */
+	public List<AudioEffect> getEffects() {
+		synchronized (effects) {
+			return Collections.unmodifiableList(effects);
+		}
+	}
+
+	/**
+	 * Return the specified effect by class.
+	 *
+	 * @return the first effect of the given class, or null if no effect of
+	 *         this class is on the master bus
+	 */
+	public AudioEffect getEffect(Class<? extends AudioEffect> clazz) {
+		synchronized (effects) {
+			final int c = effects.size();
+			for (int i = 0; i < c; i++) {
+				AudioEffect ae = effects.get(i);
+				if (ae.getClass().equals(clazz)) {
+					return ae;
+				}
+			}
+		}
+		return null;
+	}
+
+	// PROCESSING
+
+	/**
+	 * Apply the effects and the limiter to the mix. Called by AudioMixer in
+	 * the audio thread.
+	 */
+	void process(long samplePos, FloatSampleBuffer buffer, int offset,
+			int sampleCount) {
+		synchronized (effects) {
+			// do not use an iterator, it would be allocated in the audio
+			// thread
+			final int c = effects.size();
+			for (int i = 0; i < c; i++) {
+				try {
+					effects.get(i).process(samplePos, buffer, offset,
+							sampleCount);
+				} catch (Throwable t) {
+					error("Exception occured during master effects processing:");
+					error(t);
+				}
+			}
+		}
+		if (limiterEnabled) {
+			Limiter l = limiter;
+			if (l.getSampleRate() != state.getSampleRate()
+					|| l.getChannels() != state.getChannels()) {
+				prepare();
+				l = limiter;
+			}
+			if (limiterResetRequested) {
+				limiterResetRequested = false;
+				l.reset();
+			}
+			l.process(buffer, offset, sampleCount);
+		}
+	}
+
+	// PERSISTENCE
+
+	/**
+	 * Remove all effects and set the limiter to the defaults, e.g. before
+	 * importing a project.
+	 */
+	void reset() {
+		clearEffects();
+		setLimiterCeiling(Limiter.DEFAULT_CEILING);
+		setLimiterEnabled(true);
+		limiterResetRequested = true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.mixblendr.util.XmlPersistent#xmlExport(org.w3c.dom.Element)
+	 */
+	public Element xmlExport(Element element) {
+		if (!element.getTagName().equals(EXPORT_XML_ELEMENT)) {
+			element = (Element) element.appendChild(element.getOwnerDocument().createElement(
+					EXPORT_XML_ELEMENT));
+		}
+		element.setAttribute("Limiter", limiterEnabled ? "yes" : "no");
+		element.setAttribute("LimiterCeiling", String.valueOf(limiterCeiling));
+		synchronized (effects) {
+			for (AudioEffect ae : effects) {
+				if (ae instanceof XmlPersistent) {
+					((XmlPersistent) ae).xmlExport(element);
+				}
+			}
+		}
+		return element;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.mixblendr.util.XmlPersistent#xmlImport(org.w3c.dom.Element)
+	 */
+	public void xmlImport(Element element) throws Exception {
+		assert (element.getTagName().equals(EXPORT_XML_ELEMENT));
+		clearEffects();
+		String val = element.getAttribute("Limiter");
+		if (val.length() > 0) {
+			setLimiterEnabled(val.charAt(0) == 'y' || val.charAt(0) == 't'
+					|| val.charAt(0) == '1');
+		}
+		val = element.getAttribute("LimiterCeiling");
+		if (val.length() > 0) {
+			setLimiterCeiling(Float.parseFloat(val));
+		}
+		NodeList nodes = element.getChildNodes();
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Node node = nodes.item(i);
+			if (node.getNodeType() == Node.ELEMENT_NODE) {
+				Element child = (Element) node;
+				if (child.getTagName().equalsIgnoreCase(
+						AudioEffect.EXPORT_XML_NAME)) {
+					AudioEffect ae = AudioTrack.importEffect(child, state, null);
+					if (ae != null) {
+						addEffect(ae);
+					}
+				}
+			}
+		}
+	}
+}
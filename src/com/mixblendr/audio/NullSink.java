@@ -0,0 +1,23 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * A sink which discards the audio data at the pace of the system clock, e.g.
+ * for measuring the real-time playback loop without sound hardware.
+ *
+ * @author Florian Bomers
+ */
+public class NullSink extends PacedSink {
+
+	@Override
+	protected void consume(byte[] b, int off, int len) {
+		// nothing
+	}
+
+	@Override
+	public String toString() {
+		return "NullSink";
+	}
+}
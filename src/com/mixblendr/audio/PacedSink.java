@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Base class for sinks without audio device: the written audio data is
+ * consumed at the pace of the system clock, like an audio device consumes it
+ * at its sample rate. The buffer is virtual: the data is passed to
+ * consume() when it is written, and the buffer only tracks how many frames
+ * are written and not yet played. If the writer does not keep up, the sink
+ * runs dry like an audio device, and continues playing when new data is
+ * written.
+ * <p>
+ * The frame position, the number of available bytes and blocking writes are
+ * derived from System.nanoTime, so AudioOutput, its statistics, the adaptive
+ * latency and the transport clock work as with an audio device.
+ *
+ * @author Florian Bomers
+ */
+public abstract class PacedSink implements AudioSink {
+
+	/** the maximum time to wait in write() and drain() before checking again */
+	private static final long MAX_WAIT_NANOS = 1000000L;
+
+	private AudioFormat format;
+	private int frameSize;
+	private double framesPerNano;
+	private int bufferSize;
+	private boolean open;
+	private volatile boolean running;
+
+	/** the number of frames written since opening */
+	private long writtenFrames;
+
+	/** the number of frames played at startNanos */
+	private long playedFrames;
+
+	/** the time when playback started or last ran dry */
+	private long startNanos;
+
+	/** the number of frames written when the sink was started */
+	private long startWrittenFrames;
+
+	/** true if all written frames are played */
+	private boolean dry;
+
+	/** the number of times the sink ran dry while started */
+	private long underrunCount;
+
+	/**
+	 * Called when audio data is written, from the thread writing to the sink.
+	 *
+	 * @param b the array with the audio data
+	 * @param off the index of the first byte in b
+	 * @param len the number of bytes
+	 */
+	protected abstract void consume(byte[] b, int off, int len);
+
+	/** Called when the sink is opened. */
+	protected void openImpl() throws LineUnavailableException {
+		// nothing
+	}
+
+	/** Called when the sink is closed. */
+	protected void closeImpl() {
+		// nothing
+	}
+
+	public synchronized void open(AudioFormat format, int bufferSize)
+			throws LineUnavailableException {
+		if (open) {
+			return;
+		}
+		this.format = format;
+		frameSize = format.getFrameSize();
+		framesPerNano = format.getFrameRate() / 1000000000.0;
+		this.bufferSize = bufferSize - (bufferSize % frameSize);
+		writtenFrames = 0;
+		playedFrames = 0;
+		underrunCount = 0;
+		running = false;
+		openImpl();
+		open = true;
+	}
+
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	public synchronized void close() {
+		if (open) {
+			open = false;
+			running = false;
+			closeImpl();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Update the played frames to the current time. If all written frames
+	 * are played, the sink ran dry: continue playing from now when new data
+	 * is written. Running dry before anything was written after start, i.e.
+	 * while the data written before start is played, is not counted as
+	 * underrun.
+	 */
+	private void update(long now) {
+		if (running) {
+			long played = playedFrames
+					+ (long) ((now - startNanos) * framesPerNano);
+			if (played >= writtenFrames) {
+				if (played > writtenFrames && !dry
+						&& writtenFrames > startWrittenFrames) {
+					underrunCount++;
+				}
+				dry = true;
+				playedFrames = writtenFrames;
+				startNanos = now;
+			}
+		}
+	}
+
+	/** @return the number of frames played at the given time */
+	private long getPlayedFrames(long now) {
+		if (!running) {
+			return playedFrames;
+		}
+		return playedFrames + (long) ((now - startNanos) * framesPerNano);
+	}
+
+	public synchronized void start() {
+		if (open && !running) {
+			startNanos = System.nanoTime();
+			startWrittenFrames = writtenFrames;
+			running = true;
+		}
+	}
+
+	public synchronized void stop() {
+		if (running) {
+			long now = System.nanoTime();
+			update(now);
+			playedFrames = getPlayedFrames(now);
+			running = false;
+		}
+		notifyAll();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public synchronized void flush() {
+		long now = System.nanoTime();
+		update(now);
+		writtenFrames = getPlayedFrames(now);
+		playedFrames = writtenFrames;
+		startNanos = now;
+		notifyAll();
+	}
+
+	public void drain() {
+		while (true) {
+			long waitNanos;
+			synchronized (this) {
+				if (!open || !running) {
+					return;
+				}
+				long now = System.nanoTime();
+				update(now);
+				long remaining = writtenFrames - getPlayedFrames(now);
+				if (remaining <= 0) {
+					return;
+				}
+				waitNanos = (long) (remaining / framesPerNano);
+			}
+			LockSupport.parkNanos(Math.min(waitNanos, MAX_WAIT_NANOS));
+		}
+	}
+
+	public int write(byte[] b, int off, int len) {
+		len -= len % frameSize;
+		int written = 0;
+		while (written < len) {
+			long waitNanos;
+			synchronized (this) {
+				if (!open) {
+					break;
+				}
+				int count = Math.min(len - written, available());
+				if (count > 0) {
+					consume(b, off + written, count);
+					writtenFrames += count / frameSize;
+					dry = false;
+					written += count;
+					continue;
+				}
+				if (!running) {
+					// would block forever
+					break;
+				}
+				waitNanos = (long) ((len - written) / frameSize / framesPerNano);
+			}
+			LockSupport.parkNanos(Math.min(waitNanos, MAX_WAIT_NANOS));
+		}
+		return written;
+	}
+
+	public synchronized int available() {
+		if (!open) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		update(now);
+		long buffered = (writtenFrames - getPlayedFrames(now)) * frameSize;
+		return (int) (bufferSize - buffered);
+	}
+
+	public synchronized int getBufferSize() {
+		return bufferSize;
+	}
+
+	public synchronized AudioFormat getFormat() {
+		return format;
+	}
+
+	public synchronized long getLongFramePosition() {
+		long now = System.nanoTime();
+		update(now);
+		return getPlayedFrames(now);
+	}
+
+	/** @return the number of times the sink ran dry while started */
+	public synchronized long getUnderrunCount() {
+		return underrunCount;
+	}
+}
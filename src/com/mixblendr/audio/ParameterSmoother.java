@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import java.util.Arrays;
+
+/**
+ * Smooths the changes of a parameter, e.g. a volume or a delay time, to
+ * prevent clicks and zipper noise. The owner sets the target value whenever
+ * the parameter changes, and the audio processing code either gets the
+ * smoothed values for a whole block with process(), or one value per sample
+ * with next().
+ * <p>
+ * Two modes are available: LINEAR ramps to the target value in the smoothing
+ * time, ONE_POLE approaches the target exponentially, and is within 1% of a
+ * step after the smoothing time. Once the target is reached, isSmoothing()
+ * returns false, and the owner can use the constant getValue() instead of
+ * the per-sample values, so that an idle smoother costs nothing.
+ * <p>
+ * The block buffer is reused, so that process() does not allocate after it
+ * was called once with the largest block size. This class is not thread
+ * safe: setTarget() should be called from the audio thread, usually at the
+ * beginning of a block.
+ *
+ * @author Florian Bomers
+ */
+public class ParameterSmoother {
+
+	/** the smoothing curve */
+	public enum Mode {
+		/** linear ramp, reaching the target after the smoothing time */
+		LINEAR,
+		/** exponential approach, like a one-pole low pass filter */
+		ONE_POLE
+	}
+
+	/**
+	 * ONE_POLE: the remaining fraction of a step after the smoothing time
+	 */
+	private static final double ONE_POLE_REMAINDER = 0.01;
+
+	/**
+	 * ONE_POLE: if the difference to the target is smaller than this, the
+	 * target is considered reached
+	 */
+	private static final float ONE_POLE_SNAP = 1.0E-6f;
+
+	private final Mode mode;
+
+	/** the smoothing time in samples */
+	private int timeSamples;
+
+	/** ONE_POLE: the filter coefficient */
+	private float coeff;
+
+	/**
+	 * ONE_POLE: the remaining fraction of a step after n samples at index n,
+	 * so that process() can calculate the values of a block independently
+	 * from each other
+	 */
+	private float[] decay = new float[0];
+
+	/** the current value */
+	private float value;
+
+	/** the value to approach */
+	private float target;
+
+	/** LINEAR: the number of samples left until the target is reached */
+	private int remaining;
+
+	/** the reused buffer for process() */
+	private float[] buffer = new float[0];
+
+	/**
+	 * Create a smoother.
+	 *
+	 * @param mode the smoothing curve
+	 * @param sampleRate the sample rate
+	 * @param timeMillis the smoothing time in milliseconds
+	 * @param value the initial value
+	 */
+	public ParameterSmoother(Mode mode, double sampleRate, double timeMillis,
+			float value) {
+		this.mode = mode;
+		setTime(sampleRate, timeMillis);
+		setValue(value);
+		// allocate for the largest slice, not in the audio thread
+		ensureCapacity(AdaptiveLatency.getMaxSliceSamples(sampleRate));
+	}
+
+	/**
+	 * Set the smoothing time. A smoothing operation in progress is not
+	 * affected.
+	 *
+	 * @param sampleRate the sample rate
+	 * @param timeMillis the smoothing time in milliseconds
+	 */
+	public void setTime(double sampleRate, double timeMillis) {
+		timeSamples = (int) (timeMillis * sampleRate / 1000.0);
+		if (timeSamples < 1) {
+			timeSamples = 1;
+		}
+		coeff = (float) (1.0 - Math.pow(ONE_POLE_REMAINDER, 1.0 / timeSamples));
+		calcDecay(decay.length);
+	}
+
+	/** make sure that process() can calculate count values */
+	private void ensureCapacity(int count) {
+		if (buffer.length < count) {
+			buffer = new float[count];
+			if (mode == Mode.ONE_POLE) {
+				// one more for the value after the block
+				calcDecay(count + 1);
+			}
+		}
+	}
+
+	/** fill the decay array with count values */
+	private void calcDecay(int count) {
+		if (decay.length != count) {
+			decay = new float[count];
+		}
+		double d = 1.0;
+		for (int i = 0; i < count; i++) {
+			decay[i] = (float) d;
+			d *= (1.0 - coeff);
+		}
+	}
+
+	/** @return the smoothing curve */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return the current value, i.e. the value of the next sample
+	 */
+	public float getValue() {
+		return value;
+	}
+
+	/**
+	 * Set the current value and the target immediately, without smoothing.
+	 *
+	 * @param value the new value
+	 */
+	public void setValue(float value) {
+		this.value = value;
+		this.target = value;
+		remaining = 0;
+	}
+
+	/**
+	 * @return the value to approach
+	 */
+	public float getTarget() {
+		return target;
+	}
+
+	/**
+	 * Set a new value to approach. Nothing happens if it is the current
+	 * target, so this method can be called for every block.
+	 *
+	 * @param target the new target value
+	 */
+	public void setTarget(float target) {
+		if (target == this.target) {
+			return;
+		}
+		this.target = target;
+		if (target == value) {
+			remaining = 0;
+		} else {
+			remaining = timeSamples;
+		}
+	}
+
+	/**
+	 * @return true if the value is still moving towards the target
+	 */
+	public boolean isSmoothing() {
+		return value != target;
+	}
+
+	/**
+	 * Calculate the smoothed value of the next count samples.
+	 *
+	 * @param count the number of samples
+	 * @return the reused buffer with the values at index 0...count-1
+	 */
+	public float[] process(int count) {
+		ensureCapacity(count);
+		float[] data = buffer;
+		if (value == target) {
+			Arrays.fill(data, 0, count, value);
+		} else if (mode == Mode.LINEAR) {
+			int n = count;
+			if (n > remaining) {
+				n = remaining;
+			}
+			float end = value + (target - value) * n / remaining;
+			AudioKernels.ramp(data, 0, n, value, end);
+			remaining -= n;
+			if (remaining == 0) {
+				end = target;
+			}
+			value = end;
+			if (n < count) {
+				Arrays.fill(data, n, count, target);
+			}
+		} else {
+			final float t = target;
+			final float step = value - t;
+			final float[] d = decay;
+			for (int i = 0; i < count; i++) {
+				data[i] = t + step * d[i];
+			}
+			float v = t + step * d[count];
+			if (Math.abs(t - v) < ONE_POLE_SNAP) {
+				v = t;
+			}
+			value = v;
+		}
+		return data;
+	}
+
+	/**
+	 * Advance by one sample.
+	 *
+	 * @return the value for the current sample
+	 */
+	public float next() {
+		float ret = value;
+		if (value != target) {
+			if (mode == Mode.LINEAR) {
+				remaining--;
+				if (remaining <= 0) {
+					value = target;
+				} else {
+					value += (target - value) / (remaining + 1);
+				}
+			} else {
+				value += (target - value) * coeff;
+				if (Math.abs(target - value) < ONE_POLE_SNAP) {
+					value = target;
+				}
+			}
+		}
+		return ret;
+	}
+}
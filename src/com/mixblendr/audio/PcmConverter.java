@@ -0,0 +1,266 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+/**
+ * The output format stage: converts float samples to interleaved 16-bit or
+ * 24-bit signed PCM bytes in a buffer provided by the caller, without
+ * allocating memory. Used by AudioOutput for the audio device and by Renderer
+ * for exports.
+ * <p>
+ * Without dither, the conversion is identical to
+ * FloatSampleBuffer.convertToByteArray: samples are scaled by 2^(bits-1),
+ * rounded to the nearest integer and clipped. With dither enabled, TPDF
+ * dither of +-1 LSB is added before rounding, which decorrelates the
+ * quantization error from the signal. The random numbers are generated by a
+ * linear congruential generator in this instance, so the conversion does not
+ * allocate or synchronize.
+ * <p>
+ * Samples which exceed the range of the format are clipped and counted.
+ * Other formats, e.g. 8-bit or 32-bit, are converted by FloatSampleBuffer,
+ * without dither and clip counting.
+ * <p>
+ * This class is not thread safe, except for setDither() and the getters of
+ * the clip counters.
+ *
+ * @author Florian Bomers
+ */
+public final class PcmConverter {
+
+	private final AudioFormat format;
+
+	/** the number of bytes per sample, 2 or 3, or 0 for other formats */
+	private final int sampleSize;
+
+	private final boolean bigEndian;
+
+	private final int frameSize;
+
+	/** the factor from float samples to the integer range */
+	private final float scale;
+
+	private final int maxValue;
+
+	private final int minValue;
+
+	private volatile boolean dither = false;
+
+	/** the state of the random generator for the dither */
+	private int seed = 1;
+
+	/** the number of clipped samples in the last call to convert() */
+	private volatile int lastClipCount;
+
+	/** the number of clipped samples since creation or reset */
+	private volatile long clipCount;
+
+	/**
+	 * Create a converter to the given format.
+	 *
+	 * @param format the target format, must be signed PCM
+	 */
+	public PcmConverter(AudioFormat format) {
+		this.format = format;
+		int bits = format.getSampleSizeInBits();
+		if (isOptimized(format)) {
+			sampleSize = bits / 8;
+		} else {
+			sampleSize = 0;
+		}
+		bigEndian = format.isBigEndian();
+		frameSize = format.getFrameSize();
+		scale = (float) (1 << (bits - 1));
+		maxValue = (int) scale - 1;
+		minValue = -(int) scale;
+	}
+
+	/**
+	 * @return true if the format is converted by this class, false if it is
+	 *         converted by FloatSampleBuffer
+	 */
+	public static boolean isOptimized(AudioFormat format) {
+		int bits = format.getSampleSizeInBits();
+		return format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)
+				&& (bits == 16 || bits == 24)
+				&& format.getFrameSize() == format.getChannels() * bits / 8;
+	}
+
+	/** @return the target format */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/** @return true if TPDF dither is added before rounding */
+	public boolean isDither() {
+		return dither;
+	}
+
+	/**
+	 * Enable or disable TPDF dither. Takes effect at the next call to
+	 * convert().
+	 *
+	 * @param dither true to add dither before rounding
+	 */
+	public void setDither(boolean dither) {
+		this.dither = dither;
+	}
+
+	/** @return the number of clipped samples in the last call to convert() */
+	public int getLastClipCount() {
+		return lastClipCount;
+	}
+
+	/** @return the number of clipped samples since creation or reset */
+	public long getClipCount() {
+		return clipCount;
+	}
+
+	/** reset the clip counters */
+	public void resetClipCount() {
+		clipCount = 0;
+		lastClipCount = 0;
+	}
+
+	/**
+	 * @param sampleCount the number of samples per channel
+	 * @return the number of bytes written by convert() for this number of
+	 *         samples
+	 */
+	public int getByteCount(int sampleCount) {
+		return sampleCount * frameSize;
+	}
+
+	/**
+	 * Convert all samples of the buffer.
+	 *
+	 * @see #convert(FloatSampleBuffer, int, int, byte[], int)
+	 */
+	public int convert(FloatSampleBuffer buffer, byte[] out, int outOffset) {
+		return convert(buffer, 0, buffer.getSampleCount(), out, outOffset);
+	}
+
+	/**
+	 * Convert samples of the buffer to interleaved PCM. The buffer must have
+	 * the channel count of the format.
+	 *
+	 * @param buffer the samples to convert
+	 * @param offset the index of the first sample in buffer
+	 * @param count the number of samples per channel
+	 * @param out the array to write the bytes to
+	 * @param outOffset the index in out of the first byte
+	 * @return the number of written bytes
+	 */
+	public int convert(FloatSampleBuffer buffer, int offset, int count,
+			byte[] out, int outOffset) {
+		if (sampleSize == 0) {
+			lastClipCount = 0;
+			return buffer.convertToByteArray(offset, count, out, outOffset,
+					format);
+		}
+		int clipped = 0;
+		boolean localDither = dither;
+		int channels = format.getChannels();
+		for (int c = 0; c < channels; c++) {
+			int o = outOffset + c * sampleSize;
+			if (sampleSize == 2) {
+				clipped += convert16(buffer.getChannel(c), offset, count, out,
+						o, localDither);
+			} else {
+				clipped += convert24(buffer.getChannel(c), offset, count, out,
+						o, localDither);
+			}
+		}
+		lastClipCount = clipped;
+		if (clipped > 0) {
+			clipCount += clipped;
+		}
+		return count * frameSize;
+	}
+
+	/**
+	 * @return a triangular distributed random number between -1 and 1, the
+	 *         difference of two uniformly distributed numbers
+	 */
+	private float nextTriangular() {
+		int s = seed * 1664525 + 1013904223;
+		int t = s * 1664525 + 1013904223;
+		seed = t;
+		return ((s >>> 8) - (t >>> 8)) * (1.0f / (1 << 24));
+	}
+
+	/**
+	 * round the scaled sample to the nearest integer, with half values away
+	 * from 0 like FloatSampleBuffer
+	 */
+	private static int round(float value) {
+		return (int) (value < 0 ? value - 0.5f : value + 0.5f);
+	}
+
+	/** convert one channel to 16-bit, return the number of clipped samples */
+	private int convert16(float[] data, int offset, int count, byte[] out,
+			int o, boolean localDither) {
+		final float s = scale;
+		final int max = maxValue;
+		final int min = minValue;
+		final int step = frameSize;
+		final int hi = bigEndian ? 0 : 1;
+		final int lo = 1 - hi;
+		int clipped = 0;
+		final int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			float v = data[i] * s;
+			if (localDither) {
+				v += nextTriangular();
+			}
+			int sample = round(v);
+			if (sample > max) {
+				sample = max;
+				clipped++;
+			} else if (sample < min) {
+				sample = min;
+				clipped++;
+			}
+			out[o + lo] = (byte) sample;
+			out[o + hi] = (byte) (sample >> 8);
+			o += step;
+		}
+		return clipped;
+	}
+
+	/** convert one channel to 24-bit, return the number of clipped samples */
+	private int convert24(float[] data, int offset, int count, byte[] out,
+			int o, boolean localDither) {
+		final float s = scale;
+		final int max = maxValue;
+		final int min = minValue;
+		final int step = frameSize;
+		final int b0 = bigEndian ? 2 : 0;
+		final int b2 = 2 - b0;
+		int clipped = 0;
+		final int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			float v = data[i] * s;
+			if (localDither) {
+				v += nextTriangular();
+			}
+			int sample = round(v);
+			if (sample > max) {
+				sample = max;
+				clipped++;
+			} else if (sample < min) {
+				sample = min;
+				clipped++;
+			}
+			out[o + b0] = (byte) sample;
+			out[o + 1] = (byte) (sample >> 8);
+			out[o + b2] = (byte) (sample >> 16);
+			o += step;
+		}
+		return clipped;
+	}
+}
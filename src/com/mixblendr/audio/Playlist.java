@@ -58,6 +58,11 @@ public class Playlist implements AudioInput, XmlPersistent {
 		this();
 		this.state = state;
 		this.owner = owner;
+		// allocate the fade buffers here, not in the audio thread
+		fadeInBuffer = new FloatSampleBuffer(state.getChannels(),
+				getFadeSampleCount(), state.getSampleRate());
+		fadeOutBuffer = new FloatSampleBuffer(state.getChannels(),
+				getFadeSampleCount(), state.getSampleRate());
 	}
 
 	/**
@@ -441,11 +446,6 @@ public class Playlist implements AudioInput, XmlPersistent {
 				if (currentRegionEnd
 						&& currentRegion.needFadeOutAtCurrentPlaybackPosition()) {
 					// initialize the fadeout buffer
-					if (fadeOutBuffer == null) {
-						fadeOutBuffer = new FloatSampleBuffer(
-								state.getChannels(), getFadeSampleCount(),
-								state.getSampleRate());
-					}
 					fadeOutStartSample = currentRegion.getStartTimeSamples()
 							+ currentRegion.getPlaybackPosition();
 					currentRegion.fillFadeOutBuffer(fadeOutBuffer);
@@ -467,11 +467,6 @@ public class Playlist implements AudioInput, XmlPersistent {
 			if (elements.get(i) instanceof AudioRegion) {
 				AudioRegion fadeInRegion = (AudioRegion) elements.get(i);
 				if (fadeInRegion.needFadeInToPreventClick()) {
-					if (fadeInBuffer == null) {
-						fadeInBuffer = new FloatSampleBuffer(
-								state.getChannels(), getFadeSampleCount(),
-								state.getSampleRate());
-					}
 					fadeInStartSample = fadeInRegion.getStartTimeSamples()
 							- fadeInBuffer.getSampleCount();
 					fadeInRegion.fillFadeInBuffer(fadeInBuffer);
@@ -481,6 +476,57 @@ public class Playlist implements AudioInput, XmlPersistent {
 		}
 	}
 
+	/**
+	 * Go to the given position: find the current region and automation
+	 * object, and execute the last automation object of every type before
+	 * the position (chasing). Called by read() when the position jumps, and
+	 * by AudioTrack after rendering offline, so that the automated parameters
+	 * are set for the current position again.
+	 * 
+	 * @param samplePos the new position
+	 */
+	synchronized void locate(long samplePos) {
+		// go through the list of objects and find the current position
+		// also, do chasing for automation objects
+		nextSamplePos = samplePos;
+		int i;
+		currentRegion = null;
+		// add concept of initial/default object in AutomationHandler?
+		// and use that as initial value.
+		for (i = 0; i < elements.size(); i++) {
+			AutomationObject ao = elements.get(i);
+			long startTime = ao.getStartTimeSamples();
+			if (ao instanceof AudioRegion) {
+				if (startTime <= samplePos) {
+					currentRegion = (AudioRegion) ao;
+				}
+			}
+			if (startTime == samplePos) {
+				break;
+			} else if (startTime > samplePos) {
+				break;
+			}
+			ao.getHandler().setLastChasingObject(ao);
+		}
+		currElementIndex = i;
+		// set playback position of the region
+		if (currentRegion != null) {
+			currentRegion.setPlaybackPosition(samplePos
+					- currentRegion.getStartTimeSamples());
+		}
+		initNewCurrRegion(samplePos);
+		// now execute all chasing objects
+		for (AutomationHandler ah : AutomationManager.getHandlers()) {
+			AutomationObject last = ah.getLastChasingObject();
+			if (last != null
+			// sanity
+					&& last.getOwner() == this) {
+				last.execute(owner);
+				ah.setLastChasingObject(null);
+			}
+		}
+	}
+
 	/**
 	 * Read the next chunk of audio data at the current AudioState position.
 	 * 
@@ -490,45 +536,7 @@ public class Playlist implements AudioInput, XmlPersistent {
 	public synchronized boolean read(long samplePos, FloatSampleBuffer buffer,
 			int offset, int sampleCount) {
 		if (nextSamplePos != samplePos) {
-			// go through the list of objects and find the current position
-			// also, do chasing for automation objects
-			nextSamplePos = samplePos;
-			int i;
-			currentRegion = null;
-			// add concept of initial/default object in AutomationHandler?
-			// and use that as initial value.
-			for (i = 0; i < elements.size(); i++) {
-				AutomationObject ao = elements.get(i);
-				long startTime = ao.getStartTimeSamples();
-				if (ao instanceof AudioRegion) {
-					if (startTime <= samplePos) {
-						currentRegion = (AudioRegion) ao;
-					}
-				}
-				if (startTime == samplePos) {
-					break;
-				} else if (startTime > samplePos) {
-					break;
-				}
-				ao.getHandler().setLastChasingObject(ao);
-			}
-			currElementIndex = i;
-			// set playback position of the region
-			if (currentRegion != null) {
-				currentRegion.setPlaybackPosition(samplePos
-						- currentRegion.getStartTimeSamples());
-			}
-			initNewCurrRegion(samplePos);
-			// now execute all chasing objects
-			for (AutomationHandler ah : AutomationManager.types.values()) {
-				AutomationObject last = ah.getLastChasingObject();
-				if (last != null
-				// sanity
-						&& last.getOwner() == this) {
-					last.execute(owner);
-					ah.setLastChasingObject(null);
-				}
-			}
+			locate(samplePos);
 		}
 		nextSamplePos += sampleCount;
 
@@ -602,7 +610,7 @@ public class Playlist implements AudioInput, XmlPersistent {
 					length = sampleCount - thisOffset;
 				}
 				if (length > 0) {
-					buffer.mix(fadeOutBuffer, sourceOffset,
+					AudioKernels.mix(fadeOutBuffer, sourceOffset, buffer,
 							thisOffset + offset, length);
 					if (TRACE_FADE) {
 						onnl("fo ");
@@ -632,8 +640,8 @@ public class Playlist implements AudioInput, XmlPersistent {
 					length = sampleCount - thisOffset;
 				}
 				if (length > 0) {
-					buffer.mix(fadeInBuffer, sourceOffset, thisOffset + offset,
-							length);
+					AudioKernels.mix(fadeInBuffer, sourceOffset, buffer,
+							thisOffset + offset, length);
 					if (TRACE_FADE) {
 						onnl("fi ");
 					}
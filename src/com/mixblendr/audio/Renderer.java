@@ -33,6 +33,8 @@ public class Renderer {
 	private long sampleCount;
 	private FloatSampleBuffer floatBuffer;
 	private byte[] byteBuffer;
+	private PcmConverter converter;
+	private boolean dither = false;
 
 	/**
 	 * create an instance of the stream Renderer
@@ -56,6 +58,29 @@ public class Renderer {
 		return format.getSampleSizeInBits();
 	}
 
+	/**
+	 * Enable or disable TPDF dither when converting to PCM. Must be called
+	 * before rendering.
+	 * 
+	 * @see PcmConverter#setDither(boolean)
+	 */
+	public void setDither(boolean dither) {
+		this.dither = dither;
+	}
+
+	/** @return true if TPDF dither is added when converting to PCM */
+	public boolean isDither() {
+		return dither;
+	}
+
+	/**
+	 * @return the number of samples which were clipped when converting to
+	 *         PCM
+	 */
+	public long getClipCount() {
+		return (converter != null) ? converter.getClipCount() : 0;
+	}
+
 	/** asynchronously request the render method to stop */
 	public void requestStop() {
 		stopRequested = true;
@@ -80,12 +105,14 @@ public class Renderer {
 		floatBuffer = new FloatSampleBuffer(format.getChannels(),
 				sliceSizeSamples, format.getSampleRate());
 		byteBuffer = new byte[sliceSizeBytes];
+		converter = new PcmConverter(format);
+		converter.setDither(dither);
 	}
 
 	/** called by the render() method after each buffer was read. */
 	protected void onRenderedBuffer(FloatSampleBuffer buffer) throws Exception {
 		// convert to byte
-		int n = floatBuffer.convertToByteArray(byteBuffer, 0, format);
+		int n = converter.convert(buffer, byteBuffer, 0);
 		// write the audio data to the stream
 		outStream.write(byteBuffer, 0, n);
 	}
@@ -98,6 +125,9 @@ public class Renderer {
 	/**
 	 * Render the stream from the given input stream to the output. This method
 	 * can only be called once. After that, use a new instance of Renderer.
+	 * The processing lag of the state, i.e. the latency of the master bus, is
+	 * removed by discarding the first samples of the input, so that the
+	 * rendered audio is aligned with the timeline.
 	 * 
 	 * @return the number of rendered samples
 	 */
@@ -107,19 +137,36 @@ public class Renderer {
 		this.sampleCount = renderSampleCount;
 		this.currSample = 0;
 		init();
-		long remainingSamples = renderSampleCount;
-		if (remainingSamples == 0) {
+		if (renderSampleCount == 0) {
 			throw new Exception("no audio data to render.");
 		}
+		int sliceSizeSamples = floatBuffer.getSampleCount();
+		long skipSamples = state.getProcessingSampleLag();
+		long remainingSamples = renderSampleCount + skipSamples;
 		while (!stopRequested && remainingSamples > 0) {
-			// read from the input line
-			if (floatBuffer.getSampleCount() > remainingSamples) {
-				floatBuffer.changeSampleCount((int) remainingSamples, false);
+			// read from the input line, always in full slices, except at the
+			// end, so that the slices are aligned with the timeline
+			int readCount = sliceSizeSamples;
+			if (readCount > remainingSamples) {
+				readCount = (int) remainingSamples;
+			}
+			if (floatBuffer.getSampleCount() != readCount) {
+				floatBuffer.changeSampleCount(readCount, false);
 			}
 			input.read(floatBuffer);
+			remainingSamples -= readCount;
+			if (skipSamples > 0) {
+				// remove the processing lag
+				int skip = (int) Math.min(skipSamples, readCount);
+				skipSamples -= skip;
+				if (skip == readCount) {
+					continue;
+				}
+				floatBuffer.copy(skip, 0, readCount - skip);
+				floatBuffer.changeSampleCount(readCount - skip, true);
+			}
 			onRenderedBuffer(floatBuffer);
 			currSample += floatBuffer.getSampleCount();
-			remainingSamples -= floatBuffer.getSampleCount();
 		}
 		done();
 		return currSample;
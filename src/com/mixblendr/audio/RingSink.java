@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * A sink which keeps the audio data in a ring buffer in memory, at the pace
+ * of the system clock, so that tests can verify what would have been played.
+ * The ring has a single reader: read() may be called from any one thread
+ * while the audio thread writes, without locking. If the reader does not
+ * keep up, the data which does not fit into the ring is dropped and counted.
+ *
+ * @author Florian Bomers
+ */
+public class RingSink extends PacedSink {
+
+	private final ByteRing ring;
+
+	/** the number of bytes dropped because the ring was full */
+	private volatile long droppedBytes;
+
+	/**
+	 * Create a sink with a ring of the given size.
+	 *
+	 * @param capacity the size of the ring in bytes
+	 */
+	public RingSink(int capacity) {
+		ring = new ByteRing(capacity);
+	}
+
+	@Override
+	protected void consume(byte[] b, int off, int len) {
+		int count = ring.write(b, off, len);
+		if (count < len) {
+			droppedBytes += len - count;
+		}
+	}
+
+	/** @return the number of bytes which can be read from the ring */
+	public int getReadableBytes() {
+		return ring.size();
+	}
+
+	/**
+	 * Read audio data from the ring, without blocking.
+	 *
+	 * @param b the array to read to
+	 * @param off the index in b of the first byte
+	 * @param len the maximum number of bytes to read
+	 * @return the number of bytes read
+	 */
+	public int read(byte[] b, int off, int len) {
+		return ring.read(b, off, len);
+	}
+
+	/** @return the total number of bytes written to the ring */
+	public long getWrittenBytes() {
+		return ring.getWrittenBytes();
+	}
+
+	/** @return the number of bytes dropped because the ring was full */
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "RingSink: " + ring.getCapacity() + " bytes";
+	}
+}
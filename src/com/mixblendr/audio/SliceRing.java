@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+/**
+ * A lock-free ring of pre-rendered audio slices, for exactly one producer
+ * thread and one consumer thread. Along with the audio data, every slice
+ * carries the sample slice position after the slice, and the generation it
+ * was rendered in. The producer fills the buffer returned by
+ * getWriteBuffer() and then calls commitWrite(), the consumer reads the
+ * buffer returned by getReadBuffer() and then calls commitRead().
+ *
+ * @author Florian Bomers
+ */
+class SliceRing {
+
+	private FloatSampleBuffer[] buffers;
+
+	/** the sample slice position after the respective slice */
+	private long[] positions;
+
+	/** the generation of the respective slice */
+	private int[] generations;
+
+	/** total number of slices written, only modified by the producer */
+	private volatile long writeCount = 0;
+
+	/** total number of slices read, only modified by the consumer */
+	private volatile long readCount = 0;
+
+	/**
+	 * Create a new ring of slices.
+	 *
+	 * @param capacity the number of slices in the ring
+	 * @param channels the number of channels of each slice
+	 * @param sampleCount the number of samples of each slice
+	 * @param sampleRate the sample rate
+	 */
+	SliceRing(int capacity, int channels, int sampleCount, float sampleRate) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("illegal capacity: " + capacity);
+		}
+		buffers = new FloatSampleBuffer[capacity];
+		positions = new long[capacity];
+		generations = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			buffers[i] = new FloatSampleBuffer(channels, sampleCount, sampleRate);
+		}
+	}
+
+	/** @return the number of slices in the ring */
+	final int getCapacity() {
+		return buffers.length;
+	}
+
+	/** @return the number of slices ready to be read */
+	final int size() {
+		return (int) (writeCount - readCount);
+	}
+
+	/** @return true if no slice is ready to be read */
+	final boolean isEmpty() {
+		return writeCount == readCount;
+	}
+
+	/** @return true if the producer cannot write another slice */
+	final boolean isFull() {
+		return writeCount - readCount >= buffers.length;
+	}
+
+	// PRODUCER
+
+	/**
+	 * @return the buffer to render the next slice into. Must only be called if
+	 *         the ring is not full.
+	 */
+	final FloatSampleBuffer getWriteBuffer() {
+		return buffers[(int) (writeCount % buffers.length)];
+	}
+
+	/**
+	 * Make the slice in the write buffer available to the consumer.
+	 *
+	 * @param position the sample slice position after this slice
+	 * @param generation the generation this slice was rendered in
+	 */
+	final void commitWrite(long position, int generation) {
+		int index = (int) (writeCount % buffers.length);
+		positions[index] = position;
+		generations[index] = generation;
+		// the volatile write publishes the slice to the consumer
+		writeCount++;
+	}
+
+	// CONSUMER
+
+	/**
+	 * @return the buffer of the next slice to be read. Must only be called if
+	 *         the ring is not empty.
+	 */
+	final FloatSampleBuffer getReadBuffer() {
+		return buffers[(int) (readCount % buffers.length)];
+	}
+
+	/** @return the sample slice position after the next slice to be read */
+	final long getReadPosition() {
+		return positions[(int) (readCount % buffers.length)];
+	}
+
+	/** @return the generation of the next slice to be read */
+	final int getReadGeneration() {
+		return generations[(int) (readCount % buffers.length)];
+	}
+
+	/** Release the read buffer so that the producer can reuse it. */
+	final void commitRead() {
+		readCount++;
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package com.mixblendr.audio;
+
+/**
+ * The playback clock derived from the frame position of the audio device,
+ * i.e. from the number of frames the device has actually played. The audio
+ * thread reports the frame position after every slice written to the device.
+ * The frame position is coarse and jittery on most devices, so it is
+ * smoothed with a second order delay-locked loop (DLL) against System.nanoTime:
+ * the loop tracks the offset and the rate of the device clock, so that the
+ * position can be extrapolated to any point in time between two reports.
+ * <p>
+ * To map the played frames to the timeline, the audio thread also reports
+ * the timeline position at the end of every written slice. The last anchors
+ * are kept in a ring, so that the position is correct even across loops and
+ * position changes, once the respective slice is played.
+ * <p>
+ * The reports are made by the audio thread only. getSamplePosition() may be
+ * called from any thread without locking or allocation; a consistent view of
+ * the loop state is read with a sequence counter. The fields of the loop
+ * state are volatile, too, so that they are ordered with the sequence
+ * counter, and the long and double values are written atomically. If the
+ * device does not report a frame position, or the reports stopped, the
+ * clock is not locked and AudioState falls back to interpolating the time of
+ * the slice writes.
+ *
+ * @author Florian Bomers
+ */
+public final class TransportClock {
+
+	/** the bandwidth of the DLL in Hz */
+	private static final double BANDWIDTH = 1.0;
+
+	/** the number of slice anchors kept for mapping frames to the timeline */
+	private static final int ANCHOR_COUNT = 256;
+
+	/**
+	 * the maximum deviation of a reported frame position from the
+	 * prediction, in milliseconds. Larger deviations, e.g. after an underrun,
+	 * restart the loop at the reported position.
+	 */
+	private static final double MAX_ERROR_MILLIS = 50.0;
+
+	/** the time without reports after which the clock is not locked anymore */
+	private static final long TIMEOUT_NANOS = 200000000L;
+
+	/** the number of reports before the clock is locked */
+	private static final int LOCK_REPORTS = 2;
+
+	// the anchors: written frame count and timeline position at slice ends
+	private final long[] anchorFrames = new long[ANCHOR_COUNT];
+	private final long[] anchorPositions = new long[ANCHOR_COUNT];
+	/** the number of anchors written since reset, publishes the anchors */
+	private volatile long anchorCount;
+
+	// the loop state, written by the audio thread, guarded by sequence
+	/** odd while the loop state is being written */
+	private volatile int sequence;
+	/** the time of the last report */
+	private volatile long loopNanos;
+	/** the smoothed frame position at loopNanos */
+	private volatile double loopFrames;
+	/** the estimated rate of the device in frames per nanosecond */
+	private volatile double loopRate;
+
+	// only accessed by the audio thread
+	private double nominalRate;
+	private double coeffB;
+	private double coeffC;
+	private double maxError;
+	private long lastFramePosition;
+	private int reportCount;
+
+	/** set to true when the reports advance the frame position */
+	private volatile boolean locked;
+
+	/** create a clock which is not locked */
+	TransportClock() {
+		// nothing
+	}
+
+	/**
+	 * Restart the clock, when the audio device starts playing from an empty
+	 * buffer. Called by the audio thread.
+	 *
+	 * @param sampleRate the sample rate of the device
+	 * @param reportIntervalSamples the expected number of frames between two
+	 *            reports, i.e. the slice size
+	 */
+	void reset(double sampleRate, int reportIntervalSamples) {
+		locked = false;
+		anchorCount = 0;
+		reportCount = 0;
+		lastFramePosition = -1;
+		nominalRate = sampleRate / 1000000000.0;
+		double omega = 2.0 * Math.PI * BANDWIDTH * reportIntervalSamples
+				/ sampleRate;
+		coeffB = Math.sqrt(2.0) * omega;
+		coeffC = omega * omega;
+		maxError = MAX_ERROR_MILLIS * sampleRate / 1000.0;
+	}
+
+	/** stop the clock, e.g. when playback stopped */
+	void stop() {
+		locked = false;
+	}
+
+	/**
+	 * Called by the audio thread after a slice was written to the device.
+	 *
+	 * @param writtenFrames the number of frames written since reset,
+	 *            including this slice
+	 * @param slicePosition the timeline position after this slice
+	 */
+	void sliceWritten(long writtenFrames, long slicePosition) {
+		long count = anchorCount;
+		int index = (int) (count % ANCHOR_COUNT);
+		anchorFrames[index] = writtenFrames;
+		anchorPositions[index] = slicePosition;
+		anchorCount = count + 1;
+	}
+
+	/**
+	 * Called by the audio thread with the current frame position of the
+	 * device, relative to the reset.
+	 *
+	 * @param nanos the time of the query of the frame position
+	 * @param framePosition the number of frames played since reset
+	 */
+	void framePositionUpdate(long nanos, long framePosition) {
+		if (framePosition <= 0 || framePosition == lastFramePosition) {
+			// the device does not report frame positions, or with a
+			// coarser granularity than the slices: nothing to learn
+			if (locked && nanos - loopNanos > TIMEOUT_NANOS) {
+				locked = false;
+			}
+			return;
+		}
+		lastFramePosition = framePosition;
+		sequence++;
+		if (reportCount == 0) {
+			loopFrames = framePosition;
+			loopRate = nominalRate;
+		} else {
+			double predicted = loopFrames + loopRate * (nanos - loopNanos);
+			double error = framePosition - predicted;
+			if (error > maxError || error < -maxError) {
+				// e.g. an underrun: restart at the reported position
+				loopFrames = framePosition;
+				loopRate = nominalRate;
+			} else {
+				loopFrames = predicted + coeffB * error;
+				loopRate += coeffC * error / (nanos - loopNanos);
+			}
+		}
+		loopNanos = nanos;
+		sequence++;
+		reportCount++;
+		if (reportCount >= LOCK_REPORTS) {
+			locked = true;
+		}
+	}
+
+	/**
+	 * @return true if the device reports its frame position, so that
+	 *         getSamplePosition() returns the position from this clock
+	 */
+	public boolean isLocked() {
+		return locked;
+	}
+
+	/**
+	 * @param nanos the time as returned by System.nanoTime()
+	 * @return the number of frames played by the device at the given time,
+	 *         since reset, or -1 if the clock is not locked
+	 */
+	public double getPlayedFrames(long nanos) {
+		if (!locked) {
+			return -1;
+		}
+		long n;
+		double frames;
+		double rate;
+		int seq;
+		do {
+			seq = sequence;
+			n = loopNanos;
+			frames = loopFrames;
+			rate = loopRate;
+		} while ((seq & 1) != 0 || seq != sequence);
+		if (nanos - n > TIMEOUT_NANOS) {
+			return -1;
+		}
+		return frames + rate * (nanos - n);
+	}
+
+	/**
+	 * @return the timeline position of the sample played by the device now,
+	 *         or -1 if the clock is not locked
+	 */
+	public long getSamplePosition() {
+		double played = getPlayedFrames(System.nanoTime());
+		if (played < 0) {
+			return -1;
+		}
+		long frame = (long) played;
+		long count = anchorCount;
+		if (count == 0) {
+			return -1;
+		}
+		// find the oldest anchor that ends after the played frame, i.e.
+		// the slice being played
+		long i = count - 1;
+		long end = Math.max(0, count - ANCHOR_COUNT + 1);
+		int index = (int) (i % ANCHOR_COUNT);
+		if (frame > anchorFrames[index]) {
+			// cannot play what was not written yet
+			frame = anchorFrames[index];
+		}
+		while (i > end) {
+			int prev = (int) ((i - 1) % ANCHOR_COUNT);
+			if (anchorFrames[prev] < frame) {
+				break;
+			}
+			index = prev;
+			i--;
+		}
+		long ret = anchorPositions[index] - (anchorFrames[index] - frame);
+		return (ret < 0) ? 0 : ret;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package com.mixblendr.automation;
+
+import org.w3c.dom.Element;
+
+import com.mixblendr.audio.AudioState;
+import com.mixblendr.audio.AudioTrack;
+import com.mixblendr.audio.AutomationManager;
+import com.mixblendr.audio.AutomationObject;
+import com.mixblendr.audio.AutomationObjectDouble;
+
+/**
+ * An instance of an automation object that changes the level of a send to an
+ * aux bus. The bus is identified by its index in the mixer.
+ * 
+ * @author Florian Bomers
+ */
+public class AutomationSend extends AutomationObjectDouble {
+	private static final String XML_ELEMENT_NAME = "SendLevel";
+
+	static {
+		AutomationManager.registerXML(AutomationSend.class, XML_ELEMENT_NAME);
+	}
+
+	/** the index of the aux bus */
+	private int bus;
+
+	/**
+	 * Create an instance with default values, should only be used before
+	 * xml import.
+	 */
+	public AutomationSend() {
+		super(null, XML_ELEMENT_NAME, 0, 0.0);
+	}
+
+	/**
+	 * Create a new send level automation object
+	 * 
+	 * @param state
+	 * @param bus the index of the aux bus
+	 * @param level the linear send level [0..1]
+	 * @param startSample the sample time when to execute this level change
+	 */
+	public AutomationSend(AudioState state, int bus, double level,
+			long startSample) {
+		super(state, XML_ELEMENT_NAME, startSample, level);
+		this.bus = bus;
+	}
+
+	/**
+	 * @return the index of the aux bus
+	 */
+	public int getBus() {
+		return bus;
+	}
+
+	/**
+	 * @return the linear send level [0..1]
+	 */
+	public double getLevel() {
+		return value;
+	}
+
+	/**
+	 * Sends to different buses are different type instances, so that they do
+	 * not overwrite each other.
+	 * 
+	 * @see com.mixblendr.audio.AutomationObject#isSameTypeInstance(com.mixblendr.audio.AutomationObject)
+	 */
+	@Override
+	public boolean isSameTypeInstance(AutomationObject other) {
+		return super.isSameTypeInstance(other)
+				&& ((AutomationSend) other).bus == bus;
+	}
+
+	/**
+	 * Change the track's send level to this object's stored level.
+	 * 
+	 * @see com.mixblendr.audio.AutomationObject#executeImpl(com.mixblendr.audio.AudioTrack)
+	 */
+	@Override
+	protected void executeImpl(AudioTrack track) {
+		track.setSendLevel(bus, value);
+	}
+
+	// PERSISTENCE
+
+	@Override
+	public Element xmlExport(Element element) {
+		element = super.xmlExport(element);
+		element.setAttribute("Bus", String.valueOf(bus));
+		return element;
+	}
+
+	@Override
+	public void xmlImport(Element element) throws Exception {
+		super.xmlImport(element);
+		bus = Integer.parseInt(element.getAttribute("Bus"));
+	}
+
+	/**
+	 * @return a string representation of this object (mainly for debugging
+	 *         purposes)
+	 */
+	@Override
+	public String toString() {
+		return super.toString() + ", bus=" + bus + ", linear level=" + value;
+	}
+}
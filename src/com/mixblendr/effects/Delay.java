@@ -23,7 +23,8 @@ import static com.mixblendr.util.Debug.*;
  * 
  * @author Florian Bomers
  */
-public class Delay extends GUIEffectsBase implements XmlPersistent {
+public class Delay extends GUIEffectsBase implements XmlPersistent,
+		AudioEffectTail, AudioEffectReset {
 
 	private static final boolean DEBUG_DELAY = false;
 
@@ -36,13 +37,29 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 			1 / 64.0, 1 / 32.0, 1 / 16.0, 1 / 8.0, 1 / 4.0, 1 / 2.0, 1.0, 2.0,
 	};
 
-	private double delayTimeBeats;
-	private double delayTimeSamples;
-	private double feedback;
-	private double balance;
+	// the parameters, set e.g. by the GUI or by automation on the audio
+	// thread, and read by process() at the beginning of each block. They are
+	// independent volatile fields, so that setting them does not allocate.
+	private volatile double delayTimeBeats;
+	private volatile double delayTimeSamples;
+	private volatile double feedback;
+	private volatile double balance;
 
-	// runtime state
-	private FloatSampleBuffer delayBuffer;
+	/** maximum of 2 seconds delay buffer */
+	private static final double MAX_DELAY_MILLIS = 2000.0;
+
+	/**
+	 * the delay buffer for the maximum delay time, allocated by initImpl() so
+	 * that changing the delay time does not reallocate it, and null if the
+	 * effect is not initialized. The delay line uses the beginning of it.
+	 */
+	private volatile FloatSampleBuffer delayBuffer;
+
+	// runtime state, only accessed by process()
+	/** the delay buffer used by process() */
+	private FloatSampleBuffer usedDelayBuffer;
+	/** the length of the circular delay line in the delay buffer */
+	private int delayCount;
 	private double delayBufferPos;
 
 	// apply a micro fade in/out when changing the buffer size
@@ -50,6 +67,20 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 	private FloatSampleBuffer fadeOutBuffer;
 	private boolean nextBufferDoFade = true;
 
+	/**
+	 * the number of samples written to the delay buffer below
+	 * AudioEffectTail.SILENCE_LEVEL since the last louder sample
+	 */
+	private int silentWriteCount;
+
+	// smooth changes of feedback and balance
+	private final static double SMOOTHING_MILLIS = 10.0;
+	private ParameterSmoother feedbackSmoother;
+	private ParameterSmoother srcVolSmoother;
+	private ParameterSmoother delayVolSmoother;
+	/** if true, process() sets the smoothers to the parameters directly */
+	private boolean resetSmoothers;
+
 	// automation support
 	private static AutomationHandler delayTimeHandler = AutomationManager.getHandler(DelayTimeAutomation.class);
 	private static AutomationHandler feedbackHandler = AutomationManager.getHandler(FeedbackAutomation.class);
@@ -75,55 +106,23 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/**
+	 * Set the delay time, limited to MAX_DELAY_MILLIS. If the length of the
+	 * delay line changes, process() will fade over to the new length.
+	 * 
 	 * @param delayTimeBeats the delay time in beats to set
 	 */
 	public void setDelayTimeBeats(double delayTimeBeats) {
 		if (state == null) return;
-		synchronized (lock) {
-			this.delayTimeBeats = delayTimeBeats;
-			this.delayTimeSamples = state.beat2sample(delayTimeBeats);
-			if (delayTimeSamples <= 0) {
-				delayTimeSamples = 0.1;
-			}
-			int oldSampleCount = delayBuffer.getSampleCount();
-			int newSampleCount = (int) (delayTimeSamples + 1);
-
-			if (newSampleCount != oldSampleCount) {
-				// copying some samples from the current position to the fadeout
-				// buffer
-				int fadeOutCount = FADEOUT_BUFFER_SAMPLECOUNT;
-				if (fadeOutCount > oldSampleCount) {
-					fadeOutCount = oldSampleCount;
-				}
-				fadeOutBuffer.changeSampleCount(fadeOutCount, false);
-				// take advantage of copyTo()'s adjustment of "count"
-				int copied = delayBuffer.copyTo((int) delayBufferPos,
-						fadeOutBuffer, 0, fadeOutCount);
-				delayBuffer.copyTo(0, fadeOutBuffer, copied, fadeOutCount
-						- copied);
-				if (DEBUG_DELAY) {
-					debug("Fading out old delay buffer:");
-					debug("- old size=" + oldSampleCount
-							+ " samples  new size=" + newSampleCount
-							+ " samples");
-					debug("- copied " + copied
-							+ " samples from delay buffer at "
-							+ ((int) delayBufferPos)
-							+ " to fade buffer at position 0");
-					debug("- copied "
-							+ (fadeOutCount - copied)
-							+ " samples from delay buffer's beginning to fade buffer at position "
-							+ copied);
-					debug("- apply new delay buffer size and silence it");
-					debug("- next rendering time, fade in the signal");
-				}
-				// silence the new buffer
-				delayBuffer.changeSampleCount(newSampleCount, false);
-				delayBuffer.makeSilence();
-				delayBufferPos = 0;
-				nextBufferDoFade = true;
-			}
+		double delayTimeSamples = state.beat2sample(delayTimeBeats);
+		// the delay line must fit into the delay buffer
+		double maxDelayTimeSamples = state.millis2sample(MAX_DELAY_MILLIS) - 1;
+		if (delayTimeSamples <= 0) {
+			delayTimeSamples = 0.1;
+		} else if (delayTimeSamples > maxDelayTimeSamples) {
+			delayTimeSamples = maxDelayTimeSamples;
 		}
+		this.delayTimeBeats = delayTimeBeats;
+		this.delayTimeSamples = delayTimeSamples;
 	}
 
 	/**
@@ -138,7 +137,7 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 	 */
 	public double getDelayTimeMillis() {
 		if (state == null) return 1;
-		return state.beat2seconds(delayTimeBeats) * 1000.0;
+		return state.beat2seconds(getDelayTimeBeats()) * 1000.0;
 	}
 
 	/**
@@ -174,17 +173,30 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 	@Override
 	public void initImpl() {
 		if (state == null) return;
-		if (delayBuffer == null) {
-			delayBuffer = new FloatSampleBuffer(state.getChannels(), 0,
-					state.getSampleRate());
-			fadeOutBuffer = new FloatSampleBuffer(state.getChannels(), 0,
-					state.getSampleRate());
+		if (fadeOutBuffer == null) {
+			// allocate the full size so that process() does not reallocate
+			fadeOutBuffer = new FloatSampleBuffer(state.getChannels(),
+					FADEOUT_BUFFER_SAMPLECOUNT, state.getSampleRate());
+			feedbackSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
+			srcVolSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
+			delayVolSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
 		}
+		resetSmoothers = true;
 		// default values
 		setDelayTimeBeats(1 / 8.0);
 		setFeedback(0.5);
 		setBalance(0.0);
-		nextBufferDoFade = true;
+		if (delayBuffer == null) {
+			delayBuffer = new FloatSampleBuffer(state.getChannels(),
+					(int) state.millis2sample(MAX_DELAY_MILLIS),
+					state.getSampleRate());
+		}
 	}
 
 	@Override
@@ -192,87 +204,191 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		delayBuffer = null;
 	}
 
+	/**
+	 * Called from process() when the delay time changed the length of the
+	 * delay line: copy some samples from the current position of the old
+	 * delay line to the fadeout buffer, and start with a silent delay line of
+	 * the new length.
+	 */
+	private void switchDelayLength(FloatSampleBuffer delayBuffer, int newCount) {
+		int oldSampleCount = delayCount;
+		int fadeOutCount = FADEOUT_BUFFER_SAMPLECOUNT;
+		if (fadeOutCount > oldSampleCount) {
+			fadeOutCount = oldSampleCount;
+		}
+		fadeOutBuffer.changeSampleCount(fadeOutCount, false);
+		int copied = 0;
+		if (fadeOutCount > 0) {
+			// wrap around at the end of the delay line
+			copied = Math.min(fadeOutCount, oldSampleCount
+					- (int) delayBufferPos);
+			delayBuffer.copyTo((int) delayBufferPos, fadeOutBuffer, 0, copied);
+			delayBuffer.copyTo(0, fadeOutBuffer, copied, fadeOutCount
+					- copied);
+		}
+		if (DEBUG_DELAY) {
+			debug("Fading out old delay line:");
+			debug("- old size=" + oldSampleCount + " samples  new size="
+					+ newCount + " samples");
+			debug("- copied " + copied + " samples from delay line at "
+					+ ((int) delayBufferPos) + " to fade buffer at position 0");
+			debug("- copied "
+					+ (fadeOutCount - copied)
+					+ " samples from delay line's beginning to fade buffer at position "
+					+ copied);
+			debug("- silence the new delay line and fade in the signal");
+		}
+		delayBuffer.makeSilence(0, newCount);
+		delayCount = newCount;
+		delayBufferPos = 0;
+		nextBufferDoFade = true;
+	}
+
+	/**
+	 * The tail is silent if the entire delay line was overwritten with
+	 * samples below the silence level.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectTail#isTailSilent()
+	 */
+	public boolean isTailSilent() {
+		return delayBuffer == null || silentWriteCount >= delayCount;
+	}
+
+	/**
+	 * process() starts with a silent delay line like for a new delay buffer.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectReset#reset()
+	 */
+	public void reset() {
+		usedDelayBuffer = null;
+		silentWriteCount = Integer.MAX_VALUE;
+		resetSmoothers = true;
+	}
+
 	/**
 	 * the actual delay processor: feed the current buffer to the circular delay
-	 * buffer, and add the current delay buffer contents to the output buffer
+	 * buffer, and add the current delay buffer contents to the output buffer.
+	 * Parameter changes are picked up at the beginning of the block.
 	 */
 	@Override
 	public boolean process(long samplePos, FloatSampleBuffer buffer,
 			int offset, int sampleCount) {
+		FloatSampleBuffer delayBuffer = this.delayBuffer;
 		// sanity
 		if (delayBuffer == null || sampleCount == 0) return false;
-		synchronized (lock) {
-			double srcVol;
-			double delayVol;
-			if (balance < 0) {
-				srcVol = 1.0;
-				delayVol = (1 + balance);
-			} else {
-				srcVol = 1 - balance;
-				delayVol = 1.0;
+		if (delayBuffer != usedDelayBuffer) {
+			// a new buffer from initImpl(): nothing to fade out
+			usedDelayBuffer = delayBuffer;
+			delayCount = 0;
+		}
+		double delayTimeSamples = this.delayTimeSamples;
+		int newCount = (int) (delayTimeSamples + 1);
+		if (newCount != delayCount) {
+			switchDelayLength(delayBuffer, newCount);
+		}
+		double balance = this.balance;
+		double srcVol;
+		double delayVol;
+		if (balance < 0) {
+			srcVol = 1.0;
+			delayVol = (1 + balance);
+		} else {
+			srcVol = 1 - balance;
+			delayVol = 1.0;
+		}
+		feedbackSmoother.setTarget((float) feedback);
+		srcVolSmoother.setTarget((float) srcVol);
+		delayVolSmoother.setTarget((float) delayVol);
+		if (resetSmoothers) {
+			resetSmoothers = false;
+			feedbackSmoother.setValue(feedbackSmoother.getTarget());
+			srcVolSmoother.setValue(srcVolSmoother.getTarget());
+			delayVolSmoother.setValue(delayVolSmoother.getTarget());
+		}
+		// the fade buffer starts with the current delay volume
+		float fadeOutVol = feedbackSmoother.getValue()
+				* delayVolSmoother.getValue();
+		float[] feedbacks = feedbackSmoother.process(sampleCount);
+		float[] srcVols = srcVolSmoother.process(sampleCount);
+		float[] delayVols = delayVolSmoother.process(sampleCount);
+		int delayCount = this.delayCount;
+		double delayBufferInc = delayCount / delayTimeSamples;
+		double delayPos = delayBufferPos;
+		boolean doFade = nextBufferDoFade;
+		nextBufferDoFade = false;
+		float inoutVol = 1.0f;
+		float inoutVolInc = 0.0f;
+		float maxWritten = 0.0f;
+		if (doFade) {
+			inoutVolInc = 1.0f / buffer.getSampleCount();
+			if (DEBUG_DELAY) {
+				debug("- Fading in...");
+			}
+		}
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			int thisCount = sampleCount;
+			float[] delay = delayBuffer.getChannel(c);
+			float[] inout = buffer.getChannel(c);
+			int thisOffset = offset;
+			delayPos = delayBufferPos;
+			while ((int) delayPos >= delayCount) {
+				delayPos -= delayCount;
 			}
-			int delayCount = delayBuffer.getSampleCount();
-			double delayBufferInc = delayCount / delayTimeSamples;
-			double delayPos = delayBufferPos;
-			boolean doFade = nextBufferDoFade;
-			nextBufferDoFade = false;
-			float inoutVol = 1.0f;
-			float inoutVolInc = 0.0f;
 			if (doFade) {
-				inoutVolInc = 1.0f / buffer.getSampleCount();
-				if (DEBUG_DELAY) {
-					debug("- Fading in...");
-				}
+				inoutVol = 0.0f;
 			}
-			for (int c = 0; c < buffer.getChannelCount(); c++) {
-				int thisCount = sampleCount;
-				float[] delay = delayBuffer.getChannel(c);
-				float[] inout = buffer.getChannel(c);
-				int thisOffset = offset;
-				delayPos = delayBufferPos;
-				while ((int) delayPos >= delayCount) {
+			int i = 0;
+			while (thisCount > 0) {
+				// the actual delay line!
+				float io = inout[thisOffset];
+				int dOffset = (int) delayPos;
+				float d = delay[dOffset];
+				float feedback = feedbacks[i];
+				inout[thisOffset] = d * delayVols[i] * feedback + io
+						* srcVols[i];
+				float written = d * feedback + (io * inoutVol);
+				float absWritten = Math.abs(written);
+				if (absWritten < Denormals.FLUSH_LEVEL) {
+					// do not let the feedback decay into denormals
+					written = 0.0f;
+				} else if (absWritten > maxWritten) {
+					maxWritten = absWritten;
+				}
+				delay[dOffset] = written;
+				i++;
+				thisOffset++;
+				thisCount--;
+				delayPos += delayBufferInc;
+				if ((int) delayPos >= delayCount) {
 					delayPos -= delayCount;
 				}
 				if (doFade) {
-					inoutVol = 0.0f;
-				}
-				while (thisCount > 0) {
-					// the actual delay line!
-					float io = inout[thisOffset];
-					int dOffset = (int) delayPos;
-					float d = delay[dOffset];
-					inout[thisOffset] = (float) (d * delayVol * feedback + io
-							* srcVol);
-					delay[dOffset] = (float) (d * feedback + (io * inoutVol));
-					thisOffset++;
-					thisCount--;
-					delayPos += delayBufferInc;
-					if ((int) delayPos >= delayCount) {
-						delayPos -= delayCount;
-					}
-					if (doFade) {
-						inoutVol += inoutVolInc;
-					}
+					inoutVol += inoutVolInc;
 				}
 			}
-			// now apply the fade buffer
-			if (doFade) {
-				// fade out the fade buffer
-				int fadeOutCount = fadeOutBuffer.getSampleCount();
-				if (fadeOutCount > buffer.getSampleCount()) {
-					fadeOutCount = buffer.getSampleCount();
-				}
-				fadeOutBuffer.linearFade((float) (delayVol * feedback), 0.0f,
-						0, fadeOutCount);
-				buffer.mix(fadeOutBuffer, 0, 0, fadeOutCount);
-				if (DEBUG_DELAY) {
-					debug("- Applied " + fadeOutCount + " from fadeOutBuffer");
-				}
-
+		}
+		// track the decay of the tail
+		if (maxWritten > AudioEffectTail.SILENCE_LEVEL) {
+			silentWriteCount = 0;
+		} else if (silentWriteCount < delayCount) {
+			silentWriteCount += sampleCount;
+		}
+		// now apply the fade buffer
+		if (doFade) {
+			// fade out the fade buffer
+			int fadeOutCount = fadeOutBuffer.getSampleCount();
+			if (fadeOutCount > buffer.getSampleCount()) {
+				fadeOutCount = buffer.getSampleCount();
+			}
+			fadeOutBuffer.linearFade(fadeOutVol, 0.0f, 0, fadeOutCount);
+			buffer.mix(fadeOutBuffer, 0, 0, fadeOutCount);
+			if (DEBUG_DELAY) {
+				debug("- Applied " + fadeOutCount + " from fadeOutBuffer");
 			}
-			delayBufferPos = delayPos;
-			return true;
+
 		}
+		delayBufferPos = delayPos;
+		return true;
 	}
 
 	// --------------------------------- GUI stuff
@@ -325,6 +441,7 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 	protected void updateGUIDelayTime() {
 		if (!guiInited) return;
 
+		double delayTimeBeats = getDelayTimeBeats();
 		int index = -1;
 		for (int i = 0; i < DELAY_TIME_BEAT_FRACTIONS.length; i++) {
 			if (delayTimeBeats <= DELAY_TIME_BEAT_FRACTIONS[i]) {
@@ -366,7 +483,7 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		// will cause change event and update the label
 		noUpdate++;
 		try {
-			sFeedback.slider.setValue((int) (feedback * 100.0));
+			sFeedback.slider.setValue((int) (getFeedback() * 100.0));
 		} finally {
 			noUpdate--;
 		}
@@ -395,7 +512,7 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		// will cause change event and update the label
 		noUpdate++;
 		try {
-			sBalance.slider.setValue((int) (balance * 100.0));
+			sBalance.slider.setValue((int) (getBalance() * 100.0));
 		} finally {
 			noUpdate--;
 		}
@@ -535,16 +652,16 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 	// ----------------------------------------- AUTOMATION
 
 	/** the automation object to record a change in delay time */
-	public static class DelayTimeAutomation extends AutomationObjectDouble {
+	public static class DelayTimeAutomation extends
+			AutomationObjectEffect<Delay> {
 		public static final String XML_ELEMENT_NAME = "DelayTimeBeats";
-		private Delay target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public DelayTimeAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 1 / 8.0);
+			super(Delay.class, null, XML_ELEMENT_NAME, 0, 1 / 8.0);
 		}
 
 		/**
@@ -552,10 +669,10 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current delay time.
 		 */
 		public DelayTimeAutomation(Delay target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Delay.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(),
 					target.getDelayTimeBeats());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -566,13 +683,8 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Delay) owner.getOwner().getEffect(Delay.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Delay target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setDelayTimeBeats(value);
 			target.updateGUIDelayTime();
 		}
@@ -588,16 +700,16 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/** the automation object to record a change in feedback */
-	public static class FeedbackAutomation extends AutomationObjectDouble {
+	public static class FeedbackAutomation extends
+			AutomationObjectEffect<Delay> {
 		public static final String XML_ELEMENT_NAME = "DelayFeedback";
-		private Delay target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public FeedbackAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 0.5);
+			super(Delay.class, null, XML_ELEMENT_NAME, 0, 0.5);
 		}
 
 		/**
@@ -605,9 +717,9 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current feedback.
 		 */
 		public FeedbackAutomation(Delay target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Delay.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(), target.getFeedback());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -618,13 +730,8 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Delay) owner.getOwner().getEffect(Delay.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Delay target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setFeedback(value);
 			target.updateGUIFeedback();
 		}
@@ -640,16 +747,16 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/** the automation object to record a change in balance */
-	public static class BalanceAutomation extends AutomationObjectDouble {
+	public static class BalanceAutomation extends
+			AutomationObjectEffect<Delay> {
 		public static final String XML_ELEMENT_NAME = "DelayBalance";
-		private Delay target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public BalanceAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 0.0);
+			super(Delay.class, null, XML_ELEMENT_NAME, 0, 0.0);
 		}
 
 		/**
@@ -657,9 +764,9 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current balance.
 		 */
 		public BalanceAutomation(Delay target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Delay.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(), target.getBalance());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -670,13 +777,8 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Delay) owner.getOwner().getEffect(Delay.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Delay target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setBalance(value);
 			target.updateGUIBalance();
 		}
@@ -690,7 +792,4 @@ public class Delay extends GUIEffectsBase implements XmlPersistent {
 			return super.toString() + ", balance=" + value;
 		}
 	}
-
-	/* satisfy compiler */
-	private static final long serialVersionUID = 0;
 }
@@ -29,7 +29,8 @@ import com.mixblendr.util.XmlPersistent;
  * 
  * @author Florian Bomers
  */
-public class Delay2 extends GUIEffectsBase implements XmlPersistent {
+public class Delay2 extends GUIEffectsBase implements XmlPersistent,
+		AudioEffectTail, AudioEffectReset {
 
 	private static final boolean DEBUG_DELAY2 = false;
 
@@ -42,16 +43,38 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 			1 / 64.0, 1 / 32.0, 1 / 16.0, 1 / 8.0, 1 / 4.0, 1 / 2.0, 1.0, 2.0,
 	};
 
-	private double delayTimeBeats;
-	private double delayTimeSamples;
-	private double feedback;
-	private double balance;
+	// the parameters, set e.g. by the GUI or by automation on the audio
+	// thread, and read by process() at the beginning of each block. Setting
+	// these volatile fields does not allocate.
+	private volatile double delayTimeBeats;
+	private volatile double delayTimeSamples;
+	private volatile double feedback;
+	private volatile double balance;
 
 	// runtime state
-	private FloatSampleBuffer delayBuffer;
-	private double delayBufferReadPos;
+	private volatile FloatSampleBuffer delayBuffer;
 	private double delayBufferWritePos;
 
+	/**
+	 * the number of samples written to the delay buffer below
+	 * AudioEffectTail.SILENCE_LEVEL since the last louder sample
+	 */
+	private int silentWriteCount;
+
+	/**
+	 * the time for changing to a new delay time: the delay buffer is read
+	 * faster or slower during this time
+	 */
+	private final static double DELAY_TIME_SMOOTHING_MILLIS = 200.0;
+	/** the time for changing feedback and balance */
+	private final static double SMOOTHING_MILLIS = 10.0;
+	private ParameterSmoother delayTimeSmoother;
+	private ParameterSmoother feedbackSmoother;
+	private ParameterSmoother srcVolSmoother;
+	private ParameterSmoother delayVolSmoother;
+	/** if true, process() sets the smoothers to the parameters directly */
+	private boolean resetSmoothers;
+
 	// automation support
 	private static AutomationHandler delayTimeHandler = AutomationManager.getHandler(DelayTimeAutomation.class);
 	private static AutomationHandler feedbackHandler = AutomationManager.getHandler(FeedbackAutomation.class);
@@ -80,16 +103,16 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 	 * @param delayTimeBeats the delay time in beats to set
 	 */
 	public void setDelayTimeBeats(double delayTimeBeats) {
-		if (state == null) return;
-		synchronized (lock) {
-			this.delayTimeBeats = delayTimeBeats;
-			this.delayTimeSamples = state.beat2sample(delayTimeBeats);
-			if (delayTimeSamples <= 0) {
-				delayTimeSamples = 0.1;
-			} else if (delayTimeSamples > delayBuffer.getSampleCount()) {
-				delayTimeSamples = delayBuffer.getSampleCount();
-			}
+		FloatSampleBuffer buffer = delayBuffer;
+		if (state == null || buffer == null) return;
+		double delayTimeSamples = state.beat2sample(delayTimeBeats);
+		if (delayTimeSamples <= 0) {
+			delayTimeSamples = 0.1;
+		} else if (delayTimeSamples > buffer.getSampleCount()) {
+			delayTimeSamples = buffer.getSampleCount();
 		}
+		this.delayTimeBeats = delayTimeBeats;
+		this.delayTimeSamples = delayTimeSamples;
 	}
 
 	/**
@@ -104,7 +127,7 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 	 */
 	public double getDelayTimeMillis() {
 		if (state == null) return 1;
-		return state.beat2seconds(delayTimeBeats) * 1000.0;
+		return state.beat2seconds(getDelayTimeBeats()) * 1000.0;
 	}
 
 	/**
@@ -146,7 +169,20 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		if (delayBuffer == null) {
 			delayBuffer = new FloatSampleBuffer(state.getChannels(),
 					MAX_DELAY_SAMPLES, state.getSampleRate());
+			delayTimeSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.LINEAR, state.getSampleRate(),
+					DELAY_TIME_SMOOTHING_MILLIS, 0.0f);
+			feedbackSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
+			srcVolSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
+			delayVolSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
 		}
+		resetSmoothers = true;
 		// default values
 		setDelayTimeBeats(1 / 8.0);
 		setFeedback(0.5);
@@ -158,92 +194,129 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		delayBuffer = null;
 	}
 
+	/**
+	 * The tail is silent if the entire delay buffer was overwritten with
+	 * samples below the silence level.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectTail#isTailSilent()
+	 */
+	public boolean isTailSilent() {
+		FloatSampleBuffer delayBuffer = this.delayBuffer;
+		return delayBuffer == null
+				|| silentWriteCount >= delayBuffer.getSampleCount();
+	}
+
+	/**
+	 * Silence the delay line.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectReset#reset()
+	 */
+	public void reset() {
+		FloatSampleBuffer delayBuffer = this.delayBuffer;
+		if (delayBuffer != null) {
+			delayBuffer.makeSilence();
+			silentWriteCount = delayBuffer.getSampleCount();
+		}
+		delayBufferWritePos = 0;
+		resetSmoothers = true;
+	}
+
 	/**
 	 * the actual delay processor: feed the current buffer to the circular delay
-	 * buffer, and add the current delay buffer contents to the output buffer
+	 * buffer, and add the current delay buffer contents to the output buffer.
+	 * Parameter changes are picked up at the beginning of the block.
 	 */
 	@Override
 	public boolean process(long samplePos, FloatSampleBuffer buffer,
 			int offset, int sampleCount) {
+		FloatSampleBuffer delayBuffer = this.delayBuffer;
 		// sanity
 		if (delayBuffer == null || sampleCount == 0) return false;
-		synchronized (lock) {
-			double srcVol;
-			double delayVol;
-			if (balance < 0) {
-				srcVol = 1.0;
-				delayVol = (1 + balance);
-			} else {
-				srcVol = 1 - balance;
-				delayVol = 1.0;
-			}
-			int delayBufferCount = delayBuffer.getSampleCount();
-
-			// by which read/write pos are increased for every sample, to
-			// account for non-integral delay times
-			double writePosInc = ((int) delayTimeSamples) / delayTimeSamples;
-			double readPosInc = writePosInc;
-
-			// local variables as optimization
-			double writePos = delayBufferWritePos;
-			double readPos = delayBufferReadPos;
-
-			// if delay time has changed, read pos (dependent on write Pos)
-			// needs
-			// to slowly drift away/towards writePos so that it will reach the
-			// target delay eventually
-			double targetReadPos = writePos - delayTimeSamples;
-			if (targetReadPos < 0) {
-				targetReadPos += delayBufferCount;
-			}
-			if (readPos == writePos) {
-				// at beginning, no transition necessary
-				readPos = targetReadPos;
-			} else {
-				readPosInc += (targetReadPos - readPos) / sampleCount;
-				// do not increase too much, otherwise will be audible
-				// high-pitched...
-				if (readPosInc > 3) {
-					readPosInc = 1.5;
+		double delayTimeSamples = this.delayTimeSamples;
+		double balance = this.balance;
+		double srcVol;
+		double delayVol;
+		if (balance < 0) {
+			srcVol = 1.0;
+			delayVol = (1 + balance);
+		} else {
+			srcVol = 1 - balance;
+			delayVol = 1.0;
+		}
+		delayTimeSmoother.setTarget((float) delayTimeSamples);
+		feedbackSmoother.setTarget((float) feedback);
+		srcVolSmoother.setTarget((float) srcVol);
+		delayVolSmoother.setTarget((float) delayVol);
+		if (resetSmoothers) {
+			resetSmoothers = false;
+			delayTimeSmoother.setValue(delayTimeSmoother.getTarget());
+			feedbackSmoother.setValue(feedbackSmoother.getTarget());
+			srcVolSmoother.setValue(srcVolSmoother.getTarget());
+			delayVolSmoother.setValue(delayVolSmoother.getTarget());
+		}
+		// if the delay time has changed, the read position follows the
+		// smoothed delay time, so that it glides to the new delay
+		float[] delayTimes = delayTimeSmoother.process(sampleCount);
+		float[] feedbacks = feedbackSmoother.process(sampleCount);
+		float[] srcVols = srcVolSmoother.process(sampleCount);
+		float[] delayVols = delayVolSmoother.process(sampleCount);
+		int delayBufferCount = delayBuffer.getSampleCount();
+
+		// by which write pos is increased for every sample, to
+		// account for non-integral delay times
+		double writePosInc = ((int) delayTimeSamples) / delayTimeSamples;
+
+		// local variable as optimization
+		double writePos = delayBufferWritePos;
+		float maxWritten = 0.0f;
+
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			float[] delay = delayBuffer.getChannel(c);
+			float[] inout = buffer.getChannel(c);
+			int thisOffset = offset;
+
+			// re-initialize for every channel
+			writePos = delayBufferWritePos;
+
+			for (int i = 0; i < sampleCount; i++) {
+				// the actual delay line!
+				float io = inout[thisOffset];
+				double readPos = writePos - delayTimes[i];
+				if (readPos < 0) {
+					readPos += delayBufferCount;
 				}
-			}
-			double startReadPos = readPos;
-
-			for (int c = 0; c < buffer.getChannelCount(); c++) {
-				int thisCount = sampleCount;
-				float[] delay = delayBuffer.getChannel(c);
-				float[] inout = buffer.getChannel(c);
-				int thisOffset = offset;
-
-				// re-initialize for every channel
-				writePos = delayBufferWritePos;
-				readPos = startReadPos;
-
-				while (thisCount > 0) {
-					// the actual delay line!
-					float io = inout[thisOffset];
-					int readOffset = (int) readPos;
-					int writeOffset = (int) writePos;
-					float dr = delay[readOffset];
-					inout[thisOffset] = (float) (dr * delayVol + io * srcVol);
-					delay[writeOffset] = (float) (dr * feedback + io);
-					thisOffset++;
-					thisCount--;
-					writePos += writePosInc;
-					if ((int) writePos >= delayBufferCount) {
-						writePos -= delayBufferCount;
-					}
-					readPos += readPosInc;
-					if ((int) readPos >= delayBufferCount) {
-						readPos -= delayBufferCount;
-					}
+				int readOffset = (int) readPos;
+				if (readOffset >= delayBufferCount) {
+					readOffset -= delayBufferCount;
+				}
+				int writeOffset = (int) writePos;
+				float dr = delay[readOffset];
+				inout[thisOffset] = dr * delayVols[i] + io * srcVols[i];
+				float written = dr * feedbacks[i] + io;
+				float absWritten = Math.abs(written);
+				if (absWritten < Denormals.FLUSH_LEVEL) {
+					// do not let the feedback decay into denormals
+					written = 0.0f;
+				} else if (absWritten > maxWritten) {
+					maxWritten = absWritten;
+				}
+				delay[writeOffset] = written;
+				thisOffset++;
+				writePos += writePosInc;
+				if ((int) writePos >= delayBufferCount) {
+					writePos -= delayBufferCount;
 				}
 			}
-			// store state for next audio block
-			delayBufferReadPos = readPos;
-			delayBufferWritePos = writePos;
-			return true;
 		}
+		// track the decay of the tail
+		if (maxWritten > AudioEffectTail.SILENCE_LEVEL) {
+			silentWriteCount = 0;
+		} else if (silentWriteCount < delayBufferCount) {
+			silentWriteCount += sampleCount;
+		}
+		// store state for next audio block
+		delayBufferWritePos = writePos;
+		return true;
 	}
 
 	// --------------------------------- GUI stuff
@@ -294,6 +367,7 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 	/** update the GUI with the current delay time */
 	protected void updateGUIDelayTime() {
 		if (!guiInited) return;
+		double delayTimeBeats = getDelayTimeBeats();
 		int index = -1;
 		for (int i = 0; i < DELAY_TIME_BEAT_FRACTIONS.length; i++) {
 			if (delayTimeBeats <= DELAY_TIME_BEAT_FRACTIONS[i]) {
@@ -335,7 +409,7 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		// will cause change event and update the label
 		noUpdate++;
 		try {
-			sFeedback.slider.setValue((int) (feedback * 100.0));
+			sFeedback.slider.setValue((int) (getFeedback() * 100.0));
 		} finally {
 			noUpdate--;
 		}
@@ -364,7 +438,7 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		// will cause change event and update the label
 		noUpdate++;
 		try {
-			sBalance.slider.setValue((int) (balance * 100.0));
+			sBalance.slider.setValue((int) (getBalance() * 100.0));
 		} finally {
 			noUpdate--;
 		}
@@ -505,16 +579,16 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 	// ----------------------------------------- AUTOMATION
 
 	/** the automation object to record a change in delay time */
-	public static class DelayTimeAutomation extends AutomationObjectDouble {
+	public static class DelayTimeAutomation extends
+			AutomationObjectEffect<Delay2> {
 		public static final String XML_ELEMENT_NAME = "Delay2TimeBeats";
-		private Delay2 target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public DelayTimeAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 1 / 8.0);
+			super(Delay2.class, null, XML_ELEMENT_NAME, 0, 1 / 8.0);
 		}
 
 		/**
@@ -522,10 +596,10 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current delay time.
 		 */
 		public DelayTimeAutomation(Delay2 target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Delay2.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(),
 					target.getDelayTimeBeats());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -536,13 +610,8 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Delay2) owner.getOwner().getEffect(Delay2.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Delay2 target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setDelayTimeBeats(value);
 			target.updateGUIDelayTime();
 		}
@@ -558,16 +627,16 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/** the automation object to record a change in feedback */
-	public static class FeedbackAutomation extends AutomationObjectDouble {
+	public static class FeedbackAutomation extends
+			AutomationObjectEffect<Delay2> {
 		private static final String XML_ELEMENT_NAME = "Delay2Feedback";
-		private Delay2 target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public FeedbackAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 0.5);
+			super(Delay2.class, null, XML_ELEMENT_NAME, 0, 0.5);
 		}
 
 		/**
@@ -575,9 +644,9 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current feedback.
 		 */
 		public FeedbackAutomation(Delay2 target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Delay2.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(), target.getFeedback());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -588,13 +657,8 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Delay2) owner.getOwner().getEffect(Delay2.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Delay2 target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setFeedback(value);
 			target.updateGUIFeedback();
 		}
@@ -610,16 +674,16 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/** the automation object to record a change in balance */
-	public static class BalanceAutomation extends AutomationObjectDouble {
+	public static class BalanceAutomation extends
+			AutomationObjectEffect<Delay2> {
 		private static final String XML_ELEMENT_NAME = "Delay2Balance";
-		private Delay2 target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public BalanceAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 0.0);
+			super(Delay2.class, null, XML_ELEMENT_NAME, 0, 0.0);
 		}
 
 		/**
@@ -627,9 +691,9 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current balance.
 		 */
 		public BalanceAutomation(Delay2 target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Delay2.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(), target.getBalance());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -640,13 +704,8 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Delay2) owner.getOwner().getEffect(Delay2.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Delay2 target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setBalance(value);
 			target.updateGUIBalance();
 		}
@@ -660,7 +719,4 @@ public class Delay2 extends GUIEffectsBase implements XmlPersistent {
 			return super.toString() + ", balance=" + value;
 		}
 	}
-
-	/* satisfy compiler */
-	private static final long serialVersionUID = 0;
 }
@@ -0,0 +1,1265 @@
+/**
+ *
+ */
+package com.mixblendr.effects;
+
+import java.awt.Font;
+import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.PopupMenuEvent;
+import javax.swing.event.PopupMenuListener;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+import org.w3c.dom.Element;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.util.GUIUtils;
+import com.mixblendr.util.XmlPersistent;
+
+import static com.mixblendr.util.Debug.*;
+
+/**
+ * A dynamics processor: a compressor, which lowers the level of the signal
+ * above the threshold by the ratio, or a gate, which attenuates the signal
+ * below the threshold by the range. The level is measured from the input of
+ * the effect, or from the post-fader output of another track (sidechain),
+ * e.g. for ducking a track while another track plays.
+ * <p>
+ * To be cheap enough for every track, the gain is calculated for blocks of
+ * CONTROL_BLOCK_SIZE samples: the level detector takes the peak or the mean
+ * square of the block, which are simple loops over the samples, and only the
+ * conversion to decibel and back, the gain curve, and the attack and release
+ * smoothing are calculated once per block. The gain is interpolated linearly
+ * between the blocks. With lookahead, the signal is delayed, so that the gain
+ * is lowered before a peak arrives. The delay is not compensated.
+ *
+ * @author Florian Bomers
+ */
+public class Dynamics extends GUIEffectsBase implements XmlPersistent,
+		AudioEffectTail, AudioEffectSidechain, AudioEffectReset, ItemListener,
+		PopupMenuListener {
+
+	private static final boolean DEBUG_DYNAMICS = false;
+
+	/** the kind of gain curve */
+	public enum Mode {
+		/** lower the level above the threshold */
+		COMPRESSOR,
+		/** attenuate the signal below the threshold */
+		GATE
+	}
+
+	/** how the level of the control signal is measured */
+	public enum Detector {
+		/** the maximum absolute sample value */
+		PEAK,
+		/** the root mean square, averaged over RMS_MILLIS */
+		RMS
+	}
+
+	public static final double MIN_THRESHOLD_DB = -60.0;
+	public static final double MAX_THRESHOLD_DB = 0.0;
+	public static final double MIN_RATIO = 1.0;
+	public static final double MAX_RATIO = 20.0;
+	public static final double MIN_RANGE_DB = -80.0;
+	public static final double MAX_RANGE_DB = 0.0;
+	public static final double MIN_ATTACK_MILLIS = 0.1;
+	public static final double MAX_ATTACK_MILLIS = 200.0;
+	public static final double MIN_RELEASE_MILLIS = 5.0;
+	public static final double MAX_RELEASE_MILLIS = 2000.0;
+	public static final double MAX_LOOKAHEAD_MILLIS = 10.0;
+	public static final double MIN_MAKEUP_DB = 0.0;
+	public static final double MAX_MAKEUP_DB = 24.0;
+
+	/** the gain is calculated for blocks of this many samples */
+	private final static int CONTROL_BLOCK_SIZE = 32;
+
+	/** the averaging time of the RMS detector */
+	private final static double RMS_MILLIS = 10.0;
+
+	private final static double DEFAULT_THRESHOLD_DB = -20.0;
+	private final static double DEFAULT_MAKEUP_DB = 0.0;
+
+	/** the level of silence in decibel, used for levels of 0 */
+	private final static float MIN_LEVEL_DB = -120.0f;
+
+	/** the linear level corresponding to MIN_LEVEL_DB */
+	private final static float MIN_LEVEL = 1.0E-6f;
+
+	/** if the smoothed gain is closer to the target than this, snap to it */
+	private final static float ENVELOPE_SNAP_DB = 1.0E-4f;
+
+	/** multiply decibels with this factor for the exponent of exp() */
+	private final static double DB_TO_LN = Math.log(10.0) / 20.0;
+
+	/**
+	 * A set of parameters. Once published in the params field, an instance is
+	 * never modified: the setters create a modified copy and replace the
+	 * current instance atomically, so that process() can pick up all changes
+	 * at the beginning of an audio block without synchronization. The
+	 * automated parameters are separate volatile fields.
+	 */
+	private static final class Params {
+		Mode mode = Mode.COMPRESSOR;
+		Detector detector = Detector.PEAK;
+		double ratio = 4.0;
+		double rangeDB = -40.0;
+		double attackMillis = 5.0;
+		double releaseMillis = 100.0;
+		double lookaheadMillis = 0.0;
+
+		Params() {
+			// nothing
+		}
+
+		Params(Params p) {
+			mode = p.mode;
+			detector = p.detector;
+			ratio = p.ratio;
+			rangeDB = p.rangeDB;
+			attackMillis = p.attackMillis;
+			releaseMillis = p.releaseMillis;
+			lookaheadMillis = p.lookaheadMillis;
+		}
+	}
+
+	/** the current parameters, never null */
+	private final AtomicReference<Params> params = new AtomicReference<Params>(
+			new Params());
+
+	// the automated parameters, set by automation without allocation
+	private volatile double thresholdDB = DEFAULT_THRESHOLD_DB;
+	private volatile double makeupDB = DEFAULT_MAKEUP_DB;
+
+	/** the track providing the control signal, or null for the own input */
+	private volatile AudioTrack sidechainSource;
+
+	/**
+	 * the index of the sidechain source track read from XML, resolved once
+	 * the track is available in the mixer, or -1
+	 */
+	private volatile int pendingSidechainIndex = -1;
+
+	// runtime state, only accessed by process()
+
+	/** the parameters of the coefficients below */
+	private Params coeffParams;
+	private float attackCoeff;
+	private float releaseCoeff;
+	private float rmsCoeff;
+	private int lookahead;
+
+	/** the smoothed gain in decibel, without makeup gain */
+	private float envelopeDB;
+
+	/** the averaged mean square for the RMS detector */
+	private float meanSquare;
+
+	/** the linear gain at the end of the last block */
+	private float gain;
+
+	/** the delay lines for lookahead, as rings */
+	private float[][] ring;
+	private int ringMask;
+	private int ringPos;
+
+	/** the number of silent input samples in a row, for the tail */
+	private int silentSamples;
+
+	/** if true, process() starts without gain ramp */
+	private boolean resetState;
+
+	/** the smoothed gain of the last block in decibel, for metering */
+	private volatile float meterGainDB = 0.0f;
+
+	// automation support
+	private static AutomationHandler thresholdHandler = AutomationManager.getHandler(ThresholdAutomation.class);
+	private static AutomationHandler makeupHandler = AutomationManager.getHandler(MakeupAutomation.class);
+
+	static {
+		AutomationManager.registerXML(ThresholdAutomation.class, ThresholdAutomation.XML_ELEMENT_NAME);
+		AutomationManager.registerXML(MakeupAutomation.class, MakeupAutomation.XML_ELEMENT_NAME);
+	}
+
+	/** create a new instance of the Dynamics effect */
+	public Dynamics() {
+		super("Dynamics");
+	}
+
+	/** @return the kind of gain curve */
+	public Mode getMode() {
+		return params.get().mode;
+	}
+
+	/** @param mode the kind of gain curve */
+	public void setMode(Mode mode) {
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.mode = mode;
+		} while (!params.compareAndSet(p, n));
+	}
+
+	/** @return how the level of the control signal is measured */
+	public Detector getDetector() {
+		return params.get().detector;
+	}
+
+	/** @param detector how the level of the control signal is measured */
+	public void setDetector(Detector detector) {
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.detector = detector;
+		} while (!params.compareAndSet(p, n));
+	}
+
+	/** @return the threshold in decibel */
+	public double getThresholdDB() {
+		return thresholdDB;
+	}
+
+	/**
+	 * @param thresholdDB the threshold in decibel
+	 *            [MIN_THRESHOLD_DB..MAX_THRESHOLD_DB]
+	 */
+	public void setThresholdDB(double thresholdDB) {
+		thresholdDB = Math.max(MIN_THRESHOLD_DB, Math.min(MAX_THRESHOLD_DB,
+				thresholdDB));
+		this.thresholdDB = thresholdDB;
+	}
+
+	/** @return the ratio of the compressor */
+	public double getRatio() {
+		return params.get().ratio;
+	}
+
+	/**
+	 * @param ratio the ratio of the compressor, e.g. 4 to raise the output by
+	 *            1dB for 4dB above the threshold [MIN_RATIO..MAX_RATIO]
+	 */
+	public void setRatio(double ratio) {
+		ratio = Math.max(MIN_RATIO, Math.min(MAX_RATIO, ratio));
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.ratio = ratio;
+		} while (!params.compareAndSet(p, n));
+	}
+
+	/** @return the attenuation of the closed gate in decibel */
+	public double getRangeDB() {
+		return params.get().rangeDB;
+	}
+
+	/**
+	 * @param rangeDB the attenuation of the closed gate in decibel
+	 *            [MIN_RANGE_DB..MAX_RANGE_DB]
+	 */
+	public void setRangeDB(double rangeDB) {
+		rangeDB = Math.max(MIN_RANGE_DB, Math.min(MAX_RANGE_DB, rangeDB));
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.rangeDB = rangeDB;
+		} while (!params.compareAndSet(p, n));
+	}
+
+	/**
+	 * @return the attack time in milliseconds: how fast the compressor lowers
+	 *         the gain, or the gate opens
+	 */
+	public double getAttackMillis() {
+		return params.get().attackMillis;
+	}
+
+	/**
+	 * @param millis the attack time in milliseconds
+	 *            [MIN_ATTACK_MILLIS..MAX_ATTACK_MILLIS]
+	 */
+	public void setAttackMillis(double millis) {
+		millis = Math.max(MIN_ATTACK_MILLIS, Math.min(MAX_ATTACK_MILLIS, millis));
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.attackMillis = millis;
+		} while (!params.compareAndSet(p, n));
+	}
+
+	/**
+	 * @return the release time in milliseconds: how fast the compressor
+	 *         raises the gain, or the gate closes
+	 */
+	public double getReleaseMillis() {
+		return params.get().releaseMillis;
+	}
+
+	/**
+	 * @param millis the release time in milliseconds
+	 *            [MIN_RELEASE_MILLIS..MAX_RELEASE_MILLIS]
+	 */
+	public void setReleaseMillis(double millis) {
+		millis = Math.max(MIN_RELEASE_MILLIS, Math.min(MAX_RELEASE_MILLIS,
+				millis));
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.releaseMillis = millis;
+		} while (!params.compareAndSet(p, n));
+	}
+
+	/** @return the lookahead time in milliseconds, also the delay */
+	public double getLookaheadMillis() {
+		return params.get().lookaheadMillis;
+	}
+
+	/**
+	 * Set the lookahead time. The signal is delayed by this time. Changing it
+	 * during playback causes a short discontinuity.
+	 * 
+	 * @param millis the lookahead time in milliseconds
+	 *            [0..MAX_LOOKAHEAD_MILLIS]
+	 */
+	public void setLookaheadMillis(double millis) {
+		millis = Math.max(0.0, Math.min(MAX_LOOKAHEAD_MILLIS, millis));
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.lookaheadMillis = millis;
+		} while (!params.compareAndSet(p, n));
+	}
+
+	/** @return the makeup gain in decibel */
+	public double getMakeupDB() {
+		return makeupDB;
+	}
+
+	/**
+	 * @param makeupDB the gain applied after compression in decibel
+	 *            [MIN_MAKEUP_DB..MAX_MAKEUP_DB]
+	 */
+	public void setMakeupDB(double makeupDB) {
+		makeupDB = Math.max(MIN_MAKEUP_DB, Math.min(MAX_MAKEUP_DB, makeupDB));
+		this.makeupDB = makeupDB;
+	}
+
+	/**
+	 * @return the gain of the last processed block in decibel, without
+	 *         makeup gain, e.g. for a gain reduction meter: 0 if the signal
+	 *         was not attenuated
+	 */
+	public float getGainDB() {
+		return meterGainDB;
+	}
+
+	/**
+	 * Return the sidechain source. If the source was imported from XML, it is
+	 * resolved here once its track is in the mixer.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectSidechain#getSidechainSource()
+	 */
+	public AudioTrack getSidechainSource() {
+		int index = pendingSidechainIndex;
+		if (index >= 0 && track != null && track.getMixer() != null) {
+			AudioTrack source = track.getMixer().getTrack(index);
+			if (source != null) {
+				pendingSidechainIndex = -1;
+				if (source != track) {
+					sidechainSource = source;
+				}
+			}
+		}
+		return sidechainSource;
+	}
+
+	/**
+	 * Use the post-fader output of another track as control signal.
+	 * 
+	 * @param source the track providing the control signal, or null to use
+	 *            the input of this effect
+	 */
+	public void setSidechainSource(AudioTrack source) {
+		if (source == track) {
+			source = null;
+		}
+		pendingSidechainIndex = -1;
+		sidechainSource = source;
+		if (track != null) {
+			track.sidechainChanged();
+		}
+		if (DEBUG_DYNAMICS) debug("Dynamics: sidechain source " + source);
+	}
+
+	// --------------------------------- AudioEffect methods
+
+	@Override
+	public void initImpl() {
+		if (state == null) return;
+		if (ring == null || ring.length != state.getChannels()) {
+			int maxLookahead = (int) Math.ceil(MAX_LOOKAHEAD_MILLIS
+					* state.getSampleRate() / 1000.0);
+			int size = Integer.highestOneBit(maxLookahead) << 1;
+			ring = new float[state.getChannels()][size];
+			ringMask = size - 1;
+		}
+		coeffParams = null;
+		resetState = true;
+		// default values
+		Params p = new Params();
+		params.set(p);
+		thresholdDB = DEFAULT_THRESHOLD_DB;
+		makeupDB = DEFAULT_MAKEUP_DB;
+	}
+
+	@Override
+	public void exitImpl() {
+		sidechainSource = null;
+		pendingSidechainIndex = -1;
+	}
+
+	/**
+	 * Without lookahead, the output is silent if the input is silent. With
+	 * lookahead, the tail is silent once the delay line only contains silence.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectTail#isTailSilent()
+	 */
+	public boolean isTailSilent() {
+		return silentSamples >= lookahead;
+	}
+
+	/**
+	 * Silence the lookahead delay line, and start the envelope at the target
+	 * gain of the next block.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectReset#reset()
+	 */
+	public void reset() {
+		float[][] ring = this.ring;
+		if (ring != null) {
+			for (int c = 0; c < ring.length; c++) {
+				Arrays.fill(ring[c], 0.0f);
+			}
+		}
+		ringPos = 0;
+		meanSquare = 0.0f;
+		silentSamples = lookahead;
+		resetState = true;
+	}
+
+	/**
+	 * @return the coefficient of a one-pole smoother, applied once per
+	 *         control block, which reaches 63% of the target after millis
+	 */
+	private float getCoefficient(double millis) {
+		double blocks = millis * state.getSampleRate() / 1000.0
+				/ CONTROL_BLOCK_SIZE;
+		return (float) (1.0 - Math.exp(-1.0 / blocks));
+	}
+
+	/** calculate the coefficients from the parameters */
+	private void updateCoefficients(Params p) {
+		coeffParams = p;
+		attackCoeff = getCoefficient(p.attackMillis);
+		releaseCoeff = getCoefficient(p.releaseMillis);
+		rmsCoeff = getCoefficient(RMS_MILLIS);
+		int newLookahead = (int) Math.round(p.lookaheadMillis
+				* state.getSampleRate() / 1000.0);
+		newLookahead = Math.min(newLookahead, ringMask);
+		if (newLookahead != lookahead) {
+			// start with a silent delay line
+			for (int c = 0; c < ring.length; c++) {
+				Arrays.fill(ring[c], 0.0f);
+			}
+			lookahead = newLookahead;
+			silentSamples = 0;
+		}
+	}
+
+	/**
+	 * @param control the control signal, or null if it is silent
+	 * @return the level of the control block in decibel, measured with the
+	 *         given detector
+	 */
+	private float detect(Detector detector, FloatSampleBuffer control,
+			int offset, int count) {
+		float level;
+		if (detector == Detector.RMS) {
+			float blockMeanSquare = 0.0f;
+			if (control != null) {
+				blockMeanSquare = AudioKernels.sumOfSquares(control, offset,
+						count)
+						/ (count * control.getChannelCount());
+			}
+			meanSquare = Denormals.flush(meanSquare + rmsCoeff
+					* (blockMeanSquare - meanSquare));
+			level = (float) Math.sqrt(meanSquare);
+		} else if (control != null) {
+			level = AudioKernels.peak(control, offset, count);
+		} else {
+			level = 0.0f;
+		}
+		if (level <= MIN_LEVEL) {
+			return MIN_LEVEL_DB;
+		}
+		return (float) (Math.log(level) / DB_TO_LN);
+	}
+
+	/**
+	 * Apply the gain to the buffer, ramping from the start gain to the end
+	 * gain, and delay it by the lookahead time.
+	 */
+	private void apply(FloatSampleBuffer buffer, int offset, int count,
+			float startGain, float endGain) {
+		final int channels = Math.min(ring.length, buffer.getChannelCount());
+		final int delay = lookahead;
+		if (delay == 0) {
+			if (startGain != 1.0f || endGain != 1.0f) {
+				for (int c = 0; c < channels; c++) {
+					AudioKernels.gainRamp(buffer.getChannel(c), offset, count,
+							startGain, endGain);
+				}
+			}
+			return;
+		}
+		final int mask = ringMask;
+		final float inc = (endGain - startGain) / count;
+		for (int c = 0; c < channels; c++) {
+			final float[] data = buffer.getChannel(c);
+			final float[] r = ring[c];
+			int w = ringPos;
+			for (int i = 0; i < count; i++) {
+				r[w] = data[offset + i];
+				data[offset + i] = r[(w - delay) & mask]
+						* (startGain + inc * i);
+				w = (w + 1) & mask;
+			}
+		}
+		ringPos = (ringPos + count) & mask;
+	}
+
+	/**
+	 * Calculate the gain for each control block from the level of the control
+	 * signal, and apply it.
+	 */
+	@Override
+	public boolean process(long samplePos, FloatSampleBuffer buffer,
+			int offset, int sampleCount) {
+		Params p = params.get();
+		// sanity
+		if (ring == null || state == null || sampleCount == 0) return false;
+		if (p != coeffParams) {
+			updateCoefficients(p);
+		}
+		// the control signal: the input, or the output of the sidechain
+		// source, which is null if silent or not available
+		final AudioTrack source = sidechainSource;
+		final FloatSampleBuffer control;
+		final int controlOffset;
+		if (source == null) {
+			control = buffer;
+			controlOffset = offset;
+		} else {
+			control = source.getSidechainOutput(samplePos);
+			controlOffset = 0;
+		}
+		final boolean compressor = (p.mode == Mode.COMPRESSOR);
+		final float threshold = (float) thresholdDB;
+		final float slope = (float) (1.0 - 1.0 / p.ratio);
+		final float range = (float) p.rangeDB;
+		final float makeup = (float) makeupDB;
+		float env = envelopeDB;
+		float startGain = gain;
+		for (int pos = 0; pos < sampleCount; pos += CONTROL_BLOCK_SIZE) {
+			int n = Math.min(CONTROL_BLOCK_SIZE, sampleCount - pos);
+			float levelDB = detect(p.detector, control, controlOffset + pos, n);
+			// the gain curve
+			float target;
+			boolean attack;
+			if (compressor) {
+				float over = levelDB - threshold;
+				target = (over > 0.0f) ? -over * slope : 0.0f;
+				attack = target < env;
+			} else {
+				target = (levelDB >= threshold) ? 0.0f : range;
+				attack = target > env;
+			}
+			if (resetState) {
+				env = target;
+			} else {
+				env += (attack ? attackCoeff : releaseCoeff) * (target - env);
+				if (Math.abs(target - env) < ENVELOPE_SNAP_DB) {
+					env = target;
+				}
+			}
+			float endGain = (float) Math.exp((env + makeup) * DB_TO_LN);
+			if (resetState) {
+				resetState = false;
+				startGain = endGain;
+			}
+			if (lookahead > 0) {
+				if (AudioKernels.peak(buffer, offset + pos, n) > AudioEffectTail.SILENCE_LEVEL) {
+					silentSamples = 0;
+				} else if (silentSamples < lookahead) {
+					silentSamples += n;
+				}
+			}
+			apply(buffer, offset + pos, n, startGain, endGain);
+			startGain = endGain;
+		}
+		envelopeDB = env;
+		gain = startGain;
+		meterGainDB = env;
+		return true;
+	}
+
+	// --------------------------------- GUI stuff
+
+	/** the slider range for attack and release, mapped logarithmically */
+	private final static int TIME_SLIDER_MAX = 1000;
+
+	private final static String SIDECHAIN_NONE = "(input)";
+
+	// JComboBox is only generic from Java 7 on
+	@SuppressWarnings("rawtypes")
+	private JComboBox cMode;
+	@SuppressWarnings("rawtypes")
+	private JComboBox cDetector;
+	@SuppressWarnings("rawtypes")
+	private JComboBox cSidechain;
+	/** the tracks listed in cSidechain, after SIDECHAIN_NONE */
+	private List<AudioTrack> sidechainChoices = new ArrayList<AudioTrack>();
+	private SliderStrip sThreshold;
+	private SliderStrip sRatio;
+	private SliderStrip sRange;
+	private SliderStrip sAttack;
+	private SliderStrip sRelease;
+	private SliderStrip sLookahead;
+	private SliderStrip sMakeup;
+	private boolean guiInited = false;
+
+	/**
+	 * if this flag is non-zero, controls are currently set programmatically
+	 * rather than from user interaction
+	 */
+	private int noUpdate = 0;
+
+	/** add a row with a caption and the combo box to the panel */
+	@SuppressWarnings("rawtypes")
+	private void addComboStrip(JPanel main, String caption, JComboBox combo) {
+		JPanel strip = new JPanel();
+		strip.setBorder(BorderFactory.createEmptyBorder(5, 0, 0, 0));
+		strip.setLayout(new BoxLayout(strip, BoxLayout.LINE_AXIS));
+		strip.add(GUIUtils.createLabel(caption, SwingConstants.LEFT,
+				STRIP_LEFT_LABEL_WIDTH));
+		strip.add(combo);
+		main.add(strip);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	protected void initGUI(JPanel main) {
+		main.setLayout(new BoxLayout(main, BoxLayout.PAGE_AXIS));
+		main.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+		// Title
+		JLabel title = GUIUtils.createLabel("Dynamics", SwingConstants.CENTER);
+		title.setFont(title.getFont().deriveFont(Font.BOLD));
+		main.add(title);
+
+		cMode = GUIUtils.createComboBox(this);
+		cMode.addItem("Compressor");
+		cMode.addItem("Gate");
+		addComboStrip(main, "Mode:", cMode);
+		cDetector = GUIUtils.createComboBox(this);
+		cDetector.addItem("Peak");
+		cDetector.addItem("RMS");
+		addComboStrip(main, "Detector:", cDetector);
+		cSidechain = GUIUtils.createComboBox(this);
+		cSidechain.addPopupMenuListener(this);
+		addComboStrip(main, "Sidechain:", cSidechain);
+
+		main.add(new JSeparator(SwingConstants.HORIZONTAL));
+		// threshold, ratio, range, and makeup in 1/10 units
+		main.add((sThreshold = new SliderStrip("Threshold:",
+				(int) (MIN_THRESHOLD_DB * 10), (int) (MAX_THRESHOLD_DB * 10),
+				0, "", "")));
+		main.add((sRatio = new SliderStrip("Ratio:", (int) (MIN_RATIO * 10),
+				(int) (MAX_RATIO * 10), 0, "", "")));
+		main.add((sRange = new SliderStrip("Range:",
+				(int) (MIN_RANGE_DB * 10), (int) (MAX_RANGE_DB * 10), 0, "",
+				"")));
+		main.add((sAttack = new SliderStrip("Attack:", 0, TIME_SLIDER_MAX, 0,
+				"fast", "slow")));
+		main.add((sRelease = new SliderStrip("Release:", 0, TIME_SLIDER_MAX,
+				0, "fast", "slow")));
+		main.add((sLookahead = new SliderStrip("Lookahead:", 0,
+				(int) (MAX_LOOKAHEAD_MILLIS * 10), 0, "", "")));
+		main.add((sMakeup = new SliderStrip("Makeup:",
+				(int) (MIN_MAKEUP_DB * 10), (int) (MAX_MAKEUP_DB * 10), 0, "",
+				"")));
+
+		guiInited = true;
+
+		// init controls and labels
+		updateGUIMode();
+		updateGUIDetector();
+		updateGUISidechain();
+		updateGUIThreshold();
+		updateGUIThresholdLabel();
+		updateGUIRatio();
+		updateGUIRatioLabel();
+		updateGUIRange();
+		updateGUIRangeLabel();
+		updateGUIAttack();
+		updateGUIAttackLabel();
+		updateGUIRelease();
+		updateGUIReleaseLabel();
+		updateGUILookahead();
+		updateGUILookaheadLabel();
+		updateGUIMakeup();
+		updateGUIMakeupLabel();
+	}
+
+	/** update the GUI with the current mode */
+	protected void updateGUIMode() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			cMode.setSelectedIndex(getMode().ordinal());
+		} finally {
+			noUpdate--;
+		}
+		// ratio is only used by the compressor, range by the gate
+		sRatio.setVisible(getMode() == Mode.COMPRESSOR);
+		sRange.setVisible(getMode() == Mode.GATE);
+	}
+
+	/** update the GUI with the current detector */
+	protected void updateGUIDetector() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			cDetector.setSelectedIndex(getDetector().ordinal());
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/**
+	 * fill the sidechain combo box with the other tracks of the mixer, and
+	 * select the current sidechain source
+	 */
+	@SuppressWarnings("unchecked")
+	protected void updateGUISidechain() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			AudioTrack source = getSidechainSource();
+			sidechainChoices.clear();
+			cSidechain.removeAllItems();
+			cSidechain.addItem(SIDECHAIN_NONE);
+			if (track != null && track.getMixer() != null) {
+				for (AudioTrack t : track.getMixer().getTracks()) {
+					if (t != track) {
+						sidechainChoices.add(t);
+						cSidechain.addItem(t.getName());
+					}
+				}
+			}
+			if (source != null && !sidechainChoices.contains(source)) {
+				// the source was removed from the mixer
+				sidechainChoices.add(source);
+				cSidechain.addItem(source.getName());
+			}
+			cSidechain.setSelectedIndex(sidechainChoices.indexOf(source) + 1);
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/**
+	 * read the current selection from the sidechain combo box and set the
+	 * sidechain source accordingly
+	 */
+	protected void updateSidechainFromGUI() {
+		if (!guiInited) return;
+		int index = cSidechain.getSelectedIndex() - 1;
+		if (index >= 0 && index < sidechainChoices.size()) {
+			setSidechainSource(sidechainChoices.get(index));
+		} else {
+			setSidechainSource(null);
+		}
+	}
+
+	/** update the GUI with the current threshold */
+	protected void updateGUIThreshold() {
+		if (!guiInited) return;
+		// will cause change event and update the label
+		noUpdate++;
+		try {
+			sThreshold.slider.setValue((int) Math.round(getThresholdDB() * 10.0));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** update the label with the current threshold */
+	private void updateGUIThresholdLabel() {
+		if (!guiInited) return;
+		sThreshold.label.setText((sThreshold.slider.getValue() / 10.0) + " dB");
+	}
+
+	/** update the GUI with the current ratio */
+	protected void updateGUIRatio() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			sRatio.slider.setValue((int) Math.round(getRatio() * 10.0));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** update the label with the current ratio */
+	private void updateGUIRatioLabel() {
+		if (!guiInited) return;
+		sRatio.label.setText((sRatio.slider.getValue() / 10.0) + ":1");
+	}
+
+	/** update the GUI with the current range */
+	protected void updateGUIRange() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			sRange.slider.setValue((int) Math.round(getRangeDB() * 10.0));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** update the label with the current range */
+	private void updateGUIRangeLabel() {
+		if (!guiInited) return;
+		sRange.label.setText((sRange.slider.getValue() / 10.0) + " dB");
+	}
+
+	/** @return the slider position [0..TIME_SLIDER_MAX] for the time */
+	private static int time2slider(double millis, double min, double max) {
+		return (int) Math.round(Math.log(millis / min) / Math.log(max / min)
+				* TIME_SLIDER_MAX);
+	}
+
+	/** @return the time for the slider position */
+	private static double slider2time(int value, double min, double max) {
+		return min * Math.pow(max / min, value / (double) TIME_SLIDER_MAX);
+	}
+
+	/** @return the time formatted for a label */
+	private static String formatMillis(double millis) {
+		if (millis < 10.0) {
+			return (Math.round(millis * 10.0) / 10.0) + " ms";
+		}
+		return Math.round(millis) + " ms";
+	}
+
+	/** update the GUI with the current attack time */
+	protected void updateGUIAttack() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			sAttack.slider.setValue(time2slider(getAttackMillis(),
+					MIN_ATTACK_MILLIS, MAX_ATTACK_MILLIS));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** update the label with the current attack time */
+	private void updateGUIAttackLabel() {
+		if (!guiInited) return;
+		sAttack.label.setText(formatMillis(slider2time(
+				sAttack.slider.getValue(), MIN_ATTACK_MILLIS, MAX_ATTACK_MILLIS)));
+	}
+
+	/** update the GUI with the current release time */
+	protected void updateGUIRelease() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			sRelease.slider.setValue(time2slider(getReleaseMillis(),
+					MIN_RELEASE_MILLIS, MAX_RELEASE_MILLIS));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** update the label with the current release time */
+	private void updateGUIReleaseLabel() {
+		if (!guiInited) return;
+		sRelease.label.setText(formatMillis(slider2time(
+				sRelease.slider.getValue(), MIN_RELEASE_MILLIS,
+				MAX_RELEASE_MILLIS)));
+	}
+
+	/** update the GUI with the current lookahead time */
+	protected void updateGUILookahead() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			sLookahead.slider.setValue((int) Math.round(getLookaheadMillis() * 10.0));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** update the label with the current lookahead time */
+	private void updateGUILookaheadLabel() {
+		if (!guiInited) return;
+		sLookahead.label.setText((sLookahead.slider.getValue() / 10.0) + " ms");
+	}
+
+	/** update the GUI with the current makeup gain */
+	protected void updateGUIMakeup() {
+		if (!guiInited) return;
+		noUpdate++;
+		try {
+			sMakeup.slider.setValue((int) Math.round(getMakeupDB() * 10.0));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** update the label with the current makeup gain */
+	private void updateGUIMakeupLabel() {
+		if (!guiInited) return;
+		sMakeup.label.setText((sMakeup.slider.getValue() / 10.0) + " dB");
+	}
+
+	// --------------------------------- interface MouseListener
+
+	/**
+	 * if automation is currently enabled, add an appropriate automation event,
+	 * depending on the given GUI control
+	 */
+	private void addAutomationEvent(Object src) {
+		if ((track != null) && track.isAutomationEnabled()) {
+			if (src == sThreshold.slider) {
+				track.addAutomationObject(new ThresholdAutomation(this));
+			} else if (src == sMakeup.slider) {
+				track.addAutomationObject(new MakeupAutomation(this));
+			}
+		}
+	}
+
+	/** set tracking for the selected GUI object on or off. */
+	private void setTracking(Object src, boolean on) {
+		if (src == sThreshold.slider) {
+			thresholdHandler.setTracking(track, on);
+			if (DEBUG_DYNAMICS) debug("Dynamics threshold tracking: " + on);
+		} else if (src == sMakeup.slider) {
+			makeupHandler.setTracking(track, on);
+			if (DEBUG_DYNAMICS) debug("Dynamics makeup tracking: " + on);
+		}
+		// add initial automation state
+		if (on) {
+			addAutomationEvent(src);
+		}
+	}
+
+	/**
+	 * called when the user clicks on a slider. In response, notify the engine
+	 * that we're tracking this automation object.
+	 */
+	@Override
+	public void mousePressed(MouseEvent e) {
+		setTracking(e.getSource(), true);
+	}
+
+	/**
+	 * called when the user releases the mouse button from a slider. Notify the
+	 * engine that we're not tracking this automation object anymore.
+	 */
+	@Override
+	public void mouseReleased(MouseEvent e) {
+		setTracking(e.getSource(), false);
+	}
+
+	// ----------------------------------------- interface ChangeListener
+
+	/**
+	 * Called when the user or the implementation moves a slider. Update the
+	 * slider labels. If not currently set by the implementation, update the
+	 * internal value. If automation is active, create an automation object and
+	 * add it to the track.
+	 */
+	@Override
+	public void stateChanged(ChangeEvent e) {
+		Object src = e.getSource();
+		if (src == sThreshold.slider) {
+			if (noUpdate == 0) {
+				setThresholdDB(sThreshold.slider.getValue() / 10.0);
+			}
+			updateGUIThresholdLabel();
+		} else if (src == sRatio.slider) {
+			if (noUpdate == 0) {
+				setRatio(sRatio.slider.getValue() / 10.0);
+			}
+			updateGUIRatioLabel();
+		} else if (src == sRange.slider) {
+			if (noUpdate == 0) {
+				setRangeDB(sRange.slider.getValue() / 10.0);
+			}
+			updateGUIRangeLabel();
+		} else if (src == sAttack.slider) {
+			if (noUpdate == 0) {
+				setAttackMillis(slider2time(sAttack.slider.getValue(),
+						MIN_ATTACK_MILLIS, MAX_ATTACK_MILLIS));
+			}
+			updateGUIAttackLabel();
+		} else if (src == sRelease.slider) {
+			if (noUpdate == 0) {
+				setReleaseMillis(slider2time(sRelease.slider.getValue(),
+						MIN_RELEASE_MILLIS, MAX_RELEASE_MILLIS));
+			}
+			updateGUIReleaseLabel();
+		} else if (src == sLookahead.slider) {
+			if (noUpdate == 0) {
+				setLookaheadMillis(sLookahead.slider.getValue() / 10.0);
+			}
+			updateGUILookaheadLabel();
+		} else if (src == sMakeup.slider) {
+			if (noUpdate == 0) {
+				setMakeupDB(sMakeup.slider.getValue() / 10.0);
+			}
+			updateGUIMakeupLabel();
+		}
+		if (noUpdate == 0) {
+			addAutomationEvent(src);
+		}
+	}
+
+	// ----------------------------------------- interface ItemListener
+
+	/**
+	 * Called when the user or the implementation selects an item of a combo
+	 * box. If not currently set by the implementation, update the internal
+	 * value.
+	 */
+	public void itemStateChanged(ItemEvent e) {
+		if (noUpdate != 0 || e.getStateChange() != ItemEvent.SELECTED) {
+			return;
+		}
+		Object src = e.getSource();
+		if (src == cMode) {
+			setMode(Mode.values()[cMode.getSelectedIndex()]);
+			updateGUIMode();
+		} else if (src == cDetector) {
+			setDetector(Detector.values()[cDetector.getSelectedIndex()]);
+		} else if (src == cSidechain) {
+			updateSidechainFromGUI();
+		}
+	}
+
+	// ----------------------------------------- interface PopupMenuListener
+
+	/** refresh the list of tracks before the sidechain list is shown */
+	public void popupMenuWillBecomeVisible(PopupMenuEvent e) {
+		updateGUISidechain();
+	}
+
+	public void popupMenuWillBecomeInvisible(PopupMenuEvent e) {
+		// nothing
+	}
+
+	public void popupMenuCanceled(PopupMenuEvent e) {
+		// nothing
+	}
+
+	// PERSISTENCE
+
+	@Override
+	public Element xmlExport(Element element) {
+		element = super.xmlExport(element);
+		Params p = params.get();
+		element.setAttribute("Mode", p.mode.name());
+		element.setAttribute("Detector", p.detector.name());
+		element.setAttribute("Threshold", String.valueOf(thresholdDB));
+		element.setAttribute("Ratio", String.valueOf(p.ratio));
+		element.setAttribute("Range", String.valueOf(p.rangeDB));
+		element.setAttribute("Attack", String.valueOf(p.attackMillis));
+		element.setAttribute("Release", String.valueOf(p.releaseMillis));
+		element.setAttribute("Lookahead", String.valueOf(p.lookaheadMillis));
+		element.setAttribute("Makeup", String.valueOf(makeupDB));
+		AudioTrack source = getSidechainSource();
+		if (source != null && source.getIndex() >= 0) {
+			element.setAttribute("SidechainTrack",
+					String.valueOf(source.getIndex()));
+		}
+		return element;
+	}
+
+	@Override
+	public void xmlImport(Element element) throws Exception {
+		super.xmlImport(element);
+		String val = element.getAttribute("Mode");
+		if (val.length() > 0) {
+			setMode(Mode.valueOf(val));
+		}
+		val = element.getAttribute("Detector");
+		if (val.length() > 0) {
+			setDetector(Detector.valueOf(val));
+		}
+		val = element.getAttribute("Threshold");
+		if (val.length() > 0) {
+			setThresholdDB(Double.parseDouble(val));
+		}
+		val = element.getAttribute("Ratio");
+		if (val.length() > 0) {
+			setRatio(Double.parseDouble(val));
+		}
+		val = element.getAttribute("Range");
+		if (val.length() > 0) {
+			setRangeDB(Double.parseDouble(val));
+		}
+		val = element.getAttribute("Attack");
+		if (val.length() > 0) {
+			setAttackMillis(Double.parseDouble(val));
+		}
+		val = element.getAttribute("Release");
+		if (val.length() > 0) {
+			setReleaseMillis(Double.parseDouble(val));
+		}
+		val = element.getAttribute("Lookahead");
+		if (val.length() > 0) {
+			setLookaheadMillis(Double.parseDouble(val));
+		}
+		val = element.getAttribute("Makeup");
+		if (val.length() > 0) {
+			setMakeupDB(Double.parseDouble(val));
+		}
+		// the source track may not be imported yet: resolve it later
+		sidechainSource = null;
+		val = element.getAttribute("SidechainTrack");
+		if (val.length() > 0) {
+			pendingSidechainIndex = Integer.parseInt(val);
+		} else {
+			pendingSidechainIndex = -1;
+		}
+	}
+
+	// ----------------------------------------- AUTOMATION
+
+	/** the automation object to record a change in threshold */
+	public static class ThresholdAutomation extends
+			AutomationObjectEffect<Dynamics> {
+		public static final String XML_ELEMENT_NAME = "DynamicsThreshold";
+
+		/**
+		 * Create an instance with default values, should only be used before
+		 * xml import.
+		 */
+		public ThresholdAutomation() {
+			super(Dynamics.class, null, XML_ELEMENT_NAME, 0, -20.0);
+		}
+
+		/**
+		 * Create a threshold automation object capturing the current playback
+		 * time and the current threshold.
+		 */
+		public ThresholdAutomation(Dynamics target) {
+			super(Dynamics.class, target.state, XML_ELEMENT_NAME,
+					target.state.getSamplePosition(), target.getThresholdDB());
+			setTarget(target);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.mixblendr.audio.AutomationObject#executeImpl(com.mixblendr.audio
+		 * .AudioTrack)
+		 */
+		@Override
+		protected void executeImpl(AudioTrack aTrack) {
+			Dynamics target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
+			target.setThresholdDB(value);
+			target.updateGUIThreshold();
+		}
+
+		/**
+		 * @return a string representation of this object (mainly for debugging
+		 *         purposes)
+		 */
+		@Override
+		public String toString() {
+			return super.toString() + ", threshold=" + value + "dB";
+		}
+	}
+
+	/** the automation object to record a change in makeup gain */
+	public static class MakeupAutomation extends
+			AutomationObjectEffect<Dynamics> {
+		public static final String XML_ELEMENT_NAME = "DynamicsMakeup";
+
+		/**
+		 * Create an instance with default values, should only be used before
+		 * xml import.
+		 */
+		public MakeupAutomation() {
+			super(Dynamics.class, null, XML_ELEMENT_NAME, 0, 0.0);
+		}
+
+		/**
+		 * Create a makeup gain automation object capturing the current
+		 * playback time and the current makeup gain.
+		 */
+		public MakeupAutomation(Dynamics target) {
+			super(Dynamics.class, target.state, XML_ELEMENT_NAME,
+					target.state.getSamplePosition(), target.getMakeupDB());
+			setTarget(target);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.mixblendr.audio.AutomationObject#executeImpl(com.mixblendr.audio
+		 * .AudioTrack)
+		 */
+		@Override
+		protected void executeImpl(AudioTrack aTrack) {
+			Dynamics target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
+			target.setMakeupDB(value);
+			target.updateGUIMakeup();
+		}
+
+		/**
+		 * @return a string representation of this object (mainly for debugging
+		 *         purposes)
+		 */
+		@Override
+		public String toString() {
+			return super.toString() + ", makeup=" + value + "dB";
+		}
+	}
+}
@@ -0,0 +1,833 @@
+/**
+ *
+ */
+package com.mixblendr.effects;
+
+import java.awt.Font;
+import java.awt.event.*;
+
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+import org.w3c.dom.Element;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.util.GUIUtils;
+import com.mixblendr.util.XmlPersistent;
+
+import static com.mixblendr.util.Debug.*;
+
+/**
+ * A parametric equalizer: a low shelf, PEAK_BAND_COUNT peaking bands, and a
+ * high shelf, each with frequency, gain, and Q. The bands are a cascade of
+ * biquad filters, see Biquad.
+ * <p>
+ * Bands with a gain of 0dB are bypassed once their filter state has decayed,
+ * so a flat equalizer costs almost nothing. Parameter changes are smoothed;
+ * while a band is smoothing, its coefficients are recalculated every
+ * SMOOTHING_BLOCK_SIZE samples, otherwise only when the parameters change.
+ *
+ * @author Florian Bomers
+ */
+public class Equalizer extends GUIEffectsBase implements XmlPersistent,
+		AudioEffectTail, AudioEffectReset {
+
+	private static final boolean DEBUG_EQ = false;
+
+	/** the number of peaking bands between the shelves */
+	public static final int PEAK_BAND_COUNT = 3;
+
+	/** the number of bands: low shelf, peaking bands, high shelf */
+	public static final int BAND_COUNT = PEAK_BAND_COUNT + 2;
+
+	public static final double MIN_GAIN_DB = -15.0;
+	public static final double MAX_GAIN_DB = 15.0;
+	public static final double MIN_FREQUENCY = 20.0;
+	public static final double MAX_FREQUENCY = 20000.0;
+	public static final double MIN_Q = 0.1;
+	public static final double MAX_Q = 10.0;
+
+	private final static String[] BAND_NAMES = {
+			"Low", "Mid 1", "Mid 2", "Mid 3", "High"
+	};
+
+	private final static double[] DEFAULT_FREQUENCIES = {
+			100.0, 250.0, 1000.0, 4000.0, 8000.0
+	};
+
+	private final static double[] DEFAULT_Q = {
+			0.707, 1.0, 1.0, 1.0, 0.707
+	};
+
+	/**
+	 * while smoothing, the coefficients are recalculated for blocks of this
+	 * many samples
+	 */
+	private final static int SMOOTHING_BLOCK_SIZE = 32;
+
+	/**
+	 * The parameters of a band, set e.g. by the GUI or by automation on the
+	 * audio thread, and read by process() at the beginning of each block.
+	 * The instances are created once, so that setting a parameter does not
+	 * allocate.
+	 */
+	private static final class BandParams {
+		volatile double gainDB;
+		volatile double frequency;
+		volatile double q;
+	}
+
+	/** the parameters of the bands */
+	private final BandParams[] params = new BandParams[BAND_COUNT];
+
+	/** the runtime state of a band, only accessed by process() */
+	private static final class Band {
+		final Biquad.Type type;
+		Biquad filter;
+		ParameterSmoother gainSmoother;
+		/** the frequency is smoothed on a logarithmic scale */
+		ParameterSmoother log2FreqSmoother;
+		ParameterSmoother qSmoother;
+		/** the parameters of the current coefficients */
+		float coeffGain = Float.NaN;
+		float coeffLog2Freq = Float.NaN;
+		float coeffQ = Float.NaN;
+		/** false while the band is bypassed */
+		boolean active;
+
+		Band(Biquad.Type type) {
+			this.type = type;
+		}
+	}
+
+	private Band[] bands;
+
+	/** the natural logarithm of 2 */
+	private final static double LN_2 = Math.log(2.0);
+
+	/** if true, process() sets the smoothers to the parameters directly */
+	private boolean resetSmoothers;
+
+	/** true if the state of all active filters has decayed */
+	private boolean tailSilent = true;
+
+	// smooth changes of the band parameters
+	private final static double SMOOTHING_MILLIS = 10.0;
+
+	// automation support
+	private static AutomationHandler gainHandler = AutomationManager.getHandler(BandGainAutomation.class);
+	private static AutomationHandler frequencyHandler = AutomationManager.getHandler(BandFrequencyAutomation.class);
+	private static AutomationHandler qHandler = AutomationManager.getHandler(BandQAutomation.class);
+
+	static {
+		AutomationManager.registerXML(BandGainAutomation.class, BandGainAutomation.XML_ELEMENT_NAME);
+		AutomationManager.registerXML(BandFrequencyAutomation.class, BandFrequencyAutomation.XML_ELEMENT_NAME);
+		AutomationManager.registerXML(BandQAutomation.class, BandQAutomation.XML_ELEMENT_NAME);
+	}
+
+	/** create a new instance of the Equalizer effect */
+	public Equalizer() {
+		super("EQ");
+		assert (BAND_NAMES.length == BAND_COUNT);
+		for (int b = 0; b < BAND_COUNT; b++) {
+			params[b] = new BandParams();
+		}
+	}
+
+	/** @return the filter type of the band */
+	public static Biquad.Type getBandType(int band) {
+		if (band == 0) {
+			return Biquad.Type.LOW_SHELF;
+		} else if (band == BAND_COUNT - 1) {
+			return Biquad.Type.HIGH_SHELF;
+		}
+		return Biquad.Type.PEAK;
+	}
+
+	/** @return the name of the band, e.g. for display */
+	public static String getBandName(int band) {
+		return BAND_NAMES[band];
+	}
+
+	/**
+	 * @return the gain of the band in decibel
+	 */
+	public double getBandGainDB(int band) {
+		return params[band].gainDB;
+	}
+
+	/**
+	 * @param band the band index [0..BAND_COUNT-1]
+	 * @param gainDB the gain in decibel [MIN_GAIN_DB..MAX_GAIN_DB]
+	 */
+	public void setBandGainDB(int band, double gainDB) {
+		gainDB = Math.max(MIN_GAIN_DB, Math.min(MAX_GAIN_DB, gainDB));
+		params[band].gainDB = gainDB;
+	}
+
+	/**
+	 * @return the center frequency (peaking bands) or corner frequency
+	 *         (shelves) of the band in Hz
+	 */
+	public double getBandFrequency(int band) {
+		return params[band].frequency;
+	}
+
+	/**
+	 * @param band the band index [0..BAND_COUNT-1]
+	 * @param frequency the frequency in Hz [MIN_FREQUENCY..MAX_FREQUENCY]
+	 */
+	public void setBandFrequency(int band, double frequency) {
+		frequency = Math.max(MIN_FREQUENCY, Math.min(MAX_FREQUENCY, frequency));
+		params[band].frequency = frequency;
+	}
+
+	/**
+	 * @return the Q of the band: the bandwidth of peaking bands, the steepness
+	 *         of the shelves
+	 */
+	public double getBandQ(int band) {
+		return params[band].q;
+	}
+
+	/**
+	 * @param band the band index [0..BAND_COUNT-1]
+	 * @param q the Q [MIN_Q..MAX_Q]
+	 */
+	public void setBandQ(int band, double q) {
+		q = Math.max(MIN_Q, Math.min(MAX_Q, q));
+		params[band].q = q;
+	}
+
+	// --------------------------------- AudioEffect methods
+
+	@Override
+	public void initImpl() {
+		if (state == null) return;
+		if (bands == null) {
+			bands = new Band[BAND_COUNT];
+			for (int b = 0; b < BAND_COUNT; b++) {
+				Band band = new Band(getBandType(b));
+				band.filter = new Biquad(state.getChannels());
+				band.gainSmoother = new ParameterSmoother(
+						ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+						SMOOTHING_MILLIS, 0.0f);
+				band.log2FreqSmoother = new ParameterSmoother(
+						ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+						SMOOTHING_MILLIS, 0.0f);
+				band.qSmoother = new ParameterSmoother(
+						ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+						SMOOTHING_MILLIS, 0.0f);
+				bands[b] = band;
+			}
+		}
+		resetSmoothers = true;
+		// default values: flat
+		for (int b = 0; b < BAND_COUNT; b++) {
+			setBandGainDB(b, 0.0);
+			setBandFrequency(b, DEFAULT_FREQUENCIES[b]);
+			setBandQ(b, DEFAULT_Q[b]);
+		}
+	}
+
+	@Override
+	public void exitImpl() {
+		// nothing to free
+	}
+
+	/**
+	 * Clear the filter state of all bands.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectReset#reset()
+	 */
+	public void reset() {
+		Band[] bands = this.bands;
+		if (bands != null) {
+			for (Band band : bands) {
+				band.filter.reset();
+			}
+		}
+		resetSmoothers = true;
+	}
+
+	/**
+	 * The tail is silent if the filter state of all active bands has decayed
+	 * below the silence level.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectTail#isTailSilent()
+	 */
+	public boolean isTailSilent() {
+		return tailSilent;
+	}
+
+	/** calculate the coefficients of the band from the smoothed values */
+	private void updateCoefficients(Band band) {
+		float gain = band.gainSmoother.getValue();
+		float log2Freq = band.log2FreqSmoother.getValue();
+		float q = band.qSmoother.getValue();
+		if (gain != band.coeffGain || log2Freq != band.coeffLog2Freq
+				|| q != band.coeffQ) {
+			band.coeffGain = gain;
+			band.coeffLog2Freq = log2Freq;
+			band.coeffQ = q;
+			band.filter.setCoefficients(band.type, state.getSampleRate(),
+					Math.pow(2.0, log2Freq), q, gain);
+		}
+	}
+
+	/**
+	 * Filter the buffer with the cascade of active bands. Parameter changes
+	 * are picked up at the beginning of the block.
+	 */
+	@Override
+	public boolean process(long samplePos, FloatSampleBuffer buffer,
+			int offset, int sampleCount) {
+		final Band[] bs = bands;
+		// sanity
+		if (bs == null || state == null || sampleCount == 0) return false;
+		boolean processed = false;
+		boolean silent = true;
+		for (int b = 0; b < bs.length; b++) {
+			Band band = bs[b];
+			BandParams p = params[b];
+			band.gainSmoother.setTarget((float) p.gainDB);
+			band.log2FreqSmoother.setTarget((float) (Math.log(p.frequency) / LN_2));
+			band.qSmoother.setTarget((float) p.q);
+			if (resetSmoothers) {
+				band.gainSmoother.setValue(band.gainSmoother.getTarget());
+				band.log2FreqSmoother.setValue(band.log2FreqSmoother.getTarget());
+				band.qSmoother.setValue(band.qSmoother.getTarget());
+			}
+			boolean smoothing = band.gainSmoother.isSmoothing()
+					|| band.log2FreqSmoother.isSmoothing()
+					|| band.qSmoother.isSmoothing();
+			if (!smoothing && band.gainSmoother.getValue() == 0.0f
+					&& band.filter.isSettled(AudioEffectTail.SILENCE_LEVEL)) {
+				// flat and decayed: bypass
+				if (band.active) {
+					band.active = false;
+					band.filter.reset();
+					if (DEBUG_EQ) debug("EQ band " + b + " bypassed");
+				}
+				continue;
+			}
+			band.active = true;
+			if (smoothing) {
+				// recalculate the coefficients for every short block
+				for (int pos = 0; pos < sampleCount; pos += SMOOTHING_BLOCK_SIZE) {
+					int n = Math.min(SMOOTHING_BLOCK_SIZE, sampleCount - pos);
+					updateCoefficients(band);
+					band.filter.process(buffer, offset + pos, n);
+					band.gainSmoother.process(n);
+					band.log2FreqSmoother.process(n);
+					band.qSmoother.process(n);
+				}
+			} else {
+				updateCoefficients(band);
+				band.filter.process(buffer, offset, sampleCount);
+			}
+			processed = true;
+			if (!band.filter.isSettled(AudioEffectTail.SILENCE_LEVEL)) {
+				silent = false;
+			}
+		}
+		resetSmoothers = false;
+		tailSilent = silent;
+		return processed;
+	}
+
+	// --------------------------------- GUI stuff
+
+	/** the slider range for the frequency, mapped logarithmically */
+	private final static int FREQUENCY_SLIDER_MAX = 1000;
+
+	/** the slider range for Q, mapped logarithmically */
+	private final static int Q_SLIDER_MAX = 100;
+
+	private SliderStrip[] sGain;
+	private SliderStrip[] sFrequency;
+	private SliderStrip[] sQ;
+	private boolean guiInited = false;
+
+	/**
+	 * if this flag is non-zero, controls are currently set programmatically
+	 * rather than from user interaction
+	 */
+	private int noUpdate = 0;
+
+	@Override
+	protected void initGUI(JPanel main) {
+		main.setLayout(new BoxLayout(main, BoxLayout.PAGE_AXIS));
+		main.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+		// Title
+		JLabel title = GUIUtils.createLabel("Equalizer", SwingConstants.CENTER);
+		title.setFont(title.getFont().deriveFont(Font.BOLD));
+		main.add(title);
+
+		sGain = new SliderStrip[BAND_COUNT];
+		sFrequency = new SliderStrip[BAND_COUNT];
+		sQ = new SliderStrip[BAND_COUNT];
+		for (int b = 0; b < BAND_COUNT; b++) {
+			main.add(new JSeparator(SwingConstants.HORIZONTAL));
+			// sliders for gain (1/10 dB), frequency, and Q
+			main.add((sGain[b] = new SliderStrip(BAND_NAMES[b] + ":",
+					(int) (MIN_GAIN_DB * 10), (int) (MAX_GAIN_DB * 10), 0,
+					"cut", "boost")));
+			main.add((sFrequency[b] = new SliderStrip("Frequency:", 0,
+					FREQUENCY_SLIDER_MAX, 0, "", "")));
+			main.add((sQ[b] = new SliderStrip("Q:", 0, Q_SLIDER_MAX, 0, "",
+					"")));
+		}
+
+		guiInited = true;
+
+		// init sliders and labels
+		for (int b = 0; b < BAND_COUNT; b++) {
+			updateGUIBandGain(b);
+			updateGUIBandGainLabel(b);
+			updateGUIBandFrequency(b);
+			updateGUIBandFrequencyLabel(b);
+			updateGUIBandQ(b);
+			updateGUIBandQLabel(b);
+		}
+	}
+
+	/** @return the index of the strip with the given slider, or -1 */
+	private static int findBand(SliderStrip[] strips, Object slider) {
+		for (int b = 0; b < strips.length; b++) {
+			if (strips[b].slider == slider) {
+				return b;
+			}
+		}
+		return -1;
+	}
+
+	/** update the GUI with the current gain of the band */
+	protected void updateGUIBandGain(int band) {
+		if (!guiInited) return;
+		// will cause change event and update the label
+		noUpdate++;
+		try {
+			sGain[band].slider.setValue((int) Math.round(getBandGainDB(band) * 10.0));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/**
+	 * read the current value from the slider and set the internal value
+	 * accordingly
+	 */
+	protected void updateBandGainFromGUI(int band) {
+		if (!guiInited) return;
+		setBandGainDB(band, sGain[band].slider.getValue() / 10.0);
+	}
+
+	/** update the label with the current gain of the band */
+	private void updateGUIBandGainLabel(int band) {
+		if (!guiInited) return;
+		sGain[band].label.setText((sGain[band].slider.getValue() / 10.0)
+				+ " dB");
+	}
+
+	/** update the GUI with the current frequency of the band */
+	protected void updateGUIBandFrequency(int band) {
+		if (!guiInited) return;
+		double pos = Math.log(getBandFrequency(band) / MIN_FREQUENCY)
+				/ Math.log(MAX_FREQUENCY / MIN_FREQUENCY);
+		noUpdate++;
+		try {
+			sFrequency[band].slider.setValue((int) Math.round(pos
+					* FREQUENCY_SLIDER_MAX));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** @return the frequency for the position of the band's slider */
+	private double getGUIBandFrequency(int band) {
+		double pos = sFrequency[band].slider.getValue()
+				/ (double) FREQUENCY_SLIDER_MAX;
+		return MIN_FREQUENCY * Math.pow(MAX_FREQUENCY / MIN_FREQUENCY, pos);
+	}
+
+	/**
+	 * read the current value from the slider and set the internal value
+	 * accordingly
+	 */
+	protected void updateBandFrequencyFromGUI(int band) {
+		if (!guiInited) return;
+		setBandFrequency(band, getGUIBandFrequency(band));
+	}
+
+	/** update the label with the current frequency of the band */
+	private void updateGUIBandFrequencyLabel(int band) {
+		if (!guiInited) return;
+		int freq = (int) Math.round(getGUIBandFrequency(band));
+		if (freq >= 1000) {
+			sFrequency[band].label.setText((freq / 1000) + "."
+					+ ((freq % 1000) / 100) + " kHz");
+		} else {
+			sFrequency[band].label.setText(freq + " Hz");
+		}
+	}
+
+	/** update the GUI with the current Q of the band */
+	protected void updateGUIBandQ(int band) {
+		if (!guiInited) return;
+		double pos = Math.log(getBandQ(band) / MIN_Q)
+				/ Math.log(MAX_Q / MIN_Q);
+		noUpdate++;
+		try {
+			sQ[band].slider.setValue((int) Math.round(pos * Q_SLIDER_MAX));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/** @return the Q for the position of the band's slider */
+	private double getGUIBandQ(int band) {
+		double pos = sQ[band].slider.getValue() / (double) Q_SLIDER_MAX;
+		return MIN_Q * Math.pow(MAX_Q / MIN_Q, pos);
+	}
+
+	/**
+	 * read the current value from the slider and set the internal value
+	 * accordingly
+	 */
+	protected void updateBandQFromGUI(int band) {
+		if (!guiInited) return;
+		setBandQ(band, getGUIBandQ(band));
+	}
+
+	/** update the label with the current Q of the band */
+	private void updateGUIBandQLabel(int band) {
+		if (!guiInited) return;
+		int q100 = (int) Math.round(getGUIBandQ(band) * 100.0);
+		sQ[band].label.setText((q100 / 100) + "."
+				+ ((q100 % 100) < 10 ? "0" : "") + (q100 % 100));
+	}
+
+	// --------------------------------- interface MouseListener
+
+	/**
+	 * if automation is currently enabled, add an appropriate automation event,
+	 * depending on the given GUI control
+	 */
+	private void addAutomationEvent(Object src) {
+		if ((track != null) && track.isAutomationEnabled()) {
+			int band;
+			if ((band = findBand(sGain, src)) >= 0) {
+				track.addAutomationObject(new BandGainAutomation(this, band));
+			} else if ((band = findBand(sFrequency, src)) >= 0) {
+				track.addAutomationObject(new BandFrequencyAutomation(this,
+						band));
+			} else if ((band = findBand(sQ, src)) >= 0) {
+				track.addAutomationObject(new BandQAutomation(this, band));
+			}
+		}
+	}
+
+	/** set tracking for the selected GUI object on or off. */
+	private void setTracking(Object src, boolean on) {
+		if (findBand(sGain, src) >= 0) {
+			gainHandler.setTracking(track, on);
+			if (DEBUG_EQ) debug("EQ gain tracking: " + on);
+		} else if (findBand(sFrequency, src) >= 0) {
+			frequencyHandler.setTracking(track, on);
+			if (DEBUG_EQ) debug("EQ frequency tracking: " + on);
+		} else if (findBand(sQ, src) >= 0) {
+			qHandler.setTracking(track, on);
+			if (DEBUG_EQ) debug("EQ Q tracking: " + on);
+		}
+		// add initial automation state
+		if (on) {
+			addAutomationEvent(src);
+		}
+	}
+
+	/**
+	 * called when the user clicks on a slider. In response, notify the engine
+	 * that we're tracking this automation object.
+	 */
+	@Override
+	public void mousePressed(MouseEvent e) {
+		setTracking(e.getSource(), true);
+	}
+
+	/**
+	 * called when the user releases the mouse button from a slider. Notify the
+	 * engine that we're not tracking this automation object anymore.
+	 */
+	@Override
+	public void mouseReleased(MouseEvent e) {
+		setTracking(e.getSource(), false);
+	}
+
+	// ----------------------------------------- interface ChangeListener
+
+	/**
+	 * Called when the user or the implementation moves a slider. Update the
+	 * slider labels. If not currently set by the implementation, update the
+	 * internal value. If automation is active, create an automation object and
+	 * add it to the track.
+	 */
+	@Override
+	public void stateChanged(ChangeEvent e) {
+		Object src = e.getSource();
+		int band;
+		if ((band = findBand(sGain, src)) >= 0) {
+			if (noUpdate == 0) {
+				updateBandGainFromGUI(band);
+			}
+			updateGUIBandGainLabel(band);
+		} else if ((band = findBand(sFrequency, src)) >= 0) {
+			if (noUpdate == 0) {
+				updateBandFrequencyFromGUI(band);
+			}
+			updateGUIBandFrequencyLabel(band);
+		} else if ((band = findBand(sQ, src)) >= 0) {
+			if (noUpdate == 0) {
+				updateBandQFromGUI(band);
+			}
+			updateGUIBandQLabel(band);
+		}
+		if (noUpdate == 0) {
+			addAutomationEvent(src);
+		}
+	}
+
+	// PERSISTENCE
+
+	@Override
+	public Element xmlExport(Element element) {
+		element = super.xmlExport(element);
+		for (int b = 0; b < BAND_COUNT; b++) {
+			BandParams p = params[b];
+			element.setAttribute("Gain" + b, String.valueOf(p.gainDB));
+			element.setAttribute("Frequency" + b,
+					String.valueOf(p.frequency));
+			element.setAttribute("Q" + b, String.valueOf(p.q));
+		}
+		return element;
+	}
+
+	@Override
+	public void xmlImport(Element element) throws Exception {
+		super.xmlImport(element);
+		for (int b = 0; b < BAND_COUNT; b++) {
+			String val = element.getAttribute("Gain" + b);
+			if (val.length() > 0) {
+				setBandGainDB(b, Double.parseDouble(val));
+			}
+			val = element.getAttribute("Frequency" + b);
+			if (val.length() > 0) {
+				setBandFrequency(b, Double.parseDouble(val));
+			}
+			val = element.getAttribute("Q" + b);
+			if (val.length() > 0) {
+				setBandQ(b, Double.parseDouble(val));
+			}
+		}
+	}
+
+	// ----------------------------------------- AUTOMATION
+
+	/**
+	 * Base class for the automation of a band parameter: the band index is
+	 * part of the type instance and persisted.
+	 */
+	public static abstract class BandAutomation extends
+			AutomationObjectEffect<Equalizer> {
+		/** the index of the automated band */
+		protected int band;
+
+		/**
+		 * Create an instance with default values, should only be used before
+		 * xml import.
+		 */
+		protected BandAutomation(String xmlName, double value) {
+			super(Equalizer.class, null, xmlName, 0, value);
+		}
+
+		/**
+		 * Create an automation object capturing the current playback time and
+		 * the given value.
+		 */
+		protected BandAutomation(Equalizer target, String xmlName, int band,
+				double value) {
+			super(Equalizer.class, target.state, xmlName,
+					target.state.getSamplePosition(), value);
+			this.band = band;
+			setTarget(target);
+		}
+
+		/** @return the index of the automated band */
+		public int getBand() {
+			return band;
+		}
+
+		/**
+		 * Automation of different bands are different type instances, so that
+		 * they do not overwrite each other.
+		 */
+		@Override
+		public boolean isSameTypeInstance(AutomationObject other) {
+			return super.isSameTypeInstance(other)
+					&& ((BandAutomation) other).band == band;
+		}
+
+		@Override
+		public Element xmlExport(Element element) {
+			element = super.xmlExport(element);
+			element.setAttribute("Band", String.valueOf(band));
+			return element;
+		}
+
+		@Override
+		public void xmlImport(Element element) throws Exception {
+			super.xmlImport(element);
+			band = Integer.parseInt(element.getAttribute("Band"));
+			if (band < 0 || band >= BAND_COUNT) {
+				throw new Exception("invalid equalizer band: " + band);
+			}
+		}
+	}
+
+	/** the automation object to record a change in the gain of a band */
+	public static class BandGainAutomation extends BandAutomation {
+		public static final String XML_ELEMENT_NAME = "EQBandGain";
+
+		/**
+		 * Create an instance with default values, should only be used before
+		 * xml import.
+		 */
+		public BandGainAutomation() {
+			super(XML_ELEMENT_NAME, 0.0);
+		}
+
+		/**
+		 * Create a gain automation object capturing the current playback time
+		 * and the current gain of the band.
+		 */
+		public BandGainAutomation(Equalizer target, int band) {
+			super(target, XML_ELEMENT_NAME, band, target.getBandGainDB(band));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.mixblendr.audio.AutomationObject#executeImpl(com.mixblendr.audio
+		 * .AudioTrack)
+		 */
+		@Override
+		protected void executeImpl(AudioTrack aTrack) {
+			Equalizer target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
+			target.setBandGainDB(band, value);
+			target.updateGUIBandGain(band);
+		}
+
+		/**
+		 * @return a string representation of this object (mainly for debugging
+		 *         purposes)
+		 */
+		@Override
+		public String toString() {
+			return super.toString() + ", band=" + band + ", gain=" + value
+					+ "dB";
+		}
+	}
+
+	/** the automation object to record a change in the frequency of a band */
+	public static class BandFrequencyAutomation extends BandAutomation {
+		public static final String XML_ELEMENT_NAME = "EQBandFrequency";
+
+		/**
+		 * Create an instance with default values, should only be used before
+		 * xml import.
+		 */
+		public BandFrequencyAutomation() {
+			super(XML_ELEMENT_NAME, 1000.0);
+		}
+
+		/**
+		 * Create a frequency automation object capturing the current playback
+		 * time and the current frequency of the band.
+		 */
+		public BandFrequencyAutomation(Equalizer target, int band) {
+			super(target, XML_ELEMENT_NAME, band,
+					target.getBandFrequency(band));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.mixblendr.audio.AutomationObject#executeImpl(com.mixblendr.audio
+		 * .AudioTrack)
+		 */
+		@Override
+		protected void executeImpl(AudioTrack aTrack) {
+			Equalizer target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
+			target.setBandFrequency(band, value);
+			target.updateGUIBandFrequency(band);
+		}
+
+		/**
+		 * @return a string representation of this object (mainly for debugging
+		 *         purposes)
+		 */
+		@Override
+		public String toString() {
+			return super.toString() + ", band=" + band + ", frequency="
+					+ value + "Hz";
+		}
+	}
+
+	/** the automation object to record a change in the Q of a band */
+	public static class BandQAutomation extends BandAutomation {
+		public static final String XML_ELEMENT_NAME = "EQBandQ";
+
+		/**
+		 * Create an instance with default values, should only be used before
+		 * xml import.
+		 */
+		public BandQAutomation() {
+			super(XML_ELEMENT_NAME, 1.0);
+		}
+
+		/**
+		 * Create a Q automation object capturing the current playback time and
+		 * the current Q of the band.
+		 */
+		public BandQAutomation(Equalizer target, int band) {
+			super(target, XML_ELEMENT_NAME, band, target.getBandQ(band));
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.mixblendr.audio.AutomationObject#executeImpl(com.mixblendr.audio
+		 * .AudioTrack)
+		 */
+		@Override
+		protected void executeImpl(AudioTrack aTrack) {
+			Equalizer target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
+			target.setBandQ(band, value);
+			target.updateGUIBandQ(band);
+		}
+
+		/**
+		 * @return a string representation of this object (mainly for debugging
+		 *         purposes)
+		 */
+		@Override
+		public String toString() {
+			return super.toString() + ", band=" + band + ", Q=" + value;
+		}
+	}
+}
@@ -19,40 +19,67 @@ import com.mixblendr.util.XmlPersistent;
 import static com.mixblendr.util.Debug.*;
 
 /**
- * A flanger effect.
+ * A flanger effect: the input is mixed with a copy delayed by a delay time
+ * which is modulated by a sine LFO. The delay line is read with linear
+ * interpolation, so that the modulation is smooth.
  * 
  * @author Florian Bomers
  */
-public class Flanger extends GUIEffectsBase implements XmlPersistent {
+public class Flanger extends GUIEffectsBase implements XmlPersistent,
+		AudioEffectTail, AudioEffectReset {
 
 	private static final boolean DEBUG_FLANGER = false;
 
+	// the parameters, set e.g. by the GUI or by automation on the audio
+	// thread, and read by process() at the beginning of each block. Setting
+	// these volatile fields does not allocate.
 	/**
 	 * the mean delay time, around which the delay time oscillates, in
 	 * milliseconds
 	 */
-	private double delayTimeMillis;
+	private volatile double delayTimeMillis;
 	/**
 	 * a relative percentage determining the amplitude of the oscillator.<br>
 	 * An amplitude of 0 makes this effect a regular delay, a value of 1 will
 	 * double the delay at its peak, and have half the delay at its negative
 	 * peak.
 	 */
-	private double amplitude;
+	private volatile double amplitude;
 	/** freq in hertz */
-	private double freq;
-	private double feedback;
-	private double balance;
-
-	// derived values
-	private double delayTimeSamples;
+	private volatile double freq;
+	private volatile double feedback;
+	private volatile double balance;
+	/** derived from delayTimeMillis */
+	private volatile double delayTimeSamples;
 
 	// runtime state
-	private FloatSampleBuffer delayBuffer;
-	private double delayBufferReadPos;
-	private double delayBufferWritePos;
-	private double lfoInc;
-	private double lfoCurr;
+	private volatile FloatSampleBuffer delayBuffer;
+	private int delayBufferWritePos;
+
+	/**
+	 * the number of samples written to the delay buffer below
+	 * AudioEffectTail.SILENCE_LEVEL since the last louder sample
+	 */
+	private int silentWriteCount;
+	/**
+	 * the number of samples for which the LFO is interpolated linearly
+	 * between two positions of the phasor
+	 */
+	private final static int LFO_STEP_SAMPLES = 32;
+	/** the LFO phasor at the end of the current step */
+	private double lfoCos = 1.0;
+	private double lfoSin;
+	/** the LFO value at the end of the current step, i.e. lfoSin */
+	private float lfoStepEnd;
+	/** the number of samples left in the current step */
+	private int lfoStepRemaining;
+	/** the LFO value of the next sample */
+	private float lfoValue;
+	/** the frequency of the LFO rotation below */
+	private double lfoRotationFreq = Double.NaN;
+	/** the rotation of the LFO phasor per LFO_STEP_SAMPLES */
+	private double lfoRotationCos = 1.0;
+	private double lfoRotationSin;
 
 	// automation support
 	private static AutomationHandler delayTimeHandler = AutomationManager.getHandler(DelayTimeAutomation.class);
@@ -89,11 +116,20 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	 */
 	public void setDelayTimeMillis(double delayTimeMillis) {
 		if (state == null) return;
-		synchronized (lock) {
-			this.delayTimeMillis = delayTimeMillis;
-			delayTimeSamples = state.millis2sample(delayTimeMillis);
-			if (DEBUG_FLANGER) debug("delayTimeSamples = " + delayTimeSamples);
+		double delayTimeSamples = state.millis2sample(delayTimeMillis);
+		// limit the delay time so that the modulated delay time is at least
+		// one sample, and fits into the delay buffer, so that process() does
+		// not need to check it for every sample
+		double maxDelayTimeSamples =
+				(state.millis2sample(DELAY_BUFFER_MILLIS) - 2) * 2.0 / 3.0;
+		if (delayTimeSamples < MIN_DELAY_TIME_SAMPLES) {
+			delayTimeSamples = MIN_DELAY_TIME_SAMPLES;
+		} else if (delayTimeSamples > maxDelayTimeSamples) {
+			delayTimeSamples = maxDelayTimeSamples;
 		}
+		this.delayTimeMillis = delayTimeMillis;
+		this.delayTimeSamples = delayTimeSamples;
+		if (DEBUG_FLANGER) debug("delayTimeSamples = " + delayTimeSamples);
 	}
 
 	/**
@@ -107,6 +143,11 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	 * @param amplitude the amplitude to set [0..1]
 	 */
 	public void setAmplitude(double amplitude) {
+		if (amplitude < 0) {
+			amplitude = 0;
+		} else if (amplitude > 1) {
+			amplitude = 1;
+		}
 		this.amplitude = amplitude;
 	}
 
@@ -121,23 +162,11 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	 * @param frequency the frequency to set [1..30]
 	 */
 	public void setFrequency(double frequency) {
+		if (state == null) return;
 		if (frequency < 0.00001) {
 			frequency = 0.00001;
 		}
 		this.freq = frequency;
-		// set up LFO
-		// ramp:
-		// - period = samplerate/freq
-		// - one ramp is half period
-		// - LFO oscillates between -1...0...+1
-		// - therefore increase per sample is 2 / (half period)
-		double newLfoInc = 4 * freq / state.getSampleRate();
-		if (lfoInc < 0) {
-			lfoInc = -newLfoInc;
-		} else {
-			lfoInc = newLfoInc;
-		}
-		if (DEBUG_FLANGER) debug("lfoInc = " + lfoInc);
 	}
 
 	/**
@@ -170,15 +199,77 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 
 	// --------------------------------- AudioEffect methods
 
-	private final static int MAX_FLANGER_BUFFER_SIZE_SAMPLES = 44100;
+	/**
+	 * the minimum length of the delay buffer, enough for the maximum delay
+	 * time of the GUI at full amplitude. Longer delay times are limited to
+	 * the buffer size.
+	 */
+	private final static double DELAY_BUFFER_MILLIS = 50.0;
+
+	/** the minimum delay time, the modulation can halve it */
+	private final static double MIN_DELAY_TIME_SAMPLES = 4;
+
+	/**
+	 * the time for changing to a new delay time: the delay buffer is read
+	 * faster or slower during this time
+	 */
+	private final static double DELAY_TIME_SMOOTHING_MILLIS = 200.0;
+	/** the time for changing the amplitude */
+	private final static double AMPLITUDE_SMOOTHING_MILLIS = 50.0;
+	/** the time for changing feedback and balance */
+	private final static double SMOOTHING_MILLIS = 10.0;
+	private ParameterSmoother delayTimeSmoother;
+	private ParameterSmoother amplitudeSmoother;
+	private ParameterSmoother feedbackSmoother;
+	private ParameterSmoother srcVolSmoother;
+	private ParameterSmoother delayVolSmoother;
+	/** if true, process() sets the smoothers to the parameters directly */
+	private boolean resetSmoothers;
+	/**
+	 * the read positions in the delay buffer for every sample of a block, the
+	 * same for all channels: the integer offset, and the fraction towards the
+	 * previous sample
+	 */
+	private int[] readOffsets;
+	private float[] readFractions;
+	/** the LFO values of a block, the same for all channels */
+	private float[] lfoValues;
 
 	@Override
 	public void initImpl() {
 		if (state == null) return;
 		if (delayBuffer == null) {
-			delayBuffer = new FloatSampleBuffer(state.getChannels(),
-					MAX_FLANGER_BUFFER_SIZE_SAMPLES, state.getSampleRate());
+			// use a power of 2 as size, so that the positions can be
+			// wrapped around with a bit mask
+			int size = 1;
+			while (size < state.millis2sample(DELAY_BUFFER_MILLIS)) {
+				size <<= 1;
+			}
+			delayBuffer = new FloatSampleBuffer(state.getChannels(), size,
+					state.getSampleRate());
+			// allocate the block arrays for the largest slice, so that
+			// process() does not allocate
+			int blockSize = state.getMaxSliceSizeSamples();
+			readOffsets = new int[blockSize];
+			readFractions = new float[blockSize];
+			lfoValues = new float[blockSize];
+			delayTimeSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.LINEAR, state.getSampleRate(),
+					DELAY_TIME_SMOOTHING_MILLIS, 0.0f);
+			amplitudeSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					AMPLITUDE_SMOOTHING_MILLIS, 0.0f);
+			feedbackSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
+			srcVolSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
+			delayVolSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
 		}
+		resetSmoothers = true;
 		// default values
 		setDelayTimeMillis(4);
 		setAmplitude(0.5);
@@ -193,127 +284,193 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/**
-	 * given the current lfo value, return the current delay time offset
+	 * The tail is silent if the entire delay buffer was overwritten with
+	 * samples below the silence level.
 	 * 
-	 * @param lfo the current lfo value [-1...0...+1]
-	 * @return the delay offset to the delayTimeSample
+	 * @see com.mixblendr.audio.AudioEffectTail#isTailSilent()
 	 */
-	private final double getDelayOffsetSamples(double lfo) {
-		return lfo * amplitude * amplitude * (delayTimeSamples / 2);
+	public boolean isTailSilent() {
+		FloatSampleBuffer delayBuffer = this.delayBuffer;
+		return delayBuffer == null
+				|| silentWriteCount >= delayBuffer.getSampleCount();
+	}
+
+	/**
+	 * Silence the delay line and restart the LFO.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectReset#reset()
+	 */
+	public void reset() {
+		FloatSampleBuffer delayBuffer = this.delayBuffer;
+		if (delayBuffer != null) {
+			delayBuffer.makeSilence();
+			silentWriteCount = delayBuffer.getSampleCount();
+		}
+		delayBufferWritePos = 0;
+		lfoCos = 1.0;
+		lfoSin = 0.0;
+		lfoStepEnd = 0.0f;
+		lfoStepRemaining = 0;
+		lfoValue = 0.0f;
+		resetSmoothers = true;
 	}
 
 	/**
 	 * the actual delay processor: feed the current buffer to the circular delay
-	 * buffer, and add the current delay buffer contents to the output buffer
+	 * buffer, and add the current delay buffer contents to the output buffer.
+	 * Buffers larger than the block arrays are processed in several blocks.
 	 */
 	@Override
 	public boolean process(long samplePos, FloatSampleBuffer buffer,
 			int offset, int sampleCount) {
+		FloatSampleBuffer delayBuffer = this.delayBuffer;
 		// sanity
 		if (delayBuffer == null || sampleCount == 0) return false;
-		synchronized (lock) {
-			double srcVol;
-			double delayVol;
-			if (balance < 0) {
-				srcVol = 1.0;
-				delayVol = (1 + balance);
-			} else {
-				srcVol = 1 - balance;
-				delayVol = 1.0;
-			}
+		int blockSize = lfoValues.length;
+		while (sampleCount > 0) {
+			int count = Math.min(sampleCount, blockSize);
+			processBlock(delayBuffer, buffer, offset, count);
+			offset += count;
+			sampleCount -= count;
+		}
+		return true;
+	}
 
-			int delayBufferCount = delayBuffer.getSampleCount();
-
-			// by which read/write pos are increased for every sample, to
-			// account for non-integral delay times
-			double writePosInc = ((int) delayTimeSamples) / delayTimeSamples;
-			double readPosInc = writePosInc;
-
-			// local variables as optimization
-			double writePos = delayBufferWritePos;
-			double readPos = delayBufferReadPos;
-
-			// if delay time has changed, read pos (dependent on write Pos)
-			// needs
-			// to slowly drift away/towards writePos so that it will reach the
-			// target delay eventually
-			double targetReadPos = writePos - delayTimeSamples
-					+ getDelayOffsetSamples(lfoCurr);
-			if (targetReadPos < 0) {
-				targetReadPos += delayBufferCount;
+	/**
+	 * Process one block of at most the size of the block arrays. Parameter
+	 * changes are picked up at the beginning of the block.
+	 */
+	private void processBlock(FloatSampleBuffer delayBuffer,
+			FloatSampleBuffer buffer, int offset, int sampleCount) {
+		double delayTimeSamples = this.delayTimeSamples;
+		double balance = this.balance;
+		double freq = this.freq;
+		if (freq != lfoRotationFreq) {
+			// set up LFO: the phasor is rotated by this angle per step
+			double angle = 2 * Math.PI * freq * LFO_STEP_SAMPLES
+					/ state.getSampleRate();
+			lfoRotationCos = Math.cos(angle);
+			lfoRotationSin = Math.sin(angle);
+			lfoRotationFreq = freq;
+			if (DEBUG_FLANGER) debug("LFO angle = " + angle);
+		}
+		double srcVol;
+		double delayVol;
+		if (balance < 0) {
+			srcVol = 1.0;
+			delayVol = (1 + balance);
+		} else {
+			srcVol = 1 - balance;
+			delayVol = 1.0;
+		}
+
+		delayTimeSmoother.setTarget((float) delayTimeSamples);
+		amplitudeSmoother.setTarget((float) amplitude);
+		feedbackSmoother.setTarget((float) feedback);
+		srcVolSmoother.setTarget((float) srcVol);
+		delayVolSmoother.setTarget((float) delayVol);
+		if (resetSmoothers) {
+			resetSmoothers = false;
+			delayTimeSmoother.setValue(delayTimeSmoother.getTarget());
+			amplitudeSmoother.setValue(amplitudeSmoother.getTarget());
+			feedbackSmoother.setValue(feedbackSmoother.getTarget());
+			srcVolSmoother.setValue(srcVolSmoother.getTarget());
+			delayVolSmoother.setValue(delayVolSmoother.getTarget());
+		}
+		// if the delay time has changed, the read position follows the
+		// smoothed delay time, so that it glides to the new delay
+		float[] delayTimes = delayTimeSmoother.process(sampleCount);
+		float[] amplitudes = amplitudeSmoother.process(sampleCount);
+		float[] feedbacks = feedbackSmoother.process(sampleCount);
+		float[] srcVols = srcVolSmoother.process(sampleCount);
+		float[] delayVols = delayVolSmoother.process(sampleCount);
+
+		int delayBufferCount = delayBuffer.getSampleCount();
+		// the buffer size is a power of 2
+		int mask = delayBufferCount - 1;
+		// calculate the LFO once for all channels. The LFO is a sine wave,
+		// calculated by rotating the phasor (lfoCos, lfoSin) by
+		// LFO_STEP_SAMPLES at a time, with linear ramps in between.
+		float[] lfos = lfoValues;
+		int i = 0;
+		while (i < sampleCount) {
+			if (lfoStepRemaining == 0) {
+				double nextCos = lfoCos * lfoRotationCos - lfoSin
+						* lfoRotationSin;
+				lfoSin = lfoSin * lfoRotationCos + lfoCos * lfoRotationSin;
+				lfoCos = nextCos;
+				// prevent rounding errors from changing the amplitude
+				double norm = 1.0 / Math.sqrt(lfoCos * lfoCos + lfoSin
+						* lfoSin);
+				lfoCos *= norm;
+				lfoSin *= norm;
+				lfoStepEnd = (float) lfoSin;
+				lfoStepRemaining = LFO_STEP_SAMPLES;
 			}
-			if (readPos == writePos) {
-				// at beginning, no transition necessary
-				readPos = targetReadPos;
-			} else {
-				readPosInc += (targetReadPos - readPos) / sampleCount;
-				// do not increase too much, otherwise will be audible
-				// high-pitched...
-				if (readPosInc > 3) {
-					readPosInc = 1.2;
-				}
+			int n = lfoStepRemaining;
+			float end = lfoStepEnd;
+			if (n > sampleCount - i) {
+				// the step continues in the next block
+				n = sampleCount - i;
+				end = lfoValue + (lfoStepEnd - lfoValue) * n
+						/ lfoStepRemaining;
 			}
+			AudioKernels.ramp(lfos, i, n, lfoValue, end);
+			lfoValue = end;
+			lfoStepRemaining -= n;
+			i += n;
+		}
+
+		// calculate the read positions once for all channels
+		int[] rOffsets = readOffsets;
+		float[] rFractions = readFractions;
+		// local variable as optimization
+		int writePos = delayBufferWritePos;
+		for (i = 0; i < sampleCount; i++) {
+			// an amplitude of 1 modulates the delay time by +/-50%
+			float delayTime = delayTimes[i];
+			float amplitude = amplitudes[i];
+			float delay = delayTime
+					- lfos[i] * amplitude * amplitude * (delayTime / 2);
+			int delayInt = (int) delay;
+			rOffsets[i] = (writePos + i - delayInt) & mask;
+			rFractions[i] = delay - delayInt;
+		}
 
-			double startReadPos = readPos;
-			double lLfoCurr = lfoCurr;
-			double lLfoInc = lfoInc;
-
-			// TODO: linear interpolation
-
-			for (int c = 0; c < buffer.getChannelCount(); c++) {
-				int thisCount = sampleCount;
-				float[] delay = delayBuffer.getChannel(c);
-				float[] inout = buffer.getChannel(c);
-				int thisOffset = offset;
-
-				// re-initialize for every channel
-				lLfoCurr = lfoCurr;
-				lLfoInc = lfoInc;
-				writePos = delayBufferWritePos;
-				readPos = startReadPos;
-
-				while (thisCount > 0) {
-					// the actual delay line!
-					float io = inout[thisOffset];
-					int writeOffset = (int) writePos;
-					int readOffset = (int) (readPos + getDelayOffsetSamples(lLfoCurr));
-					if (readOffset < 0) {
-						readOffset += delayBufferCount;
-					}
-					if (readOffset >= delayBufferCount) {
-						readOffset -= delayBufferCount;
-					}
-
-					float dr = delay[readOffset];
-					inout[thisOffset] = (float) (dr * delayVol + io * srcVol);
-					delay[writeOffset] = (float) ((dr + io) * feedback);
-					thisOffset++;
-					thisCount--;
-					// update write position
-					writePos += writePosInc;
-					if ((int) writePos >= delayBufferCount) {
-						writePos -= delayBufferCount;
-					}
-					// update read position
-					readPos += readPosInc;
-					if ((int) readPos >= delayBufferCount) {
-						readPos -= delayBufferCount;
-					}
-					// update lfo
-					lLfoCurr += lLfoInc;
-					if (lLfoCurr >= 1.0 || lLfoCurr <= -1.0) {
-						lLfoInc = -lLfoInc;
-					}
+		float maxWritten = 0.0f;
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			float[] delay = delayBuffer.getChannel(c);
+			float[] inout = buffer.getChannel(c);
+			int thisOffset = offset;
+			for (i = 0; i < sampleCount; i++) {
+				// the actual delay line, reading between the sample at the
+				// read offset and the one before it
+				float io = inout[thisOffset];
+				int readOffset = rOffsets[i];
+				float d0 = delay[readOffset];
+				float d1 = delay[(readOffset - 1) & mask];
+				float dr = d0 + (d1 - d0) * rFractions[i];
+				inout[thisOffset] = dr * delayVols[i] + io * srcVols[i];
+				float written = (dr + io) * feedbacks[i];
+				float absWritten = Math.abs(written);
+				if (absWritten < Denormals.FLUSH_LEVEL) {
+					// do not let the feedback decay into denormals
+					written = 0.0f;
+				} else if (absWritten > maxWritten) {
+					maxWritten = absWritten;
 				}
+				delay[(writePos + i) & mask] = written;
+				thisOffset++;
 			}
-			// store state for next audio block
-			lfoCurr = lLfoCurr;
-			lfoInc = lLfoInc;
-			delayBufferReadPos = readPos;
-			delayBufferWritePos = writePos;
-
-			return true;
 		}
+		// track the decay of the tail
+		if (maxWritten > AudioEffectTail.SILENCE_LEVEL) {
+			silentWriteCount = 0;
+		} else if (silentWriteCount < delayBufferCount) {
+			silentWriteCount += sampleCount;
+		}
+		// store state for next audio block
+		delayBufferWritePos = (writePos + sampleCount) & mask;
 	}
 
 	// --------------------------------- GUI stuff
@@ -377,6 +534,7 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	/** update the GUI with the current delay time */
 	protected void updateGUIDelayTime() {
 		if (!guiInited) return;
+		double delayTimeMillis = getDelayTimeMillis();
 		int index = 0;
 		if (delayTimeMillis < TIME_ZERO) {
 			index = (int) Math.round(((delayTimeMillis - TIME_ZERO) * sDelayTime.slider.getMinimum())
@@ -413,7 +571,7 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	/** update the label of the with the current delay time */
 	private void updateGUIDelayTimeLabel() {
 		if (!guiInited) return;
-		String s = Double.toString((Math.round(delayTimeMillis * 100)) / 100.0);
+		String s = Double.toString((Math.round(getDelayTimeMillis() * 100)) / 100.0);
 		if (s.length() > 2 && s.charAt(s.length() - 2) == '.') s += "0";
 		sDelayTime.label.setText(s + " ms");
 	}
@@ -426,7 +584,7 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		noUpdate++;
 		try {
 			// will cause change event and update the label
-			sAmplitude.slider.setValue((int) (amplitude * 100.0));
+			sAmplitude.slider.setValue((int) (getAmplitude() * 100.0));
 		} finally {
 			noUpdate--;
 		}
@@ -458,6 +616,7 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	/** update the GUI with the current freq */
 	protected void updateGUIFreq() {
 		if (!guiInited) return;
+		double freq = getFrequency();
 		int index = 0;
 		if (freq < FREQ_ZERO) {
 			index = (int) Math.round(((freq - FREQ_ZERO) * sFreq.slider.getMinimum())
@@ -494,7 +653,7 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	/** update the label of the with the current freq */
 	private void updateGUIFreqLabel() {
 		if (!guiInited) return;
-		String s = Double.toString((Math.round(freq * 100)) / 100.0);
+		String s = Double.toString((Math.round(getFrequency() * 100)) / 100.0);
 		if (s.length() > 2 && s.charAt(s.length() - 2) == '.') s += "0";
 		sFreq.label.setText(s + " Hz");
 	}
@@ -507,7 +666,7 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		// will cause change event and update the label
 		noUpdate++;
 		try {
-			sFeedback.slider.setValue((int) (feedback * 100.0));
+			sFeedback.slider.setValue((int) (getFeedback() * 100.0));
 		} finally {
 			noUpdate--;
 		}
@@ -538,7 +697,7 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		// will cause change event and update the label
 		noUpdate++;
 		try {
-			sBalance.slider.setValue((int) (balance * 100.0));
+			sBalance.slider.setValue((int) (getBalance() * 100.0));
 		} finally {
 			noUpdate--;
 		}
@@ -709,16 +868,16 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	// ----------------------------------------- AUTOMATION
 
 	/** the automation object to record a change in delay time */
-	public static class DelayTimeAutomation extends AutomationObjectDouble {
+	public static class DelayTimeAutomation extends
+			AutomationObjectEffect<Flanger> {
 		private static final String XML_ELEMENT_NAME = "FlangerDelayTime";
-		private Flanger target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public DelayTimeAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 20.0);
+			super(Flanger.class, null, XML_ELEMENT_NAME, 0, 20.0);
 		}
 
 		/**
@@ -726,10 +885,10 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current delay time.
 		 */
 		public DelayTimeAutomation(Flanger target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Flanger.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(),
 					target.getDelayTimeMillis());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -740,13 +899,8 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Flanger) owner.getOwner().getEffect(Flanger.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Flanger target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setDelayTimeMillis(value);
 			target.updateGUIDelayTime();
 		}
@@ -762,16 +916,16 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/** the automation object to record a change in amplitude */
-	public static class AmplitudeAutomation extends AutomationObjectDouble {
+	public static class AmplitudeAutomation extends
+			AutomationObjectEffect<Flanger> {
 		private static final String XML_ELEMENT_NAME = "FlangerAmplitude";
-		private Flanger target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public AmplitudeAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 0.5);
+			super(Flanger.class, null, XML_ELEMENT_NAME, 0, 0.5);
 		}
 
 		/**
@@ -779,9 +933,9 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current amplitude.
 		 */
 		public AmplitudeAutomation(Flanger target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Flanger.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(), target.getAmplitude());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -792,13 +946,8 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Flanger) owner.getOwner().getEffect(Flanger.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Flanger target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setAmplitude(value);
 			target.updateGUIAmplitude();
 		}
@@ -814,16 +963,16 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/** the automation object to record a change in frequency */
-	public static class FreqAutomation extends AutomationObjectDouble {
+	public static class FreqAutomation extends
+			AutomationObjectEffect<Flanger> {
 		private static final String XML_ELEMENT_NAME = "FlangerFreq";
-		private Flanger target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public FreqAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 1.0);
+			super(Flanger.class, null, XML_ELEMENT_NAME, 0, 1.0);
 		}
 
 		/**
@@ -831,9 +980,9 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current frequency.
 		 */
 		public FreqAutomation(Flanger target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Flanger.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(), target.getFrequency());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -844,13 +993,8 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Flanger) owner.getOwner().getEffect(Flanger.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Flanger target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setFrequency(value);
 			target.updateGUIFreq();
 		}
@@ -866,16 +1010,16 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/** the automation object to record a change in feedback */
-	public static class FeedbackAutomation extends AutomationObjectDouble {
+	public static class FeedbackAutomation extends
+			AutomationObjectEffect<Flanger> {
 		private static final String XML_ELEMENT_NAME = "FlangerFeedback";
-		private Flanger target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public FeedbackAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 0.6);
+			super(Flanger.class, null, XML_ELEMENT_NAME, 0, 0.6);
 		}
 
 		/**
@@ -883,9 +1027,9 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current feedback.
 		 */
 		public FeedbackAutomation(Flanger target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Flanger.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(), target.getFeedback());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -896,13 +1040,8 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Flanger) owner.getOwner().getEffect(Flanger.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Flanger target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setFeedback(value);
 			target.updateGUIFeedback();
 		}
@@ -918,16 +1057,16 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 	}
 
 	/** the automation object to record a change in balance */
-	public static class BalanceAutomation extends AutomationObjectDouble {
+	public static class BalanceAutomation extends
+			AutomationObjectEffect<Flanger> {
 		private static final String XML_ELEMENT_NAME = "FlangerBalance";
-		private Flanger target;
 
 		/**
 		 * Create an instance with default values, should only be used before
 		 * xml import.
 		 */
 		public BalanceAutomation() {
-			super(null, XML_ELEMENT_NAME, 0, 0.0);
+			super(Flanger.class, null, XML_ELEMENT_NAME, 0, 0.0);
 		}
 
 		/**
@@ -935,9 +1074,9 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 * time and the current balance.
 		 */
 		public BalanceAutomation(Flanger target) {
-			super(target.state, XML_ELEMENT_NAME,
+			super(Flanger.class, target.state, XML_ELEMENT_NAME,
 					target.state.getSamplePosition(), target.getBalance());
-			this.target = target;
+			setTarget(target);
 		}
 
 		/*
@@ -948,13 +1087,8 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 		 */
 		@Override
 		protected void executeImpl(AudioTrack aTrack) {
-			if (target == null) {
-				// try to derive the target
-				if (owner != null && owner.getOwner() != null) {
-					target = (Flanger) owner.getOwner().getEffect(Flanger.class);
-				}
-				if (target == null || target.state == null) return;
-			}
+			Flanger target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
 			target.setBalance(value);
 			target.updateGUIBalance();
 		}
@@ -968,7 +1102,4 @@ public class Flanger extends GUIEffectsBase implements XmlPersistent {
 			return super.toString() + ", balance=" + value;
 		}
 	}
-
-	/* satisfy compiler */
-	private static final long serialVersionUID = 0;
 }
@@ -19,19 +19,27 @@ import com.mixblendr.audio.*;
 import static com.mixblendr.util.GUIUtils.*;
 
 /**
- * Example base class for effects showing a GUI.
+ * Example base class for effects showing a GUI. The settings window is only
+ * created when it is shown for the first time, so that effects can be used
+ * without a display, e.g. for rendering on a server.
  * 
  * @author Florian Bomers
  */
-public abstract class GUIEffectsBase extends JFrame implements AudioEffect,
-		MouseListener, ChangeListener {
+public abstract class GUIEffectsBase implements AudioEffect, MouseListener,
+		ChangeListener {
 
 	// engine
 	protected AudioState state;
 	protected AudioTrack track;
 
+	/** the name of this effect, also used as title of the settings window */
+	private String shortName;
+
+	/** the ID of this effect in its track */
+	private volatile int ID;
+
 	// GUI
-	private boolean guiInited = false;
+	private JFrame frame;
 
 	/**
 	 * synchronization object: never synchronize on <code>this</code>, will
@@ -47,7 +55,8 @@ public abstract class GUIEffectsBase extends JFrame implements AudioEffect,
 
 	/** create a new instance of the Delay effect */
 	protected GUIEffectsBase(String name) {
-		super(name);
+		super();
+		this.shortName = name;
 	}
 
 	// --------------------------------- interface AudioEffect
@@ -86,9 +95,11 @@ public abstract class GUIEffectsBase extends JFrame implements AudioEffect,
 			// free references
 			this.track = null;
 			this.state = null;
-			guiInited = false;
 		}
-		dispose();
+		if (frame != null) {
+			frame.dispose();
+			frame = null;
+		}
 	}
 
 	/**
@@ -97,17 +108,38 @@ public abstract class GUIEffectsBase extends JFrame implements AudioEffect,
 	 */
 	public abstract void exitImpl();
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.mixblendr.audio.AudioEffect#getID()
+	 */
+	public int getID() {
+		return ID;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.mixblendr.audio.AudioEffect#setID(int)
+	 */
+	public void setID(int id) {
+		this.ID = id;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see com.mixblendr.audio.AudioEffect#getShortName()
 	 */
 	public String getShortName() {
-		return super.getTitle();
+		return shortName;
 	}
 
 	protected void setShortName(String shortName) {
-		super.setTitle(shortName);
+		this.shortName = shortName;
+		if (frame != null) {
+			frame.setTitle(shortName);
+		}
 	}
 
 	/*
@@ -134,10 +166,10 @@ public abstract class GUIEffectsBase extends JFrame implements AudioEffect,
 	 * @see com.mixblendr.audio.AudioEffect#showSettingsWindow()
 	 */
 	public void showSettingsWindow() {
-		if (!guiInited) {
+		if (frame == null) {
 			initGUI();
 		}
-		setVisible(true);
+		frame.setVisible(true);
 	}
 
 	/*
@@ -152,12 +184,12 @@ public abstract class GUIEffectsBase extends JFrame implements AudioEffect,
 	// --------------------------------- Settings Window
 
 	private void initGUI() {
+		frame = new JFrame(shortName);
 		JPanel main = new JPanel();
 		initGUI(main);
 		main.setOpaque(true); // content panes must be opaque
-		setContentPane(main);
-		pack();
-		guiInited = true;
+		frame.setContentPane(main);
+		frame.pack();
 	}
 
 	/**
@@ -257,6 +289,9 @@ public abstract class GUIEffectsBase extends JFrame implements AudioEffect,
 		}
 		element.setAttribute("Name", getShortName());
 		element.setAttribute("Class", getClass().getName());
+		if (ID > 0) {
+			element.setAttribute("ID", String.valueOf(ID));
+		}
 		return element;
 	}
 
@@ -269,10 +304,10 @@ public abstract class GUIEffectsBase extends JFrame implements AudioEffect,
 			throw new Exception("internal error: audio effect parser");
 		}
 		setShortName(element.getAttribute("Name"));
+		String val = element.getAttribute("ID");
+		if (val.length() > 0) {
+			setID(Integer.parseInt(val));
+		}
 	}
 
-
-	/* satisfy compiler */
-	private static final long serialVersionUID = 0;
-
 }
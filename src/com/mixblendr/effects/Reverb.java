@@ -0,0 +1,1365 @@
+/**
+ *
+ */
+package com.mixblendr.effects;
+
+import java.awt.Font;
+import java.awt.event.*;
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+import org.w3c.dom.Element;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.util.GUIUtils;
+import com.mixblendr.util.XmlPersistent;
+
+import static com.mixblendr.util.Debug.*;
+
+/**
+ * A convolution reverb: the input is convolved with an impulse response,
+ * either loaded from an audio file, or a synthetic one of exponentially
+ * decaying noise with the given decay time.
+ * <p>
+ * The convolution is done with uniformly partitioned overlap-save FFT
+ * convolution: the impulse response is split into partitions of
+ * PARTITION_SIZE samples, and the spectra of the last input blocks are kept
+ * in a frequency domain delay line. For each block, the audio thread only
+ * multiplies the newest input spectra with the first partitions, covering
+ * at least one slice and one block, adds the sum of all other partitions,
+ * and transforms the result back. That sum, the tail, only depends on input
+ * blocks which were complete at least one slice earlier, so it is calculated
+ * by a background thread while the audio thread processes the next slice.
+ * During playback, the audio thread never waits for the tail thread: if a
+ * tail is late, it is mixed into the first block after it is done. When
+ * playback is not started, e.g. when rendering to a file, late tails are
+ * calculated by the rendering thread, so that the result does not depend on
+ * timing.
+ * <p>
+ * Two channels are transformed at once as the real and imaginary part of one
+ * complex FFT. All FFT buffers and spectra are preallocated by the loader
+ * thread when the impulse response changes, so process() does not allocate.
+ * The wet signal is delayed by PARTITION_SIZE samples, which acts as a short
+ * pre-delay.
+ *
+ * @author Florian Bomers
+ */
+public class Reverb extends GUIEffectsBase implements XmlPersistent,
+		AudioEffectTail, AudioEffectReset, ActionListener {
+
+	private static final boolean DEBUG_REVERB = false;
+
+	/**
+	 * the size of the partitions of the impulse response in samples, and the
+	 * latency of the wet signal
+	 */
+	public static final int PARTITION_SIZE = 256;
+
+	/** the size of the FFT: one block of new input and one block of history */
+	private static final int FFT_SIZE = 2 * PARTITION_SIZE;
+
+	/** the number of bins of the spectrum of a real signal */
+	private static final int BIN_COUNT = PARTITION_SIZE + 1;
+
+	/**
+	 * the number of blocks the tail thread may be late before its tails are
+	 * dropped, in addition to the head partitions
+	 */
+	private static final int TAIL_SLACK = 4;
+
+	/** the decay time range of the synthetic impulse response */
+	public static final double MIN_DECAY_TIME_SECONDS = 0.1;
+	public static final double MAX_DECAY_TIME_SECONDS = 10.0;
+
+	/** impulse response files are truncated to this length */
+	private static final double MAX_IMPULSE_RESPONSE_SECONDS = 10.0;
+
+	/**
+	 * the energy (sum of squares) of each channel of the impulse response,
+	 * so that the wet signal has about -6dB of the input level, regardless of
+	 * the length or the level of the impulse response
+	 */
+	private static final double IMPULSE_RESPONSE_ENERGY = 0.25;
+
+	/** the noise seed of the synthetic impulse response */
+	private static final long SYNTHETIC_SEED = 0x5EED;
+
+	/** give up loading an impulse response file after this time */
+	private static final long LOAD_TIMEOUT_MILLIS = 30000;
+
+	/**
+	 * The parameters of the impulse response. Once published in the params
+	 * field, an instance is never modified: the setters create a modified
+	 * copy and replace the current instance atomically, so that process() can
+	 * pick up all changes at the beginning of an audio block without
+	 * synchronization.
+	 */
+	private static final class Params {
+		double decayTime;
+		/** the impulse response file, or null for the synthetic one */
+		URL impulseResponse;
+		/** incremented whenever the impulse response needs to be rebuilt */
+		int generation;
+		/** the generation of the last load attempt */
+		int loadedGeneration = -1;
+		/**
+		 * the convolution engine for the impulse response. It is created by
+		 * the loader thread, and null if the effect is not initialized.
+		 */
+		Convolver convolver;
+
+		Params() {
+			// nothing
+		}
+
+		Params(Params p) {
+			decayTime = p.decayTime;
+			impulseResponse = p.impulseResponse;
+			generation = p.generation;
+			loadedGeneration = p.loadedGeneration;
+			convolver = p.convolver;
+		}
+	}
+
+	/** the current parameters, never null */
+	private final AtomicReference<Params> params = new AtomicReference<Params>(
+			new Params());
+
+	/**
+	 * the balance, a volatile field of its own so that automation sets it
+	 * without allocating a new Params instance
+	 */
+	private volatile double balance;
+
+	/** true while the loader thread is running, guarded by lock */
+	private boolean loaderRunning;
+
+	/** the thread calculating the tails, null if not initialized */
+	private TailThread tailThread;
+
+	// runtime state, only accessed by process()
+	private Convolver convolver;
+
+	/** the number of input samples below SILENCE_LEVEL since the last louder one */
+	private int silentInputCount;
+
+	// smooth changes of the balance
+	private final static double SMOOTHING_MILLIS = 10.0;
+	private ParameterSmoother srcVolSmoother;
+	private ParameterSmoother wetVolSmoother;
+	/** if true, process() sets the smoothers to the parameters directly */
+	private boolean resetSmoothers;
+
+	// automation support
+	private static AutomationHandler balanceHandler = AutomationManager.getHandler(BalanceAutomation.class);
+
+	static {
+		AutomationManager.registerXML(BalanceAutomation.class, BalanceAutomation.XML_ELEMENT_NAME);
+	}
+
+	/** create a new instance of the Reverb effect */
+	public Reverb() {
+		super("Reverb");
+	}
+
+	/**
+	 * @return the balance [-1...0...+1]
+	 */
+	public double getBalance() {
+		return balance;
+	}
+
+	/**
+	 * @param balance the balance to set [-1...0...+1]
+	 */
+	public void setBalance(double balance) {
+		this.balance = balance;
+	}
+
+	/**
+	 * @return the decay time of the synthetic impulse response in seconds
+	 */
+	public double getDecayTime() {
+		return params.get().decayTime;
+	}
+
+	/**
+	 * Set the decay time of the synthetic impulse response, i.e. the time
+	 * until it decayed by 60dB. If no impulse response file is used, the
+	 * impulse response is rebuilt in the background.
+	 *
+	 * @param decayTime the decay time in seconds
+	 */
+	public void setDecayTime(double decayTime) {
+		if (decayTime < MIN_DECAY_TIME_SECONDS) {
+			decayTime = MIN_DECAY_TIME_SECONDS;
+		} else if (decayTime > MAX_DECAY_TIME_SECONDS) {
+			decayTime = MAX_DECAY_TIME_SECONDS;
+		}
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			if (p.decayTime == decayTime) {
+				return;
+			}
+			n = new Params(p);
+			n.decayTime = decayTime;
+			if (p.impulseResponse == null) {
+				n.generation++;
+			}
+		} while (!params.compareAndSet(p, n));
+		startLoader();
+	}
+
+	/**
+	 * @return the impulse response file, or null if the synthetic impulse
+	 *         response is used
+	 */
+	public URL getImpulseResponse() {
+		return params.get().impulseResponse;
+	}
+
+	/**
+	 * Set the impulse response file. It is loaded through the
+	 * AudioFileFactory in the background, and the effect continues with the
+	 * current impulse response until then. Impulse responses are truncated to
+	 * 10 seconds, resampled linearly to the sample rate of the engine, and
+	 * normalized.
+	 *
+	 * @param impulseResponse the impulse response file, or null to use the
+	 *            synthetic impulse response
+	 */
+	public void setImpulseResponse(URL impulseResponse) {
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.impulseResponse = impulseResponse;
+			n.generation++;
+		} while (!params.compareAndSet(p, n));
+		startLoader();
+	}
+
+	/**
+	 * @return true if the impulse response for the current parameters is
+	 *         built or loaded, or if loading it failed
+	 */
+	public boolean isImpulseResponseLoaded() {
+		Params p = params.get();
+		return p.loadedGeneration == p.generation;
+	}
+
+	// --------------------------------- impulse response loading
+
+	/**
+	 * Start the loader thread, unless it is running already. The loader
+	 * builds convolvers until one for the current generation is published,
+	 * so that fast parameter changes, e.g. from moving the decay slider, do
+	 * not start a thread for every change.
+	 */
+	private void startLoader() {
+		synchronized (lock) {
+			if (loaderRunning || state == null) {
+				return;
+			}
+			loaderRunning = true;
+		}
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				loadLoop();
+			}
+		}, "Reverb impulse response loader");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/** the loader thread's loop */
+	private void loadLoop() {
+		try {
+			while (true) {
+				Params p = params.get();
+				AudioState st = state;
+				if (st == null || p.loadedGeneration == p.generation) {
+					break;
+				}
+				Convolver cv = null;
+				try {
+					float[][] ir;
+					if (p.impulseResponse == null) {
+						ir = createSyntheticImpulseResponse(st, p.decayTime);
+					} else {
+						ir = loadImpulseResponse(st, p.impulseResponse,
+								p.generation);
+					}
+					if (ir != null) {
+						cv = new Convolver(ir, st.getChannels(),
+								st.getMaxSliceSizeSamples());
+					}
+				} catch (Throwable t) {
+					error(t);
+				}
+				// publish, unless the parameters changed in the meantime
+				Params c;
+				Params n;
+				do {
+					c = params.get();
+					if (c.generation != p.generation || state == null) {
+						break;
+					}
+					n = new Params(c);
+					n.loadedGeneration = p.generation;
+					if (cv != null) {
+						n.convolver = cv;
+					}
+				} while (!params.compareAndSet(c, n));
+				if (DEBUG_REVERB && cv != null) {
+					debug("Reverb: new impulse response with "
+							+ cv.partitionCount + " partitions");
+				}
+			}
+		} finally {
+			synchronized (lock) {
+				loaderRunning = false;
+			}
+		}
+		// a change after the last check of the loop
+		Params p = params.get();
+		if (p.loadedGeneration != p.generation) {
+			startLoader();
+		}
+	}
+
+	/**
+	 * Create a stereo impulse response of exponentially decaying noise, with
+	 * different noise in each channel.
+	 *
+	 * @return the impulse response [channel][sample]
+	 */
+	private static float[][] createSyntheticImpulseResponse(AudioState st,
+			double decayTime) {
+		int length = (int) (decayTime * st.getSampleRate());
+		// decay by 60dB over the length
+		double decayPerSample = Math.pow(0.001, 1.0 / length);
+		float[][] ir = new float[2][length];
+		for (int c = 0; c < ir.length; c++) {
+			Random random = new Random(SYNTHETIC_SEED + c);
+			float[] data = ir[c];
+			double gain = 1.0;
+			for (int i = 0; i < length; i++) {
+				data[i] = (float) ((random.nextDouble() * 2.0 - 1.0) * gain);
+				gain *= decayPerSample;
+			}
+		}
+		normalize(ir);
+		return ir;
+	}
+
+	/**
+	 * Load the impulse response file. Blocks until it is loaded, or until the
+	 * parameters change. The file is closed afterwards.
+	 *
+	 * @return the impulse response [channel][sample], or null on error or if
+	 *         the parameters changed
+	 */
+	private float[][] loadImpulseResponse(AudioState st, URL url,
+			int generation) throws Exception {
+		AudioFileFactory factory = st.getAudioFileFactory();
+		AudioFile af = factory.getAudioFile(url);
+		try {
+			return readImpulseResponse(st, af, url, generation);
+		} finally {
+			// the samples are copied, the file is not needed anymore
+			factory.closeAudioFile(af);
+		}
+	}
+
+	/**
+	 * Wait until the impulse response file is loaded and read it.
+	 *
+	 * @return the impulse response [channel][sample], or null on error or if
+	 *         the parameters changed
+	 */
+	private float[][] readImpulseResponse(AudioState st, AudioFile af,
+			URL url, int generation) throws Exception {
+		long timeout = System.currentTimeMillis() + LOAD_TIMEOUT_MILLIS;
+		while (!af.isFullyLoaded()) {
+			if (params.get().generation != generation || state == null) {
+				return null;
+			}
+			if (System.currentTimeMillis() > timeout) {
+				error("Reverb: timeout loading impulse response " + url);
+				return null;
+			}
+			Thread.sleep(20);
+		}
+		AudioFormat format = af.getFormat();
+		long duration = af.getDurationSamples();
+		if (format == null || duration <= 0) {
+			error("Reverb: cannot load impulse response " + url);
+			return null;
+		}
+		int length = (int) Math.min(duration, MAX_IMPULSE_RESPONSE_SECONDS
+				* format.getSampleRate());
+		float[][] ir = new float[format.getChannels()][length];
+		for (int c = 0; c < ir.length; c++) {
+			int pos = 0;
+			while (pos < length) {
+				int read = af.readChannelData(c, pos, ir[c], pos, length - pos);
+				if (read <= 0) {
+					break;
+				}
+				pos += read;
+			}
+		}
+		ir = resample(ir, format.getSampleRate(), st.getSampleRate());
+		normalize(ir);
+		return ir;
+	}
+
+	/**
+	 * Linear interpolation to another sample rate.
+	 *
+	 * @return the resampled impulse response, or ir if the sample rates are
+	 *         equal
+	 */
+	private static float[][] resample(float[][] ir, float srcRate,
+			float destRate) {
+		if (srcRate == destRate || srcRate <= 0) {
+			return ir;
+		}
+		int srcLength = ir[0].length;
+		double step = srcRate / (double) destRate;
+		int length = (int) (srcLength / step);
+		float[][] ret = new float[ir.length][length];
+		for (int c = 0; c < ir.length; c++) {
+			float[] src = ir[c];
+			float[] dest = ret[c];
+			for (int i = 0; i < length; i++) {
+				double pos = i * step;
+				int index = (int) pos;
+				float frac = (float) (pos - index);
+				float s1 = (index + 1 < srcLength) ? src[index + 1] : 0.0f;
+				dest[i] = src[index] + (s1 - src[index]) * frac;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Scale all channels so that the loudest channel has an energy of
+	 * IMPULSE_RESPONSE_ENERGY. The samples of the decayed end of an impulse
+	 * response file may be denormal, they are flushed to 0.
+	 */
+	private static void normalize(float[][] ir) {
+		double maxEnergy = 0.0;
+		for (int c = 0; c < ir.length; c++) {
+			double energy = 0.0;
+			for (float s : ir[c]) {
+				energy += s * s;
+			}
+			if (energy > maxEnergy) {
+				maxEnergy = energy;
+			}
+		}
+		if (maxEnergy > 0.0) {
+			float gain = (float) Math.sqrt(IMPULSE_RESPONSE_ENERGY / maxEnergy);
+			for (int c = 0; c < ir.length; c++) {
+				AudioKernels.gain(ir[c], 0, ir[c].length, gain);
+			}
+		}
+		for (int c = 0; c < ir.length; c++) {
+			Denormals.flush(ir[c], 0, ir[c].length);
+		}
+	}
+
+	// --------------------------------- convolution engine
+
+	/**
+	 * The partitioned convolution of one impulse response, with all buffers
+	 * needed for processing. The spectra of the impulse response partitions
+	 * are immutable, the other arrays are the processing state. Spectra are
+	 * stored as separate real and imaginary arrays of BIN_COUNT elements.
+	 * <p>
+	 * Blocks are numbered in the order they are forwarded. The audio thread
+	 * multiplies the first headCount partitions for each block itself. The
+	 * rest of the partitions, the tail, is calculated by the tail thread
+	 * ahead of time: the tail of block n only depends on the blocks up to
+	 * n-headCount. The tails are passed to the audio thread in a ring of
+	 * TAIL_SLACK + headCount slots, with the sequence numbers requestedSeq,
+	 * doneSeq, and mixedSeq, so that neither thread ever waits for the other.
+	 * A tail is claimed with claimedSeq before it is calculated, so that the
+	 * audio thread can calculate late tails, too.
+	 */
+	private static final class Convolver {
+		final FFT fft = new FFT(FFT_SIZE);
+		final int channels;
+		final int irChannels;
+		final int partitionCount;
+		/** the number of partitions multiplied by the audio thread */
+		final int headCount;
+		/** the spectra of the partitions [partition][irChannel][bin] */
+		final float[][][] kernelRe;
+		final float[][][] kernelIm;
+		/**
+		 * the frequency domain delay line [slot][channel][bin]. It has more
+		 * slots than partitions, so that a late tail thread can still read
+		 * the blocks it needs.
+		 */
+		final float[][][] fdlRe;
+		final float[][][] fdlIm;
+		/** the number of the newest block, only used by the audio thread */
+		long blockSeq = -1;
+		/** the sum of the spectra of the current block [channel][bin] */
+		final float[][] sumRe;
+		final float[][] sumIm;
+		/** the ring of the tails [slot][channel][bin] */
+		final float[][][] tailRe;
+		final float[][][] tailIm;
+		/** the tails up to this block are requested by the audio thread */
+		volatile long requestedSeq;
+		/** the tails up to this block are being calculated or done */
+		final AtomicLong claimedSeq;
+		/** the tails up to this block are calculated */
+		volatile long doneSeq;
+		/** the tails up to this block are mixed by the audio thread */
+		volatile long mixedSeq;
+		/** the input of the previous and the current block [channel][sample] */
+		final float[][] window;
+		/** the output of the last block [channel][sample] */
+		final float[][] wet;
+		/** the number of samples of the current block */
+		int blockPos;
+		// FFT buffers, only used by the audio thread
+		final float[] fftRe = new float[FFT_SIZE];
+		final float[] fftIm = new float[FFT_SIZE];
+
+		/**
+		 * Create the convolver and transform the partitions of the impulse
+		 * response.
+		 *
+		 * @param ir the impulse response [channel][sample]
+		 * @param channels the number of channels to process
+		 * @param maxSliceSize the maximum number of samples processed at once
+		 */
+		Convolver(float[][] ir, int channels, int maxSliceSize) {
+			this.channels = channels;
+			irChannels = ir.length;
+			int length = ir[0].length;
+			int count = (length + PARTITION_SIZE - 1) / PARTITION_SIZE;
+			if (count < 1) {
+				count = 1;
+			}
+			partitionCount = count;
+			// the tail of a block is requested at least one slice before it
+			// is needed
+			headCount = Math.min(count, (maxSliceSize + PARTITION_SIZE - 1)
+					/ PARTITION_SIZE + 1);
+			requestedSeq = headCount - 1;
+			claimedSeq = new AtomicLong(headCount - 1);
+			doneSeq = headCount - 1;
+			mixedSeq = headCount - 1;
+			kernelRe = new float[count][irChannels][BIN_COUNT];
+			kernelIm = new float[count][irChannels][BIN_COUNT];
+			for (int p = 0; p < count; p++) {
+				int start = p * PARTITION_SIZE;
+				int n = Math.min(PARTITION_SIZE, length - start);
+				for (int c = 0; c < irChannels; c++) {
+					// the partition in the first half, zeros in the second
+					Arrays.fill(fftRe, 0.0f);
+					Arrays.fill(fftIm, 0.0f);
+					if (n > 0) {
+						System.arraycopy(ir[c], start, fftRe, 0, n);
+					}
+					fft.forward(fftRe, fftIm);
+					System.arraycopy(fftRe, 0, kernelRe[p][c], 0, BIN_COUNT);
+					System.arraycopy(fftIm, 0, kernelIm[p][c], 0, BIN_COUNT);
+				}
+			}
+			int slots = count + TAIL_SLACK + headCount;
+			fdlRe = new float[slots][channels][BIN_COUNT];
+			fdlIm = new float[slots][channels][BIN_COUNT];
+			sumRe = new float[channels][BIN_COUNT];
+			sumIm = new float[channels][BIN_COUNT];
+			if (count > headCount) {
+				tailRe = new float[TAIL_SLACK + headCount][channels][BIN_COUNT];
+				tailIm = new float[TAIL_SLACK + headCount][channels][BIN_COUNT];
+			} else {
+				tailRe = null;
+				tailIm = null;
+			}
+			window = new float[channels][FFT_SIZE];
+			wet = new float[channels][PARTITION_SIZE];
+		}
+
+		/**
+		 * Create a convolver with silent state for the impulse response of
+		 * the given convolver. The transformed partitions are shared.
+		 *
+		 * @param cv the convolver with the impulse response
+		 */
+		Convolver(Convolver cv) {
+			channels = cv.channels;
+			irChannels = cv.irChannels;
+			partitionCount = cv.partitionCount;
+			headCount = cv.headCount;
+			requestedSeq = headCount - 1;
+			claimedSeq = new AtomicLong(headCount - 1);
+			doneSeq = headCount - 1;
+			mixedSeq = headCount - 1;
+			kernelRe = cv.kernelRe;
+			kernelIm = cv.kernelIm;
+			int slots = cv.fdlRe.length;
+			fdlRe = new float[slots][channels][BIN_COUNT];
+			fdlIm = new float[slots][channels][BIN_COUNT];
+			sumRe = new float[channels][BIN_COUNT];
+			sumIm = new float[channels][BIN_COUNT];
+			if (cv.hasTail()) {
+				tailRe = new float[cv.tailRe.length][channels][BIN_COUNT];
+				tailIm = new float[cv.tailIm.length][channels][BIN_COUNT];
+			} else {
+				tailRe = null;
+				tailIm = null;
+			}
+			window = new float[channels][FFT_SIZE];
+			wet = new float[channels][PARTITION_SIZE];
+		}
+
+		/** @return the slot of the block in the frequency domain delay line */
+		private int fdlSlot(long seq) {
+			int slot = (int) (seq % fdlRe.length);
+			return (slot < 0) ? slot + fdlRe.length : slot;
+		}
+
+		/** @return true if there are partitions for the tail thread */
+		boolean hasTail() {
+			return tailRe != null;
+		}
+
+		/**
+		 * Transform the window of the completed block to the next slot of the
+		 * frequency domain delay line, and move the block to the history half
+		 * of the window.
+		 */
+		void forwardBlock() {
+			final int slot = fdlSlot(blockSeq + 1);
+			final float[] re = fftRe;
+			final float[] im = fftIm;
+			for (int c = 0; c < channels; c += 2) {
+				boolean pair = (c + 1 < channels);
+				System.arraycopy(window[c], 0, re, 0, FFT_SIZE);
+				if (pair) {
+					System.arraycopy(window[c + 1], 0, im, 0, FFT_SIZE);
+				} else {
+					Arrays.fill(im, 0.0f);
+				}
+				fft.forward(re, im);
+				// separate the spectra of the two real signals:
+				// X0[k] = (Z[k] + conj(Z[N-k])) / 2
+				// X1[k] = (Z[k] - conj(Z[N-k])) / 2i
+				float[] x0r = fdlRe[slot][c];
+				float[] x0i = fdlIm[slot][c];
+				x0r[0] = re[0];
+				x0i[0] = 0.0f;
+				for (int k = 1; k < BIN_COUNT; k++) {
+					x0r[k] = 0.5f * (re[k] + re[FFT_SIZE - k]);
+					x0i[k] = 0.5f * (im[k] - im[FFT_SIZE - k]);
+				}
+				if (pair) {
+					float[] x1r = fdlRe[slot][c + 1];
+					float[] x1i = fdlIm[slot][c + 1];
+					x1r[0] = im[0];
+					x1i[0] = 0.0f;
+					for (int k = 1; k < BIN_COUNT; k++) {
+						x1r[k] = 0.5f * (im[k] + im[FFT_SIZE - k]);
+						x1i[k] = 0.5f * (re[FFT_SIZE - k] - re[k]);
+					}
+				}
+			}
+			for (int c = 0; c < channels; c++) {
+				System.arraycopy(window[c], PARTITION_SIZE, window[c], 0,
+						PARTITION_SIZE);
+			}
+			blockSeq++;
+		}
+
+		/**
+		 * Add all calculated tails up to the newest block, multiply the head
+		 * partitions with the newest input spectra, and transform the result
+		 * back to the wet buffers. A tail which is not calculated yet is
+		 * added to the first block after it is done.
+		 */
+		void inverseBlock() {
+			for (int c = 0; c < channels; c++) {
+				Arrays.fill(sumRe[c], 0.0f);
+				Arrays.fill(sumIm[c], 0.0f);
+			}
+			if (hasTail()) {
+				long last = Math.min(blockSeq, doneSeq);
+				long seq = mixedSeq;
+				while (seq < last) {
+					seq++;
+					int t = (int) (seq % tailRe.length);
+					for (int c = 0; c < channels; c++) {
+						AudioKernels.mix(tailRe[t][c], 0, sumRe[c], 0, BIN_COUNT);
+						AudioKernels.mix(tailIm[t][c], 0, sumIm[c], 0, BIN_COUNT);
+					}
+				}
+				mixedSeq = seq;
+			}
+			for (int p = 0; p < headCount; p++) {
+				multiplyAdd(p, blockSeq - p, sumRe, sumIm);
+			}
+			final float[] re = fftRe;
+			final float[] im = fftIm;
+			for (int c = 0; c < channels; c += 2) {
+				float[] y0r = sumRe[c];
+				float[] y0i = sumIm[c];
+				if (c + 1 < channels) {
+					// combine the spectra of the two real signals:
+					// Z[k] = Y0[k] + i*Y1[k], Z[N-k] = conj(Y0[k]) + i*conj(Y1[k])
+					float[] y1r = sumRe[c + 1];
+					float[] y1i = sumIm[c + 1];
+					for (int k = 0; k < BIN_COUNT; k++) {
+						re[k] = y0r[k] - y1i[k];
+						im[k] = y0i[k] + y1r[k];
+					}
+					for (int k = 1; k < PARTITION_SIZE; k++) {
+						re[FFT_SIZE - k] = y0r[k] + y1i[k];
+						im[FFT_SIZE - k] = y1r[k] - y0i[k];
+					}
+				} else {
+					for (int k = 0; k < BIN_COUNT; k++) {
+						re[k] = y0r[k];
+						im[k] = y0i[k];
+					}
+					for (int k = 1; k < PARTITION_SIZE; k++) {
+						re[FFT_SIZE - k] = y0r[k];
+						im[FFT_SIZE - k] = -y0i[k];
+					}
+				}
+				fft.inverse(re, im);
+				// overlap-save: only the second half is valid
+				System.arraycopy(re, PARTITION_SIZE, wet[c], 0, PARTITION_SIZE);
+				if (c + 1 < channels) {
+					System.arraycopy(im, PARTITION_SIZE, wet[c + 1], 0,
+							PARTITION_SIZE);
+				}
+			}
+		}
+
+		/** request the tail which needs the newest block as latest input */
+		void requestTail() {
+			requestedSeq = blockSeq + headCount;
+		}
+
+		/**
+		 * Multiply the spectra of a block with a partition and add them to
+		 * the sum. Blocks before the first block are silent.
+		 */
+		private void multiplyAdd(int partition, long seq, float[][] sr,
+				float[][] si) {
+			if (seq < 0) {
+				return;
+			}
+			final int slot = fdlSlot(seq);
+			for (int c = 0; c < channels; c++) {
+				final float[] xr = fdlRe[slot][c];
+				final float[] xi = fdlIm[slot][c];
+				final float[] hr = kernelRe[partition][c % irChannels];
+				final float[] hi = kernelIm[partition][c % irChannels];
+				final float[] yr = sr[c];
+				final float[] yi = si[c];
+				for (int k = 0; k < BIN_COUNT; k++) {
+					yr[k] += xr[k] * hr[k] - xi[k] * hi[k];
+					yi[k] += xr[k] * hi[k] + xi[k] * hr[k];
+				}
+			}
+		}
+
+		/**
+		 * @return true if the slots of the blocks needed for the tail of block
+		 *         seq are not overwritten by the audio thread yet
+		 */
+		private boolean isTailInputValid(long seq) {
+			// the audio thread may be writing the block after the newest
+			long writing = requestedSeq - headCount + 1;
+			return writing - (seq - partitionCount + 1) < fdlRe.length;
+		}
+
+		/**
+		 * Calculate the next requested tail, unless its slot in the ring is
+		 * not mixed yet, or unless the other thread is calculating it.
+		 *
+		 * @return false if there is nothing to do
+		 */
+		boolean computeNextTail() {
+			final long seq = doneSeq + 1;
+			if (seq > requestedSeq || seq - tailRe.length > mixedSeq
+					|| !claimedSeq.compareAndSet(seq - 1, seq)) {
+				return false;
+			}
+			final int t = (int) (seq % tailRe.length);
+			final float[][] tr = tailRe[t];
+			final float[][] ti = tailIm[t];
+			for (int c = 0; c < channels; c++) {
+				Arrays.fill(tr[c], 0.0f);
+				Arrays.fill(ti[c], 0.0f);
+			}
+			if (isTailInputValid(seq)) {
+				for (int p = headCount; p < partitionCount; p++) {
+					multiplyAdd(p, seq - p, tr, ti);
+				}
+				if (!isTailInputValid(seq)) {
+					// the tail thread was so late that the audio thread
+					// overwrote the input: drop this tail
+					for (int c = 0; c < channels; c++) {
+						Arrays.fill(tr[c], 0.0f);
+						Arrays.fill(ti[c], 0.0f);
+					}
+				}
+			}
+			doneSeq = seq;
+			return true;
+		}
+
+		/**
+		 * Calculate the tails up to the newest block which are not done yet.
+		 * Only used when not playing in real time: if the tail thread is
+		 * calculating one of them, this method waits for it.
+		 */
+		void completeTails() {
+			while (doneSeq < blockSeq) {
+				if (!computeNextTail()) {
+					Thread.yield();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The background thread calculating the tails of the convolution ahead of
+	 * the audio thread. It never blocks the audio thread: it is woken up with
+	 * LockSupport.unpark() for every new block, and publishes the tails
+	 * through the sequence numbers of the convolver.
+	 */
+	private static final class TailThread extends Thread {
+		private volatile boolean stopRequested = false;
+		/** the convolver used by the audio thread */
+		volatile Convolver convolver;
+
+		TailThread() {
+			super("Reverb tail");
+			setDaemon(true);
+			setPriority(Thread.MAX_PRIORITY);
+			start();
+		}
+
+		/** stop the thread */
+		void doStop() {
+			stopRequested = true;
+			LockSupport.unpark(this);
+		}
+
+		@Override
+		public void run() {
+			while (!stopRequested) {
+				Convolver cv = convolver;
+				if (cv == null || !cv.hasTail() || !cv.computeNextTail()) {
+					LockSupport.park();
+				}
+			}
+		}
+	}
+
+	// --------------------------------- AudioEffect methods
+
+	@Override
+	public void initImpl() {
+		if (state == null) return;
+		if (srcVolSmoother == null) {
+			srcVolSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
+			wetVolSmoother = new ParameterSmoother(
+					ParameterSmoother.Mode.ONE_POLE, state.getSampleRate(),
+					SMOOTHING_MILLIS, 0.0f);
+		}
+		resetSmoothers = true;
+		if (tailThread == null) {
+			tailThread = new TailThread();
+		}
+		// default values, starts building the impulse response
+		setBalance(0.0);
+		setDecayTime(2.0);
+		Params p = params.get();
+		if (p.loadedGeneration != p.generation) {
+			startLoader();
+		}
+	}
+
+	@Override
+	public void exitImpl() {
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			n = new Params(p);
+			n.convolver = null;
+			// rebuild on the next init
+			n.loadedGeneration = -1;
+		} while (!params.compareAndSet(p, n));
+		if (tailThread != null) {
+			tailThread.doStop();
+			tailThread = null;
+		}
+	}
+
+	/**
+	 * The tail is silent if the input was silent for long enough to flush
+	 * the input window and the entire frequency domain delay line.
+	 *
+	 * @see com.mixblendr.audio.AudioEffectTail#isTailSilent()
+	 */
+	public boolean isTailSilent() {
+		Convolver cv = this.convolver;
+		return cv == null
+				|| silentInputCount >= (cv.partitionCount + 2) * PARTITION_SIZE;
+	}
+
+	/**
+	 * Replace the convolver with a silent one for the same impulse response.
+	 * The tail thread may still be working on the old one, so it is not
+	 * cleared.
+	 * 
+	 * @see com.mixblendr.audio.AudioEffectReset#reset()
+	 */
+	public void reset() {
+		Params p;
+		Params n;
+		do {
+			p = params.get();
+			if (p.convolver == null) {
+				return;
+			}
+			n = new Params(p);
+			n.convolver = new Convolver(p.convolver);
+		} while (!params.compareAndSet(p, n));
+		resetSmoothers = true;
+	}
+
+	/**
+	 * Finish a block: transform it, calculate the output of the next block
+	 * with the tails done so far, and request the next tail. If playback is
+	 * not started, the missing tails are calculated first.
+	 */
+	private void finishBlock(Convolver cv, TailThread tt) {
+		cv.forwardBlock();
+		if (!cv.hasTail()) {
+			cv.inverseBlock();
+			return;
+		}
+		if (tt == null || !state.isStarted()) {
+			cv.completeTails();
+		}
+		cv.inverseBlock();
+		cv.requestTail();
+		if (tt != null) {
+			LockSupport.unpark(tt);
+		}
+	}
+
+	/**
+	 * Feed the input to the convolver, and mix the wet signal of the last
+	 * block with the input. Parameter changes are picked up at the beginning
+	 * of the block.
+	 */
+	@Override
+	public boolean process(long samplePos, FloatSampleBuffer buffer,
+			int offset, int sampleCount) {
+		Params p = params.get();
+		// sanity
+		if (p.convolver == null || sampleCount == 0) return false;
+		TailThread tt = tailThread;
+		if (p.convolver != convolver) {
+			convolver = p.convolver;
+			silentInputCount = 0;
+		}
+		Convolver cv = convolver;
+		if (tt != null && tt.convolver != cv) {
+			// an old convolver is not used by the audio thread anymore, so
+			// it does not matter if the tail thread is still working on it
+			tt.convolver = cv;
+		}
+		double balance = this.balance;
+		double srcVol;
+		double wetVol;
+		if (balance < 0) {
+			srcVol = 1.0;
+			wetVol = (1 + balance);
+		} else {
+			srcVol = 1 - balance;
+			wetVol = 1.0;
+		}
+		srcVolSmoother.setTarget((float) srcVol);
+		wetVolSmoother.setTarget((float) wetVol);
+		if (resetSmoothers) {
+			resetSmoothers = false;
+			srcVolSmoother.setValue(srcVolSmoother.getTarget());
+			wetVolSmoother.setValue(wetVolSmoother.getTarget());
+		}
+		float[] srcVols = srcVolSmoother.process(sampleCount);
+		float[] wetVols = wetVolSmoother.process(sampleCount);
+		int channels = Math.min(buffer.getChannelCount(), cv.channels);
+		float maxInput = 0.0f;
+		int done = 0;
+		while (done < sampleCount) {
+			int blockPos = cv.blockPos;
+			int n = Math.min(sampleCount - done, PARTITION_SIZE - blockPos);
+			for (int c = 0; c < channels; c++) {
+				float[] inout = buffer.getChannel(c);
+				float[] wet = cv.wet[c];
+				int ioOffset = offset + done;
+				float peak = AudioKernels.peak(inout, ioOffset, n);
+				if (peak > maxInput) {
+					maxInput = peak;
+				}
+				System.arraycopy(inout, ioOffset, cv.window[c], PARTITION_SIZE
+						+ blockPos, n);
+				for (int i = 0; i < n; i++) {
+					inout[ioOffset + i] = inout[ioOffset + i]
+							* srcVols[done + i] + wet[blockPos + i]
+							* wetVols[done + i];
+				}
+			}
+			done += n;
+			blockPos += n;
+			if (blockPos == PARTITION_SIZE) {
+				finishBlock(cv, tt);
+				blockPos = 0;
+			}
+			cv.blockPos = blockPos;
+		}
+		// track the decay of the tail
+		if (maxInput > AudioEffectTail.SILENCE_LEVEL) {
+			silentInputCount = 0;
+		} else if (silentInputCount < (cv.partitionCount + 2) * PARTITION_SIZE) {
+			silentInputCount += sampleCount;
+		}
+		return true;
+	}
+
+	// --------------------------------- GUI stuff
+
+	private SliderStrip sDecayTime;
+	private SliderStrip sBalance;
+	private JLabel lImpulseResponse;
+	private JButton bLoad;
+	private JButton bSynthetic;
+	private boolean guiInited = false;
+
+	/**
+	 * if this flag is non-zero, controls are currently set programmatically
+	 * rather than from user interaction
+	 */
+	private int noUpdate = 0;
+
+	@Override
+	protected void initGUI(JPanel main) {
+		main.setLayout(new BoxLayout(main, BoxLayout.PAGE_AXIS));
+		main.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+
+		// Title
+		JLabel title = GUIUtils.createLabel("Reverb Effect",
+				SwingConstants.CENTER);
+		title.setFont(title.getFont().deriveFont(Font.BOLD));
+		main.add(title);
+		main.add(new JSeparator(SwingConstants.HORIZONTAL));
+
+		// impulse response
+		JPanel irPanel = new JPanel();
+		irPanel.setBorder(BorderFactory.createEmptyBorder(5, 0, 0, 0));
+		irPanel.setLayout(new BoxLayout(irPanel, BoxLayout.LINE_AXIS));
+		irPanel.add(GUIUtils.createLabel("Impulse:", SwingConstants.LEFT,
+				STRIP_LEFT_LABEL_WIDTH));
+		irPanel.add((lImpulseResponse = GUIUtils.createLabel("",
+				SwingConstants.LEFT)));
+		irPanel.add(Box.createHorizontalGlue());
+		irPanel.add((bLoad = GUIUtils.createButton("Load...", this)));
+		irPanel.add((bSynthetic = GUIUtils.createButton("Synthetic", this)));
+		main.add(irPanel);
+
+		// slider for Decay Time (1/10 seconds) and Balance
+		main.add((sDecayTime = new SliderStrip("Decay:",
+				(int) (MIN_DECAY_TIME_SECONDS * 10),
+				(int) (MAX_DECAY_TIME_SECONDS * 10), 20, "short", "long")));
+		main.add((sBalance = new SliderStrip("Balance:", -100, 100, 0, "dry",
+				"wet")));
+
+		guiInited = true;
+
+		// init labels
+		updateGUIImpulseResponse();
+		updateGUIDecayTime();
+		updateGUIDecayTimeLabel();
+		updateGUIBalance();
+		updateGUIBalanceLabel();
+	}
+
+	/** update the GUI with the current impulse response */
+	protected void updateGUIImpulseResponse() {
+		if (!guiInited) return;
+		URL url = getImpulseResponse();
+		if (url == null) {
+			lImpulseResponse.setText("synthetic");
+		} else {
+			String name = url.getPath();
+			name = name.substring(name.lastIndexOf('/') + 1);
+			lImpulseResponse.setText(name);
+		}
+		// the decay time only applies to the synthetic impulse response
+		sDecayTime.slider.setEnabled(url == null);
+		bSynthetic.setEnabled(url != null);
+	}
+
+	/** update the GUI with the current decay time */
+	protected void updateGUIDecayTime() {
+		if (!guiInited) return;
+		// will cause change event and update the label
+		noUpdate++;
+		try {
+			sDecayTime.slider.setValue((int) Math.round(getDecayTime() * 10.0));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/**
+	 * read the current value from the slider and set the internal value
+	 * accordingly
+	 */
+	protected void updateDecayTimeFromGUI() {
+		if (!guiInited) return;
+		setDecayTime(sDecayTime.slider.getValue() / 10.0);
+	}
+
+	/** update the label of the with the current decay time */
+	private void updateGUIDecayTimeLabel() {
+		if (!guiInited) return;
+		int value = sDecayTime.slider.getValue();
+		sDecayTime.label.setText((value / 10) + "." + (value % 10) + " s");
+	}
+
+	/** update the GUI with the current balance */
+	protected void updateGUIBalance() {
+		if (!guiInited) return;
+		// will cause change event and update the label
+		noUpdate++;
+		try {
+			sBalance.slider.setValue((int) (getBalance() * 100.0));
+		} finally {
+			noUpdate--;
+		}
+	}
+
+	/**
+	 * read the current value from the slider and set the internal value
+	 * accordingly
+	 */
+	protected void updateBalanceFromGUI() {
+		if (!guiInited) return;
+		int index = sBalance.slider.getValue();
+		setBalance(index / 100.0);
+	}
+
+	/** update the label of the with the current balance */
+	private void updateGUIBalanceLabel() {
+		if (!guiInited) return;
+		sBalance.label.setText(Integer.toString(sBalance.slider.getValue())
+				+ " %");
+	}
+
+	// --------------------------------- interface ActionListener
+
+	/** called when the user clicks on one of the impulse response buttons */
+	public void actionPerformed(ActionEvent e) {
+		if (e.getSource() == bLoad) {
+			JFileChooser fc = new JFileChooser();
+			if (fc.showOpenDialog(bLoad) == JFileChooser.APPROVE_OPTION) {
+				File file = fc.getSelectedFile();
+				try {
+					setImpulseResponse(file.toURI().toURL());
+				} catch (Exception ex) {
+					error(ex);
+				}
+			}
+		} else if (e.getSource() == bSynthetic) {
+			setImpulseResponse(null);
+		}
+		updateGUIImpulseResponse();
+	}
+
+	// --------------------------------- interface MouseListener
+
+	/**
+	 * if automation is currently enabled, add an appropriate automation event,
+	 * depending on the given GUI control
+	 */
+	private void addAutomationEvent(Object src) {
+		if ((track != null) && track.isAutomationEnabled()) {
+			if (src == sBalance.slider) {
+				track.addAutomationObject(new BalanceAutomation(this));
+			}
+		}
+	}
+
+	/** set tracking for the selected GUI object on or off. */
+	private void setTracking(Object src, boolean on) {
+		if (src == sBalance.slider) {
+			balanceHandler.setTracking(track, on);
+			if (DEBUG_REVERB) debug("Balance tracking: " + on);
+			// add initial automation state
+			if (on) {
+				addAutomationEvent(src);
+			}
+		}
+	}
+
+	/**
+	 * called when the user clicks on a slider. In response, notify the engine
+	 * that we're tracking this automation object.
+	 */
+	@Override
+	public void mousePressed(MouseEvent e) {
+		setTracking(e.getSource(), true);
+	}
+
+	/**
+	 * called when the user releases the mouse button from a slider. Notify the
+	 * engine that we're not tracking this automation object anymore.
+	 */
+	@Override
+	public void mouseReleased(MouseEvent e) {
+		setTracking(e.getSource(), false);
+	}
+
+	// ----------------------------------------- interface ChangeListener
+
+	/**
+	 * Called when the user or the implementation moves a slider. Update the
+	 * slider labels. If not currently set by the implementation, update the
+	 * internal value. If automation is active, create an automation object and
+	 * add it to the track. The decay time is not automated, because changing
+	 * it rebuilds the impulse response.
+	 */
+	@Override
+	public void stateChanged(ChangeEvent e) {
+		Object src = e.getSource();
+		if (src == sDecayTime.slider) {
+			if (noUpdate == 0) {
+				updateDecayTimeFromGUI();
+			}
+			updateGUIDecayTimeLabel();
+		} else if (src == sBalance.slider) {
+			if (noUpdate == 0) {
+				updateBalanceFromGUI();
+			}
+			updateGUIBalanceLabel();
+		}
+		if (noUpdate == 0) {
+			addAutomationEvent(src);
+		}
+	}
+
+	// PERSISTENCE
+
+	@Override
+	public Element xmlExport(Element element) {
+		element = super.xmlExport(element);
+		Params p = params.get();
+		element.setAttribute("DecayTime", String.valueOf(p.decayTime));
+		element.setAttribute("Balance", String.valueOf(balance));
+		if (p.impulseResponse != null) {
+			element.setAttribute("ImpulseResponse",
+					p.impulseResponse.toString());
+		}
+		return element;
+	}
+
+	@Override
+	public void xmlImport(Element element) throws Exception {
+		super.xmlImport(element);
+		String val = element.getAttribute("DecayTime");
+		if (val.length() > 0) {
+			setDecayTime(Double.parseDouble(val));
+		}
+		val = element.getAttribute("Balance");
+		if (val.length() > 0) {
+			setBalance(Double.parseDouble(val));
+		}
+		val = element.getAttribute("ImpulseResponse");
+		if (val.length() > 0) {
+			setImpulseResponse(new URL(val));
+		}
+	}
+
+	// ----------------------------------------- AUTOMATION
+
+	/** the automation object to record a change in balance */
+	public static class BalanceAutomation extends
+			AutomationObjectEffect<Reverb> {
+		public static final String XML_ELEMENT_NAME = "ReverbBalance";
+
+		/**
+		 * Create an instance with default values, should only be used before
+		 * xml import.
+		 */
+		public BalanceAutomation() {
+			super(Reverb.class, null, XML_ELEMENT_NAME, 0, 0.0);
+		}
+
+		/**
+		 * Create a balance automation object capturing the current playback
+		 * time and the current balance.
+		 */
+		public BalanceAutomation(Reverb target) {
+			super(Reverb.class, target.state, XML_ELEMENT_NAME,
+					target.state.getSamplePosition(), target.getBalance());
+			setTarget(target);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see
+		 * com.mixblendr.audio.AutomationObject#executeImpl(com.mixblendr.audio
+		 * .AudioTrack)
+		 */
+		@Override
+		protected void executeImpl(AudioTrack aTrack) {
+			Reverb target = getTarget(aTrack);
+			if (target == null || target.state == null) return;
+			target.setBalance(value);
+			target.updateGUIBalance();
+		}
+
+		/**
+		 * @return a string representation of this object (mainly for debugging
+		 *         purposes)
+		 */
+		@Override
+		public String toString() {
+			return super.toString() + ", balance=" + value;
+		}
+	}
+}
@@ -14,7 +14,10 @@ import com.mixblendr.audio.AudioEffect;
 import com.mixblendr.audio.AudioTrack;
 import com.mixblendr.effects.Delay;
 import com.mixblendr.effects.Delay2;
+import com.mixblendr.effects.Dynamics;
+import com.mixblendr.effects.Equalizer;
 import com.mixblendr.effects.Flanger;
+import com.mixblendr.effects.Reverb;
 import com.mixblendr.util.Debug;
 
 /**
@@ -28,7 +31,8 @@ class EffectManager {
 	public static final String EFFECT_NONE = "<no effect>";
 
 	public static final Class[] EFFECT_CLASSES = {
-			Delay.class, Flanger.class, Delay2.class
+			Delay.class, Flanger.class, Delay2.class, Reverb.class,
+			Equalizer.class, Dynamics.class
 	};
 
 	private static List<String> effectNames = null;
@@ -38,6 +38,7 @@ class Performance {
 		// and some more needed for automation object loading from xml
 		preload("com.mixblendr.audio.AudioRegion");
 		preload("com.mixblendr.automation.AutomationPan");
+		preload("com.mixblendr.automation.AutomationSend");
 		preload("com.mixblendr.automation.AutomationVolume");
 	}
 
@@ -0,0 +1,293 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.util.Debug;
+import com.mixblendr.util.FatalExceptionListener;
+
+/**
+ * Verifies that the steady-state render path does not allocate memory: a
+ * project is generated with ProjectGenerator, loaded, and rendered in the
+ * current thread the same way as the audio output thread does it, i.e.
+ * AudioMixer.read() followed by the conversion to the device format. After
+ * warming up, the allocated bytes of the rendering thread are measured with
+ * the ThreadMXBean while rendering a number of seconds of audio, but at least
+ * the entire project. Looping over the entire project is enabled, so that the
+ * position changes and cross-fades at the loop point are part of the measured
+ * path, too. With -vary, the slice size changes with every slice, like in
+ * adaptive latency mode.
+ * <p>
+ * When the JIT compiler compiles a method of a class with full optimization
+ * for the first time, it resolves the string constants of the class in the
+ * rendering thread, which is counted as allocation. This happens after a
+ * couple of thousand invocations, i.e. for the automation objects, which are
+ * executed only a few hundred times per pass, long after the first pass. So
+ * the warm-up loops over the project until the objects of every automation
+ * class have been executed at least JIT_EXECUTIONS times.
+ * <p>
+ * The exit code is 1 if anything was allocated while measuring.
+ * <p>
+ * Usage: AllocationCheck [-render seconds] [-warmup seconds] [-vary]
+ * [generator options]
+ *
+ * @author Florian Bomers
+ */
+public class AllocationCheck implements FatalExceptionListener {
+
+	/** default number of seconds of audio to render while measuring */
+	public static final double DEFAULT_RENDER_SECONDS = 60;
+
+	/**
+	 * default minimum warm-up time in seconds of wall clock time. The VM may
+	 * allocate when code is executed for the first time, e.g. for linking, or
+	 * when a rarely taken branch is compiled, so the warm-up should be long
+	 * enough to pass the loop point a couple of times.
+	 */
+	public static final double DEFAULT_WARMUP_SECONDS = 10;
+
+	private double renderSeconds = DEFAULT_RENDER_SECONDS;
+
+	private double warmupSeconds = DEFAULT_WARMUP_SECONDS;
+
+	/** if true, vary the slice size while measuring */
+	private boolean vary = false;
+
+	/** the number of different slice sizes with -vary */
+	private static final int VARY_STEPS = 4;
+
+	/**
+	 * the number of executions of an automation class during warm-up. The
+	 * server compiler of HotSpot compiles a method after about 5000
+	 * invocations.
+	 */
+	private static final int JIT_EXECUTIONS = 8000;
+
+	/** the number of rendered slices, for varying the slice size */
+	private int slice;
+
+	private int maxSliceSize;
+
+	private com.sun.management.ThreadMXBean threadBean;
+
+	private AudioPlayer player;
+
+	private AudioMixer mixer;
+
+	private FloatSampleBuffer buffer;
+
+	private PcmConverter converter;
+
+	private byte[] bytes;
+
+	/**
+	 * Create the allocation check.
+	 *
+	 * @throws Exception if the allocated bytes cannot be measured in this VM
+	 */
+	public AllocationCheck() throws Exception {
+		java.lang.management.ThreadMXBean tb = ManagementFactory.getThreadMXBean();
+		if (!(tb instanceof com.sun.management.ThreadMXBean)) {
+			throw new Exception("measuring allocated bytes is not supported");
+		}
+		threadBean = (com.sun.management.ThreadMXBean) tb;
+		if (!threadBean.isThreadAllocatedMemorySupported()) {
+			throw new Exception("measuring allocated bytes is not supported");
+		}
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	/**
+	 * Load the project and measure the allocations while rendering.
+	 *
+	 * @param projectFile the project to render
+	 * @return the number of bytes allocated while measuring
+	 * @throws Exception on error
+	 */
+	public long check(File projectFile) throws Exception {
+		player = new AudioPlayer(this);
+		player.init();
+		try {
+			mixer = player.getMixer();
+			mixer.xmlImport(projectFile);
+			for (int i = 0; i < mixer.getTrackCount(); i++) {
+				for (AudioRegion region : mixer.getTrack(i).getPlaylist().getAudioRegions()) {
+					if (region.getAudioFile() != null) {
+						AudioBenchmarks.waitForLoaded(region.getAudioFile());
+					}
+				}
+			}
+			AudioState state = player.getState();
+			long durationSamples = mixer.getDurationSamples();
+			maxSliceSize = state.getMaxSliceSizeSamples();
+			buffer = new FloatSampleBuffer(state.getChannels(), maxSliceSize,
+					state.getSampleRate());
+			buffer.changeSampleCount(state.getSliceSizeSamples(), false);
+			converter = new PcmConverter(new AudioFormat(
+					state.getSampleRate(), 16, state.getChannels(), true,
+					false));
+			bytes = new byte[converter.getByteCount(maxSliceSize)];
+			player.setLoopSamples(0, durationSamples);
+			player.setLoopEnabled(true);
+			player.setPositionSamples(0);
+
+			AudioBenchmarks.waitForReverbs(mixer);
+
+			// warm up: render the entire project at least once, and often
+			// enough for the JIT compiler to compile the automation objects
+			long threadID = Thread.currentThread().getId();
+			threadBean.getThreadAllocatedBytes(threadID);
+			long warmupEnd = System.nanoTime()
+					+ (long) (warmupSeconds * 1000000000.0);
+			long warmupSamples = getWarmupPasses() * durationSamples;
+			long rendered = 0;
+			while (rendered < warmupSamples || System.nanoTime() < warmupEnd) {
+				rendered += renderSlice();
+			}
+
+			// measure
+			long sampleCount = Math.max(durationSamples,
+					(long) (renderSeconds * state.getSampleRate()));
+			long allocStart = threadBean.getThreadAllocatedBytes(threadID);
+			rendered = 0;
+			while (rendered < sampleCount) {
+				rendered += renderSlice();
+			}
+			long allocEnd = threadBean.getThreadAllocatedBytes(threadID);
+			return allocEnd - allocStart;
+		} finally {
+			player.close();
+			player = null;
+		}
+	}
+
+	/**
+	 * Calculate the number of passes over the project for warming up, so that
+	 * the objects of every automation class are executed at least
+	 * JIT_EXECUTIONS times.
+	 *
+	 * @return the number of passes, at least 1
+	 */
+	private long getWarmupPasses() {
+		Map<Class<?>, Integer> counts = new HashMap<Class<?>, Integer>();
+		for (int i = 0; i < mixer.getTrackCount(); i++) {
+			Playlist playlist = mixer.getTrack(i).getPlaylist();
+			for (int o = 0; o < playlist.getObjectCount(); o++) {
+				AutomationObject ao = playlist.getObject(o);
+				// regions are executed, too, but they are hot otherwise
+				if (ao instanceof AudioRegion) {
+					continue;
+				}
+				Integer count = counts.get(ao.getClass());
+				counts.put(ao.getClass(), (count == null) ? 1 : count + 1);
+			}
+		}
+		long passes = 1;
+		for (int count : counts.values()) {
+			passes = Math.max(passes, (JIT_EXECUTIONS + count - 1) / count);
+		}
+		return passes;
+	}
+
+	/**
+	 * Render one slice like the audio output thread.
+	 *
+	 * @return the number of rendered samples
+	 */
+	private int renderSlice() {
+		if (vary) {
+			// from the maximum slice size down to a quarter of it
+			buffer.changeSampleCount(maxSliceSize - (slice % VARY_STEPS)
+					* maxSliceSize / VARY_STEPS, false);
+			slice++;
+		}
+		mixer.read(buffer);
+		converter.convert(buffer, bytes, 0);
+		return buffer.getSampleCount();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.util.FatalExceptionListener#fatalExceptionOccured(java.lang.Throwable,
+	 *      java.lang.String)
+	 */
+	public void fatalExceptionOccured(Throwable t, String context) {
+		Debug.error(context);
+		Debug.error(t);
+	}
+
+	/**
+	 * Run the allocation check.
+	 */
+	public static void main(String[] args) {
+		Debug.DEBUG = false;
+		ProjectGenerator gen = new ProjectGenerator();
+		gen.setSourceCount(2);
+		AllocationCheck check = null;
+		try {
+			check = new AllocationCheck();
+			int i = 0;
+			while (i < args.length) {
+				int next = gen.parseOption(args, i);
+				if (next >= 0) {
+					i = next;
+					continue;
+				}
+				String opt = args[i];
+				if (opt.equals("-vary")) {
+					check.vary = true;
+					i++;
+					continue;
+				}
+				String val = args[i + 1];
+				if (opt.equals("-render")) {
+					check.renderSeconds = Double.parseDouble(val);
+				} else if (opt.equals("-warmup")) {
+					check.warmupSeconds = Double.parseDouble(val);
+				} else {
+					throw new IllegalArgumentException(opt);
+				}
+				i += 2;
+			}
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			System.out.println("Usage: AllocationCheck [-render seconds] "
+					+ "[-warmup seconds] [-vary] "
+					+ ProjectGenerator.OPTIONS_USAGE);
+			System.exit(1);
+		}
+		int exitCode = 0;
+		try {
+			File dir = File.createTempFile("mixblendr-alloc", "");
+			dir.delete();
+			dir.mkdirs();
+			dir.deleteOnExit();
+			File projectFile = new File(dir, gen.getDescription()
+					+ ProjectGenerator.PROJECT_EXTENSION);
+			gen.generate(projectFile);
+			long allocated = check.check(projectFile);
+			System.out.println(gen.getDescription() + ": rendering at least "
+					+ check.renderSeconds + "s allocated " + allocated
+					+ " bytes");
+			if (allocated > 0) {
+				System.out.println("FAILED: the render path allocates memory");
+				exitCode = 1;
+			}
+		} catch (Throwable t) {
+			Debug.error(t);
+			exitCode = 1;
+		}
+		System.exit(exitCode);
+	}
+}
@@ -0,0 +1,970 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.automation.AutomationPan;
+import com.mixblendr.automation.AutomationVolume;
+import com.mixblendr.effects.Delay;
+import com.mixblendr.effects.Delay2;
+import com.mixblendr.effects.Dynamics;
+import com.mixblendr.effects.Equalizer;
+import com.mixblendr.effects.Flanger;
+import com.mixblendr.effects.Reverb;
+import com.mixblendr.util.Debug;
+import com.mixblendr.util.FatalExceptionListener;
+
+/**
+ * Micro benchmarks for the hot paths of the audio engine: mixing, playlist
+ * reading with automation, reading audio files, peak cache calculation, the
+ * effects, conversion to the output format, and Vorbis encoding. All
+ * benchmarks run on synthetic audio files and do not need a sound card or a
+ * display, the audio device is never started.
+ * <p>
+ * Usage: AudioBenchmarks [-w warmupMillis] [-i iterations] [-t
+ * iterationMillis] [name filter ...]
+ *
+ * @author Florian Bomers
+ */
+public class AudioBenchmarks implements FatalExceptionListener {
+
+	/** the duration of the synthetic audio files in seconds */
+	private static final double FILE_SECONDS = 10;
+
+	/** the number of samples between two automation objects */
+	private static final int AUTOMATION_INTERVAL = 64;
+
+	/** the names of the kernels compared by KernelBenchmark */
+	private static final String[] KERNEL_NAMES = {
+			"gain", "gainRamp", "mix", "fade", "peak"
+	};
+
+	private AudioPlayer player;
+
+	private AudioState state;
+
+	private File waveFile;
+
+	private AudioFile audioFile;
+
+	/**
+	 * Create the player and the synthetic audio file.
+	 */
+	private AudioBenchmarks() throws Exception {
+		Debug.DEBUG = false;
+		player = new AudioPlayer(this);
+		player.init();
+		state = player.getState();
+		waveFile = SyntheticAudio.createTempWaveFile(state.getChannels(),
+				state.getSampleRate(), FILE_SECONDS, 1);
+		audioFile = waitForLoaded(player.getFactory().getAudioFile(waveFile));
+	}
+
+	/** wait until the audio file is loaded */
+	static AudioFile waitForLoaded(AudioFile af) throws Exception {
+		while (!af.isFullyLoaded()) {
+			Thread.sleep(10);
+		}
+		if (af.getDurationSamples() <= 0) {
+			throw new Exception("cannot load " + af.getName());
+		}
+		return af;
+	}
+
+	/**
+	 * wait until the impulse responses of all reverbs of the tracks and buses
+	 * are loaded, so that rendering does not depend on timing
+	 */
+	static void waitForReverbs(AudioMixer mixer) throws Exception {
+		List<AudioEffect> effects = new ArrayList<AudioEffect>();
+		for (int i = 0; i < mixer.getTrackCount(); i++) {
+			effects.addAll(mixer.getTrack(i).getEffects());
+		}
+		for (AuxBus bus : mixer.getAuxBuses()) {
+			effects.addAll(bus.getEffects());
+		}
+		effects.addAll(mixer.getMasterBus().getEffects());
+		for (AudioEffect effect : effects) {
+			if (effect instanceof Reverb) {
+				while (!((Reverb) effect).isImpulseResponseLoaded()) {
+					Thread.sleep(10);
+				}
+			}
+		}
+	}
+
+	/** @return all benchmarks */
+	private List<Benchmark> createBenchmarks() {
+		List<Benchmark> ret = new ArrayList<Benchmark>();
+		ret.add(new MixerRead(1));
+		ret.add(new MixerRead(8));
+		ret.add(new MixerRead(32));
+		ret.add(new PlaylistRead());
+		ret.add(new AudioFileRead(true));
+		ret.add(new AudioFileRead(false));
+		ret.add(new PeakCacheUpdate());
+		for (int kernel = 0; kernel < KERNEL_NAMES.length; kernel++) {
+			ret.add(new KernelBenchmark(kernel, false));
+			ret.add(new KernelBenchmark(kernel, true));
+		}
+		ret.add(new SmootherProcess(null));
+		ret.add(new SmootherProcess(ParameterSmoother.Mode.LINEAR));
+		ret.add(new SmootherProcess(ParameterSmoother.Mode.ONE_POLE));
+		ret.add(new EffectProcess(Delay.class));
+		ret.add(new EffectProcess(Delay2.class));
+		ret.add(new EffectProcess(Flanger.class));
+		ret.add(new EffectProcess(Reverb.class));
+		ret.add(new EqualizerProcess(false));
+		ret.add(new EqualizerProcess(true));
+		ret.add(new DynamicsProcess(Dynamics.Detector.PEAK, 0.0));
+		ret.add(new DynamicsProcess(Dynamics.Detector.RMS, 0.0));
+		ret.add(new DynamicsProcess(Dynamics.Detector.PEAK, 5.0));
+		ret.add(new DenormalDecay(false));
+		ret.add(new DenormalDecay(true));
+		ret.add(new FlangerReference());
+		ret.add(new LimiterProcess(1.0f));
+		ret.add(new LimiterProcess(4.0f));
+		ret.add(new OutputConversion());
+		ret.add(new PcmConversion(16, false));
+		ret.add(new PcmConversion(16, true));
+		ret.add(new PcmConversion(24, false));
+		ret.add(new VorbisEncoding());
+		return ret;
+	}
+
+	private void close() {
+		player.close();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.util.FatalExceptionListener#fatalExceptionOccured(java.lang.Throwable,
+	 *      java.lang.String)
+	 */
+	public void fatalExceptionOccured(Throwable t, String context) {
+		Debug.error(context);
+		Debug.error(t);
+	}
+
+	/** base class for benchmarks reading slices of audio */
+	private abstract class SliceBenchmark extends Benchmark {
+		protected FloatSampleBuffer buffer;
+		protected long pos;
+
+		protected SliceBenchmark(String name) {
+			super(name);
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			buffer = new FloatSampleBuffer(state.getChannels(),
+					state.getSliceSizeSamples(), state.getSampleRate());
+			pos = 0;
+		}
+
+		/** advance pos by one slice, wrap around at the end of the file */
+		protected final void advance() {
+			pos += buffer.getSampleCount();
+			if (pos + buffer.getSampleCount() > audioFile.getDurationSamples()) {
+				pos = 0;
+			}
+		}
+
+		@Override
+		public long getSamplesPerOperation() {
+			return state.getSliceSizeSamples();
+		}
+
+		@Override
+		public float getSampleRate() {
+			return state.getSampleRate();
+		}
+	}
+
+	/** AudioMixer.read with a number of tracks playing the same file */
+	private class MixerRead extends SliceBenchmark {
+		private int trackCount;
+
+		public MixerRead(int trackCount) {
+			super("AudioMixer.read " + trackCount + " tracks");
+			this.trackCount = trackCount;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			for (int i = 0; i < trackCount; i++) {
+				AudioTrack t = player.addAudioTrack();
+				t.addRegion(audioFile, 0);
+				t.setBalance((2.0 * i / trackCount) - 1.0);
+			}
+			player.setPositionSamples(0);
+		}
+
+		@Override
+		public void run() {
+			if (state.getSampleSlicePosition() + buffer.getSampleCount() > audioFile.getDurationSamples()) {
+				player.setPositionSamples(0);
+			}
+			player.getMixer().read(buffer);
+			consume(buffer.getChannel(0)[0]);
+		}
+
+		@Override
+		public void tearDown() {
+			player.getMixer().clear();
+		}
+	}
+
+	/** Playlist.read with an automation object every few samples */
+	private class PlaylistRead extends SliceBenchmark {
+		private Playlist playlist;
+
+		public PlaylistRead() {
+			super("Playlist.read dense automation");
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			AudioTrack t = new AudioTrack(state);
+			t.addRegion(audioFile, 0);
+			long duration = audioFile.getDurationSamples();
+			for (long s = 0; s < duration; s += AUTOMATION_INTERVAL) {
+				double phase = (2.0 * Math.PI * s) / state.getSampleRate();
+				if ((s / AUTOMATION_INTERVAL) % 2 == 0) {
+					t.addAutomationObject(new AutomationVolume(state,
+							0.5 + 0.5 * Math.sin(phase), s));
+				} else {
+					t.addAutomationObject(new AutomationPan(state,
+							Math.sin(phase * 3), s));
+				}
+			}
+			playlist = t.getPlaylist();
+		}
+
+		@Override
+		public void run() {
+			consume(playlist.read(pos, buffer, 0, buffer.getSampleCount()));
+			advance();
+		}
+
+		@Override
+		public void tearDown() {
+			playlist.clear();
+		}
+	}
+
+	/** AudioFile.read from the memory or file backend */
+	private class AudioFileRead extends SliceBenchmark {
+		private boolean mem;
+		private AudioFile af;
+
+		public AudioFileRead(boolean mem) {
+			super("AudioFile.read " + (mem ? "memory" : "file"));
+			this.mem = mem;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			if (mem) {
+				af = new AudioFileURLMem(state, waveFile.toURI().toURL());
+			} else {
+				af = new AudioFileURLFile(state, waveFile.toURI().toURL());
+			}
+			waitForLoaded(af);
+		}
+
+		@Override
+		public void run() {
+			consume(af.read(pos, buffer, 0, buffer.getSampleCount()));
+			advance();
+		}
+
+		@Override
+		public void tearDown() {
+			af.close();
+		}
+	}
+
+	/** AudioPeakCache.update for consecutive slices */
+	private class PeakCacheUpdate extends SliceBenchmark {
+		private AudioPeakCache cache;
+
+		public PeakCacheUpdate() {
+			super("AudioPeakCache.update");
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			SyntheticAudio.fill(buffer, 2);
+			cache = new AudioPeakCache(buffer.getChannelCount(),
+					audioFile.getDurationSamples());
+		}
+
+		@Override
+		public void run() {
+			cache.update(pos, buffer);
+			advance();
+		}
+
+		@Override
+		public void tearDown() {
+			consume(cache.getHandledSampleCount());
+			cache = null;
+		}
+	}
+
+	/**
+	 * The kernels of AudioKernels on one slice, compared to the loops they
+	 * replaced: the per-sample double increment of the track volume ramp, the
+	 * positive peak search of the track meter, and FloatSampleBuffer's mix and
+	 * linearFade.
+	 */
+	private class KernelBenchmark extends SliceBenchmark {
+		static final int GAIN = 0;
+		static final int RAMP = 1;
+		static final int MIX = 2;
+		static final int FADE = 3;
+		static final int PEAK = 4;
+
+		private int kernel;
+		private boolean useKernels;
+		private FloatSampleBuffer input;
+		private FloatSampleBuffer source;
+
+		public KernelBenchmark(int kernel, boolean useKernels) {
+			super("Kernel " + KERNEL_NAMES[kernel]
+					+ (useKernels ? " AudioKernels" : " reference"));
+			this.kernel = kernel;
+			this.useKernels = useKernels;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			input = SyntheticAudio.createBuffer(buffer.getChannelCount(),
+					buffer.getSampleCount(), buffer.getSampleRate(), 5);
+			source = SyntheticAudio.createBuffer(buffer.getChannelCount(),
+					buffer.getSampleCount(), buffer.getSampleRate(), 6);
+		}
+
+		@Override
+		public void run() {
+			int count = buffer.getSampleCount();
+			// always start with the same input, so that the samples stay in
+			// range
+			input.copyTo(buffer, 0, count);
+			float g1 = 0.5f;
+			float g2 = 0.8f;
+			switch (kernel) {
+			case GAIN:
+				if (useKernels) {
+					AudioKernels.gain(buffer, 0, count, g1);
+				} else {
+					for (int c = 0; c < buffer.getChannelCount(); c++) {
+						float[] data = buffer.getChannel(c);
+						for (int i = 0; i < count; i++) {
+							data[i] *= g1;
+						}
+					}
+				}
+				break;
+			case RAMP:
+				if (useKernels) {
+					AudioKernels.fade(buffer, 0, count, g1, g2);
+				} else {
+					referenceRamp(g1, g2);
+				}
+				break;
+			case MIX:
+				if (useKernels) {
+					AudioKernels.mix(source, 0, buffer, 0, count);
+				} else {
+					buffer.mix(source, 0, 0, count);
+				}
+				break;
+			case FADE:
+				if (useKernels) {
+					AudioKernels.fade(buffer, 0, count, g1, g2);
+				} else {
+					buffer.linearFade(g1, g2, 0, count);
+				}
+				break;
+			case PEAK:
+				if (useKernels) {
+					consume(AudioKernels.peak(buffer, 0, count));
+				} else {
+					consume(referencePeak(count));
+				}
+				break;
+			}
+		}
+
+		/** the volume ramp as formerly done in AudioTrack.readSource */
+		private void referenceRamp(double startVolume, double endVolume) {
+			int count = buffer.getSampleCount();
+			double volIncrease = (endVolume - startVolume) / count;
+			for (int c = 0; c < buffer.getChannelCount(); c++) {
+				float[] data = buffer.getChannel(c);
+				double vol = startVolume;
+				for (int i = 0; i < count; i++) {
+					data[i] *= vol;
+					vol += volIncrease;
+				}
+			}
+		}
+
+		/** the peak search as formerly done in AudioTrack.getMaxLevel */
+		private float referencePeak(int count) {
+			float max = 0.0f;
+			for (int c = 0; c < buffer.getChannelCount(); c++) {
+				float[] samples = buffer.getChannel(c);
+				for (int i = 0; i < count; i++) {
+					float sample = samples[i];
+					if (sample > max) {
+						if (sample >= 1.0f) {
+							return 1.0f;
+						}
+						max = sample;
+					}
+				}
+			}
+			return max;
+		}
+	}
+
+	/**
+	 * ParameterSmoother.process() for one slice, and copying a source slice to
+	 * all channels with the values as gain, like a track without effects.
+	 * With a null mode, the smoother is idle and the constant value is
+	 * applied. Otherwise, the target changes in every slice, so that the
+	 * smoother never reaches it.
+	 */
+	private class SmootherProcess extends SliceBenchmark {
+		private ParameterSmoother.Mode mode;
+		private ParameterSmoother smoother;
+		private float[] data;
+
+		public SmootherProcess(ParameterSmoother.Mode mode) {
+			super("ParameterSmoother " + (mode == null ? "idle" : mode));
+			this.mode = mode;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			smoother = new ParameterSmoother(
+					(mode == null) ? ParameterSmoother.Mode.LINEAR : mode,
+					state.getSampleRate(), 50, 0.5f);
+			data = SyntheticAudio.createBuffer(1, buffer.getSampleCount(),
+					buffer.getSampleRate(), 4).getChannel(0);
+		}
+
+		@Override
+		public void run() {
+			int count = buffer.getSampleCount();
+			if (mode != null) {
+				smoother.setTarget(smoother.getTarget() == 0.5f ? 0.8f : 0.5f);
+			}
+			if (smoother.isSmoothing()) {
+				float[] gains = smoother.process(count);
+				for (int c = 0; c < buffer.getChannelCount(); c++) {
+					AudioKernels.copy(data, 0, buffer.getChannel(c), 0, count,
+							gains);
+				}
+			} else {
+				float gain = smoother.getValue();
+				for (int c = 0; c < buffer.getChannelCount(); c++) {
+					AudioKernels.copy(data, 0, buffer.getChannel(c), 0, count,
+							gain, gain);
+				}
+			}
+			consume(buffer.getChannel(0)[0]);
+		}
+	}
+
+	/**
+	 * Limiter.process() with the default lookahead, on a source slice with the
+	 * given gain: the source peaks at about 0.3, so a gain of 1 does not
+	 * limit, and a gain of 4 limits continuously.
+	 */
+	private class LimiterProcess extends SliceBenchmark {
+		private float gain;
+		private Limiter limiter;
+		private FloatSampleBuffer source;
+
+		public LimiterProcess(float gain) {
+			super("Limiter.process gain " + gain);
+			this.gain = gain;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			source = SyntheticAudio.createBuffer(buffer.getChannelCount(),
+					buffer.getSampleCount(), buffer.getSampleRate(), 3);
+			AudioKernels.gain(source, 0, source.getSampleCount(), gain);
+			limiter = new Limiter(buffer.getChannelCount(),
+					buffer.getSampleRate());
+		}
+
+		@Override
+		public void run() {
+			source.copyTo(buffer, 0, buffer.getSampleCount());
+			limiter.process(buffer, 0, buffer.getSampleCount());
+			consume(buffer.getChannel(0)[0]);
+		}
+	}
+
+	/** process() of an effect, always on the same input slice */
+	private class EffectProcess extends SliceBenchmark {
+		private Class<? extends AudioEffect> clazz;
+		private AudioEffect effect;
+		private FloatSampleBuffer source;
+
+		public EffectProcess(Class<? extends AudioEffect> clazz) {
+			super(clazz.getSimpleName() + ".process");
+			this.clazz = clazz;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			source = SyntheticAudio.createBuffer(buffer.getChannelCount(),
+					buffer.getSampleCount(), buffer.getSampleRate(), 3);
+			effect = clazz.getDeclaredConstructor().newInstance();
+			effect.init(state, new AudioTrack(state));
+			// wait for effects preparing in the background, e.g. Reverb
+			long timeout = System.currentTimeMillis() + 10000;
+			while (!effect.process(pos, buffer, 0, buffer.getSampleCount())) {
+				if (System.currentTimeMillis() > timeout) {
+					throw new Exception(getName() + ": effect does not process");
+				}
+				Thread.sleep(10);
+			}
+		}
+
+		@Override
+		public void run() {
+			source.copyTo(buffer, 0, buffer.getSampleCount());
+			consume(effect.process(pos, buffer, 0, buffer.getSampleCount()));
+			pos += buffer.getSampleCount();
+		}
+
+		@Override
+		public void tearDown() {
+			effect.exit();
+		}
+	}
+
+	/**
+	 * Equalizer.process with all bands active. If smoothing is set, the gains
+	 * change for every slice, so that the coefficients are recalculated for
+	 * every short block.
+	 */
+	private class EqualizerProcess extends SliceBenchmark {
+		private boolean smoothing;
+		private Equalizer eq;
+		private FloatSampleBuffer source;
+		private int count;
+
+		public EqualizerProcess(boolean smoothing) {
+			super("Equalizer.process" + (smoothing ? " smoothing" : ""));
+			this.smoothing = smoothing;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			source = SyntheticAudio.createBuffer(buffer.getChannelCount(),
+					buffer.getSampleCount(), buffer.getSampleRate(), 3);
+			eq = new Equalizer();
+			eq.init(state, new AudioTrack(state));
+			for (int b = 0; b < Equalizer.BAND_COUNT; b++) {
+				eq.setBandGainDB(b, (b % 2 == 0) ? 6.0 : -6.0);
+			}
+			count = 0;
+		}
+
+		@Override
+		public void run() {
+			if (smoothing) {
+				eq.setBandGainDB(0, ((count++ & 1) == 0) ? 3.0 : 6.0);
+			}
+			source.copyTo(buffer, 0, buffer.getSampleCount());
+			consume(eq.process(pos, buffer, 0, buffer.getSampleCount()));
+			pos += buffer.getSampleCount();
+		}
+
+		@Override
+		public void tearDown() {
+			eq.exit();
+		}
+	}
+
+	/**
+	 * Dynamics.process as compressor with the given detector and lookahead
+	 * time. The threshold is low, so that the gain changes all the time.
+	 */
+	private class DynamicsProcess extends SliceBenchmark {
+		private Dynamics.Detector detector;
+		private double lookaheadMillis;
+		private Dynamics dynamics;
+		private FloatSampleBuffer source;
+
+		public DynamicsProcess(Dynamics.Detector detector,
+				double lookaheadMillis) {
+			super("Dynamics.process " + detector
+					+ ((lookaheadMillis > 0.0) ? " lookahead" : ""));
+			this.detector = detector;
+			this.lookaheadMillis = lookaheadMillis;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			source = SyntheticAudio.createBuffer(buffer.getChannelCount(),
+					buffer.getSampleCount(), buffer.getSampleRate(), 3);
+			dynamics = new Dynamics();
+			dynamics.init(state, new AudioTrack(state));
+			dynamics.setDetector(detector);
+			dynamics.setLookaheadMillis(lookaheadMillis);
+			dynamics.setThresholdDB(-40.0);
+			dynamics.setAttackMillis(1.0);
+			dynamics.setReleaseMillis(20.0);
+		}
+
+		@Override
+		public void run() {
+			source.copyTo(buffer, 0, buffer.getSampleCount());
+			consume(dynamics.process(pos, buffer, 0, buffer.getSampleCount()));
+			pos += buffer.getSampleCount();
+		}
+
+		@Override
+		public void tearDown() {
+			dynamics.exit();
+		}
+	}
+
+	/**
+	 * The decaying tail of a feedback delay line with silent input, as in
+	 * Delay.process after the input stopped: the delay line is filled with
+	 * values in the denormal range. Without flushing, every sample is
+	 * processed with denormal operands. With flushing as in Denormals, the
+	 * values are set to 0 on the first pass, and then the loop runs at normal
+	 * speed.
+	 */
+	private class DenormalDecay extends SliceBenchmark {
+		private boolean flush;
+		private FloatSampleBuffer delayBuffer;
+		private int delayPos;
+
+		public DenormalDecay(boolean flush) {
+			super("Denormal decay " + (flush ? "flushed" : "reference"));
+			this.flush = flush;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			delayBuffer = new FloatSampleBuffer(buffer.getChannelCount(),
+					(int) state.millis2sample(100), buffer.getSampleRate());
+			for (int c = 0; c < delayBuffer.getChannelCount(); c++) {
+				float[] delay = delayBuffer.getChannel(c);
+				for (int i = 0; i < delay.length; i++) {
+					delay[i] = ((i & 1) == 0) ? 1.0E-39f : -1.0E-39f;
+				}
+			}
+			delayPos = 0;
+		}
+
+		@Override
+		public void run() {
+			int count = buffer.getSampleCount();
+			int delayCount = delayBuffer.getSampleCount();
+			buffer.makeSilence();
+			for (int c = 0; c < buffer.getChannelCount(); c++) {
+				float[] delay = delayBuffer.getChannel(c);
+				float[] inout = buffer.getChannel(c);
+				int dp = delayPos;
+				for (int i = 0; i < count; i++) {
+					float dr = delay[dp];
+					float io = inout[i];
+					inout[i] = io + dr;
+					float written = (io + dr) * 0.9999f;
+					if (flush && Math.abs(written) < Denormals.FLUSH_LEVEL) {
+						written = 0.0f;
+					}
+					delay[dp] = written;
+					if (++dp >= delayCount) {
+						dp = 0;
+					}
+				}
+			}
+			delayPos = (delayPos + count) % delayCount;
+			consume(buffer.getChannel(0)[0]);
+		}
+	}
+
+	/**
+	 * The flanger as formerly done in Flanger.process, with the default
+	 * parameters of Flanger, for comparison with the Flanger.process
+	 * benchmark: a triangle LFO, and reading the delay line at truncated
+	 * positions. The parameters are constant, so the cost of the parameter
+	 * smoothing in Flanger.process is not included here, but they are read
+	 * from arrays like the output of the smoothers.
+	 */
+	private class FlangerReference extends SliceBenchmark {
+		private FloatSampleBuffer source;
+		private FloatSampleBuffer delayBuffer;
+		private double delayTimeSamples;
+		private double writePos;
+		private double lfoCurr;
+		private double lfoInc;
+		private int[] writeOffsets;
+		private int[] readOffsets;
+		private float[] feedbacks;
+		private float[] srcVols;
+		private float[] delayVols;
+
+		public FlangerReference() {
+			super("Flanger reference");
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			source = SyntheticAudio.createBuffer(buffer.getChannelCount(),
+					buffer.getSampleCount(), buffer.getSampleRate(), 3);
+			delayBuffer = new FloatSampleBuffer(buffer.getChannelCount(),
+					44100, buffer.getSampleRate());
+			delayTimeSamples = state.millis2sample(4);
+			lfoInc = 4 * 1.0 / state.getSampleRate();
+			int count = buffer.getSampleCount();
+			writeOffsets = new int[count];
+			readOffsets = new int[count];
+			feedbacks = new float[count];
+			srcVols = new float[count];
+			delayVols = new float[count];
+			Arrays.fill(feedbacks, 0.6f);
+			Arrays.fill(srcVols, 1.0f);
+			Arrays.fill(delayVols, 1.0f);
+		}
+
+		@Override
+		public void run() {
+			int count = buffer.getSampleCount();
+			source.copyTo(buffer, 0, count);
+			float amplitude = 0.5f;
+			int delayBufferCount = delayBuffer.getSampleCount();
+			double writePosInc = ((int) delayTimeSamples) / delayTimeSamples;
+			for (int i = 0; i < count; i++) {
+				double readPos = writePos - delayTimeSamples + lfoCurr
+						* amplitude * amplitude * (delayTimeSamples / 2);
+				int readOffset = (int) readPos;
+				if (readOffset < 0) {
+					readOffset += delayBufferCount;
+				}
+				if (readOffset >= delayBufferCount) {
+					readOffset -= delayBufferCount;
+				}
+				writeOffsets[i] = (int) writePos;
+				readOffsets[i] = readOffset;
+				writePos += writePosInc;
+				if ((int) writePos >= delayBufferCount) {
+					writePos -= delayBufferCount;
+				}
+				lfoCurr += lfoInc;
+				if (lfoCurr >= 1.0 || lfoCurr <= -1.0) {
+					lfoInc = -lfoInc;
+				}
+			}
+			float maxWritten = 0.0f;
+			for (int c = 0; c < buffer.getChannelCount(); c++) {
+				float[] delay = delayBuffer.getChannel(c);
+				float[] inout = buffer.getChannel(c);
+				for (int i = 0; i < count; i++) {
+					float io = inout[i];
+					float dr = delay[readOffsets[i]];
+					inout[i] = dr * delayVols[i] + io * srcVols[i];
+					float written = (dr + io) * feedbacks[i];
+					delay[writeOffsets[i]] = written;
+					float absWritten = Math.abs(written);
+					if (absWritten > maxWritten) {
+						maxWritten = absWritten;
+					}
+				}
+			}
+			consume(maxWritten);
+		}
+	}
+
+	/** conversion of a slice to the format of the audio device */
+	private class OutputConversion extends SliceBenchmark {
+		private AudioFormat format;
+		private byte[] bytes;
+
+		public OutputConversion() {
+			super("FloatSampleBuffer.convertToByteArray");
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			SyntheticAudio.fill(buffer, 4);
+			format = new AudioFormat(state.getSampleRate(), 16,
+					state.getChannels(), true, false);
+			bytes = new byte[buffer.getByteArrayBufferSize(format)];
+		}
+
+		@Override
+		public void run() {
+			consume(buffer.convertToByteArray(bytes, 0, format));
+		}
+	}
+
+	/**
+	 * PcmConverter.convert to the given sample size, for comparison with the
+	 * FloatSampleBuffer.convertToByteArray benchmark
+	 */
+	private class PcmConversion extends SliceBenchmark {
+		private int bits;
+		private boolean dither;
+		private PcmConverter converter;
+		private byte[] bytes;
+
+		public PcmConversion(int bits, boolean dither) {
+			super("PcmConverter.convert " + bits + " bit"
+					+ (dither ? " dither" : ""));
+			this.bits = bits;
+			this.dither = dither;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			super.setUp();
+			SyntheticAudio.fill(buffer, 4);
+			converter = new PcmConverter(new AudioFormat(
+					state.getSampleRate(), bits, state.getChannels(), true,
+					false));
+			converter.setDither(dither);
+			bytes = new byte[converter.getByteCount(buffer.getSampleCount())];
+		}
+
+		@Override
+		public void run() {
+			consume(converter.convert(buffer, bytes, 0));
+		}
+	}
+
+	/** rendering one second of a 2 track mix to Vorbis */
+	private class VorbisEncoding extends Benchmark {
+		private OutputStream nullStream = new OutputStream() {
+			@Override
+			public void write(int b) {
+				consume(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				consume(len);
+			}
+		};
+
+		public VorbisEncoding() {
+			super("VorbisRenderer 2 tracks");
+		}
+
+		@Override
+		public void setUp() {
+			for (int i = 0; i < 2; i++) {
+				player.addAudioTrack().addRegion(audioFile, 0);
+			}
+		}
+
+		@Override
+		public void run() throws Exception {
+			player.setPositionSamples(0);
+			VorbisRenderer renderer = new VorbisRenderer(state, nullStream);
+			consume(renderer.render(player.getMixer(), getSamplesPerOperation()));
+		}
+
+		@Override
+		public void tearDown() {
+			player.getMixer().clear();
+		}
+
+		@Override
+		public long getSamplesPerOperation() {
+			return (long) state.getSampleRate();
+		}
+
+		@Override
+		public float getSampleRate() {
+			return state.getSampleRate();
+		}
+	}
+
+	/**
+	 * Run the benchmarks.
+	 *
+	 * @param args [-w warmupMillis] [-i iterations] [-t iterationMillis]
+	 *            [name filter ...]
+	 */
+	public static void main(String[] args) {
+		int warmup = Benchmark.DEFAULT_WARMUP_MILLIS;
+		int iterations = Benchmark.DEFAULT_ITERATIONS;
+		int iterationMillis = Benchmark.DEFAULT_ITERATION_MILLIS;
+		List<String> filters = new ArrayList<String>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-w")) {
+					warmup = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-i")) {
+					iterations = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("-t")) {
+					iterationMillis = Integer.parseInt(args[++i]);
+				} else {
+					filters.add(args[i]);
+				}
+			}
+		} catch (Exception e) {
+			System.out.println("Usage: AudioBenchmarks [-w warmupMillis] "
+					+ "[-i iterations] [-t iterationMillis] [filter ...]");
+			System.exit(1);
+		}
+		AudioBenchmarks ab = null;
+		try {
+			ab = new AudioBenchmarks();
+			System.out.println("Java " + System.getProperty("java.version")
+					+ ", " + ab.state.getSampleRate() + "Hz, "
+					+ ab.state.getChannels() + " channels, slice="
+					+ ab.state.getSliceSizeSamples() + " samples");
+			Benchmark.runAll(ab.createBenchmarks(), filters, warmup,
+					iterations, iterationMillis, System.out);
+		} catch (Throwable t) {
+			Debug.error(t);
+		} finally {
+			if (ab != null) {
+				ab.close();
+			}
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,251 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal micro benchmark harness. A benchmark implements run() to execute
+ * one operation. The harness first runs the operation repeatedly for a warm-up
+ * period so that the JIT compiler has optimized the code, then measures a
+ * number of timed iterations and reports the mean time per operation and the
+ * standard deviation across the iterations.
+ * <p>
+ * Benchmarks processing audio report how much audio is processed per
+ * operation, so that the harness can express the result as multiple of real
+ * time. Results of the operation should be passed to consume() so that the
+ * JIT compiler cannot eliminate the computation.
+ *
+ * @author Florian Bomers
+ */
+public abstract class Benchmark {
+
+	/** default warm-up time in milliseconds */
+	public static final int DEFAULT_WARMUP_MILLIS = 2000;
+
+	/** default number of measured iterations */
+	public static final int DEFAULT_ITERATIONS = 5;
+
+	/** default duration of one measured iteration in milliseconds */
+	public static final int DEFAULT_ITERATION_MILLIS = 1000;
+
+	/** accumulates consumed values, so that computations cannot be removed */
+	private static volatile int sink;
+
+	private String name;
+
+	/**
+	 * Create a benchmark with the given name
+	 */
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	/** @return the name of this benchmark */
+	public String getName() {
+		return name;
+	}
+
+	/** called once before the warm-up */
+	public void setUp() throws Exception {
+		// nothing
+	}
+
+	/** execute one operation */
+	public abstract void run() throws Exception;
+
+	/** called once after measuring */
+	public void tearDown() throws Exception {
+		// nothing
+	}
+
+	/**
+	 * @return the number of audio samples processed by one operation, or 0 if
+	 *         not applicable
+	 */
+	public long getSamplesPerOperation() {
+		return 0;
+	}
+
+	/** @return the sample rate of the processed audio */
+	public float getSampleRate() {
+		return 44100;
+	}
+
+	/** prevent the JIT compiler from eliminating the computation of value */
+	protected static final void consume(float value) {
+		sink += Float.floatToRawIntBits(value);
+	}
+
+	/** prevent the JIT compiler from eliminating the computation of value */
+	protected static final void consume(long value) {
+		sink += (int) value;
+	}
+
+	/** prevent the JIT compiler from eliminating the computation of value */
+	protected static final void consume(boolean value) {
+		sink += value ? 1 : 0;
+	}
+
+	/** the result of measuring one benchmark */
+	public static class Result {
+		private String name;
+		private double nanosPerOp;
+		private double stdDevNanos;
+		private double realTimeFactor;
+		private long operations;
+
+		Result(String name, double nanosPerOp, double stdDevNanos,
+				double realTimeFactor, long operations) {
+			this.name = name;
+			this.nanosPerOp = nanosPerOp;
+			this.stdDevNanos = stdDevNanos;
+			this.realTimeFactor = realTimeFactor;
+			this.operations = operations;
+		}
+
+		/** @return the name of the benchmark */
+		public String getName() {
+			return name;
+		}
+
+		/** @return the mean time per operation in nanoseconds */
+		public double getNanosPerOperation() {
+			return nanosPerOp;
+		}
+
+		/** @return the standard deviation across iterations in nanoseconds */
+		public double getStdDevNanos() {
+			return stdDevNanos;
+		}
+
+		/**
+		 * @return how many times faster than real time the audio is
+		 *         processed, or 0 if the benchmark does not process audio
+		 */
+		public double getRealTimeFactor() {
+			return realTimeFactor;
+		}
+
+		/** @return the number of measured operations */
+		public long getOperations() {
+			return operations;
+		}
+
+		@Override
+		public String toString() {
+			String ret = String.format("%-36s %12.1f ns/op +- %5.1f%%", name,
+					nanosPerOp, nanosPerOp > 0 ? stdDevNanos * 100.0
+							/ nanosPerOp : 0.0);
+			if (realTimeFactor > 0) {
+				ret += String.format(" %10.1fx real time", realTimeFactor);
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Measure the given benchmark.
+	 *
+	 * @param b the benchmark to measure
+	 * @param warmupMillis the warm-up time
+	 * @param iterations the number of measured iterations
+	 * @param iterationMillis the duration of each iteration
+	 * @return the result
+	 * @throws Exception if the benchmark fails
+	 */
+	public static Result measure(Benchmark b, int warmupMillis,
+			int iterations, int iterationMillis) throws Exception {
+		b.setUp();
+		try {
+			// warm up
+			long end = System.nanoTime() + warmupMillis * 1000000L;
+			while (System.nanoTime() < end) {
+				b.run();
+			}
+			double[] nanosPerOp = new double[iterations];
+			long totalOps = 0;
+			for (int i = 0; i < iterations; i++) {
+				long ops = 0;
+				long start = System.nanoTime();
+				end = start + iterationMillis * 1000000L;
+				long now;
+				do {
+					b.run();
+					ops++;
+					now = System.nanoTime();
+				} while (now < end);
+				nanosPerOp[i] = ((double) (now - start)) / ops;
+				totalOps += ops;
+			}
+			double mean = 0;
+			for (double d : nanosPerOp) {
+				mean += d;
+			}
+			mean /= iterations;
+			double var = 0;
+			for (double d : nanosPerOp) {
+				var += (d - mean) * (d - mean);
+			}
+			double stdDev = iterations > 1 ? Math.sqrt(var / (iterations - 1))
+					: 0;
+			double realTime = 0;
+			if (b.getSamplesPerOperation() > 0 && mean > 0) {
+				double audioNanos = b.getSamplesPerOperation() * 1000000000.0
+						/ b.getSampleRate();
+				realTime = audioNanos / mean;
+			}
+			return new Result(b.getName(), mean, stdDev, realTime, totalOps);
+		} finally {
+			b.tearDown();
+		}
+	}
+
+	/**
+	 * Measure all benchmarks whose name contains one of the filters.
+	 *
+	 * @param benchmarks the benchmarks to select from
+	 * @param filters the name filters, or empty to run all benchmarks
+	 * @param out where to print the results, or null
+	 * @return the list of results
+	 */
+	public static List<Result> runAll(List<Benchmark> benchmarks,
+			List<String> filters, int warmupMillis, int iterations,
+			int iterationMillis, PrintStream out) {
+		List<Result> ret = new ArrayList<Result>();
+		for (Benchmark b : benchmarks) {
+			if (!matches(b.getName(), filters)) {
+				continue;
+			}
+			try {
+				Result r = measure(b, warmupMillis, iterations,
+						iterationMillis);
+				ret.add(r);
+				if (out != null) {
+					out.println(r);
+				}
+			} catch (Throwable t) {
+				if (out != null) {
+					out.println(String.format("%-36s FAILED: %s", b.getName(),
+							t));
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static boolean matches(String name, List<String> filters) {
+		if (filters == null || filters.isEmpty()) {
+			return true;
+		}
+		for (String f : filters) {
+			if (name.indexOf(f) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
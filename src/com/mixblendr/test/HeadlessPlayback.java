@@ -0,0 +1,220 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.File;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.util.Debug;
+import com.mixblendr.util.FatalExceptionListener;
+
+/**
+ * Runs the real-time playback loop without sound hardware: a project is
+ * generated with ProjectGenerator, loaded, and played in real time through
+ * the audio output thread to a NullSink, FileSink or RingSink. While
+ * playing, the position of the transport clock is compared to the wall
+ * clock. At the end, the render statistics are printed.
+ * <p>
+ * The exit code is 1 if the sink ran dry during playback.
+ * <p>
+ * Usage: HeadlessPlayback [-play seconds] [-sink null|ring|file] [-file
+ * path] [-ahead slices] [-adaptive] [generator options]
+ *
+ * @author Florian Bomers
+ */
+public class HeadlessPlayback implements FatalExceptionListener {
+
+	/** default number of seconds to play */
+	public static final double DEFAULT_PLAY_SECONDS = 10;
+
+	/** the interval in milliseconds for sampling the playback position */
+	private static final long POLL_MILLIS = 50;
+
+	private double playSeconds = DEFAULT_PLAY_SECONDS;
+
+	private String sinkName = "null";
+
+	private File sinkFile;
+
+	private int renderAheadSlices = 0;
+
+	private boolean adaptive = false;
+
+	/** @return a new sink as given on the command line */
+	private PacedSink createSink() throws Exception {
+		if (sinkName.equals("null")) {
+			return new NullSink();
+		} else if (sinkName.equals("ring")) {
+			return new RingSink(1 << 20);
+		} else if (sinkName.equals("file")) {
+			if (sinkFile == null) {
+				sinkFile = File.createTempFile("mixblendr-playback", ".pcm");
+				sinkFile.deleteOnExit();
+			}
+			return new FileSink(sinkFile);
+		}
+		throw new IllegalArgumentException("unknown sink: " + sinkName);
+	}
+
+	/**
+	 * Load the project and play it in real time.
+	 *
+	 * @param projectFile the project to play
+	 * @return the number of times the sink ran dry
+	 * @throws Exception on error
+	 */
+	public long play(File projectFile) throws Exception {
+		PacedSink sink = createSink();
+		AudioPlayer player = new AudioPlayer(this);
+		player.init(sink);
+		try {
+			AudioMixer mixer = player.getMixer();
+			mixer.xmlImport(projectFile);
+			for (int i = 0; i < mixer.getTrackCount(); i++) {
+				for (AudioRegion region : mixer.getTrack(i).getPlaylist().getAudioRegions()) {
+					if (region.getAudioFile() != null) {
+						AudioBenchmarks.waitForLoaded(region.getAudioFile());
+					}
+				}
+			}
+			AudioState state = player.getState();
+			player.setRenderAheadSlices(renderAheadSlices);
+			player.setAdaptiveLatency(adaptive);
+			player.setLoopSamples(0, mixer.getDurationSamples());
+			player.setLoopEnabled(true);
+			player.setPositionSamples(0);
+			player.resetStatistics();
+
+			player.start();
+			long startNanos = System.nanoTime();
+			long endNanos = startNanos + (long) (playSeconds * 1000000000.0);
+			long lastPos = -1;
+			long lastNanos = 0;
+			double maxDeviation = 0;
+			int lockedPolls = 0;
+			int polls = 0;
+			while (System.nanoTime() < endNanos) {
+				Thread.sleep(POLL_MILLIS);
+				RingSink ring = (sink instanceof RingSink) ? (RingSink) sink
+						: null;
+				if (ring != null) {
+					// act as the consumer of the ring
+					byte[] b = new byte[ring.getReadableBytes()];
+					ring.read(b, 0, b.length);
+				}
+				long pos = player.getPositionSamples();
+				long nanos = System.nanoTime();
+				polls++;
+				if (state.getTransportClock().isLocked()) {
+					lockedPolls++;
+				}
+				if (lastPos >= 0 && pos > lastPos) {
+					// deviation of the position advance from the wall clock
+					double advance = state.sample2millis(pos - lastPos);
+					double elapsed = (nanos - lastNanos) / 1000000.0;
+					maxDeviation = Math.max(maxDeviation, Math.abs(advance
+							- elapsed));
+				}
+				lastPos = pos;
+				lastNanos = nanos;
+			}
+			player.stop(true);
+
+			AudioStatistics stats = player.getStatistics();
+			System.out.println(stats);
+			System.out.println(String.format(
+					"sink: %s, underruns %d, clock locked %d%%, "
+							+ "max position deviation per %dms: %.2fms",
+					sink, sink.getUnderrunCount(), lockedPolls * 100 / polls,
+					POLL_MILLIS, maxDeviation));
+			if (sink instanceof FileSink) {
+				System.out.println("wrote " + sinkFile.length() + " bytes to "
+						+ sinkFile);
+			} else if (sink instanceof RingSink) {
+				System.out.println("ring: " + ((RingSink) sink).getWrittenBytes()
+						+ " bytes, dropped "
+						+ ((RingSink) sink).getDroppedBytes());
+			}
+			return sink.getUnderrunCount();
+		} finally {
+			player.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.util.FatalExceptionListener#fatalExceptionOccured(java.lang.Throwable,
+	 *      java.lang.String)
+	 */
+	public void fatalExceptionOccured(Throwable t, String context) {
+		Debug.error(context);
+		Debug.error(t);
+	}
+
+	/**
+	 * Run the playback.
+	 */
+	public static void main(String[] args) {
+		Debug.DEBUG = false;
+		ProjectGenerator gen = new ProjectGenerator();
+		gen.setSourceCount(2);
+		HeadlessPlayback playback = new HeadlessPlayback();
+		try {
+			int i = 0;
+			while (i < args.length) {
+				int next = gen.parseOption(args, i);
+				if (next >= 0) {
+					i = next;
+					continue;
+				}
+				String opt = args[i];
+				if (opt.equals("-adaptive")) {
+					playback.adaptive = true;
+					i++;
+					continue;
+				}
+				String val = args[i + 1];
+				if (opt.equals("-play")) {
+					playback.playSeconds = Double.parseDouble(val);
+				} else if (opt.equals("-sink")) {
+					playback.sinkName = val;
+				} else if (opt.equals("-file")) {
+					playback.sinkFile = new File(val);
+				} else if (opt.equals("-ahead")) {
+					playback.renderAheadSlices = Integer.parseInt(val);
+				} else {
+					throw new IllegalArgumentException(opt);
+				}
+				i += 2;
+			}
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			System.out.println("Usage: HeadlessPlayback [-play seconds] "
+					+ "[-sink null|ring|file] [-file path] [-ahead slices] "
+					+ "[-adaptive] " + ProjectGenerator.OPTIONS_USAGE);
+			System.exit(1);
+		}
+		int exitCode = 0;
+		try {
+			File dir = File.createTempFile("mixblendr-playback", "");
+			dir.delete();
+			dir.mkdirs();
+			dir.deleteOnExit();
+			File projectFile = new File(dir, gen.getDescription()
+					+ ProjectGenerator.PROJECT_EXTENSION);
+			gen.generate(projectFile);
+			long underruns = playback.play(projectFile);
+			if (underruns > 0) {
+				System.out.println("FAILED: the sink ran dry " + underruns
+						+ " times");
+				exitCode = 1;
+			}
+		} catch (Throwable t) {
+			Debug.error(t);
+			exitCode = 1;
+		}
+		System.exit(exitCode);
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.File;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.util.Debug;
+import com.mixblendr.util.FatalExceptionListener;
+
+/**
+ * Runs the recording path without sound hardware: a generated project is
+ * played to a NullSink, while a sine tone, delivered by a stand-in capture
+ * source at the pace of the system clock, is recorded to an additional track
+ * armed for recording. At the end, the position of the recorded region is
+ * compared to the playback position when recording was started, and the
+ * recorded duration and the dropped bytes are printed.
+ * <p>
+ * The exit code is 1 if the recording is missing or if data was dropped.
+ * <p>
+ * Usage: HeadlessRecording [-record seconds] [generator options]
+ *
+ * @author Florian Bomers
+ */
+public class HeadlessRecording implements FatalExceptionListener {
+
+	/** default number of seconds to record */
+	public static final double DEFAULT_RECORD_SECONDS = 3;
+
+	/** the number of seconds to play before recording is started */
+	private static final double PREROLL_SECONDS = 1;
+
+	private double recordSeconds = DEFAULT_RECORD_SECONDS;
+
+	/**
+	 * A capture source delivering a sine tone in real time, like an audio
+	 * input device.
+	 */
+	private static class ToneSource implements CaptureSource {
+
+		private static final double FREQUENCY = 440;
+
+		private AudioFormat format;
+		private int frameSize;
+		private volatile boolean running;
+		private long startNanos;
+		private long readFrames;
+
+		public void open(AudioFormat fmt, int bufferSize) {
+			this.format = fmt;
+			frameSize = fmt.getFrameSize();
+		}
+
+		public void close() {
+			running = false;
+		}
+
+		public void start() {
+			readFrames = 0;
+			startNanos = System.nanoTime();
+			running = true;
+		}
+
+		public void stop() {
+			running = false;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			int frames = len / frameSize;
+			long endFrame = readFrames + frames;
+			// wait until the requested frames are "captured"
+			while (running) {
+				long captured = (long) ((System.nanoTime() - startNanos)
+						* format.getFrameRate() / 1000000000.0);
+				if (captured >= endFrame) {
+					break;
+				}
+				LockSupport.parkNanos((long) ((endFrame - captured)
+						* 1000000000.0 / format.getFrameRate()));
+			}
+			if (!running) {
+				return 0;
+			}
+			int channels = format.getChannels();
+			for (int f = 0; f < frames; f++) {
+				double phase = 2 * Math.PI * FREQUENCY * (readFrames + f)
+						/ format.getFrameRate();
+				int sample = (int) (Math.sin(phase) * 16384);
+				for (int c = 0; c < channels; c++) {
+					b[off++] = (byte) sample;
+					b[off++] = (byte) (sample >> 8);
+				}
+			}
+			readFrames = endFrame;
+			return frames * frameSize;
+		}
+
+		public AudioFormat getFormat() {
+			return format;
+		}
+
+		@Override
+		public String toString() {
+			return "ToneSource: " + FREQUENCY + "Hz";
+		}
+	}
+
+	/**
+	 * Load the project, play it and record to a new track.
+	 *
+	 * @param projectFile the project to play
+	 * @return true if the recording succeeded
+	 * @throws Exception on error
+	 */
+	public boolean record(File projectFile) throws Exception {
+		AudioPlayer player = new AudioPlayer(this);
+		player.init(new NullSink());
+		try {
+			AudioMixer mixer = player.getMixer();
+			mixer.xmlImport(projectFile);
+			for (int i = 0; i < mixer.getTrackCount(); i++) {
+				for (AudioRegion region : mixer.getTrack(i).getPlaylist().getAudioRegions()) {
+					if (region.getAudioFile() != null) {
+						AudioBenchmarks.waitForLoaded(region.getAudioFile());
+					}
+				}
+			}
+			AudioState state = player.getState();
+			AudioTrack track = player.addAudioTrack();
+			track.setRecordArmed(true);
+			AudioRecorder recorder = player.getRecorder();
+			recorder.setSource(new ToneSource());
+
+			player.setLoopSamples(0, mixer.getDurationSamples());
+			player.setLoopEnabled(true);
+			player.setPositionSamples(0);
+			player.start();
+			Thread.sleep((long) (PREROLL_SECONDS * 1000));
+			long startPos = player.getPositionSamples();
+			recorder.start();
+			Thread.sleep((long) (recordSeconds * 1000));
+			AudioRegion region = recorder.stop();
+			player.stop(true);
+
+			if (region == null) {
+				System.out.println("FAILED: nothing recorded");
+				return false;
+			}
+			AudioFile af = region.getAudioFile();
+			double recorded = state.sample2seconds(af.getAvailableSamples());
+			System.out.println(String.format("recorded %s: %.3fs at %.3fs "
+					+ "(position at start: %.3fs, offset %.2fms), "
+					+ "dropped %d bytes", af, recorded,
+					state.sample2seconds(region.getStartTimeSamples()),
+					state.sample2seconds(startPos),
+					state.sample2millis(region.getStartTimeSamples()
+							- startPos), recorder.getDroppedBytes()));
+			return recorded > 0 && recorder.getDroppedBytes() == 0;
+		} finally {
+			player.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.util.FatalExceptionListener#fatalExceptionOccured(java.lang.Throwable,
+	 *      java.lang.String)
+	 */
+	public void fatalExceptionOccured(Throwable t, String context) {
+		Debug.error(context);
+		Debug.error(t);
+	}
+
+	/**
+	 * Run the recording.
+	 */
+	public static void main(String[] args) {
+		Debug.DEBUG = false;
+		ProjectGenerator gen = new ProjectGenerator();
+		gen.setSourceCount(2);
+		HeadlessRecording recording = new HeadlessRecording();
+		try {
+			int i = 0;
+			while (i < args.length) {
+				int next = gen.parseOption(args, i);
+				if (next >= 0) {
+					i = next;
+					continue;
+				}
+				String opt = args[i];
+				String val = args[i + 1];
+				if (opt.equals("-record")) {
+					recording.recordSeconds = Double.parseDouble(val);
+				} else {
+					throw new IllegalArgumentException(opt);
+				}
+				i += 2;
+			}
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			System.out.println("Usage: HeadlessRecording [-record seconds] "
+					+ ProjectGenerator.OPTIONS_USAGE);
+			System.exit(1);
+		}
+		int exitCode = 0;
+		try {
+			File dir = File.createTempFile("mixblendr-recording", "");
+			dir.delete();
+			dir.mkdirs();
+			dir.deleteOnExit();
+			File projectFile = new File(dir, gen.getDescription()
+					+ ProjectGenerator.PROJECT_EXTENSION);
+			gen.generate(projectFile);
+			if (!recording.record(projectFile)) {
+				exitCode = 1;
+			}
+		} catch (Throwable t) {
+			Debug.error(t);
+			exitCode = 1;
+		}
+		System.exit(exitCode);
+	}
+}
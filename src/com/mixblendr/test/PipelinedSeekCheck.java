@@ -0,0 +1,209 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.File;
+import java.util.Random;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.util.Debug;
+import com.mixblendr.util.FatalExceptionListener;
+
+/**
+ * Checks that seeking during pipelined playback is never lost: a generated
+ * project is played in real time to a NullSink with slices rendered ahead,
+ * and the playback position is set repeatedly to distant targets at random
+ * intervals, racing with the render thread. After each seek, the position
+ * is sampled until the next seek: it must have jumped to the target, i.e.
+ * the first slice played after the seek starts at the target. Every other
+ * seek also changes the loop region to discard the slices rendered from the
+ * seek before they are played.
+ * <p>
+ * The exit code is 1 if a seek was lost.
+ * <p>
+ * Usage: PipelinedSeekCheck [-seeks count] [-ahead slices] [generator
+ * options]
+ *
+ * @author Florian Bomers
+ */
+public class PipelinedSeekCheck implements FatalExceptionListener {
+
+	/** default number of seeks */
+	public static final int DEFAULT_SEEKS = 50;
+
+	/** the minimum and maximum time between seeks in milliseconds */
+	private static final int MIN_INTERVAL_MILLIS = 100;
+	private static final int MAX_INTERVAL_MILLIS = 250;
+
+	/** the minimum distance of consecutive seek targets in seconds */
+	private static final double MIN_DISTANCE_SECONDS = 2;
+
+	/** the maximum time from a seek to discarding its slices */
+	private static final int MAX_DISCARD_DELAY_MILLIS = 10;
+
+	/** the tolerance of the landing position in milliseconds */
+	private static final double TOLERANCE_MILLIS = 30;
+
+	private int seeks = DEFAULT_SEEKS;
+
+	private int renderAheadSlices = 2;
+
+	/**
+	 * Load the project, play it and seek repeatedly.
+	 *
+	 * @param projectFile the project to play
+	 * @return the number of lost seeks
+	 * @throws Exception on error
+	 */
+	public int run(File projectFile) throws Exception {
+		AudioPlayer player = new AudioPlayer(this);
+		player.init(new NullSink());
+		try {
+			AudioMixer mixer = player.getMixer();
+			mixer.xmlImport(projectFile);
+			for (int i = 0; i < mixer.getTrackCount(); i++) {
+				for (AudioRegion region : mixer.getTrack(i).getPlaylist().getAudioRegions()) {
+					if (region.getAudioFile() != null) {
+						AudioBenchmarks.waitForLoaded(region.getAudioFile());
+					}
+				}
+			}
+			AudioState state = player.getState();
+			long duration = mixer.getDurationSamples();
+			long minDistance = state.millis2sample(MIN_DISTANCE_SECONDS * 1000);
+			long tolerance = state.millis2sample(TOLERANCE_MILLIS)
+					+ state.getProcessingSampleLag();
+			if (duration < 3 * minDistance) {
+				throw new Exception("project too short: "
+						+ state.sample2seconds(duration) + "s");
+			}
+			player.setRenderAheadSlices(renderAheadSlices);
+			player.setLoopSamples(0, duration);
+			player.setLoopEnabled(true);
+			player.setPositionSamples(0);
+			player.start();
+			Thread.sleep(500);
+
+			Random random = new Random(1);
+			long target = 0;
+			int lost = 0;
+			double maxLanding = 0;
+			for (int i = 0; i < seeks; i++) {
+				long last = target;
+				do {
+					target = (long) (random.nextDouble() * (duration - minDistance));
+				} while (Math.abs(target - last) < minDistance);
+				// sleep a random fraction of a slice to hit the render thread
+				// at any point of rendering
+				Thread.sleep(0, random.nextInt(1000000));
+				long seekNanos = System.nanoTime();
+				player.setPositionSamples(target);
+				if ((i & 1) != 0) {
+					// discard the slices rendered from the seek, before they
+					// are played
+					Thread.sleep(random.nextInt(MAX_DISCARD_DELAY_MILLIS));
+					player.setLoopSamples(0, duration);
+				}
+				int interval = MIN_INTERVAL_MILLIS
+						+ random.nextInt(MAX_INTERVAL_MILLIS
+								- MIN_INTERVAL_MILLIS);
+				long endNanos = seekNanos + interval * 1000000L;
+				long landing = -1;
+				long pos = -1;
+				while (System.nanoTime() < endNanos) {
+					Thread.sleep(1);
+					pos = player.getPositionSamples();
+					if (landing < 0 && pos >= target - tolerance
+							&& pos < target + minDistance) {
+						landing = pos;
+					}
+				}
+				double elapsed = (System.nanoTime() - seekNanos) / 1000000.0;
+				if (landing < 0 || pos < landing || pos > target
+						+ state.millis2sample(elapsed) + tolerance) {
+					System.out.println(String.format("seek %d to %.3fs lost: "
+							+ "position %.3fs after %.1fms", i,
+							state.sample2seconds(target),
+							state.sample2seconds(pos), elapsed));
+					lost++;
+				} else {
+					maxLanding = Math.max(maxLanding,
+							Math.abs(state.sample2millis(landing - target)));
+				}
+			}
+			player.stop(true);
+			System.out.println(String.format("%d seeks with %d slices ahead, "
+					+ "%d lost, max. landing deviation %.2fms", seeks,
+					renderAheadSlices, lost, maxLanding));
+			return lost;
+		} finally {
+			player.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.util.FatalExceptionListener#fatalExceptionOccured(java.lang.Throwable,
+	 *      java.lang.String)
+	 */
+	public void fatalExceptionOccured(Throwable t, String context) {
+		Debug.error(context);
+		Debug.error(t);
+	}
+
+	/**
+	 * Run the check.
+	 */
+	public static void main(String[] args) {
+		Debug.DEBUG = false;
+		ProjectGenerator gen = new ProjectGenerator();
+		gen.setSourceCount(2);
+		PipelinedSeekCheck check = new PipelinedSeekCheck();
+		try {
+			int i = 0;
+			while (i < args.length) {
+				int next = gen.parseOption(args, i);
+				if (next >= 0) {
+					i = next;
+					continue;
+				}
+				String opt = args[i];
+				String val = args[i + 1];
+				if (opt.equals("-seeks")) {
+					check.seeks = Integer.parseInt(val);
+				} else if (opt.equals("-ahead")) {
+					check.renderAheadSlices = Integer.parseInt(val);
+				} else {
+					throw new IllegalArgumentException(opt);
+				}
+				i += 2;
+			}
+		} catch (Exception e) {
+			System.out.println(e.getMessage());
+			System.out.println("Usage: PipelinedSeekCheck [-seeks count] "
+					+ "[-ahead slices] " + ProjectGenerator.OPTIONS_USAGE);
+			System.exit(1);
+		}
+		int exitCode = 0;
+		try {
+			File dir = File.createTempFile("mixblendr-seek", "");
+			dir.delete();
+			dir.mkdirs();
+			dir.deleteOnExit();
+			File projectFile = new File(dir, gen.getDescription()
+					+ ProjectGenerator.PROJECT_EXTENSION);
+			gen.generate(projectFile);
+			int lost = check.run(projectFile);
+			if (lost > 0) {
+				System.out.println("FAILED: " + lost + " seeks lost");
+				exitCode = 1;
+			}
+		} catch (Throwable t) {
+			Debug.error(t);
+			exitCode = 1;
+		}
+		System.exit(exitCode);
+	}
+}
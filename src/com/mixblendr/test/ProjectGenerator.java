@@ -0,0 +1,524 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.File;
+import java.util.Random;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.automation.AutomationPan;
+import com.mixblendr.automation.AutomationVolume;
+import com.mixblendr.effects.Delay;
+import com.mixblendr.effects.Delay2;
+import com.mixblendr.effects.Dynamics;
+import com.mixblendr.effects.Equalizer;
+import com.mixblendr.effects.Flanger;
+import com.mixblendr.effects.Reverb;
+import com.mixblendr.util.Debug;
+import com.mixblendr.util.FatalExceptionListener;
+
+/**
+ * Generator for .mixblendr projects of configurable size, for testing how the
+ * engine scales. A number of wave files with synthetic audio is written next
+ * to the project file, and the tracks are filled with regions randomly
+ * referencing these files. The tracks get effects cycling through all
+ * shipped effects, with automation of their parameters at the same rate as
+ * volume and pan, every second Dynamics effect is keyed by the first track,
+ * and the tracks send to an aux bus with a reverb. The master limiter is
+ * enabled. The project is built with the regular engine
+ * classes and saved with AudioMixer.xmlExport(), so the generated files are
+ * exactly what the application would save. The same parameters and seed
+ * always generate the same project.
+ * <p>
+ * Usage: ProjectGenerator [-tracks n] [-regions n] [-automation n] [-effects
+ * n] [-sends n] [-sources n] [-seconds n] [-seed n] outputFile
+ *
+ * @author Florian Bomers
+ */
+public class ProjectGenerator implements FatalExceptionListener {
+
+	/** the file extension of project files */
+	public static final String PROJECT_EXTENSION = ".mixblendr";
+
+	/** number of tracks */
+	private int trackCount = 8;
+
+	/** number of regions on each track */
+	private int regionsPerTrack = 10;
+
+	/**
+	 * number of volume/pan automation objects per second on each track, and
+	 * of automation objects for the parameters of the effect
+	 */
+	private int automationPerSecond = 10;
+
+	/** every n-th track gets an effect, or 0 for no effects */
+	private int effectInterval = 1;
+
+	/** every n-th track sends to the aux bus, or 0 for no aux bus */
+	private int sendInterval = 1;
+
+	/** number of different wave files used by the regions */
+	private int sourceCount = 4;
+
+	/** duration of each wave file in seconds */
+	private double sourceSeconds = 8;
+
+	/** the seed for all random decisions */
+	private long seed = 1;
+
+	/**
+	 * Create a generator with default parameters
+	 */
+	public ProjectGenerator() {
+		super();
+	}
+
+	/** @return the number of tracks */
+	public int getTrackCount() {
+		return trackCount;
+	}
+
+	/** @param trackCount the number of tracks to generate */
+	public void setTrackCount(int trackCount) {
+		this.trackCount = trackCount;
+	}
+
+	/** @return the number of regions per track */
+	public int getRegionsPerTrack() {
+		return regionsPerTrack;
+	}
+
+	/** @param regionsPerTrack the number of regions per track */
+	public void setRegionsPerTrack(int regionsPerTrack) {
+		this.regionsPerTrack = regionsPerTrack;
+	}
+
+	/** @return the number of automation objects per second and track */
+	public int getAutomationPerSecond() {
+		return automationPerSecond;
+	}
+
+	/**
+	 * @param automationPerSecond the number of volume and pan automation
+	 *            objects per second on each track, and of automation objects
+	 *            for the parameters of the effect
+	 */
+	public void setAutomationPerSecond(int automationPerSecond) {
+		this.automationPerSecond = automationPerSecond;
+	}
+
+	/** @return every n-th track gets an effect, or 0 */
+	public int getEffectInterval() {
+		return effectInterval;
+	}
+
+	/**
+	 * @param effectInterval every n-th track gets an effect, 0 for no effects
+	 */
+	public void setEffectInterval(int effectInterval) {
+		this.effectInterval = effectInterval;
+	}
+
+	/** @return every n-th track sends to the aux bus, or 0 */
+	public int getSendInterval() {
+		return sendInterval;
+	}
+
+	/**
+	 * @param sendInterval every n-th track sends to the aux bus, 0 for no aux
+	 *            bus
+	 */
+	public void setSendInterval(int sendInterval) {
+		this.sendInterval = sendInterval;
+	}
+
+	/** @return the number of wave files */
+	public int getSourceCount() {
+		return sourceCount;
+	}
+
+	/** @param sourceCount the number of wave files used by the regions */
+	public void setSourceCount(int sourceCount) {
+		this.sourceCount = sourceCount;
+	}
+
+	/** @return the duration of each wave file in seconds */
+	public double getSourceSeconds() {
+		return sourceSeconds;
+	}
+
+	/** @param sourceSeconds the duration of each wave file in seconds */
+	public void setSourceSeconds(double sourceSeconds) {
+		this.sourceSeconds = sourceSeconds;
+	}
+
+	/** @return the seed */
+	public long getSeed() {
+		return seed;
+	}
+
+	/** @param seed the seed for all random decisions */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return a short description of the parameters, usable as part of a
+	 *         filename
+	 */
+	public String getDescription() {
+		return "t" + trackCount + "-r" + regionsPerTrack + "-a"
+				+ automationPerSecond + "-e" + effectInterval + "-x"
+				+ sendInterval + "-s" + seed;
+	}
+
+	/**
+	 * Generate the project and its wave files. The wave files are written to
+	 * the same directory as the project file, existing files are overwritten.
+	 *
+	 * @param projectFile the .mixblendr file to write
+	 * @throws Exception on error
+	 */
+	public void generate(File projectFile) throws Exception {
+		File dir = projectFile.getAbsoluteFile().getParentFile();
+		String baseName = projectFile.getName();
+		if (baseName.endsWith(PROJECT_EXTENSION)) {
+			baseName = baseName.substring(0, baseName.length()
+					- PROJECT_EXTENSION.length());
+		}
+		AudioPlayer player = new AudioPlayer(this);
+		player.init();
+		try {
+			AudioState state = player.getState();
+			Random random = new Random(seed);
+			AudioMixer mixer = player.getMixer();
+			mixer.getMasterBus().setLimiterEnabled(true);
+			if (sendInterval > 0) {
+				AuxBus bus = mixer.addAuxBus("Reverb");
+				bus.setReturnLevel(0.5 + random.nextDouble() * 0.5);
+				Reverb reverb = new Reverb();
+				reverb.init(state, null);
+				reverb.setDecayTime(0.5 + random.nextDouble() * 1.5);
+				reverb.setBalance(1.0);
+				bus.addEffect(reverb);
+			}
+
+			// create the source files
+			AudioFile[] sources = new AudioFile[sourceCount];
+			for (int i = 0; i < sourceCount; i++) {
+				File wave = new File(dir, baseName + "-source" + i + ".wav");
+				SyntheticAudio.createWaveFile(wave, state.getChannels(),
+						state.getSampleRate(), sourceSeconds, seed * 1000 + i);
+				sources[i] = AudioBenchmarks.waitForLoaded(player.getFactory().getAudioFile(
+						wave));
+			}
+
+			// create the tracks
+			for (int t = 0; t < trackCount; t++) {
+				AudioTrack track = player.addAudioTrack();
+				track.setName("Track " + (t + 1));
+				track.setVolume(0.5 + random.nextDouble() * 0.5);
+				track.setBalance(random.nextDouble() * 2 - 1);
+				// regions: one after another with random gaps, random offsets
+				// into the source file, and random durations
+				long pos = 0;
+				long maxDuration = 0;
+				for (int r = 0; r < regionsPerTrack; r++) {
+					AudioFile af = sources[random.nextInt(sourceCount)];
+					long fileDuration = af.getDurationSamples();
+					long duration = fileDuration / 4
+							+ (long) (random.nextDouble() * fileDuration * 3 / 4);
+					long offset = (long) (random.nextDouble() * (fileDuration - duration));
+					pos += (long) (random.nextDouble() * state.getSampleRate());
+					AudioRegion region = track.addRegion(af, pos, duration);
+					region.setAudioFileOffset(offset);
+					if (random.nextInt(4) == 0) {
+						region.setLevel(0.5 + random.nextDouble() * 0.5);
+					}
+					pos += duration;
+					maxDuration = pos;
+				}
+				// automation
+				long interval = 0;
+				if (automationPerSecond > 0) {
+					interval = (long) (state.getSampleRate() / automationPerSecond);
+					for (long s = interval; s < maxDuration; s += interval) {
+						if (random.nextBoolean()) {
+							track.addAutomationObject(new AutomationVolume(
+									state, random.nextDouble(), s));
+						} else {
+							track.addAutomationObject(new AutomationPan(state,
+									random.nextDouble() * 2 - 1, s));
+						}
+					}
+				}
+				// effect
+				if (effectInterval > 0 && (t % effectInterval) == 0) {
+					AudioEffect effect = createEffect(state, track, t
+							/ effectInterval, mixer.getTrack(0), random);
+					// add it first, the automation objects need its ID
+					track.addEffect(effect);
+					if (interval > 0) {
+						for (long s = interval / 2; s < maxDuration; s += interval) {
+							AutomationObject ao = createEffectAutomation(
+									effect, random);
+							ao.setStartTimeSamples(s);
+							track.addAutomationObject(ao);
+						}
+					}
+				}
+				// send
+				if (sendInterval > 0 && (t % sendInterval) == 0) {
+					track.setSendLevel(0, 0.1 + random.nextDouble() * 0.4);
+				}
+			}
+			mixer.xmlExport(projectFile);
+		} finally {
+			player.close();
+		}
+	}
+
+	/**
+	 * create an effect with random settings, cycling through the effects.
+	 * Every second Dynamics effect uses sidechainSource as control signal.
+	 */
+	private static AudioEffect createEffect(AudioState state,
+			AudioTrack track, int index, AudioTrack sidechainSource,
+			Random random) {
+		AudioEffect ret;
+		switch (index % 6) {
+		case 0:
+			Delay delay = new Delay();
+			delay.init(state, track);
+			delay.setDelayTimeBeats(0.125 * (1 + random.nextInt(8)));
+			delay.setFeedback(random.nextDouble() * 0.8);
+			delay.setBalance(random.nextDouble() * 2 - 1);
+			ret = delay;
+			break;
+		case 1:
+			Delay2 delay2 = new Delay2();
+			delay2.init(state, track);
+			delay2.setDelayTimeBeats(0.125 * (1 + random.nextInt(8)));
+			delay2.setFeedback(random.nextDouble() * 0.8);
+			delay2.setBalance(random.nextDouble() * 2 - 1);
+			ret = delay2;
+			break;
+		case 2:
+			Flanger flanger = new Flanger();
+			flanger.init(state, track);
+			flanger.setDelayTimeMillis(1 + random.nextDouble() * 10);
+			flanger.setAmplitude(random.nextDouble());
+			flanger.setFrequency(0.1 + random.nextDouble() * 2);
+			flanger.setFeedback(random.nextDouble() * 0.8);
+			flanger.setBalance(random.nextDouble() * 2 - 1);
+			ret = flanger;
+			break;
+		case 3:
+			Reverb reverb = new Reverb();
+			reverb.init(state, track);
+			reverb.setDecayTime(0.5 + random.nextDouble() * 1.5);
+			reverb.setBalance(random.nextDouble() * 2 - 1);
+			ret = reverb;
+			break;
+		case 4:
+			Equalizer eq = new Equalizer();
+			eq.init(state, track);
+			for (int b = 0; b < Equalizer.BAND_COUNT; b++) {
+				eq.setBandGainDB(b, Equalizer.MIN_GAIN_DB + random.nextDouble()
+						* (Equalizer.MAX_GAIN_DB - Equalizer.MIN_GAIN_DB));
+			}
+			ret = eq;
+			break;
+		default:
+			Dynamics dynamics = new Dynamics();
+			dynamics.init(state, track);
+			dynamics.setMode(random.nextBoolean() ? Dynamics.Mode.COMPRESSOR
+					: Dynamics.Mode.GATE);
+			dynamics.setDetector(random.nextBoolean() ? Dynamics.Detector.PEAK
+					: Dynamics.Detector.RMS);
+			dynamics.setThresholdDB(-40 + random.nextDouble() * 30);
+			dynamics.setRatio(2 + random.nextDouble() * 8);
+			if ((index / 6) % 2 == 0) {
+				dynamics.setSidechainSource(sidechainSource);
+			}
+			ret = dynamics;
+			break;
+		}
+		return ret;
+	}
+
+	/**
+	 * Set a random parameter of the effect to a random value, and create an
+	 * automation object for it.
+	 */
+	private static AutomationObject createEffectAutomation(AudioEffect effect,
+			Random random) {
+		if (effect instanceof Delay) {
+			Delay delay = (Delay) effect;
+			switch (random.nextInt(3)) {
+			case 0:
+				delay.setDelayTimeBeats(0.125 * (1 + random.nextInt(8)));
+				return new Delay.DelayTimeAutomation(delay);
+			case 1:
+				delay.setFeedback(random.nextDouble() * 0.8);
+				return new Delay.FeedbackAutomation(delay);
+			default:
+				delay.setBalance(random.nextDouble() * 2 - 1);
+				return new Delay.BalanceAutomation(delay);
+			}
+		} else if (effect instanceof Delay2) {
+			Delay2 delay2 = (Delay2) effect;
+			switch (random.nextInt(3)) {
+			case 0:
+				delay2.setDelayTimeBeats(0.125 * (1 + random.nextInt(8)));
+				return new Delay2.DelayTimeAutomation(delay2);
+			case 1:
+				delay2.setFeedback(random.nextDouble() * 0.8);
+				return new Delay2.FeedbackAutomation(delay2);
+			default:
+				delay2.setBalance(random.nextDouble() * 2 - 1);
+				return new Delay2.BalanceAutomation(delay2);
+			}
+		} else if (effect instanceof Flanger) {
+			Flanger flanger = (Flanger) effect;
+			switch (random.nextInt(5)) {
+			case 0:
+				flanger.setDelayTimeMillis(1 + random.nextDouble() * 10);
+				return new Flanger.DelayTimeAutomation(flanger);
+			case 1:
+				flanger.setAmplitude(random.nextDouble());
+				return new Flanger.AmplitudeAutomation(flanger);
+			case 2:
+				flanger.setFrequency(0.1 + random.nextDouble() * 2);
+				return new Flanger.FreqAutomation(flanger);
+			case 3:
+				flanger.setFeedback(random.nextDouble() * 0.8);
+				return new Flanger.FeedbackAutomation(flanger);
+			default:
+				flanger.setBalance(random.nextDouble() * 2 - 1);
+				return new Flanger.BalanceAutomation(flanger);
+			}
+		} else if (effect instanceof Reverb) {
+			Reverb reverb = (Reverb) effect;
+			reverb.setBalance(random.nextDouble() * 2 - 1);
+			return new Reverb.BalanceAutomation(reverb);
+		} else if (effect instanceof Equalizer) {
+			Equalizer eq = (Equalizer) effect;
+			int band = random.nextInt(Equalizer.BAND_COUNT);
+			switch (random.nextInt(3)) {
+			case 0:
+				eq.setBandGainDB(band, Equalizer.MIN_GAIN_DB
+						+ random.nextDouble()
+						* (Equalizer.MAX_GAIN_DB - Equalizer.MIN_GAIN_DB));
+				return new Equalizer.BandGainAutomation(eq, band);
+			case 1:
+				// logarithmically distributed
+				eq.setBandFrequency(band, Equalizer.MIN_FREQUENCY
+						* Math.pow(Equalizer.MAX_FREQUENCY
+								/ Equalizer.MIN_FREQUENCY, random.nextDouble()));
+				return new Equalizer.BandFrequencyAutomation(eq, band);
+			default:
+				eq.setBandQ(band, 0.5 + random.nextDouble() * 4);
+				return new Equalizer.BandQAutomation(eq, band);
+			}
+		}
+		Dynamics dynamics = (Dynamics) effect;
+		if (random.nextBoolean()) {
+			dynamics.setThresholdDB(-40 + random.nextDouble() * 30);
+			return new Dynamics.ThresholdAutomation(dynamics);
+		}
+		dynamics.setMakeupDB(random.nextDouble() * 6);
+		return new Dynamics.MakeupAutomation(dynamics);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.util.FatalExceptionListener#fatalExceptionOccured(java.lang.Throwable,
+	 *      java.lang.String)
+	 */
+	public void fatalExceptionOccured(Throwable t, String context) {
+		Debug.error(context);
+		Debug.error(t);
+	}
+
+	/**
+	 * Parse the generator options from the command line.
+	 *
+	 * @param args the command line
+	 * @param index the index of the option in args
+	 * @return the index of the next option, or -1 if args[index] is not a
+	 *         generator option
+	 */
+	int parseOption(String[] args, int index) {
+		String opt = args[index];
+		if (index + 1 >= args.length) {
+			return -1;
+		}
+		String val = args[index + 1];
+		if (opt.equals("-tracks")) {
+			setTrackCount(Integer.parseInt(val));
+		} else if (opt.equals("-regions")) {
+			setRegionsPerTrack(Integer.parseInt(val));
+		} else if (opt.equals("-automation")) {
+			setAutomationPerSecond(Integer.parseInt(val));
+		} else if (opt.equals("-effects")) {
+			setEffectInterval(Integer.parseInt(val));
+		} else if (opt.equals("-sends")) {
+			setSendInterval(Integer.parseInt(val));
+		} else if (opt.equals("-sources")) {
+			setSourceCount(Integer.parseInt(val));
+		} else if (opt.equals("-seconds")) {
+			setSourceSeconds(Double.parseDouble(val));
+		} else if (opt.equals("-seed")) {
+			setSeed(Long.parseLong(val));
+		} else {
+			return -1;
+		}
+		return index + 2;
+	}
+
+	/** the usage string of the generator options */
+	static final String OPTIONS_USAGE = "[-tracks n] [-regions n] "
+			+ "[-automation n] [-effects n] [-sends n] [-sources n] [-seconds n] "
+			+ "[-seed n]";
+
+	/**
+	 * Generate a project file.
+	 */
+	public static void main(String[] args) {
+		Debug.DEBUG = false;
+		ProjectGenerator gen = new ProjectGenerator();
+		File file = null;
+		try {
+			int i = 0;
+			while (i < args.length) {
+				int next = gen.parseOption(args, i);
+				if (next < 0) {
+					file = new File(args[i]);
+					i++;
+				} else {
+					i = next;
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			file = null;
+		}
+		if (file == null) {
+			System.out.println("Usage: ProjectGenerator " + OPTIONS_USAGE
+					+ " outputFile");
+			System.exit(1);
+		}
+		try {
+			gen.generate(file);
+			System.out.println("Generated " + file + " (" + gen.getDescription()
+					+ ")");
+		} catch (Throwable t) {
+			Debug.error(t);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+}
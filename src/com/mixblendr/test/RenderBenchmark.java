@@ -0,0 +1,381 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.mixblendr.audio.*;
+import com.mixblendr.util.Debug;
+import com.mixblendr.util.FatalExceptionListener;
+
+/**
+ * End-to-end regression benchmark: generates projects of increasing size with
+ * ProjectGenerator, loads each one with AudioMixer.xmlImport(), and renders it
+ * offline to 16-bit PCM. For every project, the load time, the peak heap
+ * usage, the render speed as multiple of real time, and a CRC32 checksum of
+ * the rendered audio are recorded. Loading and rendering is repeated with a
+ * new player instance to verify that the output is deterministic. The load
+ * time is taken from the first run, the render speed is the best of all
+ * runs.
+ * <p>
+ * The results can be saved to a properties file and compared to a previously
+ * saved baseline: a different checksum is reported as correctness
+ * regression, a render speed or load time worse than the tolerance as
+ * performance regression. The exit code is 1 if any regression was found.
+ * <p>
+ * Usage: RenderBenchmark [-dir directory] [-runs n] [-baseline file] [-save
+ * file] [-tolerance fraction] [generator options]. If generator options are
+ * given, only that project is benchmarked, otherwise a small, medium, and
+ * large project.
+ *
+ * @author Florian Bomers
+ */
+public class RenderBenchmark implements FatalExceptionListener {
+
+	/** default number of renders per project */
+	public static final int DEFAULT_RUNS = 3;
+
+	/** default allowed deviation of timing results from the baseline */
+	public static final double DEFAULT_TOLERANCE = 0.25;
+
+	/** the result of benchmarking one project */
+	public static class Result {
+		String name;
+		double loadMillis;
+		double peakHeapMB;
+		double speed;
+		long checksum;
+		double durationSeconds;
+		boolean deterministic = true;
+
+		/** @return the name of the project */
+		public String getName() {
+			return name;
+		}
+
+		/** @return the time to load the project and its audio files */
+		public double getLoadMillis() {
+			return loadMillis;
+		}
+
+		/** @return the peak heap usage during load and render */
+		public double getPeakHeapMB() {
+			return peakHeapMB;
+		}
+
+		/** @return the best render speed as multiple of real time */
+		public double getSpeed() {
+			return speed;
+		}
+
+		/** @return the CRC32 checksum of the rendered audio */
+		public long getChecksum() {
+			return checksum;
+		}
+
+		/** @return true if all renders resulted in the same checksum */
+		public boolean isDeterministic() {
+			return deterministic;
+		}
+
+		/** store this result in props */
+		void store(Properties props) {
+			props.setProperty(name + ".loadMillis", String.valueOf(loadMillis));
+			props.setProperty(name + ".peakHeapMB", String.valueOf(peakHeapMB));
+			props.setProperty(name + ".speed", String.valueOf(speed));
+			props.setProperty(name + ".checksum", Long.toHexString(checksum));
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%-24s %7.1fs audio, load %8.1fms, heap %7.1fMB, %7.1fx real time, crc %08x%s",
+					name, durationSeconds, loadMillis, peakHeapMB, speed,
+					checksum, deterministic ? "" : " NOT DETERMINISTIC");
+		}
+	}
+
+	private int runs = DEFAULT_RUNS;
+
+	private double tolerance = DEFAULT_TOLERANCE;
+
+	/**
+	 * Generate, load, and render the project.
+	 *
+	 * @param gen the generator with the project parameters
+	 * @param dir the directory for the project files
+	 * @return the result
+	 * @throws Exception on error
+	 */
+	public Result benchmark(ProjectGenerator gen, File dir) throws Exception {
+		File projectFile = new File(dir, gen.getDescription()
+				+ ProjectGenerator.PROJECT_EXTENSION);
+		gen.generate(projectFile);
+
+		Result ret = new Result();
+		ret.name = gen.getDescription();
+		resetPeakHeap();
+
+		for (int run = 0; run < runs; run++) {
+			// use a new player for every run, so that no state is carried over
+			// from the previous run, e.g. in the effects
+			AudioPlayer player = new AudioPlayer(this);
+			player.init();
+			try {
+				AudioMixer mixer = player.getMixer();
+				// load
+				long start = System.nanoTime();
+				mixer.xmlImport(projectFile);
+				waitForAudioFiles(mixer);
+				if (run == 0) {
+					ret.loadMillis = (System.nanoTime() - start) / 1000000.0;
+				}
+
+				// render
+				long sampleCount = mixer.getDurationSamples();
+				ret.durationSeconds = sampleCount
+						/ player.getState().getSampleRate();
+				player.setPositionSamples(0);
+				CRC32 crc = new CRC32();
+				OutputStream out = new CheckedOutputStream(
+						new NullOutputStream(), crc);
+				Renderer renderer = new Renderer(player.getState(), out);
+				start = System.nanoTime();
+				renderer.render(mixer, sampleCount);
+				double seconds = (System.nanoTime() - start) / 1000000000.0;
+				double speed = ret.durationSeconds / seconds;
+				if (speed > ret.speed) {
+					ret.speed = speed;
+				}
+				if (run > 0 && crc.getValue() != ret.checksum) {
+					ret.deterministic = false;
+				}
+				ret.checksum = crc.getValue();
+			} finally {
+				player.close();
+			}
+		}
+		ret.peakHeapMB = getPeakHeap() / 1048576.0;
+		return ret;
+	}
+
+	/**
+	 * wait until all audio files referenced by the regions, and the impulse
+	 * responses of the reverbs are loaded
+	 */
+	private static void waitForAudioFiles(AudioMixer mixer) throws Exception {
+		for (int i = 0; i < mixer.getTrackCount(); i++) {
+			for (AudioRegion region : mixer.getTrack(i).getPlaylist().getAudioRegions()) {
+				AudioFile af = region.getAudioFile();
+				if (af != null) {
+					AudioBenchmarks.waitForLoaded(af);
+				}
+			}
+		}
+		AudioBenchmarks.waitForReverbs(mixer);
+	}
+
+	/** run the garbage collector and reset the peak usage of the heap */
+	private static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/** @return the sum of the peak usage of all heap pools in bytes */
+	private static long getPeakHeap() {
+		long ret = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				ret += pool.getPeakUsage().getUsed();
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Compare the result with the baseline.
+	 *
+	 * @return a list of regressions, empty if none
+	 */
+	List<String> compare(Result r, Properties baseline) {
+		List<String> ret = new ArrayList<String>();
+		if (!r.deterministic) {
+			ret.add(r.name + ": rendering is not deterministic");
+		}
+		String val = baseline.getProperty(r.name + ".checksum");
+		if (val == null) {
+			return ret;
+		}
+		if (Long.parseLong(val, 16) != r.checksum) {
+			ret.add(r.name + ": checksum " + Long.toHexString(r.checksum)
+					+ " differs from baseline " + val);
+		}
+		double baseSpeed = Double.parseDouble(baseline.getProperty(r.name
+				+ ".speed", "0"));
+		if (r.speed < baseSpeed * (1 - tolerance)) {
+			ret.add(String.format(
+					"%s: render speed %.1fx is slower than baseline %.1fx",
+					r.name, r.speed, baseSpeed));
+		}
+		double baseLoad = Double.parseDouble(baseline.getProperty(r.name
+				+ ".loadMillis", "0"));
+		if (baseLoad > 0 && r.loadMillis > baseLoad * (1 + tolerance)) {
+			ret.add(String.format(
+					"%s: load time %.1fms is slower than baseline %.1fms",
+					r.name, r.loadMillis, baseLoad));
+		}
+		return ret;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.mixblendr.util.FatalExceptionListener#fatalExceptionOccured(java.lang.Throwable,
+	 *      java.lang.String)
+	 */
+	public void fatalExceptionOccured(Throwable t, String context) {
+		Debug.error(context);
+		Debug.error(t);
+	}
+
+	/** an output stream discarding everything */
+	private static class NullOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+			// nothing
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// nothing
+		}
+	}
+
+	/** @return the default set of projects: small, medium, large */
+	private static List<ProjectGenerator> createDefaultProjects() {
+		List<ProjectGenerator> ret = new ArrayList<ProjectGenerator>();
+		int[][] sizes = {
+				// tracks, regions per track, automation per second
+				{ 4, 5, 5 }, { 16, 20, 20 }, { 48, 30, 50 }
+		};
+		for (int[] size : sizes) {
+			ProjectGenerator gen = new ProjectGenerator();
+			gen.setTrackCount(size[0]);
+			gen.setRegionsPerTrack(size[1]);
+			gen.setAutomationPerSecond(size[2]);
+			ret.add(gen);
+		}
+		return ret;
+	}
+
+	/**
+	 * Run the benchmark.
+	 */
+	public static void main(String[] args) {
+		Debug.DEBUG = false;
+		RenderBenchmark rb = new RenderBenchmark();
+		File dir = null;
+		File baselineFile = null;
+		File saveFile = null;
+		ProjectGenerator custom = new ProjectGenerator();
+		boolean hasCustom = false;
+		try {
+			int i = 0;
+			while (i < args.length) {
+				int next = custom.parseOption(args, i);
+				if (next >= 0) {
+					hasCustom = true;
+					i = next;
+					continue;
+				}
+				String opt = args[i];
+				String val = args[i + 1];
+				if (opt.equals("-dir")) {
+					dir = new File(val);
+				} else if (opt.equals("-runs")) {
+					rb.runs = Integer.parseInt(val);
+				} else if (opt.equals("-baseline")) {
+					baselineFile = new File(val);
+				} else if (opt.equals("-save")) {
+					saveFile = new File(val);
+				} else if (opt.equals("-tolerance")) {
+					rb.tolerance = Double.parseDouble(val);
+				} else {
+					throw new IllegalArgumentException(opt);
+				}
+				i += 2;
+			}
+		} catch (Exception e) {
+			System.out.println("Usage: RenderBenchmark [-dir directory] "
+					+ "[-runs n] [-baseline file] [-save file] "
+					+ "[-tolerance fraction] "
+					+ ProjectGenerator.OPTIONS_USAGE);
+			System.exit(1);
+		}
+		int exitCode = 0;
+		try {
+			if (dir == null) {
+				dir = File.createTempFile("mixblendr-bench", "");
+				dir.delete();
+				dir.mkdirs();
+				dir.deleteOnExit();
+			}
+			List<ProjectGenerator> projects;
+			if (hasCustom) {
+				projects = new ArrayList<ProjectGenerator>();
+				projects.add(custom);
+			} else {
+				projects = createDefaultProjects();
+			}
+			Properties baseline = new Properties();
+			if (baselineFile != null) {
+				InputStream is = new FileInputStream(baselineFile);
+				try {
+					baseline.load(is);
+				} finally {
+					is.close();
+				}
+			}
+			Properties results = new Properties();
+			List<String> regressions = new ArrayList<String>();
+			for (ProjectGenerator gen : projects) {
+				Result r = rb.benchmark(gen, dir);
+				System.out.println(r);
+				r.store(results);
+				regressions.addAll(rb.compare(r, baseline));
+			}
+			if (saveFile != null) {
+				OutputStream os = new FileOutputStream(saveFile);
+				try {
+					results.store(os, "mixblendr render benchmark, Java "
+							+ System.getProperty("java.version"));
+				} finally {
+					os.close();
+				}
+			}
+			for (String s : regressions) {
+				System.out.println("REGRESSION: " + s);
+			}
+			if (!regressions.isEmpty()) {
+				exitCode = 1;
+			}
+		} catch (Throwable t) {
+			Debug.error(t);
+			exitCode = 1;
+		}
+		System.exit(exitCode);
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package com.mixblendr.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+/**
+ * Generator for reproducible test audio: a few detuned sine partials with a
+ * slow amplitude modulation and some noise, so that the signal is neither
+ * silent nor trivially compressible. The same seed always generates the same
+ * audio data.
+ *
+ * @author Florian Bomers
+ */
+public class SyntheticAudio {
+
+	/** the peak amplitude of the generated audio */
+	public static final float AMPLITUDE = 0.5f;
+
+	/** the number of sine partials */
+	private static final int PARTIALS = 4;
+
+	private SyntheticAudio() {
+		// no instances
+	}
+
+	/**
+	 * Create a buffer filled with synthetic audio.
+	 *
+	 * @param channels the number of channels
+	 * @param sampleCount the number of samples per channel
+	 * @param sampleRate the sample rate
+	 * @param seed the seed for the random frequencies and noise
+	 * @return the new buffer
+	 */
+	public static FloatSampleBuffer createBuffer(int channels, int sampleCount,
+			float sampleRate, long seed) {
+		FloatSampleBuffer ret = new FloatSampleBuffer(channels, sampleCount,
+				sampleRate);
+		fill(ret, seed);
+		return ret;
+	}
+
+	/**
+	 * Fill the entire buffer with synthetic audio.
+	 *
+	 * @param buffer the buffer to fill
+	 * @param seed the seed for the random frequencies and noise
+	 */
+	public static void fill(FloatSampleBuffer buffer, long seed) {
+		Random random = new Random(seed);
+		double sampleRate = buffer.getSampleRate();
+		int sampleCount = buffer.getSampleCount();
+		for (int c = 0; c < buffer.getChannelCount(); c++) {
+			double[] freq = new double[PARTIALS];
+			for (int p = 0; p < PARTIALS; p++) {
+				// somewhere between 55Hz and 3.5kHz
+				freq[p] = 55.0 * Math.pow(2, random.nextDouble() * 6.0)
+						* 2 * Math.PI / sampleRate;
+			}
+			double modFreq = (0.2 + random.nextDouble()) * 2 * Math.PI
+					/ sampleRate;
+			float[] data = buffer.getChannel(c);
+			for (int i = 0; i < sampleCount; i++) {
+				double v = 0;
+				for (int p = 0; p < PARTIALS; p++) {
+					v += Math.sin(freq[p] * i);
+				}
+				v = v / PARTIALS * (0.6 + 0.3 * Math.sin(modFreq * i));
+				v += (random.nextDouble() - 0.5) * 0.1;
+				data[i] = (float) (v * AMPLITUDE);
+			}
+		}
+	}
+
+	/**
+	 * Create a 16-bit wave file with synthetic audio.
+	 *
+	 * @param file the file to write
+	 * @param channels the number of channels
+	 * @param sampleRate the sample rate
+	 * @param seconds the duration of the file
+	 * @param seed the seed for the random frequencies and noise
+	 * @return file
+	 * @throws IOException if the file cannot be written
+	 */
+	public static File createWaveFile(File file, int channels,
+			float sampleRate, double seconds, long seed) throws IOException {
+		int sampleCount = (int) (seconds * sampleRate);
+		FloatSampleBuffer buffer = createBuffer(channels, sampleCount,
+				sampleRate, seed);
+		AudioFormat format = new AudioFormat(sampleRate, 16, channels, true,
+				false);
+		byte[] data = new byte[buffer.getByteArrayBufferSize(format)];
+		buffer.convertToByteArray(data, 0, format);
+		AudioInputStream ais = new AudioInputStream(new ByteArrayInputStream(
+				data), format, sampleCount);
+		AudioSystem.write(ais, AudioFileFormat.Type.WAVE, file);
+		return file;
+	}
+
+	/**
+	 * Create a temporary 16-bit wave file with synthetic audio. The file is
+	 * deleted when the VM exits.
+	 *
+	 * @see #createWaveFile(File, int, float, double, long)
+	 */
+	public static File createTempWaveFile(int channels, float sampleRate,
+			double seconds, long seed) throws IOException {
+		File file = File.createTempFile("mixblendr-synth", ".wav");
+		file.deleteOnExit();
+		return createWaveFile(file, channels, sampleRate, seconds, seed);
+	}
+}